@@ -0,0 +1,98 @@
+package eu.righettod.poc.detector;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream failing once more bytes than a limit are read.<br>
+ * Used to read the parts of a ZIP archive: The size declared by the central directory is controlled by the author of the archive and is not
+ * enforced when the part is inflated, so only the count of bytes really read protect against a part used as a ZIP bomb.<br>
+ * Not thread-safe, like the stream it wraps.
+ */
+final class BoundedInputStream extends FilterInputStream {
+
+    /**
+     * Maximum count of bytes read
+     */
+    private final long limit;
+
+    /**
+     * Count of bytes read
+     */
+    private long count;
+
+    /**
+     * Constructor
+     *
+     * @param in    Stream to read
+     * @param limit Maximum count of bytes read
+     */
+    BoundedInputStream(InputStream in, long limit) {
+        super(in);
+        this.limit = limit;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.FilterInputStream#read()
+     */
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            this.count(1);
+        }
+        return b;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.FilterInputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            this.count(n);
+        }
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.FilterInputStream#skip(long)
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            this.count(skipped);
+        }
+        return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.FilterInputStream#markSupported()
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * @param n Count of bytes just read
+     * @throws IOException If the limit is exceeded
+     */
+    private void count(long n) throws IOException {
+        this.count += n;
+        if (this.count > this.limit) {
+            throw new IOException("Content bigger than the limit of " + this.limit + " bytes !");
+        }
+    }
+}
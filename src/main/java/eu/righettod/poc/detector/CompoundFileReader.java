@@ -0,0 +1,646 @@
+package eu.righettod.poc.detector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reader of the directory of an OLE2 Compound File Binary (legacy DOC/XLS/PPT formats).<br>
+ * The file is read through a file channel with positional reads and the reader only walks the sector chains of the FAT and of the
+ * directory: The content of the streams is never loaded, so the names and the hierarchy of the storages/streams can be obtained without
+ * loading the document.<br>
+ * The file is not memory-mapped, so it can be moved or deleted as soon as the reader is closed (a live mapping prevent it on Windows).<br>
+ * Any inconsistency (invalid sector, loop in a chain or in the directory tree...) raise an exception in order to let the caller fallback on a full
+ * parser.<br>
+ * Not thread-safe: The reader must be closed by the caller.
+ *
+ * @see "https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb"
+ */
+public final class CompoundFileReader implements Closeable {
+
+    /**
+     * Size of the header
+     */
+    private static final int HEADER_SIZE = 512;
+
+    /**
+     * Size of a directory entry
+     */
+    private static final int DIRECTORY_ENTRY_SIZE = 128;
+
+    /**
+     * Count of FAT sector locations stored in the header
+     */
+    private static final int HEADER_DIFAT_ENTRIES = 109;
+
+    /**
+     * Maximum count of directory entries accepted, protect against crafted directory chains
+     */
+    private static final int MAX_DIRECTORY_ENTRIES = 64 * 1024;
+
+    /**
+     * Size of a sector of the mini stream
+     */
+    private static final int MINI_SECTOR_SIZE = 64;
+
+    /**
+     * Special sector values
+     */
+    private static final int END_OF_CHAIN = 0xFFFFFFFE;
+    private static final int FREE_SECTOR = 0xFFFFFFFF;
+    private static final int NO_STREAM = 0xFFFFFFFF;
+
+    /**
+     * Object types of a directory entry
+     */
+    private static final int TYPE_STORAGE = 1;
+    private static final int TYPE_STREAM = 2;
+    private static final int TYPE_ROOT = 5;
+
+    /**
+     * Signature of a compound file
+     */
+    private static final byte[] SIGNATURE = {(byte) 0xD0, (byte) 0xCF, (byte) 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, (byte) 0x1A, (byte) 0xE1};
+
+    /**
+     * Channel of the file
+     */
+    private final FileChannel channel;
+
+    /**
+     * Size of the file
+     */
+    private final long fileSize;
+
+    /**
+     * Size of a sector
+     */
+    private final int sectorSize;
+
+    /**
+     * Sector shift (sector size is 2^shift)
+     */
+    private final int sectorShift;
+
+    /**
+     * Count of sectors present in the file
+     */
+    private final int sectorsCount;
+
+    /**
+     * Content of the FAT: Next sector of each sector
+     */
+    private final int[] fat;
+
+    /**
+     * Streams smaller than this size are stored into the mini stream
+     */
+    private final long miniStreamCutoff;
+
+    /**
+     * Content of the mini FAT: Next mini sector of each mini sector
+     */
+    private final int[] miniFat;
+
+    /**
+     * Sectors of the mini stream, in order
+     */
+    private final int[] miniStreamSectors;
+
+    /**
+     * Storages and streams of the file, in the order of the directory tree walk
+     */
+    private final List<Entry> entries;
+
+    /**
+     * Storages and streams by upper case path
+     */
+    private final Map<String, Entry> entriesByPath;
+
+    /**
+     * Constructor
+     *
+     * @param channel Channel of the file, closed by the reader
+     * @throws IOException If the content is not a valid compound file
+     */
+    private CompoundFileReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        if (this.fileSize < HEADER_SIZE) {
+            throw new IOException("Content too small to be an OLE2 compound file !");
+        }
+        ByteBuffer header = this.read(0, HEADER_SIZE);
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            if (header.get(i) != SIGNATURE[i]) {
+                throw new IOException("Content is not an OLE2 compound file !");
+            }
+        }
+        int majorVersion = header.getShort(0x1A) & 0xFFFF;
+        this.sectorShift = header.getShort(0x1E) & 0xFFFF;
+        if (!((majorVersion == 3 && this.sectorShift == 9) || (majorVersion == 4 && this.sectorShift == 12))) {
+            throw new IOException(String.format("Unsupported OLE2 compound file version (version: %s / sector shift: %s) !", majorVersion, this.sectorShift));
+        }
+        this.sectorSize = 1 << this.sectorShift;
+        long sectors = (this.fileSize - this.sectorSize + this.sectorSize - 1) / this.sectorSize;
+        if (sectors > Integer.MAX_VALUE) {
+            throw new IOException("File too large to be an OLE2 compound file !");
+        }
+        this.sectorsCount = (int) sectors;
+        this.fat = this.readFat(header);
+        this.miniStreamCutoff = header.getInt(0x38) & 0xFFFFFFFFL;
+        List<RawEntry> rawEntries = this.readDirectory(header.getInt(0x30), majorVersion);
+        this.miniFat = this.readChainContent(header.getInt(0x3C));
+        this.miniStreamSectors = this.readChain(rawEntries.get(0).startSector, rawEntries.get(0).size);
+        this.entries = Collections.unmodifiableList(this.walkDirectoryTree(rawEntries));
+        Map<String, Entry> byPath = new HashMap<>();
+        for (Entry entry : this.entries) {
+            byPath.put(entry.getPath().toUpperCase(Locale.US), entry);
+        }
+        this.entriesByPath = Collections.unmodifiableMap(byPath);
+    }
+
+    /**
+     * Open a compound file and read its directory.
+     *
+     * @param f File to read
+     * @return The reader, to close by the caller
+     * @throws IOException If the file cannot be read or is not a valid compound file
+     */
+    public static CompoundFileReader open(File f) throws IOException {
+        FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try {
+            return new CompoundFileReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * @return The storages and streams of the file (the root storage is excluded)
+     */
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Get a storage or a stream from its path, comparison is case insensitive like in the compound file format.
+     *
+     * @param path Path of the entry from the root storage, using '/' as separator (ex: "Macros/VBA")
+     * @return The entry or null if not found
+     */
+    public Entry getEntry(String path) {
+        return this.entriesByPath.get(path.toUpperCase(Locale.US));
+    }
+
+    /**
+     * Read a part of a stream, without reading the rest of the stream.<br>
+     * Streams smaller than the mini stream cutoff are read from the sectors of the mini stream.
+     *
+     * @param entry    Stream to read
+     * @param position Position, in the stream, of the first byte to read
+     * @param buffer   Buffer receiving the bytes
+     * @return The count of bytes read, lower than the buffer size when the end of the stream is reached
+     * @throws IOException If the entry is a storage or if its sectors chain is not consistent
+     */
+    public int readStream(Entry entry, long position, byte[] buffer) throws IOException {
+        if (entry.isStorage()) {
+            throw new IOException("Only the streams can be read !");
+        }
+        boolean mini = entry.getSize() < this.miniStreamCutoff;
+        int unitSize = mini ? MINI_SECTOR_SIZE : this.sectorSize;
+        int[] chain = mini ? this.miniFat : this.fat;
+        int unitsCount = mini ? this.miniFat.length : this.sectorsCount;
+        int length = (int) Math.max(0, Math.min(buffer.length, entry.getSize() - position));
+        int sector = entry.getStartSector();
+        int chainLength = 0;
+        // Skip the sectors preceding the position
+        for (long skipped = position / unitSize; skipped > 0; skipped--) {
+            if (++chainLength > unitsCount) {
+                throw new IOException("Loop detected in the stream chain !");
+            }
+            sector = next(chain, checkSector(sector, unitsCount));
+        }
+        int offsetInSector = (int) (position % unitSize);
+        int count = 0;
+        while (count < length) {
+            if (++chainLength > unitsCount) {
+                throw new IOException("Loop detected in the stream chain !");
+            }
+            checkSector(sector, unitsCount);
+            int chunk = Math.min(length - count, unitSize - offsetInSector);
+            long offset = mini ? this.miniSectorOffset(sector) : this.sectorOffset(sector);
+            if (offset + offsetInSector + chunk > this.fileSize) {
+                throw new IOException("Stream sector beyond the end of the file !");
+            }
+            this.read(offset + offsetInSector, ByteBuffer.wrap(buffer, count, chunk));
+            count += chunk;
+            offsetInSector = 0;
+            if (count < length) {
+                sector = next(chain, sector);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Read the FAT from the FAT sectors listed by the header and by the DIFAT sectors chain.
+     *
+     * @param header Header of the file
+     * @return The content of the FAT
+     * @throws IOException If the DIFAT is not consistent
+     */
+    private int[] readFat(ByteBuffer header) throws IOException {
+        int fatSectorsCount = header.getInt(0x2C);
+        if (fatSectorsCount < 0 || fatSectorsCount > this.sectorsCount) {
+            throw new IOException("Invalid count of FAT sectors !");
+        }
+        int[] locations = new int[fatSectorsCount];
+        int count = 0;
+        for (int i = 0; i < HEADER_DIFAT_ENTRIES && count < fatSectorsCount; i++) {
+            locations[count++] = checkSector(header.getInt(0x4C + (i * 4)), this.sectorsCount);
+        }
+        int difatSector = header.getInt(0x44);
+        int difatSectorsCount = 0;
+        int entriesPerDifatSector = (this.sectorSize / 4) - 1;
+        while (count < fatSectorsCount) {
+            if (++difatSectorsCount > this.sectorsCount) {
+                throw new IOException("Loop detected in the DIFAT chain !");
+            }
+            ByteBuffer difat = this.readSector(checkSector(difatSector, this.sectorsCount));
+            for (int i = 0; i < entriesPerDifatSector && count < fatSectorsCount; i++) {
+                locations[count++] = checkSector(difat.getInt(i * 4), this.sectorsCount);
+            }
+            difatSector = difat.getInt(entriesPerDifatSector * 4);
+        }
+        int entriesPerSector = this.sectorSize / 4;
+        int[] content = new int[fatSectorsCount * entriesPerSector];
+        for (int i = 0; i < fatSectorsCount; i++) {
+            this.readSector(locations[i]).asIntBuffer().get(content, i * entriesPerSector, entriesPerSector);
+        }
+        return content;
+    }
+
+    /**
+     * Read the sectors of a chain.
+     *
+     * @param firstSector First sector of the chain
+     * @param size        Size of the content of the chain
+     * @return The sectors, in order
+     * @throws IOException If the chain is not consistent or shorter than the size
+     */
+    private int[] readChain(int firstSector, long size) throws IOException {
+        long sectors = (size + this.sectorSize - 1) / this.sectorSize;
+        if (sectors > this.sectorsCount) {
+            throw new IOException("Chain bigger than the file !");
+        }
+        int[] chain = new int[(int) sectors];
+        int sector = firstSector;
+        for (int i = 0; i < chain.length; i++) {
+            chain[i] = checkSector(sector, this.sectorsCount);
+            sector = next(this.fat, sector);
+        }
+        return chain;
+    }
+
+    /**
+     * Read the content of a chain as little endian integers, the chain being followed up to its end.
+     *
+     * @param firstSector First sector of the chain
+     * @return The content, empty if the chain is empty
+     * @throws IOException If the chain is not consistent
+     */
+    private int[] readChainContent(int firstSector) throws IOException {
+        List<int[]> sectors = new ArrayList<>();
+        int sector = firstSector;
+        while (sector != END_OF_CHAIN && sector != FREE_SECTOR) {
+            if (sectors.size() >= this.sectorsCount) {
+                throw new IOException("Loop detected in the mini FAT chain !");
+            }
+            int[] values = new int[this.sectorSize / 4];
+            this.readSector(checkSector(sector, this.sectorsCount)).asIntBuffer().get(values);
+            sectors.add(values);
+            sector = next(this.fat, sector);
+        }
+        int entriesPerSector = this.sectorSize / 4;
+        int[] content = new int[sectors.size() * entriesPerSector];
+        for (int i = 0; i < sectors.size(); i++) {
+            System.arraycopy(sectors.get(i), 0, content, i * entriesPerSector, entriesPerSector);
+        }
+        return content;
+    }
+
+    /**
+     * Read all the directory entries following the directory sectors chain.
+     *
+     * @param firstSector  First sector of the directory
+     * @param majorVersion Major version of the compound file
+     * @return The raw entries indexed by their identifier
+     * @throws IOException If the directory is not consistent
+     */
+    private List<RawEntry> readDirectory(int firstSector, int majorVersion) throws IOException {
+        List<RawEntry> rawEntries = new ArrayList<>();
+        int entriesPerSector = this.sectorSize / DIRECTORY_ENTRY_SIZE;
+        int sector = firstSector;
+        int chainLength = 0;
+        while (sector != END_OF_CHAIN) {
+            if (++chainLength > this.sectorsCount || rawEntries.size() >= MAX_DIRECTORY_ENTRIES) {
+                throw new IOException("Loop detected in the directory chain !");
+            }
+            ByteBuffer directory = this.readSector(checkSector(sector, this.sectorsCount));
+            for (int i = 0; i < entriesPerSector; i++) {
+                rawEntries.add(readDirectoryEntry(directory, i * DIRECTORY_ENTRY_SIZE, majorVersion));
+            }
+            sector = next(this.fat, sector);
+        }
+        if (rawEntries.isEmpty() || rawEntries.get(0).type != TYPE_ROOT) {
+            throw new IOException("Root storage not found !");
+        }
+        return rawEntries;
+    }
+
+    /**
+     * Read a directory entry.
+     *
+     * @param directory    Sector of the directory
+     * @param offset       Offset of the entry in the sector
+     * @param majorVersion Major version of the compound file
+     * @return The raw entry
+     */
+    private static RawEntry readDirectoryEntry(ByteBuffer directory, int offset, int majorVersion) {
+        RawEntry rawEntry = new RawEntry();
+        int nameLength = directory.getShort(offset + 0x40) & 0xFFFF;
+        // Length include the terminal null char and is limited to 32 UTF-16 chars
+        if (nameLength >= 2 && nameLength <= 64) {
+            byte[] name = new byte[nameLength - 2];
+            for (int i = 0; i < name.length; i++) {
+                name[i] = directory.get(offset + i);
+            }
+            rawEntry.name = new String(name, StandardCharsets.UTF_16LE);
+        } else {
+            rawEntry.name = "";
+        }
+        rawEntry.type = directory.get(offset + 0x42) & 0xFF;
+        rawEntry.leftSibling = directory.getInt(offset + 0x44);
+        rawEntry.rightSibling = directory.getInt(offset + 0x48);
+        rawEntry.child = directory.getInt(offset + 0x4C);
+        rawEntry.startSector = directory.getInt(offset + 0x74);
+        // Only the low 32 bits of the size are significant in version 3
+        long lowSize = directory.getInt(offset + 0x78) & 0xFFFFFFFFL;
+        rawEntry.size = (majorVersion == 3) ? lowSize : (lowSize | ((long) directory.getInt(offset + 0x7C) << 32));
+        return rawEntry;
+    }
+
+    /**
+     * Walk the red-black trees of the directory from the root storage in order to compute the path of each storage/stream.
+     *
+     * @param rawEntries Raw entries indexed by their identifier
+     * @return The storages and streams
+     * @throws IOException If the directory tree is not consistent
+     */
+    private List<Entry> walkDirectoryTree(List<RawEntry> rawEntries) throws IOException {
+        List<Entry> result = new ArrayList<>();
+        boolean[] visited = new boolean[rawEntries.size()];
+        visited[0] = true;
+        // Pending nodes: identifier of the node + path of the parent storage
+        Deque<Object[]> pending = new ArrayDeque<>();
+        pending.push(new Object[]{rawEntries.get(0).child, ""});
+        while (!pending.isEmpty()) {
+            Object[] node = pending.pop();
+            int id = (Integer) node[0];
+            String parentPath = (String) node[1];
+            if (id == NO_STREAM) {
+                continue;
+            }
+            if (id < 0 || id >= rawEntries.size() || visited[id]) {
+                throw new IOException("Invalid directory tree !");
+            }
+            visited[id] = true;
+            RawEntry rawEntry = rawEntries.get(id);
+            if (rawEntry.type != TYPE_STORAGE && rawEntry.type != TYPE_STREAM) {
+                throw new IOException("Invalid directory entry type !");
+            }
+            String path = parentPath.isEmpty() ? rawEntry.name : parentPath + "/" + rawEntry.name;
+            result.add(new Entry(rawEntry.name, path, rawEntry.type == TYPE_STORAGE, rawEntry.startSector, rawEntry.size));
+            pending.push(new Object[]{rawEntry.rightSibling, parentPath});
+            pending.push(new Object[]{rawEntry.leftSibling, parentPath});
+            if (rawEntry.type == TYPE_STORAGE) {
+                pending.push(new Object[]{rawEntry.child, path});
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the next sector of a chain.
+     *
+     * @param chain  Content of the FAT or of the mini FAT
+     * @param sector Current sector
+     * @return The next sector
+     * @throws IOException If the FAT do not cover the sector
+     */
+    private static int next(int[] chain, int sector) throws IOException {
+        if (sector < 0 || sector >= chain.length) {
+            throw new IOException("Sector not covered by the FAT !");
+        }
+        return chain[sector];
+    }
+
+    /**
+     * @param sector       Sector location
+     * @param sectorsCount Count of sectors present
+     * @return The sector location if it is a regular sector present
+     * @throws IOException If the sector is not a regular sector present
+     */
+    private static int checkSector(int sector, int sectorsCount) throws IOException {
+        if (sector < 0 || sector >= sectorsCount) {
+            throw new IOException(String.format("Invalid sector location %s !", sector == FREE_SECTOR ? "FREE" : Integer.toUnsignedString(sector)));
+        }
+        return sector;
+    }
+
+    /**
+     * @param sector Sector location
+     * @return Offset of the sector in the file
+     */
+    private long sectorOffset(int sector) {
+        return ((long) sector + 1) << this.sectorShift;
+    }
+
+    /**
+     * @param miniSector Mini sector location
+     * @return Offset of the mini sector in the file
+     * @throws IOException If the mini sector is beyond the end of the mini stream
+     */
+    private long miniSectorOffset(int miniSector) throws IOException {
+        long position = (long) miniSector * MINI_SECTOR_SIZE;
+        int index = (int) (position / this.sectorSize);
+        if (index >= this.miniStreamSectors.length) {
+            throw new IOException("Mini sector beyond the end of the mini stream !");
+        }
+        return this.sectorOffset(this.miniStreamSectors[index]) + (position % this.sectorSize);
+    }
+
+    /**
+     * Read a sector, bytes after the end of the file (truncated last sector) are read as zero.
+     *
+     * @param sector Sector location
+     * @return The little endian content of the sector
+     * @throws IOException If the sector cannot be read
+     */
+    private ByteBuffer readSector(int sector) throws IOException {
+        return this.read(this.sectorOffset(sector), this.sectorSize);
+    }
+
+    /**
+     * Read bytes of the file, bytes after the end of the file are read as zero.
+     *
+     * @param position Offset in the file
+     * @param length   Count of bytes
+     * @return The little endian bytes
+     * @throws IOException If the bytes cannot be read
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        this.read(position, buffer);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Fill a buffer with bytes of the file, bytes after the end of the file are left unchanged.
+     *
+     * @param position Offset in the file
+     * @param buffer   Buffer receiving the bytes
+     * @throws IOException If the bytes cannot be read
+     */
+    private void read(long position, ByteBuffer buffer) throws IOException {
+        long filePosition = position;
+        while (buffer.hasRemaining()) {
+            int count = this.channel.read(buffer, filePosition);
+            if (count < 0) {
+                break;
+            }
+            filePosition += count;
+        }
+    }
+
+    /**
+     * Storage or stream of a compound file.
+     */
+    public static final class Entry {
+
+        /**
+         * Name
+         */
+        private final String name;
+
+        /**
+         * Path from the root storage, using '/' as separator
+         */
+        private final String path;
+
+        /**
+         * Flag indicating that the entry is a storage
+         */
+        private final boolean storage;
+
+        /**
+         * First sector of the stream content
+         */
+        private final int startSector;
+
+        /**
+         * Size of the stream content
+         */
+        private final long size;
+
+        /**
+         * Constructor
+         *
+         * @param name        Name
+         * @param path        Path from the root storage
+         * @param storage     Flag indicating that the entry is a storage
+         * @param startSector First sector of the stream content
+         * @param size        Size of the stream content
+         */
+        Entry(String name, String path, boolean storage, int startSector, long size) {
+            this.name = name;
+            this.path = path;
+            this.storage = storage;
+            this.startSector = startSector;
+            this.size = size;
+        }
+
+        /**
+         * @return The name
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return The path from the root storage, using '/' as separator
+         */
+        public String getPath() {
+            return this.path;
+        }
+
+        /**
+         * @return TRUE if the entry is a storage, FALSE if it is a stream
+         */
+        public boolean isStorage() {
+            return this.storage;
+        }
+
+        /**
+         * @return The first sector of the stream content
+         */
+        int getStartSector() {
+            return this.startSector;
+        }
+
+        /**
+         * @return The size of the stream content
+         */
+        public long getSize() {
+            return this.size;
+        }
+    }
+
+    /**
+     * Directory entry as stored in the file.
+     */
+    private static final class RawEntry {
+        private String name;
+        private int type;
+        private int leftSibling;
+        private int rightSibling;
+        private int child;
+        private int startSector;
+        private long size;
+    }
+}
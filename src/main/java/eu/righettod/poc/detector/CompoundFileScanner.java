@@ -0,0 +1,284 @@
+package eu.righettod.poc.detector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Pre-scan of the legacy binary Office documents (OLE2 compound files) deciding, from the directory of the compound file, if it contains a
+ * VBA project or OLE objects:<br>
+ * <ul>
+ * <li>VBA project: "Macros" storage (Word) or "_VBA_PROJECT_CUR" storage (Excel) containing a "VBA" storage</li>
+ * <li>OLE objects: Children storages of the "ObjectPool" storage (Word) or "MBD*" storages containing a "\1Ole*" stream (Excel)</li>
+ * </ul>
+ * The directory entries are taken from the {@link ContentProfile}, the compound file is only opened again to read the structure of the Word
+ * document.<br>
+ * A Word document can be declared {@link PreScanVerdict#SAFE} only if its structure is consistent (FIB, piece table and text pieces inside
+ * the Word document stream), a corrupted document being left to the document parser; an Excel workbook only {@link PreScanVerdict#UNSAFE}
+ * because the OLE objects of a workbook can also be stored into the workbook stream.<br>
+ * Powerpoint presentations are not handled: The VBA project and the OLE objects are stored compressed into the "PowerPoint Document" stream
+ * and are not visible in the directory.<br>
+ * Thread-safe, no state is kept between two calls.
+ */
+public final class CompoundFileScanner {
+
+    /**
+     * LOGGER
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(CompoundFileScanner.class);
+
+    /**
+     * Name of the main stream of a Word document
+     */
+    private static final String WORD_DOCUMENT_STREAM = "WordDocument";
+
+    /**
+     * Size of the Word file information block (FIB) read: Up to the location of the piece table (fcClx/lcbClx)
+     */
+    private static final int FIB_SIZE = 0x01AA;
+
+    /**
+     * Offsets and expected values of the counts of the FIB parts (Word 97 or later)
+     */
+    private static final int FIB_CSW_OFFSET = 0x20;
+    private static final int FIB_CSW = 0x0E;
+    private static final int FIB_CSLW_OFFSET = 0x3E;
+    private static final int FIB_CSLW = 0x16;
+    private static final int FIB_CB_RG_FC_LCB_OFFSET = 0x98;
+    private static final int FIB_CB_RG_FC_LCB_WORD97 = 0x5D;
+
+    /**
+     * Offset of the count of characters of the main document (ccpText)
+     */
+    private static final int FIB_CCP_TEXT_OFFSET = 0x4C;
+
+    /**
+     * Offsets of the location of the piece table into the table stream (fcClx/lcbClx)
+     */
+    private static final int FIB_FC_CLX_OFFSET = 0x01A2;
+    private static final int FIB_LCB_CLX_OFFSET = 0x01A6;
+
+    /**
+     * Maximum size of the piece table read
+     */
+    private static final int MAX_CLX_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Types of the parts of the piece table: Property modifiers (Prc) then the piece descriptors (Pcdt)
+     */
+    private static final int CLX_PRC = 0x01;
+    private static final int CLX_PCDT = 0x02;
+
+    /**
+     * Size of a piece descriptor (PCD)
+     */
+    private static final int PCD_SIZE = 8;
+
+    /**
+     * Flag of the file offset of a piece indicating ANSI compressed text
+     */
+    private static final int PCD_FC_COMPRESSED = 0x40000000;
+
+    /**
+     * Identifier of a Word binary document
+     */
+    private static final int FIB_WORD_IDENTIFIER = 0xA5EC;
+
+    /**
+     * First version of the Word binary format supported (Word 97)
+     */
+    private static final int FIB_WORD97_VERSION = 0x00C1;
+
+    /**
+     * Flags of the FIB
+     */
+    private static final int FIB_FLAG_ENCRYPTED = 0x0100;
+    private static final int FIB_FLAG_WHICH_TABLE_STREAM = 0x0200;
+    private static final int FIB_FLAG_OBFUSCATED = 0x8000;
+
+    /**
+     * Constructor
+     */
+    private CompoundFileScanner() {
+    }
+
+    /**
+     * Pre-scan a Word binary document (DOC/DOT).
+     *
+     * @param f       File to scan
+     * @param profile Profile of the file content
+     * @return The verdict, {@link PreScanVerdict#UNDECIDED} if the file is not a Word binary document
+     */
+    public static PreScanVerdict scanWordDocument(File f, ContentProfile profile) {
+        if (profile.getContainerFormat() != ContainerFormat.OLE2 || profile.getDocumentType() != DocumentType.WORD) {
+            return PreScanVerdict.UNDECIDED;
+        }
+        boolean hasMacrosStorage = false;
+        for (String entryName : profile.getEntryNames()) {
+            String name = entryName.toUpperCase(Locale.US);
+            if (isVbaStorage(name, "MACROS") || isVbaStorage(name, "_VBA_PROJECT_CUR") || name.startsWith("OBJECTPOOL/")) {
+                return PreScanVerdict.UNSAFE;
+            }
+            hasMacrosStorage |= name.equals("MACROS");
+        }
+        if (hasMacrosStorage) {
+            // Macros storage without VBA project (ex: only customizations), let the document parser decide
+            return PreScanVerdict.UNDECIDED;
+        }
+        try {
+            return isSupportedWordDocument(f, profile) ? PreScanVerdict.SAFE : PreScanVerdict.UNDECIDED;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot read the structure of the Word document, the document parser will be used !", e);
+            return PreScanVerdict.UNDECIDED;
+        }
+    }
+
+    /**
+     * Pre-scan an Excel binary workbook (XLS/XLT).
+     *
+     * @param profile Profile of the file content
+     * @return {@link PreScanVerdict#UNSAFE} if a VBA project or an OLE object storage is found, {@link PreScanVerdict#UNDECIDED} otherwise
+     */
+    public static PreScanVerdict scanExcelWorkbook(ContentProfile profile) {
+        if (profile.getContainerFormat() != ContainerFormat.OLE2 || profile.getDocumentType() != DocumentType.EXCEL) {
+            return PreScanVerdict.UNDECIDED;
+        }
+        for (String entryName : profile.getEntryNames()) {
+            String name = entryName.toUpperCase(Locale.US);
+            if (isVbaStorage(name, "_VBA_PROJECT_CUR") || (name.startsWith("MBD") && name.contains("/\u0001OLE"))) {
+                return PreScanVerdict.UNSAFE;
+            }
+        }
+        return PreScanVerdict.UNDECIDED;
+    }
+
+    /**
+     * Verify, from the structure of the Word document, that the document is in a format accepted by the Word document parser without
+     * password and is not corrupted:
+     * <ul>
+     * <li>FIB of Word 97 or later, neither encrypted nor obfuscated, with the expected counts of parts</li>
+     * <li>Table stream present and containing the piece table</li>
+     * <li>Piece table well-formed, covering the main document, with all the text pieces inside the Word document stream</li>
+     * </ul>
+     *
+     * @param f       File to scan
+     * @param profile Profile of the file content
+     * @return TRUE only if the document is in a supported format and its structure is consistent
+     * @throws IOException If the compound file cannot be read
+     */
+    private static boolean isSupportedWordDocument(File f, ContentProfile profile) throws IOException {
+        byte[] fib = new byte[FIB_SIZE];
+        try (CompoundFileReader compoundFile = CompoundFileReader.open(f)) {
+            // Step 1: Read and verify the FIB
+            CompoundFileReader.Entry wordDocument = compoundFile.getEntry(WORD_DOCUMENT_STREAM);
+            if (wordDocument == null || compoundFile.readStream(wordDocument, 0, fib) < FIB_SIZE) {
+                return false;
+            }
+            int identifier = readUnsignedShort(fib, 0x00);
+            int version = readUnsignedShort(fib, 0x02);
+            int flags = readUnsignedShort(fib, 0x0A);
+            if (identifier != FIB_WORD_IDENTIFIER || version < FIB_WORD97_VERSION || (flags & (FIB_FLAG_ENCRYPTED | FIB_FLAG_OBFUSCATED)) != 0) {
+                return false;
+            }
+            if (readUnsignedShort(fib, FIB_CSW_OFFSET) != FIB_CSW || readUnsignedShort(fib, FIB_CSLW_OFFSET) != FIB_CSLW || readUnsignedShort(fib, FIB_CB_RG_FC_LCB_OFFSET) < FIB_CB_RG_FC_LCB_WORD97) {
+                return false;
+            }
+            // Step 2: Read the piece table from the table stream
+            String tableStreamName = ((flags & FIB_FLAG_WHICH_TABLE_STREAM) != 0) ? "1Table" : "0Table";
+            CompoundFileReader.Entry tableStream = profile.getEntryNames().contains(tableStreamName) ? compoundFile.getEntry(tableStreamName) : null;
+            long fcClx = readInt(fib, FIB_FC_CLX_OFFSET) & 0xFFFFFFFFL;
+            long lcbClx = readInt(fib, FIB_LCB_CLX_OFFSET) & 0xFFFFFFFFL;
+            if (tableStream == null || lcbClx == 0 || lcbClx > MAX_CLX_SIZE || fcClx + lcbClx > tableStream.getSize()) {
+                return false;
+            }
+            byte[] clx = new byte[(int) lcbClx];
+            if (compoundFile.readStream(tableStream, fcClx, clx) < clx.length) {
+                return false;
+            }
+            // Step 3: Verify the piece table against the FIB and the Word document stream
+            return isConsistentPieceTable(clx, readInt(fib, FIB_CCP_TEXT_OFFSET), wordDocument.getSize());
+        }
+    }
+
+    /**
+     * Verify a piece table (CLX): Property modifiers followed by the piece descriptors, whose character positions start at zero, are
+     * increasing and cover the main document, and whose text is stored inside the Word document stream.
+     *
+     * @param clx                Piece table
+     * @param ccpText            Count of characters of the main document declared by the FIB
+     * @param wordDocumentLength Size of the Word document stream
+     * @return TRUE only if the piece table is consistent
+     */
+    private static boolean isConsistentPieceTable(byte[] clx, int ccpText, long wordDocumentLength) {
+        int offset = 0;
+        while (offset < clx.length && clx[offset] == CLX_PRC) {
+            if (offset + 3 > clx.length) {
+                return false;
+            }
+            int cbGrpprl = (short) readUnsignedShort(clx, offset + 1);
+            if (cbGrpprl < 0) {
+                return false;
+            }
+            offset += 3 + cbGrpprl;
+        }
+        if (offset + 5 > clx.length || clx[offset] != CLX_PCDT) {
+            return false;
+        }
+        int lcb = readInt(clx, offset + 1);
+        offset += 5;
+        // PlcPcd: (n + 1) character positions then n piece descriptors
+        if (lcb < 4 + PCD_SIZE + 4 || lcb > clx.length - offset || (lcb - 4) % (4 + PCD_SIZE) != 0) {
+            return false;
+        }
+        int piecesCount = (lcb - 4) / (4 + PCD_SIZE);
+        int descriptorsOffset = offset + (piecesCount + 1) * 4;
+        if (readInt(clx, offset) != 0 || ccpText < 0 || readInt(clx, offset + piecesCount * 4) < ccpText) {
+            return false;
+        }
+        for (int i = 0; i < piecesCount; i++) {
+            int cpStart = readInt(clx, offset + i * 4);
+            int cpEnd = readInt(clx, offset + (i + 1) * 4);
+            if (cpEnd <= cpStart) {
+                return false;
+            }
+            int fc = readInt(clx, descriptorsOffset + i * PCD_SIZE + 2);
+            boolean compressed = (fc & PCD_FC_COMPRESSED) != 0;
+            long start = compressed ? (fc & ~PCD_FC_COMPRESSED) / 2 : fc & 0xFFFFFFFFL;
+            long length = compressed ? (long) cpEnd - cpStart : 2L * (cpEnd - cpStart);
+            if (start + length > wordDocumentLength) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param name          Upper case path of a directory entry
+     * @param parentStorage Upper case name of the storage of the VBA project
+     * @return TRUE only if the entry is the "VBA" storage of the storage of the VBA project or one of its children
+     */
+    private static boolean isVbaStorage(String name, String parentStorage) {
+        return name.equals(parentStorage + "/VBA") || name.startsWith(parentStorage + "/VBA/");
+    }
+
+    /**
+     * @param data   Bytes
+     * @param offset Offset of the value
+     * @return The little endian unsigned short value
+     */
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+
+    /**
+     * @param data   Bytes
+     * @param offset Offset of the value
+     * @return The little endian int value
+     */
+    private static int readInt(byte[] data, int offset) {
+        return readUnsignedShort(data, offset) | (readUnsignedShort(data, offset + 2) << 16);
+    }
+}
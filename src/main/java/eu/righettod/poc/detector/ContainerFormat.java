@@ -0,0 +1,62 @@
+package eu.righettod.poc.detector;
+
+/**
+ * Container formats that can be identified from the signature placed at the beginning of a file.
+ */
+public enum ContainerFormat {
+
+    /**
+     * OLE2 Compound File Binary (legacy Word/Excel/Powerpoint formats)
+     */
+    OLE2,
+
+    /**
+     * ZIP archive (Office Open XML formats)
+     */
+    ZIP,
+
+    /**
+     * Adobe PDF document
+     */
+    PDF,
+
+    /**
+     * PNG image
+     */
+    PNG,
+
+    /**
+     * JPEG image
+     */
+    JPEG,
+
+    /**
+     * GIF image
+     */
+    GIF,
+
+    /**
+     * TIFF image
+     */
+    TIFF,
+
+    /**
+     * BMP image
+     */
+    BMP,
+
+    /**
+     * XML document (Word ML / Excel XML 2003 formats)
+     */
+    XML,
+
+    /**
+     * Executable program (Windows PE, ELF, Mach-O, script with shebang)
+     */
+    EXECUTABLE,
+
+    /**
+     * Format without known signature
+     */
+    UNKNOWN
+}
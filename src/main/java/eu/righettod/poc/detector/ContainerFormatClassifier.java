@@ -0,0 +1,207 @@
+package eu.righettod.poc.detector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Cheap classifier identifying the container format of a file from the signature placed at its beginning.<br>
+ * Only the first bytes of the file are needed, so it can be applied before loading any heavy parser in order to reject quickly a content that do
+ * not match the expected format (ex: an executable uploaded as a Powerpoint document).
+ */
+public final class ContainerFormatClassifier {
+
+    /**
+     * Count of bytes, from the beginning of the file, used for the classification
+     */
+    public static final int HEADER_SIZE = 8 * 1024;
+
+    /**
+     * Count of bytes in which the PDF header is searched, PDF readers tolerate garbage before the header
+     */
+    private static final int PDF_HEADER_SEARCH_LIMIT = 1024;
+
+    /**
+     * Signatures
+     */
+    private static final byte[] OLE2_SIGNATURE = {(byte) 0xD0, (byte) 0xCF, (byte) 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, (byte) 0x1A, (byte) 0xE1};
+    private static final byte[] ZIP_SIGNATURE = {'P', 'K', 0x03, 0x04};
+    private static final byte[] PDF_SIGNATURE = {'%', 'P', 'D', 'F', '-'};
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+    private static final byte[] JPEG_SIGNATURE = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] GIF87_SIGNATURE = {'G', 'I', 'F', '8', '7', 'a'};
+    private static final byte[] GIF89_SIGNATURE = {'G', 'I', 'F', '8', '9', 'a'};
+    private static final byte[] TIFF_LE_SIGNATURE = {'I', 'I', 0x2A, 0x00};
+    private static final byte[] TIFF_BE_SIGNATURE = {'M', 'M', 0x00, 0x2A};
+    private static final byte[] BIGTIFF_LE_SIGNATURE = {'I', 'I', 0x2B, 0x00};
+    private static final byte[] BIGTIFF_BE_SIGNATURE = {'M', 'M', 0x00, 0x2B};
+    private static final byte[] BMP_SIGNATURE = {'B', 'M'};
+    private static final byte[] PE_SIGNATURE = {'M', 'Z'};
+    private static final byte[] ELF_SIGNATURE = {0x7F, 'E', 'L', 'F'};
+    private static final byte[] SHEBANG_SIGNATURE = {'#', '!'};
+    private static final byte[][] MACHO_SIGNATURES = {{(byte) 0xFE, (byte) 0xED, (byte) 0xFA, (byte) 0xCE}, {(byte) 0xFE, (byte) 0xED, (byte) 0xFA, (byte) 0xCF}, {(byte) 0xCE, (byte) 0xFA, (byte) 0xED, (byte) 0xFE}, {(byte) 0xCF, (byte) 0xFA, (byte) 0xED, (byte) 0xFE}, {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE}};
+
+    /**
+     * Constructor
+     */
+    private ContainerFormatClassifier() {
+    }
+
+    /**
+     * Identify the container format of a file, reading only its first bytes.
+     *
+     * @param f File to classify
+     * @return The container format
+     * @throws IOException If the file cannot be read
+     */
+    public static ContainerFormat classify(File f) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int length = 0;
+        try (InputStream is = Files.newInputStream(f.toPath())) {
+            int readBytesCount;
+            while (length < header.length && (readBytesCount = is.read(header, length, header.length - length)) != -1) {
+                length += readBytesCount;
+            }
+        }
+        return classify(header, length);
+    }
+
+    /**
+     * Identify the container format from the first bytes of a file.
+     *
+     * @param header First bytes of the file
+     * @param length Count of valid bytes in the header buffer
+     * @return The container format
+     */
+    public static ContainerFormat classify(byte[] header, int length) {
+        ContainerFormat format;
+        if (startsWith(header, length, OLE2_SIGNATURE)) {
+            format = ContainerFormat.OLE2;
+        } else if (startsWith(header, length, ZIP_SIGNATURE)) {
+            format = ContainerFormat.ZIP;
+        } else if (startsWith(header, length, PNG_SIGNATURE)) {
+            format = ContainerFormat.PNG;
+        } else if (startsWith(header, length, JPEG_SIGNATURE)) {
+            format = ContainerFormat.JPEG;
+        } else if (startsWith(header, length, GIF87_SIGNATURE) || startsWith(header, length, GIF89_SIGNATURE)) {
+            format = ContainerFormat.GIF;
+        } else if (startsWith(header, length, TIFF_LE_SIGNATURE) || startsWith(header, length, TIFF_BE_SIGNATURE) || startsWith(header, length, BIGTIFF_LE_SIGNATURE) || startsWith(header, length, BIGTIFF_BE_SIGNATURE)) {
+            format = ContainerFormat.TIFF;
+        } else if (isExecutable(header, length)) {
+            format = ContainerFormat.EXECUTABLE;
+        } else if (indexOf(header, Math.min(length, PDF_HEADER_SEARCH_LIMIT), PDF_SIGNATURE) >= 0) {
+            format = ContainerFormat.PDF;
+        } else if (isXml(header, length)) {
+            format = ContainerFormat.XML;
+        } else if (startsWith(header, length, BMP_SIGNATURE)) {
+            format = ContainerFormat.BMP;
+        } else {
+            format = ContainerFormat.UNKNOWN;
+        }
+        return format;
+    }
+
+    /**
+     * Verify if the header is the one of an executable program.
+     *
+     * @param header First bytes of the file
+     * @param length Count of valid bytes in the header buffer
+     * @return TRUE only if the header match an executable signature
+     */
+    private static boolean isExecutable(byte[] header, int length) {
+        if (startsWith(header, length, PE_SIGNATURE) || startsWith(header, length, ELF_SIGNATURE) || startsWith(header, length, SHEBANG_SIGNATURE)) {
+            return true;
+        }
+        for (byte[] signature : MACHO_SIGNATURES) {
+            if (startsWith(header, length, signature)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Verify if the header is the one of an XML document: Optional byte order mark, optional whitespaces and then a markup.
+     *
+     * @param header First bytes of the file
+     * @param length Count of valid bytes in the header buffer
+     * @return TRUE only if the header match the beginning of an XML document
+     */
+    private static boolean isXml(byte[] header, int length) {
+        int offset = 0;
+        int charWidth = 1;
+        int charOffset = 0;
+        if (length >= 3 && (header[0] & 0xFF) == 0xEF && (header[1] & 0xFF) == 0xBB && (header[2] & 0xFF) == 0xBF) {
+            // UTF-8
+            offset = 3;
+        } else if (length >= 2 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xFE) {
+            // UTF-16 little endian: ASCII char is followed by a zero byte
+            offset = 2;
+            charWidth = 2;
+        } else if (length >= 2 && (header[0] & 0xFF) == 0xFE && (header[1] & 0xFF) == 0xFF) {
+            // UTF-16 big endian: ASCII char is preceded by a zero byte
+            offset = 2;
+            charWidth = 2;
+            charOffset = 1;
+        }
+        for (int i = offset; i + charWidth <= length; i += charWidth) {
+            byte c = header[i + charOffset];
+            if (charWidth == 2 && header[i + (1 - charOffset)] != 0) {
+                return false;
+            }
+            if (c == '<') {
+                return i + charWidth + charOffset < length && isXmlMarkupStart(header[i + charWidth + charOffset]);
+            }
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param c Char following the '<' char
+     * @return TRUE only if the char can start an XML declaration, processing instruction, comment or element
+     */
+    private static boolean isXmlMarkupStart(byte c) {
+        return c == '?' || c == '!' || c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * @param header    First bytes of the file
+     * @param length    Count of valid bytes in the header buffer
+     * @param signature Signature expected
+     * @return TRUE only if the header start with the signature
+     */
+    private static boolean startsWith(byte[] header, int length, byte[] signature) {
+        if (length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (header[i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param header    First bytes of the file
+     * @param length    Count of bytes in which the signature is searched
+     * @param signature Signature searched
+     * @return The position of the signature in the header or -1 if it is not found
+     */
+    private static int indexOf(byte[] header, int length, byte[] signature) {
+        for (int i = 0; i + signature.length <= length; i++) {
+            boolean match = true;
+            for (int j = 0; j < signature.length && match; j++) {
+                match = header[i + j] == signature[j];
+            }
+            if (match) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,93 @@
+package eu.righettod.poc.detector;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Information collected on the content of a file by the {@link ContentSniffer} without loading it into a document parser.<br>
+ * It is used to route the file to the right detector/sanitizer and is then handed over to the detector in order to not parse the same
+ * structures twice.<br>
+ * Immutable, so it can be shared between threads.
+ */
+public final class ContentProfile {
+
+    /**
+     * Container format identified from the signature of the file
+     */
+    private final ContainerFormat containerFormat;
+
+    /**
+     * Document type identified from the content, null if it cannot be identified
+     */
+    private final DocumentType documentType;
+
+    /**
+     * Names of the entries of the container: ZIP entries names or OLE2 storages/streams paths
+     */
+    private final List<String> entryNames;
+
+    /**
+     * Content types declared by the Office Open XML package, by part name
+     */
+    private final Map<String, String> contentTypes;
+
+    /**
+     * Content type of the main part (Office Open XML), name of the main stream (OLE2) or namespace of the root element (XML 2003), null if not
+     * applicable
+     */
+    private final String mainContentType;
+
+    /**
+     * Constructor
+     *
+     * @param containerFormat Container format identified from the signature of the file
+     * @param documentType    Document type identified from the content, null if it cannot be identified
+     * @param entryNames      Names of the entries of the container
+     * @param contentTypes    Content types declared by the Office Open XML package, by part name
+     * @param mainContentType Content type of the main part, name of the main stream or namespace of the root element
+     */
+    public ContentProfile(ContainerFormat containerFormat, DocumentType documentType, List<String> entryNames, Map<String, String> contentTypes, String mainContentType) {
+        this.containerFormat = containerFormat;
+        this.documentType = documentType;
+        this.entryNames = Collections.unmodifiableList(entryNames);
+        this.contentTypes = Collections.unmodifiableMap(contentTypes);
+        this.mainContentType = mainContentType;
+    }
+
+    /**
+     * @return The container format identified from the signature of the file
+     */
+    public ContainerFormat getContainerFormat() {
+        return this.containerFormat;
+    }
+
+    /**
+     * @return The document type identified from the content, null if it cannot be identified
+     */
+    public DocumentType getDocumentType() {
+        return this.documentType;
+    }
+
+    /**
+     * @return The names of the entries of the container: ZIP entries names or OLE2 storages/streams paths (empty for the others containers)
+     */
+    public List<String> getEntryNames() {
+        return this.entryNames;
+    }
+
+    /**
+     * @return The content types declared by the Office Open XML package, by part name (empty for the others containers)
+     */
+    public Map<String, String> getContentTypes() {
+        return this.contentTypes;
+    }
+
+    /**
+     * @return The content type of the main part (Office Open XML), the name of the main stream (OLE2) or the namespace of the root element (XML
+     * 2003), null if not applicable
+     */
+    public String getMainContentType() {
+        return this.mainContentType;
+    }
+}
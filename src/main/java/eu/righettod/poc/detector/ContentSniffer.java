@@ -0,0 +1,320 @@
+package eu.righettod.poc.detector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Identify the type of a document from its content, without loading it into a document parser:<br>
+ * <ul>
+ * <li>Office Open XML: Content type of the main part declared into the "[Content_Types].xml" part, only the ZIP central directory and this part
+ * are read</li>
+ * <li>OLE2: Name of the streams stored into the root storage, only the directory of the compound file is read</li>
+ * <li>XML 2003: Namespace of the root element</li>
+ * <li>PDF and images: Container format</li>
+ * </ul>
+ * Thread-safe, no state is kept between two calls.
+ */
+public final class ContentSniffer {
+
+    /**
+     * LOGGER
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ContentSniffer.class);
+
+    /**
+     * Name of the part declaring the content types of an Office Open XML package
+     */
+    private static final String CONTENT_TYPES_PART = "[Content_Types].xml";
+
+    /**
+     * Maximum count of bytes inflated from the content types part, whatever the size declared by the ZIP archive
+     */
+    private static final long MAX_CONTENT_TYPES_PART_SIZE = 1024 * 1024;
+
+    /**
+     * Namespace of the content types part
+     */
+    private static final String CONTENT_TYPES_NAMESPACE = "http://schemas.openxmlformats.org/package/2006/content-types";
+
+    /**
+     * Namespaces of the root element of the XML 2003 formats
+     */
+    private static final String WORDML_NAMESPACE = "http://schemas.microsoft.com/office/word/2003/wordml";
+    private static final String SPREADSHEETML_NAMESPACE = "urn:schemas-microsoft-com:office:spreadsheet";
+
+    /**
+     * Factory of StAX parsers: DTD and external entities are disabled to prevent XXE, the factory is thread-safe once configured
+     */
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    }
+
+    /**
+     * Constructor
+     */
+    private ContentSniffer() {
+    }
+
+    /**
+     * Identify the container format of a file and collect the information needed to identify the type of the document.
+     *
+     * @param f File to sniff
+     * @return The profile of the content
+     * @throws IOException If the file cannot be read
+     */
+    public static ContentProfile sniff(File f) throws IOException {
+        return sniff(f, ContainerFormatClassifier.classify(f));
+    }
+
+    /**
+     * Collect the information needed to identify the type of a document.<br>
+     * A content that cannot be parsed is not an error: The profile is returned without document type and the caller decide.
+     *
+     * @param f               File to sniff
+     * @param containerFormat Container format already identified from the signature of the file
+     * @return The profile of the content
+     */
+    public static ContentProfile sniff(File f, ContainerFormat containerFormat) {
+        try {
+            switch (containerFormat) {
+                case ZIP:
+                    return sniffOpenXmlPackage(f);
+                case OLE2:
+                    return sniffCompoundFile(f);
+                case XML:
+                    return sniffXmlDocument(f);
+                case PDF:
+                    return simpleProfile(containerFormat, DocumentType.PDF);
+                case PNG:
+                case JPEG:
+                case GIF:
+                case TIFF:
+                case BMP:
+                    return simpleProfile(containerFormat, DocumentType.IMAGE);
+                default:
+                    return simpleProfile(containerFormat, null);
+            }
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            LOG.warn("Cannot sniff the content of the file !", e);
+            return simpleProfile(containerFormat, null);
+        }
+    }
+
+    /**
+     * Identify an Office Open XML document from the content type of its main part.
+     *
+     * @param f File to sniff
+     * @return The profile of the content
+     * @throws IOException        If the ZIP archive cannot be read
+     * @throws XMLStreamException If the content types part cannot be parsed
+     */
+    private static ContentProfile sniffOpenXmlPackage(File f) throws IOException, XMLStreamException {
+        List<String> entryNames = new ArrayList<>();
+        Map<String, String> contentTypes = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(f)) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                entryNames.add(zipEntries.nextElement().getName());
+            }
+            ZipEntry contentTypesEntry = zipFile.getEntry(CONTENT_TYPES_PART);
+            if (contentTypesEntry != null) {
+                try (InputStream is = new BoundedInputStream(zipFile.getInputStream(contentTypesEntry), MAX_CONTENT_TYPES_PART_SIZE)) {
+                    readContentTypes(is, contentTypes);
+                }
+            }
+        }
+        // Identify the main part, a package declaring several kinds of main part is not identified
+        String mainContentType = null;
+        DocumentType documentType = null;
+        boolean ambiguous = false;
+        for (String contentType : contentTypes.values()) {
+            DocumentType mainPartType = mainPartType(contentType);
+            if (mainPartType != null) {
+                if (documentType != null && documentType != mainPartType) {
+                    ambiguous = true;
+                }
+                documentType = mainPartType;
+                mainContentType = contentType;
+            }
+        }
+        if (ambiguous) {
+            LOG.warn("Several kinds of main part declared into the Office Open XML package !");
+            documentType = null;
+            mainContentType = null;
+        }
+        return new ContentProfile(ContainerFormat.ZIP, documentType, entryNames, contentTypes, mainContentType);
+    }
+
+    /**
+     * Read the content types part of an Office Open XML package.<br>
+     * Overrides are stored by part name (ex: "/word/document.xml") and defaults by extension prefixed with "*." (ex: "*.xml").
+     *
+     * @param is           Content of the part
+     * @param contentTypes Map receiving the content types
+     * @throws XMLStreamException If the part cannot be parsed
+     */
+    private static void readContentTypes(InputStream is, Map<String, String> contentTypes) throws XMLStreamException {
+        XMLStreamReader reader = createXmlReader(is);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && CONTENT_TYPES_NAMESPACE.equals(reader.getNamespaceURI())) {
+                    String contentType = reader.getAttributeValue(null, "ContentType");
+                    if (contentType == null) {
+                        continue;
+                    }
+                    if ("Override".equals(reader.getLocalName())) {
+                        String partName = reader.getAttributeValue(null, "PartName");
+                        if (partName != null) {
+                            contentTypes.put(partName, contentType.trim());
+                        }
+                    } else if ("Default".equals(reader.getLocalName())) {
+                        String extension = reader.getAttributeValue(null, "Extension");
+                        if (extension != null) {
+                            contentTypes.put("*." + extension.toLowerCase(Locale.US), contentType.trim());
+                        }
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Get the document type associated to the content type of a main part.<br>
+     * Main parts content types end with ".main+xml" (or ".main" for the binary Excel workbook) for documents, templates, slideshows and their
+     * macro enabled variants.
+     *
+     * @param contentType Content type of a part
+     * @return The document type or null if the content type is not the one of a main part
+     */
+    private static DocumentType mainPartType(String contentType) {
+        String type = contentType.toLowerCase(Locale.US);
+        if (!type.endsWith(".main+xml") && !type.endsWith(".main")) {
+            return null;
+        }
+        DocumentType documentType = null;
+        if (type.startsWith("application/vnd.openxmlformats-officedocument.wordprocessingml.") || type.startsWith("application/vnd.ms-word.")) {
+            documentType = DocumentType.WORD;
+        } else if (type.startsWith("application/vnd.openxmlformats-officedocument.spreadsheetml.") || type.startsWith("application/vnd.ms-excel.")) {
+            documentType = DocumentType.EXCEL;
+        } else if (type.startsWith("application/vnd.openxmlformats-officedocument.presentationml.") || type.startsWith("application/vnd.ms-powerpoint.")) {
+            documentType = DocumentType.POWERPOINT;
+        }
+        return documentType;
+    }
+
+    /**
+     * Identify a legacy Office document from the name of the streams stored into the root storage.
+     *
+     * @param f File to sniff
+     * @return The profile of the content
+     * @throws IOException If the compound file cannot be read
+     */
+    private static ContentProfile sniffCompoundFile(File f) throws IOException {
+        List<String> entryNames = new ArrayList<>();
+        DocumentType documentType = null;
+        String mainStream = null;
+        try (CompoundFileReader compoundFile = CompoundFileReader.open(f)) {
+            for (CompoundFileReader.Entry entry : compoundFile.getEntries()) {
+                entryNames.add(entry.getPath());
+            }
+            if (isStream(compoundFile, "WordDocument")) {
+                documentType = DocumentType.WORD;
+                mainStream = "WordDocument";
+            } else if (isStream(compoundFile, "Workbook") || isStream(compoundFile, "Book")) {
+                // "Book" is the stream name used by the Excel 5/95 format
+                documentType = DocumentType.EXCEL;
+                mainStream = isStream(compoundFile, "Workbook") ? "Workbook" : "Book";
+            } else if (isStream(compoundFile, "PowerPoint Document")) {
+                documentType = DocumentType.POWERPOINT;
+                mainStream = "PowerPoint Document";
+            }
+        }
+        return new ContentProfile(ContainerFormat.OLE2, documentType, entryNames, Collections.<String, String>emptyMap(), mainStream);
+    }
+
+    /**
+     * @param compoundFile Compound file
+     * @param path         Path of the stream
+     * @return TRUE only if the entry exists and is a stream
+     */
+    private static boolean isStream(CompoundFileReader compoundFile, String path) {
+        CompoundFileReader.Entry entry = compoundFile.getEntry(path);
+        return (entry != null) && !entry.isStorage();
+    }
+
+    /**
+     * Identify a XML 2003 document from the namespace of its root element.
+     *
+     * @param f File to sniff
+     * @return The profile of the content
+     * @throws IOException        If the file cannot be read
+     * @throws XMLStreamException If the document cannot be parsed
+     */
+    private static ContentProfile sniffXmlDocument(File f) throws IOException, XMLStreamException {
+        String rootNamespace = null;
+        try (InputStream is = Files.newInputStream(f.toPath())) {
+            XMLStreamReader reader = createXmlReader(is);
+            try {
+                // Only the beginning of the document is parsed, until the root element
+                while (reader.hasNext() && rootNamespace == null) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        rootNamespace = (reader.getNamespaceURI() == null) ? "" : reader.getNamespaceURI();
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        DocumentType documentType = null;
+        if (WORDML_NAMESPACE.equals(rootNamespace)) {
+            documentType = DocumentType.WORD;
+        } else if (SPREADSHEETML_NAMESPACE.equals(rootNamespace)) {
+            documentType = DocumentType.EXCEL;
+        }
+        return new ContentProfile(ContainerFormat.XML, documentType, Collections.<String>emptyList(), Collections.<String, String>emptyMap(), rootNamespace);
+    }
+
+    /**
+     * Create a StAX parser with DTD and external entities disabled.
+     *
+     * @param is Content to parse
+     * @return The parser
+     * @throws XMLStreamException If the parser cannot be created
+     */
+    static XMLStreamReader createXmlReader(InputStream is) throws XMLStreamException {
+        return XML_INPUT_FACTORY.createXMLStreamReader(is);
+    }
+
+    /**
+     * @param containerFormat Container format
+     * @param documentType    Document type
+     * @return A profile without entries
+     */
+    private static ContentProfile simpleProfile(ContainerFormat containerFormat, DocumentType documentType) {
+        return new ContentProfile(containerFormat, documentType, Collections.<String>emptyList(), Collections.<String, String>emptyMap(), null);
+    }
+}
@@ -3,7 +3,8 @@ package eu.righettod.poc.detector;
 import java.io.File;
 
 /**
- * Interface to define detection methods.
+ * Interface to define detection methods.<br>
+ * An instance is shared by all the uploads, so implementations must be thread-safe.
  *
  */
 public interface DocumentDetector {
@@ -21,4 +22,26 @@ public interface DocumentDetector {
 	 */
 	boolean isSafe(File f);
 
+	/**
+	 * Method to verify if the specified file contains a safe document, reusing the information already collected on its content by the
+	 * {@link ContentSniffer}.<br>
+	 * Implementations can use the profile to avoid parsing the same structures twice, by default the profile is ignored.
+	 * 
+	 * @param f File to validate
+	 * @param profile Profile of the file content
+	 * 
+	 * @return TRUE only if the file fill the rules of {@link #isSafe(File)}
+	 */
+	default boolean isSafe(File f, ContentProfile profile) {
+		return isSafe(f);
+	}
+
+	/**
+	 * Method to get the version of the detection rules applied by the implementation.<br>
+	 * It must be changed each time the rules change in order to never reuse a verdict obtained with previous rules.
+	 * 
+	 * @return The version of the detection rules
+	 */
+	String getVersion();
+
 }
@@ -0,0 +1,32 @@
+package eu.righettod.poc.detector;
+
+/**
+ * Document types supported by the upload, the name of each constant is the file type value expected from the client.
+ */
+public enum DocumentType {
+
+    /**
+     * Adobe PDF document
+     */
+    PDF,
+
+    /**
+     * Microsoft Word document
+     */
+    WORD,
+
+    /**
+     * Microsoft Excel workbook
+     */
+    EXCEL,
+
+    /**
+     * Microsoft Powerpoint presentation
+     */
+    POWERPOINT,
+
+    /**
+     * Image
+     */
+    IMAGE
+}
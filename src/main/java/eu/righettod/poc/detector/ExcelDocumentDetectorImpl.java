@@ -1,22 +1,29 @@
 package eu.righettod.poc.detector;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.aspose.cells.FileFormatInfo;
 import com.aspose.cells.FileFormatUtil;
+import com.aspose.cells.LoadDataOption;
+import com.aspose.cells.LoadOptions;
+import com.aspose.cells.MemorySetting;
 import com.aspose.cells.MsoDrawingType;
 import com.aspose.cells.OleObject;
 import com.aspose.cells.Workbook;
 import com.aspose.cells.Worksheet;
 
 /**
- * Implementation of the detector for Microsoft Excel workbook.
+ * Implementation of the detector for Microsoft Excel workbook.<br>
+ * Thread-safe, no state is kept between two calls: each analysis works on its own {@link Workbook} instance.
  * 
  *
  */
@@ -25,6 +32,9 @@ public class ExcelDocumentDetectorImpl implements DocumentDetector {
 	/** LOGGER */
 	private static final Logger LOG = LoggerFactory.getLogger(ExcelDocumentDetectorImpl.class);
 
+	/** Version of the detection rules */
+	private static final String VERSION = "4";
+
 	/**
 	 * List of allowed Excel format<br>
 	 * Allow also XLSM/XSLB because both can exists without macro inside.<br>
@@ -32,6 +42,11 @@ public class ExcelDocumentDetectorImpl implements DocumentDetector {
 	 */
 	private static final List<String> ALLOWED_FORMAT = Arrays.asList(new String[] { "xls", "xlsx", "xlsm", "xlsb", "xlt", "xltm" });
 
+	/**
+	 * Pre-scan of the Open XML formats (XLSX/XLSM/XLSB/XLTM), only the OLE objects of the worksheets are searched by the analysis
+	 */
+	private static final OoxmlContainerScanner OOXML_SCANNER = new OoxmlContainerScanner(new HashSet<>(Arrays.asList(new String[] { "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml", "application/vnd.ms-excel.sheet.macroEnabled.main+xml", "application/vnd.ms-excel.sheet.binary.macroEnabled.main", "application/vnd.ms-excel.template.macroEnabled.main+xml" })), Pattern.compile("xl/worksheets/[^/]+\\.(xml|bin)"));
+
 	/**
 	 * {@inheritDoc}
 	 *
@@ -39,45 +54,104 @@ public class ExcelDocumentDetectorImpl implements DocumentDetector {
 	 */
 	@Override
 	public boolean isSafe(File f) {
-		boolean safeState = false;
+		return this.isSafe(f, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see eu.righettod.poc.detector.DocumentDetector#isSafe(java.io.File, eu.righettod.poc.detector.ContentProfile)
+	 */
+	@Override
+	public boolean isSafe(File f, ContentProfile profile) {
+		PreScanVerdict verdict = PreScanVerdict.UNDECIDED;
 		try {
 			if ((f != null) && f.exists() && f.canRead()) {
+				// Decide from the structure of the container when possible, the workbook loading is the costly part
+				ContentProfile contentProfile = (profile != null) ? profile : ContentSniffer.sniff(f);
+				if (contentProfile.getContainerFormat() == ContainerFormat.OLE2) {
+					verdict = CompoundFileScanner.scanExcelWorkbook(contentProfile);
+				} else {
+					verdict = OOXML_SCANNER.scan(f, contentProfile);
+				}
+			}
+		}
+		catch (Exception e) {
+			LOG.warn("Error during Excel file pre-scan !", e);
+		}
+		if (verdict != PreScanVerdict.UNDECIDED) {
+			return verdict == PreScanVerdict.SAFE;
+		}
+		return this.isSafeWorkbook(f);
+	}
+
+	/**
+	 * Verify the workbook loaded into the Excel document parser.
+	 *
+	 * @param f File to validate
+	 * @return TRUE only if the workbook is in an allowed format and do not contains macro or OLE object
+	 */
+	private boolean isSafeWorkbook(File f) {
+		boolean safeState = false;
+		if ((f != null) && f.exists() && f.canRead()) {
+			// The file is opened once and read from the same channel for the format detection and for the loading
+			try (SharedFileChannel channel = SharedFileChannel.open(f)) {
 				// Perform a first check on Excel document format
-				FileFormatInfo formatInfo = FileFormatUtil.detectFileFormat(f.getAbsolutePath());
+				FileFormatInfo formatInfo;
+				try (InputStream is = channel.newInputStream()) {
+					formatInfo = FileFormatUtil.detectFileFormat(is);
+				}
 				String formatExtension = FileFormatUtil.loadFormatToExtension(formatInfo.getLoadFormat());
-				if ((formatExtension != null) && ALLOWED_FORMAT.contains(formatExtension.toLowerCase(Locale.US).replaceAll("\\.", ""))) {
-					// Load the file into the Excel document parser
-					Workbook book = new Workbook(f.getAbsolutePath());
+				// An encrypted workbook cannot be loaded without its password
+				if (!formatInfo.isEncrypted() && (formatExtension != null) && ALLOWED_FORMAT.contains(formatExtension.toLowerCase(Locale.US).replaceAll("\\.", ""))) {
+					// Load the file into the Excel document parser reusing the detected format, without parsing nor importing the formulas
+					// and with the compact cells storage
+					LoadOptions loadOptions = new LoadOptions(formatInfo.getLoadFormat());
+					loadOptions.setMemorySetting(MemorySetting.MEMORY_PREFERENCE);
+					loadOptions.setParsingFormulaOnOpen(false);
+					LoadDataOption loadDataOption = new LoadDataOption();
+					loadDataOption.setImportFormula(false);
+					loadOptions.setLoadDataOptions(loadDataOption);
+					Workbook book;
+					try (InputStream is = channel.newInputStream()) {
+						book = new Workbook(is, loadOptions);
+					}
 					// Get safe state from Macro presence
 					safeState = !book.hasMacro();
 					// If document is safe then we pass to OLE objects analysis
 					if (safeState) {
-						// Search OLE objects in all workbook sheets
+						// Search OLE objects in all workbook sheets, stop on the first one found
 						Worksheet sheet = null;
 						OleObject oleObject = null;
-						int totalOLEObjectCount = 0;
-						for (int i = 0; i < book.getWorksheets().getCount(); i++) {
+						sheetsLoop: for (int i = 0; i < book.getWorksheets().getCount(); i++) {
 							sheet = book.getWorksheets().get(i);
 							for (int j = 0; j < sheet.getOleObjects().getCount(); j++) {
 								oleObject = sheet.getOleObjects().get(j);
 								if (oleObject.getMsoDrawingType() == MsoDrawingType.OLE_OBJECT) {
-									totalOLEObjectCount++;
+									safeState = false;
+									break sheetsLoop;
 								}
 							}
 						}
-						// Update safe status flag according to number of OLE object found
-						if (totalOLEObjectCount != 0) {
-							safeState = false;
-						}
 					}
 				}
 			}
-		}
-		catch (Exception e) {
-			safeState = false;
-			LOG.warn("Error during Excel file analysis !", e);
+			catch (Exception e) {
+				safeState = false;
+				LOG.warn("Error during Excel file analysis !", e);
+			}
 		}
 		return safeState;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see eu.righettod.poc.detector.DocumentDetector#getVersion()
+	 */
+	@Override
+	public String getVersion() {
+		return VERSION;
+	}
+
 }
@@ -0,0 +1,403 @@
+package eu.righettod.poc.detector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Pre-scan of an Office Open XML package deciding, without loading the document, if it contains a VBA project or OLE objects.<br>
+ * Only the ZIP central directory, the "[Content_Types].xml" part (both already read by the {@link ContentSniffer}), the relationships parts
+ * and the main part are read, the XML parts are parsed with a streaming parser. The bytes inflated from each part are limited, whatever the
+ * size declared by the central directory.<br>
+ * The scanner is conservative: It answer {@link PreScanVerdict#UNSAFE} only for signals that the document parser also report and
+ * {@link PreScanVerdict#SAFE} only when no signal at all is present and the main part, targeted by the package relationships and declared
+ * with the main content type, is well-formed (XML, or chain of records for the binary workbooks). Every others cases are
+ * {@link PreScanVerdict#UNDECIDED} to let the document parser decide.<br>
+ * Immutable, so a single instance can be shared by all the analysis.
+ */
+public final class OoxmlContainerScanner {
+
+    /**
+     * LOGGER
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(OoxmlContainerScanner.class);
+
+    /**
+     * Content type of the VBA project part
+     */
+    private static final String VBA_PROJECT_CONTENT_TYPE = "application/vnd.ms-office.vbaproject";
+
+    /**
+     * Name of the VBA project part
+     */
+    private static final String VBA_PROJECT_PART_NAME = "vbaproject.bin";
+
+    /**
+     * Pattern of the relationships parts names
+     */
+    private static final Pattern RELATIONSHIPS_PART_PATTERN = Pattern.compile("(.*/)?_rels/[^/]*\\.rels", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Pattern of the parts which embed the data of a chart or a diagram as a package, these packages are not OLE objects
+     */
+    private static final Pattern CHART_PART_PATTERN = Pattern.compile(".*/(charts|diagrams)/[^/]+", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Maximum size of a relationships part, protect against a relationships part used as a ZIP bomb
+     */
+    private static final long MAX_RELATIONSHIPS_PART_SIZE = 1024 * 1024;
+
+    /**
+     * Maximum size of the main part verified, a bigger main part is left to the document parser
+     */
+    private static final long MAX_MAIN_PART_SIZE = 32L * 1024 * 1024;
+
+    /**
+     * Type of the relationship from the package to its main part
+     */
+    private static final String OFFICE_DOCUMENT_RELATIONSHIP = "officeDocument";
+
+    /**
+     * First and last records of a binary workbook (BIFF12 BrtBeginBook and BrtEndBook)
+     */
+    private static final int BRT_BEGIN_BOOK = 0x83;
+    private static final int BRT_END_BOOK = 0x84;
+
+    /**
+     * Maximum count of relationships read in the package
+     */
+    private static final int MAX_RELATIONSHIPS_COUNT = 100000;
+
+    /**
+     * Content types of the main parts accepted by the detector (lower case)
+     */
+    private final Set<String> allowedMainContentTypes;
+
+    /**
+     * Pattern of the parts whose OLE objects are reported by the document parser
+     */
+    private final Pattern objectHostPartPattern;
+
+    /**
+     * Constructor
+     *
+     * @param allowedMainContentTypes Content types of the main parts accepted by the detector, another main part lead to
+     *                                {@link PreScanVerdict#UNDECIDED}
+     * @param objectHostPartPattern   Pattern of the parts names whose OLE objects are reported by the document parser, an OLE object related to
+     *                                another part lead to {@link PreScanVerdict#UNDECIDED}
+     */
+    public OoxmlContainerScanner(Set<String> allowedMainContentTypes, Pattern objectHostPartPattern) {
+        Set<String> contentTypes = new HashSet<>();
+        for (String contentType : allowedMainContentTypes) {
+            contentTypes.add(contentType.toLowerCase(Locale.US));
+        }
+        this.allowedMainContentTypes = Collections.unmodifiableSet(contentTypes);
+        this.objectHostPartPattern = objectHostPartPattern;
+    }
+
+    /**
+     * Pre-scan an Office Open XML package.
+     *
+     * @param f       File to scan
+     * @param profile Profile of the file content
+     * @return The verdict, {@link PreScanVerdict#UNDECIDED} if the file is not an Office Open XML package accepted by the detector
+     */
+    public PreScanVerdict scan(File f, ContentProfile profile) {
+        if (profile.getContainerFormat() != ContainerFormat.ZIP || profile.getMainContentType() == null || !this.allowedMainContentTypes.contains(profile.getMainContentType().toLowerCase(Locale.US))) {
+            return PreScanVerdict.UNDECIDED;
+        }
+        // Step 1: VBA project declared into the content types or present into the package
+        for (String contentType : profile.getContentTypes().values()) {
+            if (VBA_PROJECT_CONTENT_TYPE.equalsIgnoreCase(contentType)) {
+                return PreScanVerdict.UNSAFE;
+            }
+        }
+        for (String entryName : profile.getEntryNames()) {
+            if (entryName.toLowerCase(Locale.US).endsWith(VBA_PROJECT_PART_NAME)) {
+                return PreScanVerdict.UNSAFE;
+            }
+        }
+        // Step 2: Relationships to VBA project, OLE objects, embedded packages and ActiveX controls
+        try (ZipFile zipFile = new ZipFile(f)) {
+            RelationshipsScan relationshipsScan = new RelationshipsScan();
+            for (String entryName : profile.getEntryNames()) {
+                if (RELATIONSHIPS_PART_PATTERN.matcher(entryName).matches()) {
+                    ZipEntry entry = zipFile.getEntry(entryName);
+                    if (entry == null || entry.getSize() > MAX_RELATIONSHIPS_PART_SIZE) {
+                        return PreScanVerdict.UNDECIDED;
+                    }
+                    // The declared size is only a fast path, the bytes inflated are limited whatever the size declared
+                    try (InputStream is = new BoundedInputStream(zipFile.getInputStream(entry), MAX_RELATIONSHIPS_PART_SIZE)) {
+                        PreScanVerdict verdict = this.scanRelationshipsPart(entryName, is, relationshipsScan);
+                        if (verdict != null) {
+                            return verdict;
+                        }
+                    }
+                }
+            }
+            if (relationshipsScan.undecided) {
+                return PreScanVerdict.UNDECIDED;
+            }
+            // Step 3: Embedded parts that are not the data of a chart/diagram
+            for (String entryName : profile.getEntryNames()) {
+                if (entryName.toLowerCase(Locale.US).contains("embeddings/") && !relationshipsScan.chartPackages.contains(entryName)) {
+                    return PreScanVerdict.UNDECIDED;
+                }
+            }
+            // Step 4: Main part targeted by the package relationships, declared with the main content type and well-formed
+            String mainPartName = relationshipsScan.mainPartName;
+            ZipEntry mainPart = (mainPartName == null) ? null : zipFile.getEntry(mainPartName);
+            if (mainPart == null || !profile.getMainContentType().equalsIgnoreCase(declaredContentType(profile, mainPartName))) {
+                return PreScanVerdict.UNDECIDED;
+            }
+            try (InputStream is = new BoundedInputStream(zipFile.getInputStream(mainPart), MAX_MAIN_PART_SIZE)) {
+                if (profile.getMainContentType().toLowerCase(Locale.US).endsWith("+xml")) {
+                    readXmlPart(is);
+                } else if (!isBinaryWorkbook(is)) {
+                    return PreScanVerdict.UNDECIDED;
+                }
+            }
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            LOG.warn("Cannot pre-scan the Office Open XML package, the document parser will be used !", e);
+            return PreScanVerdict.UNDECIDED;
+        }
+        return PreScanVerdict.SAFE;
+    }
+
+    /**
+     * Scan the relationships of a part.
+     *
+     * @param relationshipsPartName Name of the relationships part
+     * @param is                    Content of the relationships part
+     * @param relationshipsScan     State of the scan of all the relationships parts
+     * @return The verdict if the relationships are enough to decide, null otherwise
+     * @throws XMLStreamException If the relationships part cannot be parsed
+     */
+    private PreScanVerdict scanRelationshipsPart(String relationshipsPartName, InputStream is, RelationshipsScan relationshipsScan) throws XMLStreamException {
+        String sourcePartName = sourcePartName(relationshipsPartName);
+        XMLStreamReader reader = ContentSniffer.createXmlReader(is);
+        try {
+            while (reader.hasNext()) {
+                // Namespace is not verified in order to not miss a relationship declared with an unexpected namespace
+                if (reader.next() != XMLStreamConstants.START_ELEMENT || !"Relationship".equals(reader.getLocalName())) {
+                    continue;
+                }
+                if (++relationshipsScan.count > MAX_RELATIONSHIPS_COUNT) {
+                    return PreScanVerdict.UNDECIDED;
+                }
+                String type = reader.getAttributeValue(null, "Type");
+                String target = reader.getAttributeValue(null, "Target");
+                boolean external = "External".equalsIgnoreCase(reader.getAttributeValue(null, "TargetMode"));
+                String kind = (type == null) ? "" : type.substring(type.lastIndexOf('/') + 1);
+                boolean objectHost = this.objectHostPartPattern.matcher(sourcePartName).matches();
+                if (sourcePartName.isEmpty() && OFFICE_DOCUMENT_RELATIONSHIP.equals(kind) && !external && target != null) {
+                    relationshipsScan.mainPartName = resolveTarget(sourcePartName, target);
+                }
+                switch (kind) {
+                    case "vbaProject":
+                        return PreScanVerdict.UNSAFE;
+                    case "oleObject":
+                        // Embedded or linked OLE object
+                        if (objectHost) {
+                            return PreScanVerdict.UNSAFE;
+                        }
+                        relationshipsScan.undecided = true;
+                        break;
+                    case "package":
+                        if (!external && target != null && CHART_PART_PATTERN.matcher(sourcePartName).matches()) {
+                            relationshipsScan.chartPackages.add(resolveTarget(sourcePartName, target));
+                        } else if (objectHost) {
+                            return PreScanVerdict.UNSAFE;
+                        } else {
+                            relationshipsScan.undecided = true;
+                        }
+                        break;
+                    case "control":
+                    case "activeXControlBinary":
+                        // ActiveX controls are not reported in the same way by all the document parsers
+                        relationshipsScan.undecided = true;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return null;
+    }
+
+    /**
+     * Read all a XML part, in order to verify that it is well-formed.
+     *
+     * @param is Content of the part
+     * @throws XMLStreamException If the part is not well-formed XML or bigger than the limit
+     */
+    private static void readXmlPart(InputStream is) throws XMLStreamException {
+        XMLStreamReader reader = ContentSniffer.createXmlReader(is);
+        try {
+            while (reader.hasNext()) {
+                reader.next();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Verify that a binary workbook part is a chain of BIFF12 records, from the begin of the workbook to its end, covering all the part.
+     *
+     * @param is Content of the part
+     * @return TRUE only if the part is a complete chain of records
+     * @throws IOException If the part cannot be read or is bigger than the limit
+     */
+    private static boolean isBinaryWorkbook(InputStream is) throws IOException {
+        InputStream buffered = new BufferedInputStream(is);
+        int recordType = -1;
+        boolean first = true;
+        while (true) {
+            int type = readVariableLength(buffered, 2);
+            if (type == -1) {
+                return recordType == BRT_END_BOOK;
+            }
+            if (type < -1 || (first && type != BRT_BEGIN_BOOK) || recordType == BRT_END_BOOK) {
+                return false;
+            }
+            int size = readVariableLength(buffered, 4);
+            if (size < 0) {
+                return false;
+            }
+            for (long remaining = size; remaining > 0; ) {
+                long skipped = buffered.skip(remaining);
+                if (skipped <= 0) {
+                    if (buffered.read() < 0) {
+                        return false;
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+            recordType = type;
+            first = false;
+        }
+    }
+
+    /**
+     * Read a BIFF12 variable length value: 7 bits by byte, the high bit indicating that another byte follow.
+     *
+     * @param is       Stream
+     * @param maxBytes Maximum count of bytes of the value
+     * @return The value, -1 if the end of the stream is reached before the value or -2 if the value is truncated or too long
+     * @throws IOException If the stream cannot be read
+     */
+    private static int readVariableLength(InputStream is, int maxBytes) throws IOException {
+        int value = 0;
+        for (int i = 0; i < maxBytes; i++) {
+            int b = is.read();
+            if (b < 0) {
+                return (i == 0) ? -1 : -2;
+            }
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return -2;
+    }
+
+    /**
+     * @param profile  Profile of the file content
+     * @param partName ZIP entry name of a part
+     * @return The content type declared for the part by an override or by the default of its extension, null if none
+     */
+    private static String declaredContentType(ContentProfile profile, String partName) {
+        String extension = partName.substring(partName.lastIndexOf('.') + 1).toLowerCase(Locale.US);
+        String byExtension = null;
+        for (Map.Entry<String, String> contentType : profile.getContentTypes().entrySet()) {
+            // Part names are case insensitive
+            if (contentType.getKey().equalsIgnoreCase("/" + partName)) {
+                return contentType.getValue();
+            }
+            if (contentType.getKey().equals("*." + extension)) {
+                byExtension = contentType.getValue();
+            }
+        }
+        return byExtension;
+    }
+
+    /**
+     * Get the name of the part described by a relationships part (ex: "word/_rels/document.xml.rels" describe "word/document.xml").
+     *
+     * @param relationshipsPartName Name of the relationships part
+     * @return The name of the source part, empty for the relationships of the package itself
+     */
+    private static String sourcePartName(String relationshipsPartName) {
+        int relsFolderIndex = relationshipsPartName.toLowerCase(Locale.US).lastIndexOf("_rels/");
+        String folder = relationshipsPartName.substring(0, relsFolderIndex);
+        String fileName = relationshipsPartName.substring(relsFolderIndex + "_rels/".length(), relationshipsPartName.length() - ".rels".length());
+        return folder + fileName;
+    }
+
+    /**
+     * Resolve the target of a relationship to a ZIP entry name.
+     *
+     * @param sourcePartName Name of the source part
+     * @param target         Target of the relationship, absolute or relative to the folder of the source part
+     * @return The ZIP entry name of the target
+     */
+    private static String resolveTarget(String sourcePartName, String target) {
+        String path = target.startsWith("/") ? target.substring(1) : sourcePartName.substring(0, sourcePartName.lastIndexOf('/') + 1) + target;
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if ("..".equals(segment)) {
+                segments.pollLast();
+            } else if (!segment.isEmpty() && !".".equals(segment)) {
+                segments.addLast(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    /**
+     * State of the scan of all the relationships parts of a package.
+     */
+    private static final class RelationshipsScan {
+
+        /**
+         * Count of relationships read
+         */
+        private int count;
+
+        /**
+         * Flag indicating that a relationship prevent to decide
+         */
+        private boolean undecided;
+
+        /**
+         * ZIP entries names of the packages embedded by charts/diagrams
+         */
+        private final Set<String> chartPackages = new HashSet<>();
+
+        /**
+         * ZIP entry name of the main part, target of the relationship of the package to its main part
+         */
+        private String mainPartName;
+    }
+}
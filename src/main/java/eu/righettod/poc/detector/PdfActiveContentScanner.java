@@ -0,0 +1,289 @@
+package eu.righettod.poc.detector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Lexical pre-scan of a PDF document deciding, without parsing it, that it cannot contain active content.<br>
+ * The raw bytes of the file are read once, through a small buffer (the file is not mapped to not keep it locked until the mapping is garbage
+ * collected), and every PDF name found is decoded (including the "#xx" hexadecimal
+ * escapes) then matched in a single lookup against all the names signaling active content (JavaScript, embedded files, launch actions,
+ * automatic actions, rich media and XFA forms).<br>
+ * As names stored in a compressed object stream are not visible, the presence of an object stream or of an encryption dictionary also
+ * prevent to decide, same thing for a name tree (ex: JavaScript or embedded files name tree) because the document parser must analyze it.
+ * <br>
+ * The scanner can only answer {@link PreScanVerdict#SAFE} or {@link PreScanVerdict#UNDECIDED}, the document parser decide in the second case.
+ * As the header and the end of file marker can be added to any file, a {@link PreScanVerdict#SAFE} verdict do not prove that the file is a
+ * PDF document: The caller must still verify that the document parser accept its structure.<br>
+ * Thread-safe, no state is kept between two calls.
+ */
+public final class PdfActiveContentScanner {
+
+    /**
+     * LOGGER
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(PdfActiveContentScanner.class);
+
+    /**
+     * Names preventing to decide (without the leading slash)
+     */
+    private static final Set<String> UNDECIDED_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("JavaScript", "JS", "EmbeddedFile", "EmbeddedFiles", "Launch", "OpenAction", "AA", "RichMedia", "XFA", "Names", "ObjStm", "Encrypt")));
+
+    /**
+     * Length of the longest name preventing to decide, longer names are not kept
+     */
+    private static final int MAX_NAME_LENGTH = UNDECIDED_NAMES.stream().mapToInt(String::length).max().orElse(0);
+
+    /**
+     * Header of a PDF document
+     */
+    private static final byte[] PDF_HEADER = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * End of file marker of a PDF document
+     */
+    private static final byte[] PDF_EOF_MARKER = "%%EOF".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Size of the area, at the beginning and at the end of the file, in which the header and the end of file marker are searched (same
+     * tolerance than the document parser)
+     */
+    private static final int MARKER_SEARCH_AREA_SIZE = 1024;
+
+    /**
+     * Size of the buffer used to read the file
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Constructor
+     */
+    private PdfActiveContentScanner() {
+    }
+
+    /**
+     * Pre-scan a PDF document.
+     *
+     * @param f File to scan
+     * @return {@link PreScanVerdict#SAFE} if the document is a complete PDF document without any name signaling active content,
+     * {@link PreScanVerdict#UNDECIDED} otherwise
+     */
+    public static PreScanVerdict scan(File f) {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            // Step 1: Header and end of file marker must be present, otherwise let the document parser decide
+            int areaSize = (int) Math.min(size, MARKER_SEARCH_AREA_SIZE);
+            if (!containsMarker(read(channel, 0, areaSize), PDF_HEADER) || !containsMarker(read(channel, size - areaSize, areaSize), PDF_EOF_MARKER)) {
+                return PreScanVerdict.UNDECIDED;
+            }
+            // Step 2: Names of the whole file, the name lexer state is kept from one buffer to the next one
+            NameLexer lexer = new NameLexer();
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            long position = 0;
+            int n;
+            while ((n = channel.read(buffer, position)) >= 0) {
+                byte[] bytes = buffer.array();
+                for (int i = 0; i < n; i++) {
+                    String name = lexer.accept(bytes[i] & 0xFF);
+                    if (name != null && UNDECIDED_NAMES.contains(name)) {
+                        return PreScanVerdict.UNDECIDED;
+                    }
+                }
+                position += n;
+                buffer.clear();
+            }
+            String lastName = lexer.accept(' ');
+            return (lastName != null && UNDECIDED_NAMES.contains(lastName)) ? PreScanVerdict.UNDECIDED : PreScanVerdict.SAFE;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot pre-scan the PDF document, the document parser will be used !", e);
+            return PreScanVerdict.UNDECIDED;
+        }
+    }
+
+    /**
+     * Read an area of the file.
+     *
+     * @param channel  Channel of the file
+     * @param position Offset of the area
+     * @param length   Length of the area
+     * @return The bytes of the area, less bytes if the end of the file is reached
+     * @throws IOException If the file cannot be read
+     */
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer area = ByteBuffer.allocate(length);
+        int n = 0;
+        while (area.hasRemaining() && n >= 0) {
+            n = channel.read(area, position + area.position());
+        }
+        return Arrays.copyOf(area.array(), area.position());
+    }
+
+    /**
+     * @param area   Area of the file
+     * @param marker Marker to search
+     * @return TRUE only if the marker is present into the area
+     */
+    private static boolean containsMarker(byte[] area, byte[] marker) {
+        int limit = area.length - marker.length;
+        for (int i = 0; i <= limit; i++) {
+            int j = 0;
+            while (j < marker.length && area[i + j] == marker[j]) {
+                j++;
+            }
+            if (j == marker.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lexer extracting the PDF names from the raw bytes of a file, one byte at a time.<br>
+     * Names are decoded ("#xx" hexadecimal escapes) while read and are only kept up to the length of the longest name searched.
+     */
+    private static final class NameLexer {
+
+        /**
+         * Name being read, null when the lexer is not into a name
+         */
+        private StringBuilder name;
+
+        /**
+         * Flag indicating that the name being read is longer than the longest name searched
+         */
+        private boolean nameTooLong;
+
+        /**
+         * Hexadecimal digits of the escape being read, -1 when the lexer is not into an escape
+         */
+        private int escapeDigits = -1;
+
+        /**
+         * Value of the escape being read
+         */
+        private int escapeValue;
+
+        /**
+         * Read a byte.
+         *
+         * @param b Byte read
+         * @return The decoded name if the byte end a name, null otherwise
+         */
+        private String accept(int b) {
+            String completedName = null;
+            if (this.name != null) {
+                if (isNameCharacter(b)) {
+                    this.appendNameCharacter(b);
+                    return null;
+                }
+                completedName = this.completeName();
+            }
+            if (b == '/') {
+                this.name = new StringBuilder(MAX_NAME_LENGTH);
+                this.nameTooLong = false;
+                this.escapeDigits = -1;
+            }
+            return completedName;
+        }
+
+        /**
+         * Add a character to the name being read, decoding the hexadecimal escapes.
+         *
+         * @param b Character
+         */
+        private void appendNameCharacter(int b) {
+            if (this.escapeDigits >= 0) {
+                int digit = Character.digit(b, 16);
+                if (digit < 0) {
+                    // Invalid escape, the characters are kept as is
+                    this.appendDecoded('#');
+                    if (this.escapeDigits == 1) {
+                        this.appendDecoded(Character.forDigit(this.escapeValue, 16));
+                    }
+                    this.escapeDigits = -1;
+                    this.appendNameCharacter(b);
+                    return;
+                }
+                this.escapeValue = (this.escapeValue << 4) | digit;
+                if (++this.escapeDigits == 2) {
+                    this.appendDecoded(this.escapeValue);
+                    this.escapeDigits = -1;
+                }
+            } else if (b == '#') {
+                this.escapeDigits = 0;
+                this.escapeValue = 0;
+            } else {
+                this.appendDecoded(b);
+            }
+        }
+
+        /**
+         * @param c Decoded character to add to the name being read
+         */
+        private void appendDecoded(int c) {
+            if (this.name.length() < MAX_NAME_LENGTH) {
+                this.name.append((char) c);
+            } else {
+                this.nameTooLong = true;
+            }
+        }
+
+        /**
+         * End the name being read.
+         *
+         * @return The decoded name, null if it is longer than the longest name searched
+         */
+        private String completeName() {
+            if (this.escapeDigits >= 0) {
+                // Escape not terminated, the characters are kept as is
+                this.appendDecoded('#');
+                if (this.escapeDigits == 1) {
+                    this.appendDecoded(Character.forDigit(this.escapeValue, 16));
+                }
+            }
+            String completedName = this.nameTooLong ? null : this.name.toString();
+            this.name = null;
+            this.escapeDigits = -1;
+            return completedName;
+        }
+
+        /**
+         * @param b Byte
+         * @return TRUE only if the byte is neither a PDF white-space nor a PDF delimiter
+         */
+        private static boolean isNameCharacter(int b) {
+            switch (b) {
+                case 0x00:
+                case 0x09:
+                case 0x0A:
+                case 0x0C:
+                case 0x0D:
+                case 0x20:
+                case '(':
+                case ')':
+                case '<':
+                case '>':
+                case '[':
+                case ']':
+                case '{':
+                case '}':
+                case '/':
+                case '%':
+                    return false;
+                default:
+                    return true;
+            }
+        }
+    }
+}
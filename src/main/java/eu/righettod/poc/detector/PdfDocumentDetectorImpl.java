@@ -1,17 +1,25 @@
 package eu.righettod.poc.detector;
 
 import java.io.File;
+import java.io.IOException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.itextpdf.text.io.RandomAccessSourceFactory;
 import com.itextpdf.text.pdf.PdfArray;
 import com.itextpdf.text.pdf.PdfDictionary;
 import com.itextpdf.text.pdf.PdfName;
 import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
 
 /**
- * Implementation of the detector for Adobe PDF document.
+ * Implementation of the detector for Adobe PDF document.<br>
+ * Instances can be shared between threads because every call opens its own {@link PdfReader}.<br>
+ * The document is read partially: Only the cross-reference table, the trailer and the objects used by the analysis are read from the file, on
+ * demand, so the memory used do not depend on the size of the pages content.<br>
+ * Before that, a lexical pre-scan ({@link PdfActiveContentScanner}) clear the documents that do not contain any name signaling active content,
+ * a document cleared is still opened by the PDF parser to verify its cross-reference table and its trailer.
  * 
  *
  */
@@ -20,6 +28,9 @@ public class PdfDocumentDetectorImpl implements DocumentDetector {
 	/** LOGGER */
 	private static final Logger LOG = LoggerFactory.getLogger(PdfDocumentDetectorImpl.class);
 
+	/** Version of the detection rules */
+	private static final String VERSION = "2";
+
 	/**
 	 * {@inheritDoc}
 	 *
@@ -27,28 +38,70 @@ public class PdfDocumentDetectorImpl implements DocumentDetector {
 	 */
 	@Override
 	public boolean isSafe(File f) {
+		// Use the raw bytes of the file to skip the analysis of the document when they are enough to decide
+		if ((f != null) && f.exists() && (PdfActiveContentScanner.scan(f) == PreScanVerdict.SAFE)) {
+			// The markers searched by the pre-scan can be added to any file so the structure must still be accepted by the PDF parser
+			return this.isReadableDocument(f);
+		}
+		return this.isSafeDocument(f);
+	}
+
+	/**
+	 * Verify that the PDF parser accept the structure of the document: Only the cross-reference table and the trailer are read.
+	 *
+	 * @param f File to validate
+	 * @return TRUE only if the document can be opened and has a catalog
+	 */
+	private boolean isReadableDocument(File f) {
+		boolean readableState = false;
+		try {
+			PdfReader reader = openReader(f);
+			try {
+				readableState = (reader.getCatalog() != null);
+			} finally {
+				// Release the file
+				reader.close();
+			}
+		} catch (Exception e) {
+			readableState = false;
+			LOG.warn("Error during Pdf file opening !", e);
+		}
+		return readableState;
+	}
+
+	/**
+	 * Verify the document loaded into the PDF parser.
+	 *
+	 * @param f File to validate
+	 * @return TRUE only if the document do not contains JavaScript code or embedded files
+	 */
+	private boolean isSafeDocument(File f) {
 		boolean safeState = false;
 		try {
 			if ((f != null) && f.exists()) {
-				// Load stream in PDF parser
 				// If the stream is not a PDF then exception will be throwed
 				// here and safe state will be set to FALSE
-				PdfReader reader = new PdfReader(f.getAbsolutePath());
-				// Check 1:
-				// Detect if the document contains any JavaScript code
-				String jsCode = reader.getJavaScript();
-				if (jsCode == null) {
-					// OK no JS code then when pass to check 2:
-					// Detect if the document has any embedded files
-					PdfDictionary root = reader.getCatalog();
-					PdfDictionary names = root.getAsDict(PdfName.NAMES);
-					PdfArray namesArray = null;
-					if (names != null) {
-						PdfDictionary embeddedFiles = names.getAsDict(PdfName.EMBEDDEDFILES);
-						namesArray = embeddedFiles.getAsArray(PdfName.NAMES);
+				PdfReader reader = openReader(f);
+				try {
+					// Check 1:
+					// Detect if the document contains any JavaScript code
+					String jsCode = reader.getJavaScript();
+					if (jsCode == null) {
+						// OK no JS code then when pass to check 2:
+						// Detect if the document has any embedded files
+						PdfDictionary root = reader.getCatalog();
+						PdfDictionary names = root.getAsDict(PdfName.NAMES);
+						PdfArray namesArray = null;
+						if (names != null) {
+							PdfDictionary embeddedFiles = names.getAsDict(PdfName.EMBEDDEDFILES);
+							namesArray = embeddedFiles.getAsArray(PdfName.NAMES);
+						}
+						// Get safe state from number of embedded files
+						safeState = ((namesArray == null) || namesArray.isEmpty());
 					}
-					// Get safe state from number of embedded files
-					safeState = ((namesArray == null) || namesArray.isEmpty());
+				} finally {
+					// Release the file
+					reader.close();
 				}
 			}
 		} catch (Exception e) {
@@ -58,4 +111,27 @@ public class PdfDocumentDetectorImpl implements DocumentDetector {
 		return safeState;
 	}
 
+	/**
+	 * Load stream in PDF parser in partial mode using a random access on the file: Only the cross-reference table and the trailer are read.<br>
+	 * The file is read with a plain random access instead of being memory-mapped, a mapping keeping the upload locked on Windows until it is
+	 * garbage collected.
+	 *
+	 * @param f File to open
+	 * @return The reader, to close by the caller
+	 * @throws IOException If the file is not a PDF document or cannot be read
+	 */
+	private static PdfReader openReader(File f) throws IOException {
+		return new PdfReader(new RandomAccessFileOrArray(new RandomAccessSourceFactory().setForceRead(false).setUsePlainRandomAccess(true).createBestSource(f.getAbsolutePath())), null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see eu.righettod.poc.detector.DocumentDetector#getVersion()
+	 */
+	@Override
+	public String getVersion() {
+		return VERSION;
+	}
+
 }
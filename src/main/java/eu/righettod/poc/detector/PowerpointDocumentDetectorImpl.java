@@ -1,16 +1,26 @@
 package eu.righettod.poc.detector;
 
+import com.aspose.slides.IBaseSlide;
+import com.aspose.slides.IBlobManagementOptions;
+import com.aspose.slides.IGroupShape;
 import com.aspose.slides.IOleObjectFrame;
 import com.aspose.slides.IShape;
-import com.aspose.slides.ISlide;
+import com.aspose.slides.LoadOptions;
 import com.aspose.slides.Presentation;
+import com.aspose.slides.PresentationLockingBehavior;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.regex.Pattern;
 
 /**
- * Implementation of the detector for Microsoft Powerpoint document.
+ * Implementation of the detector for Microsoft Powerpoint document.<br>
+ * Thread-safe: the {@link Presentation} is loaded per call and nothing else is stored by the instance.
  *
  *
  */
@@ -21,43 +31,84 @@ public class PowerpointDocumentDetectorImpl implements DocumentDetector {
      */
     private static final Logger LOG = LoggerFactory.getLogger(PowerpointDocumentDetectorImpl.class);
 
+    /**
+     * Version of the detection rules
+     */
+    private static final String VERSION = "3";
+
+    /**
+     * Pre-scan of the Open XML formats (presentation, slideshow and template with or without macro), the OLE objects of the slides, master
+     * slides and layout slides are searched by the analysis
+     */
+    private static final OoxmlContainerScanner OOXML_SCANNER = new OoxmlContainerScanner(new HashSet<>(Arrays.asList("application/vnd.openxmlformats-officedocument.presentationml.presentation.main+xml", "application/vnd.ms-powerpoint.presentation.macroEnabled.main+xml", "application/vnd.openxmlformats-officedocument.presentationml.slideshow.main+xml", "application/vnd.ms-powerpoint.slideshow.macroEnabled.main+xml", "application/vnd.openxmlformats-officedocument.presentationml.template.main+xml", "application/vnd.ms-powerpoint.template.macroEnabled.main+xml")), Pattern.compile("ppt/(slides|slideMasters|slideLayouts)/[^/]+\\.xml"));
+
     /**
      * {@inheritDoc}
      *
      * @see eu.righettod.poc.detector.DocumentDetector#isSafe(java.io.File)
      */
-    @SuppressWarnings("rawtypes")
     @Override
     public boolean isSafe(File f) {
+        return this.isSafe(f, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see eu.righettod.poc.detector.DocumentDetector#isSafe(java.io.File, eu.righettod.poc.detector.ContentProfile)
+     */
+    @Override
+    public boolean isSafe(File f, ContentProfile profile) {
+        PreScanVerdict verdict = PreScanVerdict.UNDECIDED;
+        try {
+            if ((f != null) && f.exists() && f.canRead()) {
+                // Use the structure of the container to skip the loading of the presentation when it is enough to decide
+                verdict = OOXML_SCANNER.scan(f, (profile != null) ? profile : ContentSniffer.sniff(f));
+            }
+        } catch (Exception e) {
+            LOG.warn("Error during Powerpoint file pre-scan !", e);
+        }
+        if (verdict != PreScanVerdict.UNDECIDED) {
+            return verdict == PreScanVerdict.SAFE;
+        }
+        return this.isSafePresentation(f);
+    }
+
+    /**
+     * Verify the presentation loaded into the Powerpoint document parser, the analysis stop at the first VBA project or OLE object found.<br>
+     * Package visibility to allow the benchmark of the analysis without the pre-scan.
+     *
+     * @param f File to validate
+     * @return TRUE only if the presentation do not contains VBA project or OLE object
+     */
+    boolean isSafePresentation(File f) {
         boolean safeState = false;
         try {
             if ((f != null) && f.exists() && f.canRead()) {
-                // Load the file into the Powerpoint document parser
-                Presentation presentation = new Presentation(f.getAbsolutePath());
-                // First check on Powerpoint format skipped because:
-                // FileFormatInfo class is not provided for Aspose Slides API
-                // PresentationFactory.getInstance().getPresentationInfo() can be used but the LoadFormat class miss format like POT or PPT XML
-                //Aspose API do not support PPT XML format
-                // Get safe state from presence of a VBA project in the presentation
-                safeState = (presentation.getVbaProject() == null);
-                // If presentation is safe then we pass to OLE objects analysis
-                if (safeState) {
-                    //Parse all slides of the presentation
-                    int totalOLEObjectCount = 0;
-                    for (ISlide slide : presentation.getSlides()) {
-                        for (IShape shape : slide.getShapes()) {
-                            //Check if the current shape is an OLE object
-                            if (shape instanceof IOleObjectFrame) {
-                                totalOLEObjectCount++;
-                            }
-                        }
-                    }
-                    // Update safe status flag according to number of OLE object found
-                    if (totalOLEObjectCount != 0) {
-                        safeState = false;
+                // Load the file into the Powerpoint document parser:
+                // The file is kept locked instead of being copied in memory and the binary data (images, media, embedded objects data) are
+                // only loaded when accessed, the analysis never access them
+                LoadOptions loadOptions = new LoadOptions();
+                IBlobManagementOptions blobOptions = loadOptions.getBlobManagementOptions();
+                blobOptions.setPresentationLockingBehavior(PresentationLockingBehavior.KeepLocked);
+                blobOptions.setTemporaryFilesAllowed(true);
+                blobOptions.setMaxBlobsBytesInMemory(0);
+                Presentation presentation = new Presentation(f.getAbsolutePath(), loadOptions);
+                try {
+                    // First check on Powerpoint format skipped because:
+                    // FileFormatInfo class is not provided for Aspose Slides API
+                    // PresentationFactory.getInstance().getPresentationInfo() can be used but the LoadFormat class miss format like POT or PPT XML
+                    //Aspose API do not support PPT XML format
+                    // Get safe state from presence of a VBA project in the presentation
+                    safeState = (presentation.getVbaProject() == null);
+                    // If presentation is safe then we pass to OLE objects analysis of the slides, the master slides and the layout slides
+                    if (safeState) {
+                        safeState = !containsOleObject(presentation.getSlides()) && !containsOleObject(presentation.getMasters()) && !containsOleObject(presentation.getLayoutSlides());
                     }
+                } finally {
+                    // Release the lock on the file and the temporary files
+                    presentation.dispose();
                 }
-
             }
         } catch (Exception e) {
             safeState = false;
@@ -65,4 +116,42 @@ public class PowerpointDocumentDetectorImpl implements DocumentDetector {
         }
         return safeState;
     }
+
+    /**
+     * Search an OLE object into the shapes of slides, including the shapes of the groups, the search stop at the first OLE object found.
+     *
+     * @param slides Slides to analyze (normal, master or layout slides)
+     * @return TRUE if an OLE object is found
+     */
+    private static boolean containsOleObject(Iterable<? extends IBaseSlide> slides) {
+        Deque<IShape> pendingShapes = new ArrayDeque<>();
+        for (IBaseSlide slide : slides) {
+            for (IShape shape : slide.getShapes()) {
+                pendingShapes.push(shape);
+            }
+            while (!pendingShapes.isEmpty()) {
+                IShape shape = pendingShapes.pop();
+                //Check if the current shape is an OLE object
+                if (shape instanceof IOleObjectFrame) {
+                    return true;
+                }
+                if (shape instanceof IGroupShape) {
+                    for (IShape groupedShape : ((IGroupShape) shape).getShapes()) {
+                        pendingShapes.push(groupedShape);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see eu.righettod.poc.detector.DocumentDetector#getVersion()
+     */
+    @Override
+    public String getVersion() {
+        return VERSION;
+    }
 }
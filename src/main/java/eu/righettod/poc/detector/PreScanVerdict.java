@@ -0,0 +1,22 @@
+package eu.righettod.poc.detector;
+
+/**
+ * Verdict of a pre-scan performed on the structure of a container, before loading the document into a document parser.
+ */
+public enum PreScanVerdict {
+
+    /**
+     * The container do not contain any potential malicious content, the document parser is not needed
+     */
+    SAFE,
+
+    /**
+     * The container contains a potential malicious content, the document parser is not needed
+     */
+    UNSAFE,
+
+    /**
+     * The structure of the container is not enough to decide, the document parser must be used
+     */
+    UNDECIDED
+}
@@ -0,0 +1,168 @@
+package eu.righettod.poc.detector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File opened once and read several times, one after the other, by APIs that close the stream they receive (ex: format detection then
+ * document loading).<br>
+ * Each call to {@link #newInputStream()} rewind the channel and return a stream whose close is ignored, the channel is only closed by
+ * {@link #close()}. The channel is interruptible, so a read is aborted when the analysis thread is interrupted.<br>
+ * Not thread-safe: A single stream must be used at a time.
+ */
+public final class SharedFileChannel implements Closeable {
+
+    /**
+     * Underlying channel
+     */
+    private final FileChannel channel;
+
+    /**
+     * Constructor
+     *
+     * @param channel Underlying channel
+     */
+    private SharedFileChannel(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Open a file for reading.
+     *
+     * @param f File to open
+     * @return The shared channel
+     * @throws IOException If the file cannot be opened
+     */
+    public static SharedFileChannel open(File f) throws IOException {
+        return new SharedFileChannel(FileChannel.open(f.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * Rewind the channel and get a stream reading the file from its beginning, the previous stream must not be used anymore.
+     *
+     * @return The stream
+     * @throws IOException If the channel cannot be rewound
+     */
+    public InputStream newInputStream() throws IOException {
+        this.channel.position(0);
+        return new ChannelInputStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Stream reading the channel from its current position, supporting mark/reset because some detection APIs need it.
+     */
+    private class ChannelInputStream extends InputStream {
+
+        /**
+         * Position marked
+         */
+        private long markedPosition = 0;
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (this.read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return SharedFileChannel.this.channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.InputStream#skip(long)
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            FileChannel channel = SharedFileChannel.this.channel;
+            long skipped = Math.max(0, Math.min(n, channel.size() - channel.position()));
+            channel.position(channel.position() + skipped);
+            return skipped;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.InputStream#available()
+         */
+        @Override
+        public int available() throws IOException {
+            FileChannel channel = SharedFileChannel.this.channel;
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, channel.size() - channel.position()));
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.InputStream#markSupported()
+         */
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.InputStream#mark(int)
+         */
+        @Override
+        public synchronized void mark(int readlimit) {
+            try {
+                this.markedPosition = SharedFileChannel.this.channel.position();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot get the position of the channel !", e);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.InputStream#reset()
+         */
+        @Override
+        public synchronized void reset() throws IOException {
+            SharedFileChannel.this.channel.position(this.markedPosition);
+        }
+
+        /**
+         * Ignored, the channel is closed by its owner.
+         *
+         * @see java.io.InputStream#close()
+         */
+        @Override
+        public void close() {
+            // Nothing to do
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package eu.righettod.poc.detector;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,12 +14,17 @@ import org.slf4j.LoggerFactory;
 import com.aspose.words.Document;
 import com.aspose.words.FileFormatInfo;
 import com.aspose.words.FileFormatUtil;
+import com.aspose.words.IResourceLoadingCallback;
+import com.aspose.words.LoadOptions;
 import com.aspose.words.NodeCollection;
 import com.aspose.words.NodeType;
+import com.aspose.words.ResourceLoadingAction;
+import com.aspose.words.ResourceLoadingArgs;
 import com.aspose.words.Shape;
 
 /**
- * Implementation of the detector for Microsoft Word document.
+ * Implementation of the detector for Microsoft Word document.<br>
+ * Thread-safe: a single instance is shared by all the uploads, each call load its own {@link Document}.
  * 
  *
  */
@@ -25,6 +33,17 @@ public class WordDocumentDetectorImpl implements DocumentDetector {
 	/** LOGGER */
 	private static final Logger LOG = LoggerFactory.getLogger(WordDocumentDetectorImpl.class);
 
+	/** Version of the detection rules */
+	private static final String VERSION = "4";
+
+	/** Callback refusing the loading of all the external resources (linked images, fonts, CSS...), they are not needed for the analysis */
+	private static final IResourceLoadingCallback SKIP_RESOURCES_CALLBACK = new IResourceLoadingCallback() {
+		@Override
+		public int resourceLoading(ResourceLoadingArgs args) {
+			return ResourceLoadingAction.SKIP;
+		}
+	};
+
 	/**
 	 * List of allowed Word format (WML = Word ML (Word 2003 XML)).<br>
 	 * Allow also DOCM because it can exists without macro inside.<br>
@@ -37,53 +56,112 @@ public class WordDocumentDetectorImpl implements DocumentDetector {
 	 */
 	private static final List<String> ALLOWED_FORMAT = Arrays.asList(new String[] { "doc", "docx", "docm", "wml", "dot", "dotm" });
 
+	/**
+	 * Pre-scan of the Open XML formats (DOCX/DOCM/DOTM), OLE objects of the document body/headers/footers/notes are the ones reported by the
+	 * Word document parser
+	 */
+	private static final OoxmlContainerScanner OOXML_SCANNER = new OoxmlContainerScanner(new HashSet<>(Arrays.asList(new String[] { "application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml", "application/vnd.ms-word.document.macroEnabled.main+xml", "application/vnd.ms-word.template.macroEnabledTemplate.main+xml" })), Pattern.compile("word/(document|header\\d*|footer\\d*|footnotes|endnotes)\\.xml"));
+
 	/**
 	 * {@inheritDoc}
 	 *
 	 * @see eu.righettod.poc.detector.DocumentDetector#isSafe(java.io.File)
 	 */
-	@SuppressWarnings("rawtypes")
 	@Override
 	public boolean isSafe(File f) {
-		boolean safeState = false;
+		return this.isSafe(f, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see eu.righettod.poc.detector.DocumentDetector#isSafe(java.io.File, eu.righettod.poc.detector.ContentProfile)
+	 */
+	@Override
+	public boolean isSafe(File f, ContentProfile profile) {
+		PreScanVerdict verdict = PreScanVerdict.UNDECIDED;
 		try {
 			if ((f != null) && f.exists() && f.canRead()) {
+				// Try first to decide from the structure of the container without loading the document
+				ContentProfile contentProfile = (profile != null) ? profile : ContentSniffer.sniff(f);
+				if (contentProfile.getContainerFormat() == ContainerFormat.OLE2) {
+					verdict = CompoundFileScanner.scanWordDocument(f, contentProfile);
+				} else {
+					verdict = OOXML_SCANNER.scan(f, contentProfile);
+				}
+			}
+		}
+		catch (Exception e) {
+			LOG.warn("Error during Word file pre-scan !", e);
+		}
+		if (verdict != PreScanVerdict.UNDECIDED) {
+			return verdict == PreScanVerdict.SAFE;
+		}
+		return this.isSafeDocument(f);
+	}
+
+	/**
+	 * Verify the document loaded into the Word document parser.
+	 *
+	 * @param f File to validate
+	 * @return TRUE only if the document is in an allowed format and do not contains macro or OLE object
+	 */
+	@SuppressWarnings("rawtypes")
+	private boolean isSafeDocument(File f) {
+		boolean safeState = false;
+		if ((f != null) && f.exists() && f.canRead()) {
+			// The file is opened once and read from the same channel for the format detection and for the loading
+			try (SharedFileChannel channel = SharedFileChannel.open(f)) {
 				// Perform a first check on Word document format
-				FileFormatInfo formatInfo = FileFormatUtil.detectFileFormat(f.getAbsolutePath());
+				FileFormatInfo formatInfo;
+				try (InputStream is = channel.newInputStream()) {
+					formatInfo = FileFormatUtil.detectFileFormat(is);
+				}
 				String formatExtension = FileFormatUtil.loadFormatToExtension(formatInfo.getLoadFormat());
-				if ((formatExtension != null) && ALLOWED_FORMAT.contains(formatExtension.toLowerCase(Locale.US).replaceAll("\\.", ""))) {
-					// Load the file into the Word document parser
-					Document document = new Document(f.getAbsolutePath());
+				// An encrypted document cannot be loaded without its password
+				if (!formatInfo.isEncrypted() && (formatExtension != null) && ALLOWED_FORMAT.contains(formatExtension.toLowerCase(Locale.US).replaceAll("\\.", ""))) {
+					// Load the file into the Word document parser reusing the detected format and without the external resources,
+					// the layout is never built because the analysis only walk the document nodes
+					LoadOptions loadOptions = new LoadOptions();
+					loadOptions.setLoadFormat(formatInfo.getLoadFormat());
+					loadOptions.setResourceLoadingCallback(SKIP_RESOURCES_CALLBACK);
+					Document document;
+					try (InputStream is = channel.newInputStream()) {
+						document = new Document(is, loadOptions);
+					}
 					// Get safe state from Macro presence
 					safeState = !document.hasMacros();
 					// If document is safe then we pass to OLE objects analysis
 					if (safeState) {
-						// Get all shapes of the document
+						// Search OLE objects in all shapes, stop on the first one found
+						// Iterator is used because the count of a deep node collection is computed again on each call
 						NodeCollection shapes = document.getChildNodes(NodeType.SHAPE, true);
-						Shape shape = null;
-						// Search OLE objects in all shapes
-						int totalOLEObjectCount = 0;
-						for (int i = 0; i < shapes.getCount(); i++) {
-							shape = (Shape) shapes.get(i);
+						for (Object node : shapes) {
 							// Check if the current shape has OLE object
-							if (shape.getOleFormat() != null) {
-								totalOLEObjectCount++;
+							if (((Shape) node).getOleFormat() != null) {
+								safeState = false;
+								break;
 							}
 						}
-						// Update safe status flag according to number of OLE object found
-						if (totalOLEObjectCount != 0) {
-							safeState = false;
-						}
-
 					}
 				}
 			}
-		}
-		catch (Exception e) {
-			safeState = false;
-			LOG.warn("Error during Word file analysis !", e);
+			catch (Exception e) {
+				safeState = false;
+				LOG.warn("Error during Word file analysis !", e);
+			}
 		}
 		return safeState;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see eu.righettod.poc.detector.DocumentDetector#getVersion()
+	 */
+	@Override
+	public String getVersion() {
+		return VERSION;
+	}
+
 }
@@ -0,0 +1,50 @@
+package eu.righettod.poc.sanitizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Utility methods shared by the streaming sanitizers to write the sanitized image.
+ */
+final class ChannelCopy {
+
+    /**
+     * Constructor
+     */
+    private ChannelCopy() {
+    }
+
+    /**
+     * Write all the bytes of a buffer.
+     *
+     * @param target Channel receiving the sanitized image
+     * @param buffer Bytes to write
+     * @throws IOException If the bytes cannot be written
+     */
+    static void write(FileChannel target, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * Copy bytes of the original image to the sanitized image without going through the heap.
+     *
+     * @param source   Channel of the original image
+     * @param position Offset of the bytes
+     * @param count    Count of bytes
+     * @param target   Channel receiving the sanitized image
+     * @throws IOException If the bytes cannot be copied
+     */
+    static void transfer(FileChannel source, long position, long count, FileChannel target) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long n = source.transferTo(position + transferred, count - transferred, target);
+            if (n <= 0) {
+                throw new IOException("Cannot copy the image data !");
+            }
+            transferred += n;
+        }
+    }
+}
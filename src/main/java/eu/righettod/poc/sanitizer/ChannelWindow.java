@@ -0,0 +1,152 @@
+package eu.righettod.poc.sanitizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+/**
+ * Read access to the original image used by the streaming sanitizers to parse its structure: The bytes are read through the channel into a
+ * small window moved on demand.<br>
+ * The channel is never mapped: A mapping stay valid until the mapped buffer is garbage collected, so the original file stay locked on
+ * Windows and the sanitized image cannot be moved over it.<br>
+ * Not thread-safe, an instance is used by a single sanitizing call.
+ */
+final class ChannelWindow {
+
+    /**
+     * Size of the window
+     */
+    private static final int WINDOW_SIZE = 8 * 1024;
+
+    /**
+     * Channel of the original image, closed by the caller
+     */
+    private final FileChannel channel;
+
+    /**
+     * Size of the original image
+     */
+    private final long size;
+
+    /**
+     * Bytes of the window
+     */
+    private final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+
+    /**
+     * Offset of the first byte of the window
+     */
+    private long windowStart;
+
+    /**
+     * Count of bytes of the window
+     */
+    private int windowLength;
+
+    /**
+     * Constructor
+     *
+     * @param channel Channel of the original image
+     * @throws IOException If the size of the image cannot be read
+     */
+    ChannelWindow(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+    }
+
+    /**
+     * @return The size of the original image
+     */
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * @param offset Offset of the byte
+     * @return The unsigned value of the byte
+     * @throws IOException If the byte cannot be read
+     */
+    int unsignedByte(long offset) throws IOException {
+        if (offset < this.windowStart || offset >= this.windowStart + this.windowLength) {
+            this.moveTo(offset);
+        }
+        return this.window.get((int) (offset - this.windowStart)) & 0xFF;
+    }
+
+    /**
+     * @param offset Offset of the value
+     * @return The big endian int value
+     * @throws IOException If the value cannot be read
+     */
+    int getInt(long offset) throws IOException {
+        return (this.unsignedByte(offset) << 24) | (this.unsignedByte(offset + 1) << 16) | (this.unsignedByte(offset + 2) << 8) | this.unsignedByte(offset + 3);
+    }
+
+    /**
+     * @param offset Offset of the bytes
+     * @param length Count of bytes
+     * @return A copy of the bytes
+     * @throws IOException If the bytes cannot be read
+     */
+    byte[] copy(long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        this.read(offset, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Update a checksum with bytes of the original image, read through the window.
+     *
+     * @param checksum Checksum
+     * @param offset   Offset of the bytes
+     * @param length   Count of bytes
+     * @throws IOException If the bytes cannot be read
+     */
+    void update(Checksum checksum, long offset, long length) throws IOException {
+        long current = offset;
+        long end = offset + length;
+        while (current < end) {
+            this.moveTo(current);
+            int count = (int) Math.min(this.windowLength, end - current);
+            checksum.update(this.window.array(), 0, count);
+            current += count;
+        }
+    }
+
+    /**
+     * Fill the window from an offset.
+     *
+     * @param offset Offset of the first byte of the window
+     * @throws IOException If the offset is after the end of the image or the bytes cannot be read
+     */
+    private void moveTo(long offset) throws IOException {
+        if (offset < 0 || offset >= this.size) {
+            throw new IOException("Unexpected end of the image at offset " + offset + " !");
+        }
+        this.window.clear();
+        this.window.limit((int) Math.min(WINDOW_SIZE, this.size - offset));
+        this.windowStart = offset;
+        this.windowLength = 0;
+        this.read(offset, this.window);
+        this.windowLength = this.window.limit();
+    }
+
+    /**
+     * Read bytes until the buffer is full.
+     *
+     * @param offset Offset of the bytes
+     * @param buffer Buffer receiving the bytes
+     * @throws IOException If the end of the image is reached or the bytes cannot be read
+     */
+    private void read(long offset, ByteBuffer buffer) throws IOException {
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            int n = this.channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of the image at offset " + position + " !");
+            }
+            position += n;
+        }
+    }
+}
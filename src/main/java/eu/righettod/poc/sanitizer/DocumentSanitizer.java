@@ -3,7 +3,8 @@ package eu.righettod.poc.sanitizer;
 import java.io.File;
 
 /**
- * Interface to define sanitize methods.
+ * Interface to define sanitize methods.<br>
+ * An instance is shared by all the uploads, so implementations must be thread-safe.
  *
  */
 public interface DocumentSanitizer {
@@ -0,0 +1,321 @@
+package eu.righettod.poc.sanitizer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Rewrite of all the frames of a multi-frame image (animated GIF, multi-page TIFF) with the "shrink 1px then restore" re-sampling of the
+ * sanitizer:<br>
+ * <ul>
+ * <li>Frames are decoded in order by the calling thread, the reader being not thread-safe</li>
+ * <li>Each frame is re-sampled by a task of a bounded fork-join pool, so several frames are re-sampled in parallel</li>
+ * <li>Frames are written in order with the sequence methods of the writer, as soon as their re-sampling is done</li>
+ * <li>At most "window" frames are decoded and not yet written, so the memory needed depends on the window instead of the count of frames</li>
+ * </ul>
+ * For GIF images, only the position, the disposal method and the delay of the frames, the loop count of the animation and the logical
+ * screen size are kept, all the others metadata (comments, plain text, others application extensions) are dropped. The transparent pixels
+ * of the GIF frames are kept transparent, so the delta frames of an animation still show the previous frames through them: The mask of the
+ * transparent pixels is re-sampled like the colors and the writer reserves a transparent index in the palette of the frame.<br>
+ * For the others formats, no metadata is kept and frames are written opaque, like the images rewritten.<br>
+ * A frame with a dimension of 1 pixel cannot be shrunk: Its pixels are only encoded again.<br>
+ * The pixels buffers of the frames are not taken from the {@link ImageResourcePool}: The workers of the fork-join pool terminate when idle,
+ * so the buffers retained by their buckets would never be deducted from the limit of the resource pool.<br>
+ * Thread-safe: No state is kept between two calls.
+ */
+final class FrameSequenceRewriter {
+
+    /**
+     * Native metadata formats of the GIF images
+     */
+    private static final String GIF_STREAM_METADATA_FORMAT = "javax_imageio_gif_stream_1.0";
+    private static final String GIF_IMAGE_METADATA_FORMAT = "javax_imageio_gif_image_1.0";
+
+    /**
+     * Color model of the sanitized GIF frames having transparent pixels ({@link BufferedImage#TYPE_INT_ARGB} layout)
+     */
+    private static final DirectColorModel TRANSPARENT_COLOR_MODEL = (DirectColorModel) ColorModel.getRGBdefault();
+
+    /**
+     * Opaque and transparent pixels of the mask of the transparent pixels
+     */
+    private static final int MASK_OPAQUE = 0xFFFFFFFF;
+    private static final int MASK_TRANSPARENT = 0xFF000000;
+
+    /**
+     * Re-sampling engine, running on the pool of the frames tasks
+     */
+    private final ImageResampler resampler;
+
+    /**
+     * Pool running the frames tasks
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Maximum count of frames decoded and not yet written
+     */
+    private final int window;
+
+    /**
+     * Constructor
+     *
+     * @param pool   Pool running the frames tasks
+     * @param window Maximum count of frames decoded and not yet written
+     */
+    FrameSequenceRewriter(ForkJoinPool pool, int window) {
+        this.pool = pool;
+        this.resampler = new ImageResampler(pool);
+        this.window = window;
+    }
+
+    /**
+     * Rewrite all the frames of an image.
+     *
+     * @param reader     Reader of the original image, input already set
+     * @param frameCount Count of frames of the original image
+     * @param writer     Writer of the sanitized image, output already set, supporting the writing of sequences
+     * @throws IOException If a frame cannot be read, re-sampled or written
+     */
+    void rewrite(ImageReader reader, int frameCount, ImageWriter writer) throws IOException {
+        boolean gif = "gif".equalsIgnoreCase(reader.getFormatName());
+        writer.prepareWriteSequence(gif ? gifStreamMetadata(reader, writer) : null);
+        Deque<ForkJoinTask<IIOImage>> pendingFrames = new ArrayDeque<>();
+        try {
+            for (int i = 0; i < frameCount; i++) {
+                // Step 1: Decode the frame then re-sample it in a task
+                BufferedImage frame = reader.read(i);
+                if (frame == null) {
+                    throw new IOException("Cannot load the frame " + i + " of the original image !");
+                }
+                IIOMetadata metadata = gif ? gifFrameMetadata(reader, i, writer) : null;
+                pendingFrames.addLast(this.pool.submit(() -> new IIOImage(this.resample(frame, gif), null, metadata)));
+                // Step 2: Write the oldest frame when the window is full
+                if (pendingFrames.size() >= this.window) {
+                    writer.writeToSequence(join(pendingFrames.pollFirst()), null);
+                }
+            }
+            while (!pendingFrames.isEmpty()) {
+                writer.writeToSequence(join(pendingFrames.pollFirst()), null);
+            }
+            writer.endWriteSequence();
+        } finally {
+            for (ForkJoinTask<IIOImage> pendingFrame : pendingFrames) {
+                pendingFrame.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Re-sample a frame.
+     *
+     * @param frame            Original frame
+     * @param keepTransparency Flag to keep the transparent pixels of the frame
+     * @return The sanitized frame
+     */
+    private BufferedImage resample(BufferedImage frame, boolean keepTransparency) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int[] originalPixels = frame.getRGB(0, 0, width, height, null, 0, width);
+        int[] mask = keepTransparency ? transparencyMask(originalPixels) : null;
+        int[] sanitizedPixels;
+        if (width < 2 || height < 2) {
+            sanitizedPixels = originalPixels;
+            for (int i = 0; i < sanitizedPixels.length; i++) {
+                sanitizedPixels[i] |= 0xFF000000;
+            }
+        } else {
+            sanitizedPixels = this.shrinkAndRestore(originalPixels, width, height);
+            if (mask != null) {
+                mask = this.shrinkAndRestore(mask, width, height);
+            }
+        }
+        if (mask == null) {
+            return ImageDocumentSanitizerImpl.createSanitizedImage(sanitizedPixels, width, height);
+        }
+        // Pixels mostly transparent after the re-sampling of the mask are made fully transparent
+        for (int i = 0; i < sanitizedPixels.length; i++) {
+            if ((mask[i] & 0xFF) < 0x80) {
+                sanitizedPixels[i] = 0;
+            }
+        }
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(sanitizedPixels, width * height), width, height, width, TRANSPARENT_COLOR_MODEL.getMasks(), null);
+        return new BufferedImage(TRANSPARENT_COLOR_MODEL, raster, false, null);
+    }
+
+    /**
+     * Re-sample pixels by shrinking them by 1px on width and height then restoring the original size.
+     *
+     * @param pixels Pixels (ARGB packed, row by row)
+     * @param width  Width of the pixels, at least 2
+     * @param height Height of the pixels, at least 2
+     * @return The re-sampled pixels (opaque ARGB packed, row by row)
+     */
+    private int[] shrinkAndRestore(int[] pixels, int width, int height) {
+        int[] resizedPixels = new int[(width - 1) * (height - 1)];
+        int[] restoredPixels = new int[width * height];
+        this.resampler.resample(pixels, width, height, resizedPixels, width - 1, height - 1);
+        this.resampler.resample(resizedPixels, width - 1, height - 1, restoredPixels, width, height);
+        return restoredPixels;
+    }
+
+    /**
+     * Build the mask of the transparent pixels of a frame, as an opaque image to be re-sampled like the colors.
+     *
+     * @param pixels Pixels of the frame (ARGB packed, row by row)
+     * @return The mask (white for the opaque pixels, black for the transparent pixels) or null if the frame has no transparent pixel
+     */
+    private static int[] transparencyMask(int[] pixels) {
+        int[] mask = null;
+        for (int i = 0; i < pixels.length; i++) {
+            if ((pixels[i] >>> 24) == 0) {
+                if (mask == null) {
+                    mask = new int[pixels.length];
+                    Arrays.fill(mask, MASK_OPAQUE);
+                }
+                mask[i] = MASK_TRANSPARENT;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Wait for the re-sampling of a frame.
+     *
+     * @param task Task re-sampling the frame
+     * @return The sanitized frame with its metadata
+     * @throws IOException If the frame cannot be re-sampled
+     */
+    private static IIOImage join(ForkJoinTask<IIOImage> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while re-sampling a frame !", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot re-sample a frame !", e.getCause());
+        }
+    }
+
+    /**
+     * Build the stream metadata of a GIF image: Only the logical screen size of the original image is kept.
+     *
+     * @param reader Reader of the original image
+     * @param writer Writer of the sanitized image
+     * @return The stream metadata
+     * @throws IOException If the original stream metadata cannot be read
+     */
+    private static IIOMetadata gifStreamMetadata(ImageReader reader, ImageWriter writer) throws IOException {
+        IIOMetadataNode original = (IIOMetadataNode) reader.getStreamMetadata().getAsTree(GIF_STREAM_METADATA_FORMAT);
+        IIOMetadataNode originalScreen = child(original, "LogicalScreenDescriptor");
+        IIOMetadata metadata = writer.getDefaultStreamMetadata(null);
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(GIF_STREAM_METADATA_FORMAT);
+        IIOMetadataNode screen = child(root, "LogicalScreenDescriptor");
+        screen.setAttribute("logicalScreenWidth", originalScreen.getAttribute("logicalScreenWidth"));
+        screen.setAttribute("logicalScreenHeight", originalScreen.getAttribute("logicalScreenHeight"));
+        screen.setAttribute("colorResolution", "8");
+        metadata.setFromTree(GIF_STREAM_METADATA_FORMAT, root);
+        return metadata;
+    }
+
+    /**
+     * Build the metadata of a frame of a GIF image: Only the position, the disposal method and the delay of the frame, and the loop count of
+     * the animation for the first frame, are kept.
+     *
+     * @param reader     Reader of the original image
+     * @param frameIndex Index of the frame
+     * @param writer     Writer of the sanitized image
+     * @return The frame metadata
+     * @throws IOException If the original frame metadata cannot be read
+     */
+    private static IIOMetadata gifFrameMetadata(ImageReader reader, int frameIndex, ImageWriter writer) throws IOException {
+        IIOMetadataNode original = (IIOMetadataNode) reader.getImageMetadata(frameIndex).getAsTree(GIF_IMAGE_METADATA_FORMAT);
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB), null);
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(GIF_IMAGE_METADATA_FORMAT);
+        // Position of the frame
+        IIOMetadataNode originalDescriptor = child(original, "ImageDescriptor");
+        IIOMetadataNode descriptor = child(root, "ImageDescriptor");
+        descriptor.setAttribute("imageLeftPosition", originalDescriptor.getAttribute("imageLeftPosition"));
+        descriptor.setAttribute("imageTopPosition", originalDescriptor.getAttribute("imageTopPosition"));
+        // Disposal method and delay, the transparent index being set by the writer from the palette of the sanitized frame
+        IIOMetadataNode originalControl = findChild(original, "GraphicControlExtension");
+        IIOMetadataNode control = child(root, "GraphicControlExtension");
+        control.setAttribute("disposalMethod", (originalControl != null) ? originalControl.getAttribute("disposalMethod") : "none");
+        control.setAttribute("delayTime", (originalControl != null) ? originalControl.getAttribute("delayTime") : "0");
+        control.setAttribute("userInputFlag", "FALSE");
+        // Loop count of the animation, rebuilt from its value
+        int loopCount = (frameIndex == 0) ? gifLoopCount(original) : -1;
+        if (loopCount >= 0) {
+            IIOMetadataNode extension = new IIOMetadataNode("ApplicationExtension");
+            extension.setAttribute("applicationID", "NETSCAPE");
+            extension.setAttribute("authenticationCode", "2.0");
+            extension.setUserObject(new byte[]{1, (byte) (loopCount & 0xFF), (byte) ((loopCount >> 8) & 0xFF)});
+            child(root, "ApplicationExtensions").appendChild(extension);
+        }
+        metadata.setFromTree(GIF_IMAGE_METADATA_FORMAT, root);
+        return metadata;
+    }
+
+    /**
+     * @param original Metadata of the first frame of the original image
+     * @return The loop count of the animation or -1 if not defined
+     */
+    private static int gifLoopCount(IIOMetadataNode original) {
+        IIOMetadataNode extensions = findChild(original, "ApplicationExtensions");
+        if (extensions == null) {
+            return -1;
+        }
+        for (int i = 0; i < extensions.getLength(); i++) {
+            IIOMetadataNode extension = (IIOMetadataNode) extensions.item(i);
+            Object data = extension.getUserObject();
+            if ("NETSCAPE".equals(extension.getAttribute("applicationID")) && "2.0".equals(extension.getAttribute("authenticationCode")) && (data instanceof byte[]) && ((byte[]) data).length == 3 && ((byte[]) data)[0] == 1) {
+                return (((byte[]) data)[1] & 0xFF) | ((((byte[]) data)[2] & 0xFF) << 8);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param parent Metadata node
+     * @param name   Name of the child
+     * @return The first child with the name or null if none
+     */
+    private static IIOMetadataNode findChild(IIOMetadataNode parent, String name) {
+        for (int i = 0; i < parent.getLength(); i++) {
+            if (parent.item(i).getNodeName().equals(name)) {
+                return (IIOMetadataNode) parent.item(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param parent Metadata node
+     * @param name   Name of the child
+     * @return The first child with the name, created if none
+     */
+    private static IIOMetadataNode child(IIOMetadataNode parent, String name) {
+        IIOMetadataNode node = findChild(parent, name);
+        if (node == null) {
+            node = new IIOMetadataNode(name);
+            parent.appendChild(node);
+        }
+        return node;
+    }
+}
@@ -0,0 +1,208 @@
+package eu.righettod.poc.sanitizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lossless sanitizing of a GIF image by filtering its blocks, the pixels are never decoded:<br>
+ * <ul>
+ * <li>Header, logical screen descriptor, color tables and images (descriptor and LZW data) are kept, copied with channel transfers</li>
+ * <li>Graphic control extensions (transparency, delay of the frames) are kept, rebuilt from their fixed fields</li>
+ * <li>Loop count of an animation (NETSCAPE2.0 application extension) is kept, rebuilt from its fixed fields</li>
+ * <li>Comments, plain text and others application extensions, and data after the trailer are dropped</li>
+ * </ul>
+ * Unexpected structures (missing header, truncated block, unknown block...) are rejected with an {@link IOException}.<br>
+ * Thread-safe, no state is kept between two calls.
+ */
+public final class GifBlockSanitizer {
+
+    /**
+     * Blocks introducers and labels used
+     */
+    private static final int IMAGE_SEPARATOR = 0x2C;
+    private static final int EXTENSION_INTRODUCER = 0x21;
+    private static final int TRAILER = 0x3B;
+    private static final int GRAPHIC_CONTROL_LABEL = 0xF9;
+    private static final int APPLICATION_LABEL = 0xFF;
+
+    /**
+     * Length of the header and of the logical screen descriptor
+     */
+    private static final int HEADER_LENGTH = 13;
+
+    /**
+     * Length of the image descriptor, separator included
+     */
+    private static final int IMAGE_DESCRIPTOR_LENGTH = 10;
+
+    /**
+     * Identifier of the application extension defining the loop count of an animation
+     */
+    private static final byte[] NETSCAPE_IDENTIFIER = "NETSCAPE2.0".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Constructor
+     */
+    private GifBlockSanitizer() {
+    }
+
+    /**
+     * Verify if a content start with a GIF header.
+     *
+     * @param header First bytes of the content
+     * @return TRUE only if the content is a GIF image
+     */
+    public static boolean isGif(byte[] header) {
+        if (header.length < 6) {
+            return false;
+        }
+        String signature = new String(header, 0, 6, StandardCharsets.US_ASCII);
+        return "GIF87a".equals(signature) || "GIF89a".equals(signature);
+    }
+
+    /**
+     * Write the sanitized image.
+     *
+     * @param source Channel of the original image, read from its beginning
+     * @param target Channel receiving the sanitized image, written from its current position
+     * @throws IOException If the original image is not a GIF image with the expected structure or cannot be read/written
+     */
+    public static void sanitize(FileChannel source, FileChannel target) throws IOException {
+        long size = source.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("GIF image is too big !");
+        }
+        ChannelWindow data = new ChannelWindow(source);
+        int limit = (int) size;
+        if (limit < HEADER_LENGTH || !isGif(data.copy(0, 6))) {
+            throw new IOException("GIF header expected !");
+        }
+        // Step 1: Header, logical screen descriptor and global color table
+        int position = HEADER_LENGTH + colorTableLength(data.unsignedByte(10));
+        checkAvailable(position, 0, limit);
+        ChannelCopy.transfer(source, 0, position, target);
+        boolean imageFound = false;
+        while (true) {
+            checkAvailable(position, 1, limit);
+            int introducer = data.unsignedByte(position);
+            if (introducer == TRAILER) {
+                if (!imageFound) {
+                    throw new IOException("Image expected !");
+                }
+                // Data after the trailer are dropped
+                ChannelCopy.write(target, ByteBuffer.wrap(new byte[]{(byte) TRAILER}));
+                return;
+            }
+            if (introducer == IMAGE_SEPARATOR) {
+                // Step 2: Image descriptor, local color table, LZW minimum code size and data sub-blocks
+                checkAvailable(position, IMAGE_DESCRIPTOR_LENGTH + 1, limit);
+                int imageDataStart = position + IMAGE_DESCRIPTOR_LENGTH + colorTableLength(data.unsignedByte(position + 9)) + 1;
+                int next = skipSubBlocks(data, imageDataStart, limit);
+                ChannelCopy.transfer(source, position, next - position, target);
+                imageFound = true;
+                position = next;
+            } else if (introducer == EXTENSION_INTRODUCER) {
+                // Step 3: Extensions, only the fixed fields of the extensions kept are written
+                checkAvailable(position, 2, limit);
+                int label = data.unsignedByte(position + 1);
+                int subBlocksStart = position + 2;
+                int next = skipSubBlocks(data, subBlocksStart, limit);
+                if (label == GRAPHIC_CONTROL_LABEL && data.unsignedByte(subBlocksStart) == 4) {
+                    writeExtension(target, label, data.copy(subBlocksStart + 1, 4));
+                } else if (label == APPLICATION_LABEL && isLoopCountExtension(data, subBlocksStart, next)) {
+                    // Application identifier then loop count sub-block
+                    writeExtension(target, label, data.copy(subBlocksStart + 1, NETSCAPE_IDENTIFIER.length), data.copy(subBlocksStart + NETSCAPE_IDENTIFIER.length + 2, 3));
+                }
+                position = next;
+            } else {
+                throw new IOException("Unsupported block 0x" + Integer.toHexString(introducer) + " at offset " + position + " !");
+            }
+        }
+    }
+
+    /**
+     * @param data           Original image
+     * @param subBlocksStart Offset of the sub-blocks of the application extension
+     * @param end            Offset following the extension
+     * @return TRUE only if the extension is a NETSCAPE2.0 extension with a single loop count sub-block
+     * @throws IOException If the extension cannot be read
+     */
+    private static boolean isLoopCountExtension(ChannelWindow data, int subBlocksStart, int end) throws IOException {
+        int loopSubBlock = subBlocksStart + 1 + NETSCAPE_IDENTIFIER.length;
+        if (data.unsignedByte(subBlocksStart) != NETSCAPE_IDENTIFIER.length || loopSubBlock + 5 != end) {
+            return false;
+        }
+        for (int i = 0; i < NETSCAPE_IDENTIFIER.length; i++) {
+            if (data.unsignedByte(subBlocksStart + 1 + i) != (NETSCAPE_IDENTIFIER[i] & 0xFF)) {
+                return false;
+            }
+        }
+        return data.unsignedByte(loopSubBlock) == 3 && data.unsignedByte(loopSubBlock + 1) == 1;
+    }
+
+    /**
+     * Find the end of a sequence of data sub-blocks.
+     *
+     * @param data     Original image
+     * @param position Offset of the first sub-block
+     * @param limit    Size of the original image
+     * @return The offset following the block terminator
+     * @throws IOException If the end of the image is reached
+     */
+    private static int skipSubBlocks(ChannelWindow data, int position, int limit) throws IOException {
+        int current = position;
+        while (true) {
+            checkAvailable(current, 1, limit);
+            int length = data.unsignedByte(current);
+            current += 1 + length;
+            if (length == 0) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Write an extension made of sub-blocks.
+     *
+     * @param target    Channel receiving the sanitized image
+     * @param label     Label of the extension
+     * @param subBlocks Content of the sub-blocks
+     * @throws IOException If the extension cannot be written
+     */
+    private static void writeExtension(FileChannel target, int label, byte[]... subBlocks) throws IOException {
+        int length = 3;
+        for (byte[] subBlock : subBlocks) {
+            length += 1 + subBlock.length;
+        }
+        ByteBuffer extension = ByteBuffer.allocate(length);
+        extension.put((byte) EXTENSION_INTRODUCER).put((byte) label);
+        for (byte[] subBlock : subBlocks) {
+            extension.put((byte) subBlock.length).put(subBlock);
+        }
+        extension.put((byte) 0);
+        extension.flip();
+        ChannelCopy.write(target, extension);
+    }
+
+    /**
+     * @param flags Packed fields of a logical screen descriptor or an image descriptor
+     * @return The length of the color table following the descriptor
+     */
+    private static int colorTableLength(int flags) {
+        return ((flags & 0x80) != 0) ? 3 * (2 << (flags & 0x07)) : 0;
+    }
+
+    /**
+     * @param position Offset of the bytes
+     * @param count    Count of bytes needed
+     * @param limit    Size of the original image
+     * @throws IOException If the bytes are not available
+     */
+    private static void checkAvailable(int position, int count, int limit) throws IOException {
+        if (position < 0 || (long) position + count > limit) {
+            throw new IOException("Truncated GIF image !");
+        }
+    }
+}
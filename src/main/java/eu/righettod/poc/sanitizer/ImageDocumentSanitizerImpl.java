@@ -1,49 +1,235 @@
 package eu.righettod.poc.sanitizer;
 
-import org.apache.commons.imaging.ImageInfo;
+import org.apache.commons.imaging.ImageFormat;
+import org.apache.commons.imaging.ImageFormats;
 import org.apache.commons.imaging.ImageParser;
 import org.apache.commons.imaging.Imaging;
-import org.apache.commons.imaging.formats.bmp.BmpImageParser;
-import org.apache.commons.imaging.formats.dcx.DcxImageParser;
-import org.apache.commons.imaging.formats.gif.GifImageParser;
-import org.apache.commons.imaging.formats.pcx.PcxImageParser;
-import org.apache.commons.imaging.formats.png.PngImageParser;
-import org.apache.commons.imaging.formats.tiff.TiffImageParser;
-import org.apache.commons.imaging.formats.wbmp.WbmpImageParser;
-import org.apache.commons.imaging.formats.xbm.XbmImageParser;
-import org.apache.commons.imaging.formats.xpm.XpmImageParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageWriterSpi;
 import javax.imageio.stream.ImageInputStream;
-import java.awt.Graphics;
-import java.awt.Image;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of the sanitizer for Image file.
  * <p>
  * Use Java built-in API in complement of Apache Commons Imaging for format not supported by the built-in API.
+ * <p>
+ * The image is opened once: The reader (or the parser) selected to detect the format is also used to read the dimensions then to decode the
+ * image. Writer providers and parsers are looked up once by format then cached.
+ * <p>
+ * Pixels buffers of the rewrite, readers and writers are reused between the images sanitized by a same thread with an
+ * {@link ImageResourcePool}, in order to avoid the allocation of several big arrays by image.
+ * <p>
+ * The re-sampling is performed by an {@link ImageResampler} running on the common {@link ForkJoinPool}. The PNG images rewritten are encoded
+ * by a {@link ParallelPngEncoder}, compressing the image data on the same pool, unless disabled by the settings.
+ * <p>
+ * For the formats in {@link ImageSanitizerSettings.Mode#STREAMING} mode, JPEG, PNG and GIF images are sanitized without decoding the pixels
+ * by the {@link JpegSegmentSanitizer}, the {@link PngChunkSanitizer} and the {@link GifBlockSanitizer}, the sanitized image is written into a
+ * sibling file then moved over the original file. Images that cannot be sanitized in this way are rewritten.
+ * <p>
+ * For the formats in {@link ImageSanitizerSettings.Mode#TILED} mode, PNG, BMP and TIFF images are rewritten by tiles (strips of rows) with a
+ * {@link TiledResampledImage}: Each tile is decoded from a region of the original image then pulled by the image writer, which read the
+ * image by rows for these formats, so the peak memory depends on the tile size instead of the image size. The rewritten image is written
+ * into a sibling file then moved over the original file.
+ * <p>
+ * For the formats in {@link ImageSanitizerSettings.Mode#MULTI_FRAME} mode, all the frames of the animated GIF and multi-page TIFF images
+ * are rewritten by a {@link FrameSequenceRewriter}: Frames are re-sampled in parallel on a fork-join pool dedicated to the frames, bounded
+ * by the settings, and at most a window of frames is kept in memory. The rewritten image is written into a sibling file then moved over the
+ * original file. Images with a single frame are rewritten. In the others modes, only the first frame is kept. The fork-join pool dedicated to
+ * the frames is shut down by {@link #close()}.
+ * <p>
+ * In all the modes, the sanitized image is written into a sibling file then published over the original file by an atomic move with a
+ * {@link SiblingFilePublisher}, so the original file is never partially overwritten and its content is forced to the storage according to
+ * the sync policy of the settings.
+ * <p>
+ * Before any decoding, the dimensions declared in the image header are checked against the pixel budget of the settings and the memory
+ * needed by the rewrite is checked against the free heap, in order to reject the decompression bombs (small file declaring huge dimensions).
+ * <p>
+ * Thread-safe: images are local to a call, readers, writers and buffers are only reused by a same thread and the cached parsers do not
+ * keep any state between two calls, so one instance can sanitize several uploads in parallel.
  *
  * @see "http://commons.apache.org/proper/commons-imaging/"
  * @see "http://commons.apache.org/proper/commons-imaging/formatsupport.html"
  */
-public class ImageDocumentSanitizerImpl implements DocumentSanitizer {
+public class ImageDocumentSanitizerImpl implements DocumentSanitizer, Closeable {
 
     /**
      * LOGGER
      */
     private static final Logger LOG = LoggerFactory.getLogger(ImageDocumentSanitizerImpl.class);
 
+    /**
+     * Estimation of the count of bytes needed by pixel to rewrite the tiles or the frames of an image: Decoded pixels, ARGB pixels, the two
+     * re-sampled pixels arrays and the sanitized pixels (4 bytes each)
+     */
+    private static final int REWRITE_BYTES_PER_PIXEL = 20;
+
+    /**
+     * Count of bytes needed by pixel for the decoded image and the sanitized image of a rewrite in one pass, the pixels arrays being
+     * acquired from the resource pool (4 bytes each)
+     */
+    private static final int IMAGES_BYTES_PER_PIXEL = 8;
+
+    /**
+     * Formats handled by the tiled mode, by format name of the image reader
+     */
+    private static final Map<String, String> TILED_FORMATS = new HashMap<>();
+
+    static {
+        TILED_FORMATS.put("png", ImageSanitizerSettings.FORMAT_PNG);
+        TILED_FORMATS.put("bmp", ImageSanitizerSettings.FORMAT_BMP);
+        TILED_FORMATS.put("tif", ImageSanitizerSettings.FORMAT_TIFF);
+        TILED_FORMATS.put("tiff", ImageSanitizerSettings.FORMAT_TIFF);
+    }
+
+    /**
+     * Formats handled by the multi-frame mode, by format name of the image reader
+     */
+    private static final Map<String, String> MULTI_FRAME_FORMATS = new HashMap<>();
+
+    static {
+        MULTI_FRAME_FORMATS.put("gif", ImageSanitizerSettings.FORMAT_GIF);
+        MULTI_FRAME_FORMATS.put("tif", ImageSanitizerSettings.FORMAT_TIFF);
+        MULTI_FRAME_FORMATS.put("tiff", ImageSanitizerSettings.FORMAT_TIFF);
+    }
+
+    /**
+     * Apache Commons Imaging parsers by format, the parsers do not keep any state between two calls so they are shared
+     */
+    private static final Map<ImageFormat, ImageParser> APACHE_COMMONS_IMAGING_PARSERS = new HashMap<>();
+
+    /**
+     * Formats for which Apache Commons Imaging can successfully write (YES in Write column of the reference link) the image format
+     */
+    private static final Set<ImageFormats> APACHE_COMMONS_IMAGING_WRITABLE_FORMATS = EnumSet.of(ImageFormats.TIFF, ImageFormats.PCX, ImageFormats.DCX, ImageFormats.BMP, ImageFormats.GIF, ImageFormats.PNG, ImageFormats.WBMP, ImageFormats.XBM, ImageFormats.XPM);
+
+    static {
+        for (ImageFormats imageFormat : ImageFormats.values()) {
+            for (ImageParser imageParser : ImageParser.getAllImageParsers()) {
+                if (imageFormat != ImageFormats.UNKNOWN && imageParser.canAcceptType(imageFormat)) {
+                    APACHE_COMMONS_IMAGING_PARSERS.putIfAbsent(imageFormat, imageParser);
+                }
+            }
+        }
+    }
+
+    /**
+     * Image writer providers by image reader provider, looked up once
+     */
+    private static final ConcurrentMap<ImageReaderSpi, ImageWriterSpi> IMAGE_WRITER_SPIS = new ConcurrentHashMap<>();
+
+    /**
+     * Color model of the sanitized images ({@link BufferedImage#TYPE_INT_RGB} layout)
+     */
+    private static final DirectColorModel SANITIZED_COLOR_MODEL = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+
+    /**
+     * Re-sampling engine
+     */
+    private final ImageResampler resampler = new ImageResampler(ForkJoinPool.commonPool());
+
+    /**
+     * Settings
+     */
+    private final ImageSanitizerSettings settings;
+
+    /**
+     * Count of images rejected before decoding because of their dimensions
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Pool of the pixels buffers, readers and writers
+     */
+    private final ImageResourcePool resourcePool;
+
+    /**
+     * Pool dedicated to the frames of the multi-frame images, null if the multi-frame mode is not used
+     */
+    private final ForkJoinPool framePool;
+
+    /**
+     * Rewrite of the multi-frame images, null if the multi-frame mode is not used
+     */
+    private final FrameSequenceRewriter frameRewriter;
+
+    /**
+     * Encoder of the PNG images rewritten, null if the parallel encoding is disabled
+     */
+    private final ParallelPngEncoder pngEncoder;
+
+    /**
+     * Publication of the sanitized images over the original files
+     */
+    private final SiblingFilePublisher publisher;
+
+    /**
+     * Constructor using the default settings
+     */
+    public ImageDocumentSanitizerImpl() {
+        this(new ImageSanitizerSettings());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param settings Settings
+     */
+    public ImageDocumentSanitizerImpl(ImageSanitizerSettings settings) {
+        this.settings = settings;
+        this.resourcePool = new ImageResourcePool(settings.getPoolMaxBytes());
+        if (settings.isModeUsed(ImageSanitizerSettings.Mode.MULTI_FRAME)) {
+            this.framePool = new ForkJoinPool(settings.getFrameThreads());
+            this.frameRewriter = new FrameSequenceRewriter(this.framePool, settings.getFrameWindow());
+        } else {
+            this.framePool = null;
+            this.frameRewriter = null;
+        }
+        ImageSanitizerSettings.Mode tiffMode = settings.getMode(ImageSanitizerSettings.FORMAT_TIFF);
+        if ((tiffMode == ImageSanitizerSettings.Mode.TILED || tiffMode == ImageSanitizerSettings.Mode.MULTI_FRAME) && !isTiffSupported()) {
+            LOG.warn("No TIFF reader or writer in the Java image API (Java 9 or later is required), the TIFF images will be rewritten from their first frame by Apache Commons Imaging instead of the {} mode !", tiffMode);
+        }
+        if (settings.isPngParallelEncoding()) {
+            this.pngEncoder = new ParallelPngEncoder(ForkJoinPool.commonPool(), settings.getPngCompressionLevel(), settings.getPngCompressionStrategy(), ParallelPngEncoder.DEFAULT_BLOCK_BYTES);
+        } else {
+            this.pngEncoder = null;
+        }
+        this.publisher = new SiblingFilePublisher(settings.getSyncPolicy(), settings.getSyncBatchSize());
+    }
 
     /**
      * {@inheritDoc}
@@ -53,35 +239,79 @@ public class ImageDocumentSanitizerImpl implements DocumentSanitizer {
     @Override
     public boolean madeSafe(File f) {
         boolean safeState = false;
-        boolean fallbackOnApacheCommonsImaging;
         try {
             if ((f != null) && f.exists() && f.canRead() && f.canWrite()) {
-                //Get the image format
-                String formatName;
+                // Sanitize without decoding the pixels when the format allow it
+                if (this.settings.isModeUsed(ImageSanitizerSettings.Mode.STREAMING) && this.madeSafeByStreaming(f)) {
+                    return true;
+                }
+
+                //Get the image format, dimensions and content from a single open of the image
+                ImageWriterSpi imageWriterSpi = null;
+                ImageParser imageParser = null;
+                BufferedImage originalImage = null;
+                Path sibling = null;
                 try (ImageInputStream iis = ImageIO.createImageInputStream(f)) {
-                    Iterator<ImageReader> imageReaderIterator = ImageIO.getImageReaders(iis);
-                    //If there not ImageReader instance found so it's means that the current format is not supported by the Java built-in API
-                    if (!imageReaderIterator.hasNext()) {
-                        ImageInfo imageInfo = Imaging.getImageInfo(f);
-                        if (imageInfo != null && imageInfo.getFormat() != null && imageInfo.getFormat().getName() != null) {
-                            formatName = imageInfo.getFormat().getName();
-                            fallbackOnApacheCommonsImaging = true;
-                        } else {
+                    ImageReaderSpi imageReaderSpi = findImageReaderSpi(iis);
+                    //If there not ImageReader provider found so it's means that the current format is not supported by the Java built-in API
+                    if (imageReaderSpi == null) {
+                        // Content read once from the stream already opened then used for all the Apache Commons Imaging operations
+                        byte[] content = readContent(iis);
+                        ImageFormat imageFormat = Imaging.guessFormat(content);
+                        if (imageFormat == ImageFormats.UNKNOWN) {
+                            // Format without signature (PCX, XPM...) identified by the file extension, like Apache Commons Imaging do
+                            imageFormat = findFormatByExtension(f);
+                        }
+                        imageParser = APACHE_COMMONS_IMAGING_PARSERS.get(imageFormat);
+                        if (imageParser == null) {
                             throw new IOException("Format of the original image is not supported for read operation !");
                         }
+                        if (!APACHE_COMMONS_IMAGING_WRITABLE_FORMATS.contains(imageFormat)) {
+                            throw new IOException("Format of the original image is not supported for write operation !");
+                        }
+                        // Dimensions read from the header only
+                        Dimension imageSize = imageParser.getImageSize(content, new HashMap<>());
+                        this.checkDecodingAdmission(imageSize.width, imageSize.height, -1);
+                        originalImage = imageParser.getBufferedImage(content, new HashMap<>());
                     } else {
-                        ImageReader reader = imageReaderIterator.next();
-                        formatName = reader.getFormatName();
-                        fallbackOnApacheCommonsImaging = false;
+                        ImageReader reader = this.resourcePool.acquireReader(imageReaderSpi);
+                        try {
+                            imageWriterSpi = findImageWriterSpi(reader);
+                            if (imageWriterSpi == null) {
+                                throw new IOException("Format of the original image is not supported for write operation !");
+                            }
+                            String formatName = reader.getFormatName().toLowerCase(Locale.US);
+                            String tiledFormat = TILED_FORMATS.get(formatName);
+                            String multiFrameFormat = MULTI_FRAME_FORMATS.get(formatName);
+                            boolean multiFrame = multiFrameFormat != null && this.settings.getMode(multiFrameFormat) == ImageSanitizerSettings.Mode.MULTI_FRAME;
+                            // Dimensions read from the header only, no pixel is decoded (frames and their metadata are read in any order in
+                            // multi-frame mode)
+                            reader.setInput(iis, !multiFrame, !multiFrame);
+                            int width = reader.getWidth(0);
+                            int height = reader.getHeight(0);
+                            int frameCount = multiFrame ? reader.getNumImages(true) : 1;
+                            if (tiledFormat != null && this.settings.getMode(tiledFormat) == ImageSanitizerSettings.Mode.TILED) {
+                                // Rewrite the image by tiles
+                                this.checkDecodingAdmission(width, height, Math.min(height, this.tileRows(width) + 2));
+                                sibling = this.writeTilesIntoSibling(f, reader, imageWriterSpi, width, height);
+                            } else if (frameCount > 1) {
+                                // Rewrite all the frames of the image
+                                this.checkFramesAdmission(reader, frameCount);
+                                sibling = this.writeFramesIntoSibling(f, reader, imageWriterSpi, frameCount);
+                            } else {
+                                this.checkDecodingAdmission(width, height, -1);
+                                originalImage = reader.read(0);
+                            }
+                        } finally {
+                            this.resourcePool.releaseReader(reader);
+                        }
                     }
                 }
 
-                // Load the image
-                BufferedImage originalImage;
-                if (!fallbackOnApacheCommonsImaging) {
-                    originalImage = ImageIO.read(f);
-                } else {
-                    originalImage = Imaging.getBufferedImage(f);
+                // The original image is closed so the image rewritten by tiles or by frames can replace it
+                if (sibling != null) {
+                    this.publisher.publish(sibling, f);
+                    return true;
                 }
 
                 // Check that image has been successfully loaded
@@ -94,69 +324,48 @@ public class ImageDocumentSanitizerImpl implements DocumentSanitizer {
                 int originalHeight = originalImage.getHeight(null);
 
 
-                // Resize the image by removing 1px on Width and Height
-                Image resizedImage = originalImage.getScaledInstance(originalWidth - 1, originalHeight - 1, Image.SCALE_SMOOTH);
+                // Pooled pixels buffers, can be bigger than the images
+                int[] originalPixels = this.resourcePool.acquireBuffer(originalWidth * originalHeight);
+                int[] resizedPixels = this.resourcePool.acquireBuffer((originalWidth - 1) * (originalHeight - 1));
+                int[] initialSizedPixels = this.resourcePool.acquireBuffer(originalWidth * originalHeight);
+                try {
+                    // Resize the image by removing 1px on Width and Height
+                    originalImage.getRGB(0, 0, originalWidth, originalHeight, originalPixels, 0, originalWidth);
+                    originalImage = null;
+                    this.resampler.resample(originalPixels, originalWidth, originalHeight, resizedPixels, originalWidth - 1, originalHeight - 1);
 
-                // Resize the resized image by adding 1px on Width and Height - In fact set image to is initial size
-                Image initialSizedImage = resizedImage.getScaledInstance(originalWidth, originalHeight, Image.SCALE_SMOOTH);
+                    // Resize the resized image by adding 1px on Width and Height - In fact set image to is initial size
+                    this.resampler.resample(resizedPixels, originalWidth - 1, originalHeight - 1, initialSizedPixels, originalWidth, originalHeight);
 
-                // Save image by overwriting the provided source file content
-                BufferedImage sanitizedImage = new BufferedImage(initialSizedImage.getWidth(null), initialSizedImage.getHeight(null), BufferedImage.TYPE_INT_RGB);
-                Graphics bg = sanitizedImage.getGraphics();
-                bg.drawImage(initialSizedImage, 0, 0, null);
-                bg.dispose();
-                try (OutputStream fos = Files.newOutputStream(f.toPath(), StandardOpenOption.WRITE)) {
-                    if (!fallbackOnApacheCommonsImaging) {
-                        ImageIO.write(sanitizedImage, formatName, fos);
-                    } else {
-                        ImageParser imageParser;
-                        //Handle only formats for which Apache Commons Imaging can successfully write (YES in Write column of the reference link) the image format
-                        //See reference link in the class header
-                        switch (formatName) {
-                            case "TIFF": {
-                                imageParser = new TiffImageParser();
-                                break;
-                            }
-                            case "PCX": {
-                                imageParser = new PcxImageParser();
-                                break;
-                            }
-                            case "DCX": {
-                                imageParser = new DcxImageParser();
-                                break;
+                    // Save image into a sibling file then publish it over the provided source file, the sanitized image use directly the
+                    // re-sampled pixels
+                    BufferedImage sanitizedImage = createSanitizedImage(initialSizedPixels, originalWidth, originalHeight);
+                    sibling = this.publisher.createSibling(f);
+                    try (OutputStream fos = this.publisher.openSibling(sibling)) {
+                        if (imageParser == null && this.pngEncoder != null && isPngWriter(imageWriterSpi)) {
+                            // Image data compressed in parallel
+                            this.pngEncoder.write(initialSizedPixels, originalWidth, originalHeight, fos);
+                        } else if (imageParser == null) {
+                            // Memory cache instead of the temporary file cache used by ImageIO.write()
+                            ImageWriter writer = this.resourcePool.acquireWriter(imageWriterSpi);
+                            try (ImageOutputStream ios = new MemoryCacheImageOutputStream(fos)) {
+                                writer.setOutput(ios);
+                                writer.write(sanitizedImage);
+                            } finally {
+                                this.resourcePool.releaseWriter(writer);
                             }
-                            case "BMP": {
-                                imageParser = new BmpImageParser();
-                                break;
-                            }
-                            case "GIF": {
-                                imageParser = new GifImageParser();
-                                break;
-                            }
-                            case "PNG": {
-                                imageParser = new PngImageParser();
-                                break;
-                            }
-                            case "WBMP": {
-                                imageParser = new WbmpImageParser();
-                                break;
-                            }
-                            case "XBM": {
-                                imageParser = new XbmImageParser();
-                                break;
-                            }
-                            case "XPM": {
-                                imageParser = new XpmImageParser();
-                                break;
-                            }
-                            default: {
-                                throw new IOException("Format of the original image is not supported for write operation !");
-                            }
-
+                        } else {
+                            imageParser.writeImage(sanitizedImage, fos, new HashMap<>());
                         }
-                        imageParser.writeImage(sanitizedImage, fos, new HashMap<>());
+                    } catch (Exception e) {
+                        Files.deleteIfExists(sibling);
+                        throw e;
                     }
-
+                    this.publisher.publish(sibling, f);
+                } finally {
+                    this.resourcePool.releaseBuffer(originalPixels);
+                    this.resourcePool.releaseBuffer(resizedPixels);
+                    this.resourcePool.releaseBuffer(initialSizedPixels);
                 }
 
                 // Set state flag
@@ -171,4 +380,347 @@ public class ImageDocumentSanitizerImpl implements DocumentSanitizer {
         return safeState;
     }
 
+    /**
+     * Shut down the fork-join pool dedicated to the frames, the frames tasks already submitted are completed. The multi-frame images cannot
+     * be sanitized anymore once closed.
+     *
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        if (this.framePool != null) {
+            this.framePool.shutdown();
+        }
+    }
+
+    /**
+     * @return The count of images rejected before decoding because of their dimensions
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * Verify, before decoding an image, that its dimensions are in the pixel budget and that the memory needed to rewrite it is available.
+     *
+     * @param width       Width declared by the image header
+     * @param height      Height declared by the image header
+     * @param decodedRows Count of rows decoded at once by the rewrite of the tiles or the frames, -1 for a rewrite in one pass
+     * @throws IOException If the image must not be decoded
+     */
+    private void checkDecodingAdmission(int width, int height, long decodedRows) throws IOException {
+        long pixels = (long) width * height;
+        String rejectionCause = null;
+        if (width <= 0 || height <= 0) {
+            rejectionCause = "Invalid dimensions";
+        } else if (pixels > this.settings.getMaxPixels()) {
+            rejectionCause = "Pixels count over the budget of " + this.settings.getMaxPixels();
+        } else {
+            Runtime runtime = Runtime.getRuntime();
+            long availableMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+            long neededMemory;
+            if (decodedRows < 0) {
+                // Sizes of the pixels arrays acquired from the pool, which can be bigger than the image
+                long pooledPixels = 2 * ImageResourcePool.pooledLength(pixels) + ImageResourcePool.pooledLength((long) (width - 1) * (height - 1));
+                neededMemory = pixels * IMAGES_BYTES_PER_PIXEL + 4 * pooledPixels;
+            } else {
+                neededMemory = (long) width * decodedRows * REWRITE_BYTES_PER_PIXEL;
+            }
+            if (neededMemory > availableMemory) {
+                rejectionCause = "Memory needed over the " + availableMemory + " bytes available";
+            }
+        }
+        if (rejectionCause != null) {
+            throw this.rejectBeforeDecoding("Image of " + width + "x" + height + " pixels", rejectionCause);
+        }
+    }
+
+    /**
+     * Verify, before decoding the frames of a multi-frame image, that each frame can be decoded with the window of frames kept in memory and
+     * that the pixels of all the frames are in the pixel budget.
+     *
+     * @param reader     Reader of the original image, input already set
+     * @param frameCount Count of frames of the original image
+     * @throws IOException If the image must not be decoded
+     */
+    private void checkFramesAdmission(ImageReader reader, int frameCount) throws IOException {
+        long totalPixels = 0;
+        for (int i = 0; i < frameCount; i++) {
+            // Dimensions read from the header of the frame only
+            int width = reader.getWidth(i);
+            int height = reader.getHeight(i);
+            this.checkDecodingAdmission(width, height, (long) height * Math.min(frameCount, this.settings.getFrameWindow() + 1));
+            totalPixels += (long) width * height;
+        }
+        if (totalPixels > this.settings.getMaxPixels()) {
+            throw this.rejectBeforeDecoding("Image of " + frameCount + " frames", "Pixels count of the frames over the budget of " + this.settings.getMaxPixels());
+        }
+    }
+
+    /**
+     * Count and log the rejection of an image before decoding.
+     *
+     * @param image Description of the image
+     * @param cause Cause of the rejection
+     * @return The exception to throw
+     */
+    private IOException rejectBeforeDecoding(String image, String cause) {
+        long rejected = this.rejectedCount.incrementAndGet();
+        LOG.warn("{} rejected before decoding: {} (rejected images: {}) !", image, cause, rejected);
+        return new IOException("Image rejected before decoding: " + cause + " !");
+    }
+
+    /**
+     * @param width Width of the image
+     * @return The count of rows of a tile in tiled mode
+     */
+    private int tileRows(int width) {
+        return Math.max(1, this.settings.getTilePixels() / width);
+    }
+
+    /**
+     * Rewrite an image by tiles into a sibling file.
+     *
+     * @param f              File to made safe
+     * @param reader         Reader of the original image, input already set
+     * @param imageWriterSpi Provider of the writer of the image format
+     * @param width          Width of the image
+     * @param height         Height of the image
+     * @return The sibling file
+     * @throws IOException If the image cannot be read/written or the sibling file cannot be created
+     */
+    private Path writeTilesIntoSibling(File f, ImageReader reader, ImageWriterSpi imageWriterSpi, int width, int height) throws IOException {
+        Path sibling = this.publisher.createSibling(f);
+        boolean written = false;
+        ImageWriter writer = this.resourcePool.acquireWriter(imageWriterSpi);
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(sibling.toFile())) {
+            TiledResampledImage sanitizedImage = new TiledResampledImage(reader, this.resampler, width, height, this.tileRows(width));
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(sanitizedImage, null, null), writer.getDefaultWriteParam());
+            written = true;
+        } finally {
+            this.resourcePool.releaseWriter(writer);
+            if (!written) {
+                Files.deleteIfExists(sibling);
+            }
+        }
+        return sibling;
+    }
+
+    /**
+     * Rewrite all the frames of an image into a sibling file.
+     *
+     * @param f              File to made safe
+     * @param reader         Reader of the original image, input already set
+     * @param imageWriterSpi Provider of the writer of the image format
+     * @param frameCount     Count of frames of the original image
+     * @return The sibling file
+     * @throws IOException If the image cannot be read/written, the writer cannot write sequences or the sibling file cannot be created
+     */
+    private Path writeFramesIntoSibling(File f, ImageReader reader, ImageWriterSpi imageWriterSpi, int frameCount) throws IOException {
+        Path sibling = this.publisher.createSibling(f);
+        boolean written = false;
+        ImageWriter writer = this.resourcePool.acquireWriter(imageWriterSpi);
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(sibling.toFile())) {
+            writer.setOutput(ios);
+            if (!writer.canWriteSequence()) {
+                throw new IOException("Format of the original image is not supported for write of several frames !");
+            }
+            this.frameRewriter.rewrite(reader, frameCount, writer);
+            written = true;
+        } finally {
+            this.resourcePool.releaseWriter(writer);
+            if (!written) {
+                Files.deleteIfExists(sibling);
+            }
+        }
+        return sibling;
+    }
+
+    /**
+     * @return The count of pixels buffers of the rewrite reused from the pool
+     */
+    public long getReusedBufferCount() {
+        return this.resourcePool.getReusedCount();
+    }
+
+    /**
+     * @return The count of pixels buffers of the rewrite allocated because none was available in the pool
+     */
+    public long getAllocatedBufferCount() {
+        return this.resourcePool.getAllocatedCount();
+    }
+
+    /**
+     * Create an image using directly the pixels sanitized, without copy.
+     *
+     * @param pixels Pixels (opaque ARGB packed, row by row), the array can be bigger than the image
+     * @param width  Width of the image
+     * @param height Height of the image
+     * @return The image ({@link BufferedImage#TYPE_INT_RGB} layout)
+     */
+    static BufferedImage createSanitizedImage(int[] pixels, int width, int height) {
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, width * height), width, height, width, SANITIZED_COLOR_MODEL.getMasks(), null);
+        return new BufferedImage(SANITIZED_COLOR_MODEL, raster, false, null);
+    }
+
+    /**
+     * Find the provider of the reader able to decode an image, in the same order than {@link ImageIO#getImageReaders(Object)}.
+     *
+     * @param iis Stream of the image
+     * @return The reader provider or null if the format is not supported by the Java built-in API
+     * @throws IOException If the image cannot be read
+     */
+    private static ImageReaderSpi findImageReaderSpi(ImageInputStream iis) throws IOException {
+        Iterator<ImageReaderSpi> providers = IIORegistry.getDefaultInstance().getServiceProviders(ImageReaderSpi.class, true);
+        while (providers.hasNext()) {
+            ImageReaderSpi provider = providers.next();
+            iis.mark();
+            try {
+                if (provider.canDecodeInput(iis)) {
+                    return provider;
+                }
+            } finally {
+                iis.reset();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the provider of the writer of the format of an image reader.
+     *
+     * @param reader Image reader
+     * @return The writer provider or null if the format cannot be written
+     */
+    private static ImageWriterSpi findImageWriterSpi(ImageReader reader) {
+        ImageReaderSpi readerSpi = reader.getOriginatingProvider();
+        if (readerSpi == null) {
+            ImageWriter writer = ImageIO.getImageWriter(reader);
+            return (writer != null) ? writer.getOriginatingProvider() : null;
+        }
+        return IMAGE_WRITER_SPIS.computeIfAbsent(readerSpi, spi -> {
+            ImageWriter writer = ImageIO.getImageWriter(reader);
+            if (writer == null) {
+                return null;
+            }
+            writer.dispose();
+            return writer.getOriginatingProvider();
+        });
+    }
+
+    /**
+     * @param imageWriterSpi Image writer provider
+     * @return TRUE only if the provider write PNG images
+     */
+    private static boolean isPngWriter(ImageWriterSpi imageWriterSpi) {
+        for (String formatName : imageWriterSpi.getFormatNames()) {
+            if ("png".equalsIgnoreCase(formatName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return TRUE only if the Java image API has a reader and a writer for the TIFF images
+     */
+    static boolean isTiffSupported() {
+        return ImageIO.getImageReadersByFormatName("tiff").hasNext() && ImageIO.getImageWritersByFormatName("tiff").hasNext();
+    }
+
+    /**
+     * @param f Image file
+     * @return The Apache Commons Imaging format associated to the file extension, {@link ImageFormats#UNKNOWN} if none
+     */
+    private static ImageFormat findFormatByExtension(File f) {
+        String fileName = f.getName();
+        String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+        for (ImageFormats imageFormat : ImageFormats.values()) {
+            if (imageFormat != ImageFormats.UNKNOWN && imageFormat.getExtension().equalsIgnoreCase(extension)) {
+                return imageFormat;
+            }
+        }
+        return ImageFormats.UNKNOWN;
+    }
+
+    /**
+     * Read the whole content of an image from its beginning.
+     *
+     * @param iis Stream of the image
+     * @return The content
+     * @throws IOException If the content cannot be read
+     */
+    private static byte[] readContent(ImageInputStream iis) throws IOException {
+        long length = iis.length();
+        if (length < 0 || length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Size of the original image is not supported !");
+        }
+        byte[] content = new byte[(int) length];
+        iis.seek(0);
+        iis.readFully(content);
+        return content;
+    }
+
+    /**
+     * Sanitize an image without decoding its pixels, into a sibling file moved over the original file.
+     *
+     * @param f File to made safe
+     * @return TRUE only if the file has been made safe, FALSE if the format is not in streaming mode or the image structure is not the one
+     * expected (the file is then left untouched)
+     * @throws IOException If the sibling file cannot be created or moved
+     */
+    private boolean madeSafeByStreaming(File f) throws IOException {
+        byte[] header = new byte[8];
+        try (InputStream is = Files.newInputStream(f.toPath())) {
+            if (is.read(header) < header.length) {
+                return false;
+            }
+        }
+        String format;
+        if (JpegSegmentSanitizer.isJpeg(header)) {
+            format = ImageSanitizerSettings.FORMAT_JPEG;
+        } else if (PngChunkSanitizer.isPng(header)) {
+            format = ImageSanitizerSettings.FORMAT_PNG;
+        } else if (GifBlockSanitizer.isGif(header)) {
+            format = ImageSanitizerSettings.FORMAT_GIF;
+        } else {
+            return false;
+        }
+        if (this.settings.getMode(format) != ImageSanitizerSettings.Mode.STREAMING) {
+            return false;
+        }
+        Path source = f.toPath().toAbsolutePath();
+        Path sibling = this.publisher.createSibling(f);
+        boolean moved = false;
+        try {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ); FileChannel out = FileChannel.open(sibling, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                switch (format) {
+                    case ImageSanitizerSettings.FORMAT_JPEG: {
+                        JpegSegmentSanitizer.sanitize(in, out, this.settings.isKeepIccProfile());
+                        break;
+                    }
+                    case ImageSanitizerSettings.FORMAT_PNG: {
+                        PngChunkSanitizer.sanitize(in, out, this.settings.isKeepPngTransparencyAndGamma(), this.settings.isKeepIccProfile());
+                        break;
+                    }
+                    default: {
+                        GifBlockSanitizer.sanitize(in, out);
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                LOG.info("Cannot sanitize the image in streaming mode, the image will be rewritten: {}", e.getMessage());
+                return false;
+            }
+            this.publisher.publish(sibling, f);
+            moved = true;
+            return true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(sibling);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,364 @@
+package eu.righettod.poc.sanitizer;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Area-averaging re-sampling of images stored as packed ARGB pixels (same filter than {@link java.awt.Image#SCALE_SMOOTH}): Each pixel of the
+ * destination image is the average of the source pixels it covers, weighted by the covered area.<br>
+ * The filter is separable: the horizontal then the vertical averaging are applied on bands of destination rows, the bands are processed in
+ * parallel on a {@link ForkJoinPool}. Each band only keep the horizontally averaged source rows it needs.<br>
+ * Source pixels are read as ARGB and the color is multiplied by the alpha (same result than drawing the image on an opaque black background),
+ * destination pixels are opaque (alpha set to 255), so a destination image can be re-sampled again.<br>
+ * A band of destination rows can be re-sampled alone from the source rows it covers, in order to process an image by tiles.<br>
+ * Thread-safe, no state is kept between two calls.
+ */
+public final class ImageResampler {
+
+    /**
+     * Count of destination rows under which a band is not split anymore
+     */
+    private static final int BAND_ROWS = 16;
+
+    /**
+     * Count of color channels
+     */
+    private static final int CHANNELS = 3;
+
+    /**
+     * Pool running the bands
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor
+     *
+     * @param pool Pool running the bands
+     */
+    public ImageResampler(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Re-sample an image.
+     *
+     * @param source       Source pixels (ARGB packed, row by row)
+     * @param sourceWidth  Width of the source image
+     * @param sourceHeight Height of the source image
+     * @param width        Width of the destination image
+     * @param height       Height of the destination image
+     * @return The destination pixels (opaque ARGB packed, row by row)
+     * @throws IllegalArgumentException If a dimension is not strictly positive or do not match the count of source pixels
+     */
+    public int[] resample(int[] source, int sourceWidth, int sourceHeight, int width, int height) {
+        if (sourceWidth <= 0 || sourceHeight <= 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Dimensions of the images must be strictly positive !");
+        }
+        if ((long) sourceWidth * sourceHeight != source.length) {
+            throw new IllegalArgumentException("Dimensions of the source image do not match the count of pixels !");
+        }
+        return this.resampleRows(source, sourceWidth, sourceHeight, 0, width, height, 0, height);
+    }
+
+    /**
+     * Re-sample an image into a destination array provided by the caller.
+     *
+     * @param source       Source pixels (ARGB packed, row by row), the array can be bigger than the source image
+     * @param sourceWidth  Width of the source image
+     * @param sourceHeight Height of the source image
+     * @param destination  Array receiving the destination pixels (opaque ARGB packed, row by row), the array can be bigger than the
+     *                     destination image
+     * @param width        Width of the destination image
+     * @param height       Height of the destination image
+     * @throws IllegalArgumentException If a dimension is not strictly positive or an array is smaller than its image
+     */
+    public void resample(int[] source, int sourceWidth, int sourceHeight, int[] destination, int width, int height) {
+        if (sourceWidth <= 0 || sourceHeight <= 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Dimensions of the images must be strictly positive !");
+        }
+        if ((long) sourceWidth * sourceHeight > source.length || (long) width * height > destination.length) {
+            throw new IllegalArgumentException("Arrays are smaller than the images !");
+        }
+        AxisWeights columns = new AxisWeights(sourceWidth, width);
+        AxisWeights rows = new AxisWeights(sourceHeight, height);
+        this.pool.invoke(new BandTask(source, sourceWidth, 0, destination, width, 0, columns, rows, 0, height));
+    }
+
+    /**
+     * Re-sample a band of rows of an image, only the source rows covered by the band are needed (see {@link #sourceRows(int, int, int, int)}).
+     *
+     * @param source         Source pixels of the rows provided (ARGB packed, row by row)
+     * @param sourceWidth    Width of the source image
+     * @param sourceHeight   Height of the whole source image
+     * @param sourceFirstRow Index of the first source row provided
+     * @param width          Width of the destination image
+     * @param height         Height of the whole destination image
+     * @param fromRow        First destination row of the band (inclusive)
+     * @param toRow          Last destination row of the band (exclusive)
+     * @return The destination pixels of the band (opaque ARGB packed, row by row)
+     * @throws IllegalArgumentException If a dimension is not strictly positive, the band is not in the destination image or the source rows
+     *                                  provided do not cover the band
+     */
+    public int[] resampleRows(int[] source, int sourceWidth, int sourceHeight, int sourceFirstRow, int width, int height, int fromRow, int toRow) {
+        if (sourceWidth <= 0 || sourceHeight <= 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Dimensions of the images must be strictly positive !");
+        }
+        if (fromRow < 0 || toRow > height || fromRow >= toRow) {
+            throw new IllegalArgumentException("Band of rows is not in the destination image !");
+        }
+        AxisWeights rows = new AxisWeights(sourceHeight, height);
+        if (source.length % sourceWidth != 0 || sourceFirstRow > rows.first[fromRow] || sourceFirstRow + source.length / sourceWidth < rows.end(toRow - 1)) {
+            throw new IllegalArgumentException("Source rows provided do not cover the band of rows !");
+        }
+        int[] destination = new int[width * (toRow - fromRow)];
+        AxisWeights columns = new AxisWeights(sourceWidth, width);
+        this.pool.invoke(new BandTask(source, sourceWidth, sourceFirstRow, destination, width, fromRow, columns, rows, fromRow, toRow));
+        return destination;
+    }
+
+    /**
+     * Compute the source rows covered by a band of destination rows.
+     *
+     * @param sourceHeight Height of the source image
+     * @param height       Height of the destination image
+     * @param fromRow      First destination row of the band (inclusive)
+     * @param toRow        Last destination row of the band (exclusive)
+     * @return The first source row (inclusive) and the last source row (exclusive) covered
+     */
+    public static int[] sourceRows(int sourceHeight, int height, int fromRow, int toRow) {
+        AxisWeights rows = new AxisWeights(sourceHeight, height);
+        return new int[]{rows.first[fromRow], rows.end(toRow - 1)};
+    }
+
+    /**
+     * Weights of the source pixels covered by each destination pixel along one axis.
+     */
+    private static final class AxisWeights {
+
+        /**
+         * Index of the first source pixel covered, by destination pixel
+         */
+        private final int[] first;
+
+        /**
+         * Count of source pixels covered, by destination pixel
+         */
+        private final int[] count;
+
+        /**
+         * Weights of the source pixels covered, by destination pixel (stride of {@link #stride}), the weights of a destination pixel sum to 1
+         */
+        private final float[] weights;
+
+        /**
+         * Maximum count of source pixels covered by a destination pixel
+         */
+        private final int stride;
+
+        /**
+         * Constructor
+         *
+         * @param sourceSize      Count of source pixels
+         * @param destinationSize Count of destination pixels
+         */
+        private AxisWeights(int sourceSize, int destinationSize) {
+            double scale = (double) sourceSize / destinationSize;
+            this.stride = (int) Math.ceil(scale) + 1;
+            this.first = new int[destinationSize];
+            this.count = new int[destinationSize];
+            this.weights = new float[destinationSize * this.stride];
+            for (int i = 0; i < destinationSize; i++) {
+                double start = i * scale;
+                double end = Math.min(sourceSize, (i + 1) * scale);
+                int firstPixel = (int) start;
+                int n = 0;
+                for (int j = firstPixel; j < end && n < this.stride; j++, n++) {
+                    double covered = Math.min(end, j + 1) - Math.max(start, j);
+                    this.weights[i * this.stride + n] = (float) (covered / scale);
+                }
+                this.first[i] = firstPixel;
+                this.count[i] = n;
+            }
+        }
+
+        /**
+         * @param i Index of a destination pixel
+         * @return The index following the last source pixel covered
+         */
+        private int end(int i) {
+            return this.first[i] + this.count[i];
+        }
+    }
+
+    /**
+     * Re-sampling of a band of destination rows, split in two while it is bigger than {@link #BAND_ROWS}.
+     */
+    private static final class BandTask extends RecursiveAction {
+
+        /**
+         * Serial version
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Source pixels
+         */
+        private final int[] source;
+
+        /**
+         * Width of the source image
+         */
+        private final int sourceWidth;
+
+        /**
+         * Index of the first source row provided
+         */
+        private final int sourceFirstRow;
+
+        /**
+         * Destination pixels
+         */
+        private final int[] destination;
+
+        /**
+         * Width of the destination image
+         */
+        private final int width;
+
+        /**
+         * Index of the first destination row of the destination pixels
+         */
+        private final int destinationFirstRow;
+
+        /**
+         * Weights of the columns
+         */
+        private final AxisWeights columns;
+
+        /**
+         * Weights of the rows
+         */
+        private final AxisWeights rows;
+
+        /**
+         * First destination row of the band (inclusive)
+         */
+        private final int fromRow;
+
+        /**
+         * Last destination row of the band (exclusive)
+         */
+        private final int toRow;
+
+        /**
+         * Constructor
+         *
+         * @param source              Source pixels
+         * @param sourceWidth         Width of the source image
+         * @param sourceFirstRow      Index of the first source row provided
+         * @param destination         Destination pixels
+         * @param width               Width of the destination image
+         * @param destinationFirstRow Index of the first destination row of the destination pixels
+         * @param columns             Weights of the columns
+         * @param rows                Weights of the rows
+         * @param fromRow             First destination row of the band (inclusive)
+         * @param toRow               Last destination row of the band (exclusive)
+         */
+        private BandTask(int[] source, int sourceWidth, int sourceFirstRow, int[] destination, int width, int destinationFirstRow, AxisWeights columns, AxisWeights rows, int fromRow, int toRow) {
+            this.source = source;
+            this.sourceWidth = sourceWidth;
+            this.sourceFirstRow = sourceFirstRow;
+            this.destination = destination;
+            this.width = width;
+            this.destinationFirstRow = destinationFirstRow;
+            this.columns = columns;
+            this.rows = rows;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.util.concurrent.RecursiveAction#compute()
+         */
+        @Override
+        protected void compute() {
+            if (this.toRow - this.fromRow > BAND_ROWS) {
+                int middleRow = (this.fromRow + this.toRow) >>> 1;
+                invokeAll(new BandTask(this.source, this.sourceWidth, this.sourceFirstRow, this.destination, this.width, this.destinationFirstRow, this.columns, this.rows, this.fromRow, middleRow), new BandTask(this.source, this.sourceWidth, this.sourceFirstRow, this.destination, this.width, this.destinationFirstRow, this.columns, this.rows, middleRow, this.toRow));
+                return;
+            }
+            // Step 1: Horizontal averaging of the source rows covered by the band
+            int firstSourceRow = this.rows.first[this.fromRow];
+            int lastSourceRow = this.rows.end(this.toRow - 1) - 1;
+            int rowLength = this.width * CHANNELS;
+            float[] averagedRows = new float[(lastSourceRow - firstSourceRow + 1) * rowLength];
+            for (int sourceRow = firstSourceRow; sourceRow <= lastSourceRow; sourceRow++) {
+                this.averageRow(sourceRow, averagedRows, (sourceRow - firstSourceRow) * rowLength);
+            }
+            // Step 2: Vertical averaging of the horizontally averaged rows
+            float[] sums = new float[rowLength];
+            for (int row = this.fromRow; row < this.toRow; row++) {
+                Arrays.fill(sums, 0f);
+                int weightsOffset = row * this.rows.stride;
+                for (int n = 0; n < this.rows.count[row]; n++) {
+                    float weight = this.rows.weights[weightsOffset + n];
+                    int averagedOffset = (this.rows.first[row] + n - firstSourceRow) * rowLength;
+                    for (int k = 0; k < rowLength; k++) {
+                        sums[k] += averagedRows[averagedOffset + k] * weight;
+                    }
+                }
+                int destinationOffset = (row - this.destinationFirstRow) * this.width;
+                for (int x = 0, k = 0; x < this.width; x++, k += CHANNELS) {
+                    this.destination[destinationOffset + x] = 0xFF000000 | (clamp(sums[k]) << 16) | (clamp(sums[k + 1]) << 8) | clamp(sums[k + 2]);
+                }
+            }
+        }
+
+        /**
+         * Horizontal averaging of a source row.
+         *
+         * @param sourceRow Index of the source row
+         * @param target    Array receiving the averaged channels
+         * @param offset    Offset of the row into the target array
+         */
+        private void averageRow(int sourceRow, float[] target, int offset) {
+            int[] pixels = this.source;
+            int[] first = this.columns.first;
+            int[] count = this.columns.count;
+            float[] weights = this.columns.weights;
+            int stride = this.columns.stride;
+            int sourceOffset = (sourceRow - this.sourceFirstRow) * this.sourceWidth;
+            for (int x = 0, k = offset; x < this.width; x++, k += CHANNELS) {
+                float red = 0;
+                float green = 0;
+                float blue = 0;
+                int weightsOffset = x * stride;
+                int pixelOffset = sourceOffset + first[x];
+                for (int n = 0; n < count[x]; n++) {
+                    int argb = pixels[pixelOffset + n];
+                    // Color multiplied by the alpha
+                    int alpha = argb >>> 24;
+                    float weight = (alpha == 0xFF) ? weights[weightsOffset + n] : weights[weightsOffset + n] * (alpha / 255f);
+                    red += ((argb >> 16) & 0xFF) * weight;
+                    green += ((argb >> 8) & 0xFF) * weight;
+                    blue += (argb & 0xFF) * weight;
+                }
+                target[k] = red;
+                target[k + 1] = green;
+                target[k + 2] = blue;
+            }
+        }
+
+        /**
+         * @param value Averaged channel value
+         * @return The channel value rounded into the [0, 255] range
+         */
+        private static int clamp(float value) {
+            int rounded = (int) (value + 0.5f);
+            return (rounded < 0) ? 0 : ((rounded > 255) ? 255 : rounded);
+        }
+    }
+}
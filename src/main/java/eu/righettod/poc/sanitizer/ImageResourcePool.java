@@ -0,0 +1,256 @@
+package eu.righettod.poc.sanitizer;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageWriterSpi;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-thread pool of the resources used by the image sanitizer: Pixels buffers and image readers/writers.<br>
+ * Buffers are pooled by size class from {@link #MIN_POOLED_LENGTH} pixels, the smaller buffers are cheap to allocate so they are never
+ * pooled. Each power of two is divided in {@link #SIZE_CLASSES_BY_POWER_OF_TWO} size classes, so a buffer acquired is at most 25% bigger
+ * than the count of pixels requested (see {@link #pooledLength(long)}).<br>
+ * Each thread has its own buckets of buffers, so acquiring and releasing a buffer never contend, but the memory retained by the buckets of
+ * all the threads is limited: A buffer released while the limit is reached is left to the GC.<br>
+ * Readers and writers are reset when released and one instance is kept by provider and by thread.<br>
+ * Intended for the long-lived worker threads of the analysis executor: The memory retained by a thread which terminates is not deducted
+ * from the limit, so the pool must not be used by the workers of a fork-join pool, which terminate when idle.<br>
+ * Thread-safe: Resources are only reused by the thread which released them.
+ */
+final class ImageResourcePool {
+
+    /**
+     * Exponent of {@link #MIN_POOLED_LENGTH}
+     */
+    private static final int MIN_POOLED_EXPONENT = 16;
+
+    /**
+     * Count of pixels from which the buffers are pooled (256 KB)
+     */
+    static final int MIN_POOLED_LENGTH = 1 << MIN_POOLED_EXPONENT;
+
+    /**
+     * Count of size classes between two powers of two
+     */
+    static final int SIZE_CLASSES_BY_POWER_OF_TWO = 4;
+
+    /**
+     * Count of pixels over which the buffers are not pooled (size class not representable)
+     */
+    private static final int MAX_POOLED_LENGTH = 1 << 30;
+
+    /**
+     * Count of size classes, from {@link #MIN_POOLED_LENGTH} to {@link #MAX_POOLED_LENGTH}
+     */
+    private static final int SIZE_CLASSES_COUNT = sizeClass(MAX_POOLED_LENGTH) + 1;
+
+    /**
+     * Maximum count of bytes retained by the buckets of all the threads
+     */
+    private final long maxRetainedBytes;
+
+    /**
+     * Count of bytes retained by the buckets of all the threads
+     */
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    /**
+     * Count of buffers acquired from a bucket
+     */
+    private final AtomicLong reusedCount = new AtomicLong();
+
+    /**
+     * Count of poolable buffers allocated because their bucket was empty
+     */
+    private final AtomicLong allocatedCount = new AtomicLong();
+
+    /**
+     * Resources of each thread
+     */
+    private final ThreadLocal<ThreadResources> resources = ThreadLocal.withInitial(ThreadResources::new);
+
+    /**
+     * Constructor
+     *
+     * @param maxRetainedBytes Maximum count of bytes retained by the buckets of all the threads (0 to disable the pooling of the buffers)
+     */
+    ImageResourcePool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * Acquire a buffer.
+     *
+     * @param length Count of pixels needed
+     * @return A buffer with at least the count of pixels needed, its content is undefined
+     */
+    int[] acquireBuffer(int length) {
+        if (length < MIN_POOLED_LENGTH || length > MAX_POOLED_LENGTH) {
+            return new int[length];
+        }
+        int pooledLength = (int) pooledLength(length);
+        int[] buffer = this.resources.get().buckets[sizeClass(pooledLength)].pollFirst();
+        if (buffer != null) {
+            this.retainedBytes.addAndGet(-bytes(buffer));
+            this.reusedCount.incrementAndGet();
+            return buffer;
+        }
+        this.allocatedCount.incrementAndGet();
+        return new int[pooledLength];
+    }
+
+    /**
+     * Release a buffer acquired from the pool, the buffer must not be used anymore by the caller.
+     *
+     * @param buffer Buffer
+     */
+    void releaseBuffer(int[] buffer) {
+        int length = buffer.length;
+        if (length < MIN_POOLED_LENGTH || length > MAX_POOLED_LENGTH || pooledLength(length) != length) {
+            return;
+        }
+        long bytes = bytes(buffer);
+        if (this.retainedBytes.addAndGet(bytes) > this.maxRetainedBytes) {
+            this.retainedBytes.addAndGet(-bytes);
+            return;
+        }
+        this.resources.get().buckets[sizeClass(length)].offerFirst(buffer);
+    }
+
+    /**
+     * Acquire a reader.
+     *
+     * @param provider Provider of the reader
+     * @return A reader without input
+     * @throws IOException If the reader cannot be created
+     */
+    ImageReader acquireReader(ImageReaderSpi provider) throws IOException {
+        ImageReader reader = this.resources.get().readers.remove(provider);
+        return (reader != null) ? reader : provider.createReaderInstance();
+    }
+
+    /**
+     * Release a reader acquired from the pool, the reader must not be used anymore by the caller.
+     *
+     * @param reader Reader
+     */
+    void releaseReader(ImageReader reader) {
+        reader.reset();
+        if (reader.getOriginatingProvider() == null || this.resources.get().readers.putIfAbsent(reader.getOriginatingProvider(), reader) != null) {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Acquire a writer.
+     *
+     * @param provider Provider of the writer
+     * @return A writer without output
+     * @throws IOException If the writer cannot be created
+     */
+    ImageWriter acquireWriter(ImageWriterSpi provider) throws IOException {
+        ImageWriter writer = this.resources.get().writers.remove(provider);
+        return (writer != null) ? writer : provider.createWriterInstance();
+    }
+
+    /**
+     * Release a writer acquired from the pool, the writer must not be used anymore by the caller.
+     *
+     * @param writer Writer
+     */
+    void releaseWriter(ImageWriter writer) {
+        writer.reset();
+        if (writer.getOriginatingProvider() == null || this.resources.get().writers.putIfAbsent(writer.getOriginatingProvider(), writer) != null) {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * @return The count of bytes retained by the buckets of all the threads
+     */
+    long getRetainedBytes() {
+        return this.retainedBytes.get();
+    }
+
+    /**
+     * @return The count of buffers acquired from a bucket
+     */
+    long getReusedCount() {
+        return this.reusedCount.get();
+    }
+
+    /**
+     * @return The count of poolable buffers allocated because their bucket was empty
+     */
+    long getAllocatedCount() {
+        return this.allocatedCount.get();
+    }
+
+    /**
+     * @param length Count of pixels needed
+     * @return The count of pixels of the buffer acquired for the count of pixels needed: The count rounded up to the next size class, or the
+     * count itself if the buffer is not pooled
+     */
+    static long pooledLength(long length) {
+        if (length < MIN_POOLED_LENGTH || length > MAX_POOLED_LENGTH) {
+            return length;
+        }
+        // The size classes between 2^n and 2^(n+1) are spaced by 2^n / SIZE_CLASSES_BY_POWER_OF_TWO
+        int shift = 63 - Long.numberOfLeadingZeros(length - 1) - Integer.numberOfTrailingZeros(SIZE_CLASSES_BY_POWER_OF_TWO);
+        return ((length + (1L << shift) - 1) >> shift) << shift;
+    }
+
+    /**
+     * @param pooledLength Count of pixels of a pooled buffer
+     * @return The size class of the buffer: Index of its bucket
+     */
+    private static int sizeClass(int pooledLength) {
+        int exponent = 31 - Integer.numberOfLeadingZeros(pooledLength);
+        int step = (pooledLength >> (exponent - Integer.numberOfTrailingZeros(SIZE_CLASSES_BY_POWER_OF_TWO))) & (SIZE_CLASSES_BY_POWER_OF_TWO - 1);
+        return (exponent - MIN_POOLED_EXPONENT) * SIZE_CLASSES_BY_POWER_OF_TWO + step;
+    }
+
+    /**
+     * @param buffer Buffer
+     * @return The count of bytes of the buffer
+     */
+    private static long bytes(int[] buffer) {
+        return 4L * buffer.length;
+    }
+
+    /**
+     * Resources of a thread.
+     */
+    private static final class ThreadResources {
+
+        /**
+         * Buckets of buffers by size class
+         */
+        @SuppressWarnings("unchecked")
+        private final ArrayDeque<int[]>[] buckets = new ArrayDeque[SIZE_CLASSES_COUNT];
+
+        /**
+         * Readers by provider
+         */
+        private final Map<ImageReaderSpi, ImageReader> readers = new HashMap<>();
+
+        /**
+         * Writers by provider
+         */
+        private final Map<ImageWriterSpi, ImageWriter> writers = new HashMap<>();
+
+        /**
+         * Constructor
+         */
+        private ThreadResources() {
+            for (int i = 0; i < this.buckets.length; i++) {
+                this.buckets[i] = new ArrayDeque<>();
+            }
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package eu.righettod.poc.sanitizer;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Settings of the image sanitizer.<br>
+ * The sanitizing mode can be defined for all the formats and overridden for a format (JPEG, PNG, GIF, BMP, TIFF).<br>
+ * The pixel budget limit the dimensions of the images decoded by the rewrite, the tile budget limit the pixels decoded at once in tiled mode.
+ * <br>
+ * The pool limit define the memory retained, for all the threads, by the pixels buffers kept between two rewrites.<br>
+ * The frames threads limit the count of frames re-sampled in parallel, for all the images, in multi-frame mode, the frames window limit
+ * the count of frames of an image kept in memory.<br>
+ * The PNG images rewritten are encoded with the image data compressed in parallel, with the compression level and strategy defined.<br>
+ * The sanitized images are written into a sibling file then published by an atomic move, the sync policy define when their content is
+ * forced to the storage.<br>
+ * Defined once at startup: The settings must not be modified once given to the sanitizer.
+ */
+public class ImageSanitizerSettings {
+
+    /**
+     * Sanitizing modes
+     */
+    public enum Mode {
+        /**
+         * Pixels are decoded, re-sampled then encoded again, for all the formats
+         */
+        REWRITE,
+        /**
+         * Formats whose structure can be rewritten without decoding the pixels (JPEG, PNG, GIF) are sanitized by dropping everything except
+         * the image data, others formats are rewritten
+         */
+        STREAMING,
+        /**
+         * Formats whose writer read the image by rows (PNG, BMP, TIFF) are decoded, re-sampled and encoded by tiles (strips of rows) so only
+         * one tile is kept in memory, others formats are rewritten
+         */
+        TILED,
+        /**
+         * Formats supporting several frames (GIF, TIFF) are rewritten frame by frame so all the frames are kept, frames being re-sampled in
+         * parallel, others formats are rewritten
+         */
+        MULTI_FRAME
+    }
+
+    /**
+     * Compression strategies of the PNG images rewritten
+     */
+    public enum PngCompressionStrategy {
+        /**
+         * Default strategy of the deflate algorithm
+         */
+        DEFAULT,
+        /**
+         * Strategy favoring the Huffman coding over the string matching, for the filtered image data
+         */
+        FILTERED,
+        /**
+         * Huffman coding only, without string matching: Fastest, lowest ratio
+         */
+        HUFFMAN_ONLY
+    }
+
+    /**
+     * Policies to force the sanitized images to the storage
+     */
+    public enum SyncPolicy {
+        /**
+         * Never forced, the operating system write them when it wants: Fastest, images published just before a crash can be lost or empty
+         */
+        NONE,
+        /**
+         * Each image is forced before its publication, then its directory after it: A published image is complete after a crash
+         */
+        ALWAYS,
+        /**
+         * Images published are forced together, with their directories, once a batch of images is published: At most a batch of images can
+         * be lost after a crash
+         */
+        BATCH
+    }
+
+    /**
+     * Formats handled by the streaming mode
+     */
+    public static final String FORMAT_JPEG = "JPEG";
+    public static final String FORMAT_PNG = "PNG";
+    public static final String FORMAT_GIF = "GIF";
+
+    /**
+     * Formats handled by the tiled mode in addition to PNG, TIFF is also handled by the multi-frame mode with GIF
+     */
+    public static final String FORMAT_BMP = "BMP";
+    public static final String FORMAT_TIFF = "TIFF";
+
+    /**
+     * Sanitizing mode of the formats without specific mode
+     */
+    private Mode mode = Mode.REWRITE;
+
+    /**
+     * Sanitizing modes by format (upper case)
+     */
+    private final Map<String, Mode> formatModes = new HashMap<>();
+
+    /**
+     * Flag to keep the ICC profile in streaming mode
+     */
+    private boolean keepIccProfile = true;
+
+    /**
+     * Flag to keep the transparency (tRNS) and gamma (gAMA) chunks of the PNG images in streaming mode
+     */
+    private boolean keepPngTransparencyAndGamma = true;
+
+    /**
+     * Maximum count of pixels (width x height) of an image decoded by the rewrite, 100 millions by default
+     */
+    private long maxPixels = 100_000_000L;
+
+    /**
+     * Maximum count of pixels of a tile decoded at once in tiled mode, 4 millions by default
+     */
+    private int tilePixels = 4_000_000;
+
+    /**
+     * Maximum count of bytes retained by the pixels buffers pooled between two rewrites, 256 MB by default
+     */
+    private long poolMaxBytes = 256L * 1024 * 1024;
+
+    /**
+     * Maximum count of frames re-sampled in parallel in multi-frame mode, count of processors by default
+     */
+    private int frameThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum count of frames of an image decoded and not yet written in multi-frame mode, 4 by default
+     */
+    private int frameWindow = 4;
+
+    /**
+     * Flag to encode the PNG images rewritten with the image data compressed in parallel, instead of the image writer of the Java built-in API
+     */
+    private boolean pngParallelEncoding = true;
+
+    /**
+     * Compression level (0-9) of the PNG images encoded in parallel, 6 by default
+     */
+    private int pngCompressionLevel = 6;
+
+    /**
+     * Compression strategy of the PNG images encoded in parallel
+     */
+    private PngCompressionStrategy pngCompressionStrategy = PngCompressionStrategy.DEFAULT;
+
+    /**
+     * Policy to force the sanitized images to the storage
+     */
+    private SyncPolicy syncPolicy = SyncPolicy.NONE;
+
+    /**
+     * Count of images published by batch with the batch sync policy, 16 by default
+     */
+    private int syncBatchSize = 16;
+
+    /**
+     * @return The sanitizing mode of the formats without specific mode
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * @param mode The sanitizing mode of the formats without specific mode
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @param format Image format (ex: JPEG)
+     * @return The sanitizing mode of the format
+     */
+    public Mode getMode(String format) {
+        return this.formatModes.getOrDefault(format.toUpperCase(Locale.US), this.mode);
+    }
+
+    /**
+     * @param format Image format (ex: JPEG)
+     * @param mode   The sanitizing mode of the format
+     */
+    public void setMode(String format, Mode mode) {
+        this.formatModes.put(format.toUpperCase(Locale.US), mode);
+    }
+
+    /**
+     * @param mode Sanitizing mode
+     * @return TRUE if the mode is used by at least one format
+     */
+    public boolean isModeUsed(Mode mode) {
+        return this.mode == mode || this.formatModes.containsValue(mode);
+    }
+
+    /**
+     * @return TRUE if the ICC profile is kept in streaming mode
+     */
+    public boolean isKeepIccProfile() {
+        return this.keepIccProfile;
+    }
+
+    /**
+     * @param keepIccProfile Flag to keep the ICC profile in streaming mode
+     */
+    public void setKeepIccProfile(boolean keepIccProfile) {
+        this.keepIccProfile = keepIccProfile;
+    }
+
+    /**
+     * @return TRUE if the transparency and gamma chunks of the PNG images are kept in streaming mode
+     */
+    public boolean isKeepPngTransparencyAndGamma() {
+        return this.keepPngTransparencyAndGamma;
+    }
+
+    /**
+     * @param keepPngTransparencyAndGamma Flag to keep the transparency and gamma chunks of the PNG images in streaming mode
+     */
+    public void setKeepPngTransparencyAndGamma(boolean keepPngTransparencyAndGamma) {
+        this.keepPngTransparencyAndGamma = keepPngTransparencyAndGamma;
+    }
+
+    /**
+     * @return The maximum count of pixels of an image decoded by the rewrite
+     */
+    public long getMaxPixels() {
+        return this.maxPixels;
+    }
+
+    /**
+     * @param maxPixels The maximum count of pixels of an image decoded by the rewrite
+     */
+    public void setMaxPixels(long maxPixels) {
+        this.maxPixels = maxPixels;
+    }
+
+    /**
+     * @return The maximum count of pixels of a tile decoded at once in tiled mode
+     */
+    public int getTilePixels() {
+        return this.tilePixels;
+    }
+
+    /**
+     * @param tilePixels The maximum count of pixels of a tile decoded at once in tiled mode
+     */
+    public void setTilePixels(int tilePixels) {
+        this.tilePixels = tilePixels;
+    }
+
+    /**
+     * @return The maximum count of bytes retained by the pixels buffers pooled between two rewrites
+     */
+    public long getPoolMaxBytes() {
+        return this.poolMaxBytes;
+    }
+
+    /**
+     * @param poolMaxBytes The maximum count of bytes retained by the pixels buffers pooled between two rewrites (0 to disable the pooling)
+     */
+    public void setPoolMaxBytes(long poolMaxBytes) {
+        this.poolMaxBytes = poolMaxBytes;
+    }
+
+    /**
+     * @return The maximum count of frames re-sampled in parallel in multi-frame mode
+     */
+    public int getFrameThreads() {
+        return this.frameThreads;
+    }
+
+    /**
+     * @param frameThreads The maximum count of frames re-sampled in parallel in multi-frame mode
+     */
+    public void setFrameThreads(int frameThreads) {
+        this.frameThreads = frameThreads;
+    }
+
+    /**
+     * @return The maximum count of frames of an image decoded and not yet written in multi-frame mode
+     */
+    public int getFrameWindow() {
+        return this.frameWindow;
+    }
+
+    /**
+     * @param frameWindow The maximum count of frames of an image decoded and not yet written in multi-frame mode
+     */
+    public void setFrameWindow(int frameWindow) {
+        this.frameWindow = frameWindow;
+    }
+
+    /**
+     * @return TRUE if the PNG images rewritten are encoded with the image data compressed in parallel
+     */
+    public boolean isPngParallelEncoding() {
+        return this.pngParallelEncoding;
+    }
+
+    /**
+     * @param pngParallelEncoding Flag to encode the PNG images rewritten with the image data compressed in parallel
+     */
+    public void setPngParallelEncoding(boolean pngParallelEncoding) {
+        this.pngParallelEncoding = pngParallelEncoding;
+    }
+
+    /**
+     * @return The compression level (0-9) of the PNG images encoded in parallel
+     */
+    public int getPngCompressionLevel() {
+        return this.pngCompressionLevel;
+    }
+
+    /**
+     * @param pngCompressionLevel The compression level (0-9) of the PNG images encoded in parallel
+     */
+    public void setPngCompressionLevel(int pngCompressionLevel) {
+        this.pngCompressionLevel = pngCompressionLevel;
+    }
+
+    /**
+     * @return The compression strategy of the PNG images encoded in parallel
+     */
+    public PngCompressionStrategy getPngCompressionStrategy() {
+        return this.pngCompressionStrategy;
+    }
+
+    /**
+     * @param pngCompressionStrategy The compression strategy of the PNG images encoded in parallel
+     */
+    public void setPngCompressionStrategy(PngCompressionStrategy pngCompressionStrategy) {
+        this.pngCompressionStrategy = pngCompressionStrategy;
+    }
+
+    /**
+     * @return The policy to force the sanitized images to the storage
+     */
+    public SyncPolicy getSyncPolicy() {
+        return this.syncPolicy;
+    }
+
+    /**
+     * @param syncPolicy The policy to force the sanitized images to the storage
+     */
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    /**
+     * @return The count of images published by batch with the batch sync policy
+     */
+    public int getSyncBatchSize() {
+        return this.syncBatchSize;
+    }
+
+    /**
+     * @param syncBatchSize The count of images published by batch with the batch sync policy
+     */
+    public void setSyncBatchSize(int syncBatchSize) {
+        this.syncBatchSize = syncBatchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "mode: " + this.mode + " / modes by format: " + this.formatModes + " / keep ICC profile: " + this.keepIccProfile + " / keep PNG transparency and gamma: " + this.keepPngTransparencyAndGamma + " / max pixels: " + this.maxPixels + " / tile pixels: " + this.tilePixels + " / pool max bytes: " + this.poolMaxBytes + " / frame threads: " + this.frameThreads + " / frame window: " + this.frameWindow + " / PNG parallel encoding: " + this.pngParallelEncoding + " / PNG compression level: " + this.pngCompressionLevel + " / PNG compression strategy: " + this.pngCompressionStrategy + " / sync policy: " + this.syncPolicy + " / sync batch size: " + this.syncBatchSize;
+    }
+}
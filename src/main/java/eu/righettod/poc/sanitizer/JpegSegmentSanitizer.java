@@ -0,0 +1,274 @@
+package eu.righettod.poc.sanitizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lossless sanitizing of a JPEG image by rewriting its segments, the pixels are never decoded:<br>
+ * <ul>
+ * <li>Application segments APP1 to APP15 (EXIF, XMP, Photoshop...) and comments are dropped, except the ICC profile (APP2) if it is kept and
+ * the Adobe segment (APP14) rebuilt from its fixed fields because it define the color transform of the image</li>
+ * <li>JFIF segment (APP0) is rebuilt from its fixed fields, without thumbnail, other APP0 segments are dropped</li>
+ * <li>Data after the end of image marker are dropped</li>
+ * <li>Tables, frame and scans segments, including the entropy-coded data, are copied as is with channel transfers: Only the markers defined
+ * for them are copied (SOFn, DHT, DAC, DQT, DRI, SOS, DNL, DHP and EXP), any other marker (reserved, JPG...) can carry any content</li>
+ * </ul>
+ * Unexpected structures (missing marker, truncated segment, reserved marker, scan before frame...) are rejected with an {@link IOException}.
+ * <br>
+ * Thread-safe, no state is kept between two calls.
+ */
+public final class JpegSegmentSanitizer {
+
+    /**
+     * Markers used
+     */
+    private static final int MARKER_PREFIX = 0xFF;
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_DHT = 0xC4;
+    private static final int MARKER_DAC = 0xCC;
+    private static final int MARKER_DQT = 0xDB;
+    private static final int MARKER_DNL = 0xDC;
+    private static final int MARKER_DRI = 0xDD;
+    private static final int MARKER_DHP = 0xDE;
+    private static final int MARKER_EXP = 0xDF;
+    private static final int MARKER_TEM = 0x01;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP2 = 0xE2;
+    private static final int MARKER_APP14 = 0xEE;
+    private static final int MARKER_COM = 0xFE;
+
+    /**
+     * Identifiers of the application segments kept
+     */
+    private static final byte[] JFIF_IDENTIFIER = "JFIF\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ICC_PROFILE_IDENTIFIER = "ICC_PROFILE\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ADOBE_IDENTIFIER = "Adobe".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Length of the fixed fields of the JFIF segment, thumbnail dimensions included
+     */
+    private static final int JFIF_FIXED_LENGTH = 14;
+
+    /**
+     * Length of the fixed fields of the Adobe segment
+     */
+    private static final int ADOBE_FIXED_LENGTH = 12;
+
+    /**
+     * Constructor
+     */
+    private JpegSegmentSanitizer() {
+    }
+
+    /**
+     * Verify if a content start with the JPEG start of image marker.
+     *
+     * @param header First bytes of the content
+     * @return TRUE only if the content is a JPEG image
+     */
+    public static boolean isJpeg(byte[] header) {
+        return header.length >= 3 && (header[0] & 0xFF) == MARKER_PREFIX && (header[1] & 0xFF) == MARKER_SOI && (header[2] & 0xFF) == MARKER_PREFIX;
+    }
+
+    /**
+     * Write the sanitized image.
+     *
+     * @param source         Channel of the original image, read from its beginning
+     * @param target         Channel receiving the sanitized image, written from its current position
+     * @param keepIccProfile Flag to keep the ICC profile
+     * @throws IOException If the original image is not a JPEG image with the expected structure or cannot be read/written
+     */
+    public static void sanitize(FileChannel source, FileChannel target, boolean keepIccProfile) throws IOException {
+        long size = source.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("JPEG image is too big !");
+        }
+        ChannelWindow data = new ChannelWindow(source);
+        int limit = (int) size;
+        if (limit < 4 || data.unsignedByte(0) != MARKER_PREFIX || data.unsignedByte(1) != MARKER_SOI) {
+            throw new IOException("Start of image marker expected !");
+        }
+        writeMarker(target, MARKER_SOI);
+        int position = 2;
+        boolean frameFound = false;
+        while (true) {
+            // Step 1: Marker, optionally preceded by fill bytes
+            if (position >= limit || data.unsignedByte(position) != MARKER_PREFIX) {
+                throw new IOException("Marker expected at offset " + position + " !");
+            }
+            while (position < limit && data.unsignedByte(position) == MARKER_PREFIX) {
+                position++;
+            }
+            if (position >= limit) {
+                throw new IOException("Truncated marker !");
+            }
+            int marker = data.unsignedByte(position++);
+            if (marker == MARKER_EOI) {
+                // Data after the end of image are dropped
+                writeMarker(target, MARKER_EOI);
+                return;
+            }
+            if (marker == MARKER_TEM || (marker >= 0xD0 && marker <= 0xD7)) {
+                // Standalone markers
+                writeMarker(target, marker);
+                continue;
+            }
+            boolean applicationMarker = marker >= MARKER_APP0 && marker <= 0xEF;
+            if (!applicationMarker && marker != MARKER_COM && !isImageMarker(marker)) {
+                throw new IOException("Unsupported marker 0x" + Integer.toHexString(marker) + " !");
+            }
+            // Step 2: Segment
+            if (position + 2 > limit) {
+                throw new IOException("Truncated segment !");
+            }
+            int length = (data.unsignedByte(position) << 8) | data.unsignedByte(position + 1);
+            if (length < 2 || position + length > limit) {
+                throw new IOException("Invalid length of segment 0x" + Integer.toHexString(marker) + " !");
+            }
+            int payloadStart = position + 2;
+            int payloadLength = length - 2;
+            int next = position + length;
+            if (applicationMarker) {
+                writeApplicationSegment(data, target, marker, payloadStart, payloadLength, keepIccProfile);
+            } else if (marker != MARKER_COM) {
+                frameFound |= isFrameMarker(marker);
+                if (marker == MARKER_SOS) {
+                    if (!frameFound) {
+                        throw new IOException("Scan found before the frame !");
+                    }
+                    // Scan header followed by the entropy-coded data
+                    next = endOfEntropyCodedData(data, next, limit);
+                }
+                writeMarker(target, marker);
+                ChannelCopy.transfer(source, position, next - position, target);
+            }
+            position = next;
+        }
+    }
+
+    /**
+     * Write the part kept of an application segment.
+     *
+     * @param data           Original image
+     * @param target         Channel receiving the sanitized image
+     * @param marker         Marker of the segment
+     * @param payloadStart   Offset of the payload of the segment
+     * @param payloadLength  Length of the payload of the segment
+     * @param keepIccProfile Flag to keep the ICC profile
+     * @throws IOException If the segment cannot be written
+     */
+    private static void writeApplicationSegment(ChannelWindow data, FileChannel target, int marker, int payloadStart, int payloadLength, boolean keepIccProfile) throws IOException {
+        if (marker == MARKER_APP0 && startsWith(data, payloadStart, payloadLength, JFIF_IDENTIFIER) && payloadLength >= JFIF_FIXED_LENGTH) {
+            byte[] payload = data.copy(payloadStart, JFIF_FIXED_LENGTH);
+            // No thumbnail
+            payload[JFIF_FIXED_LENGTH - 2] = 0;
+            payload[JFIF_FIXED_LENGTH - 1] = 0;
+            writeSegment(target, marker, payload);
+        } else if (marker == MARKER_APP2 && keepIccProfile && startsWith(data, payloadStart, payloadLength, ICC_PROFILE_IDENTIFIER)) {
+            writeSegment(target, marker, data.copy(payloadStart, payloadLength));
+        } else if (marker == MARKER_APP14 && startsWith(data, payloadStart, payloadLength, ADOBE_IDENTIFIER) && payloadLength >= ADOBE_FIXED_LENGTH) {
+            writeSegment(target, marker, data.copy(payloadStart, ADOBE_FIXED_LENGTH));
+        }
+    }
+
+    /**
+     * Find the end of the entropy-coded data of a scan: First marker which is neither a stuffed byte nor a restart marker.
+     *
+     * @param data     Original image
+     * @param position Offset of the beginning of the entropy-coded data
+     * @param limit    Size of the original image
+     * @return The offset of the marker following the entropy-coded data
+     * @throws IOException If the end of the image is reached
+     */
+    private static int endOfEntropyCodedData(ChannelWindow data, int position, int limit) throws IOException {
+        for (int i = position; i + 1 < limit; i++) {
+            if (data.unsignedByte(i) == MARKER_PREFIX) {
+                int following = data.unsignedByte(i + 1);
+                if (following != 0x00 && !(following >= 0xD0 && following <= 0xD7)) {
+                    return i;
+                }
+                i++;
+            }
+        }
+        throw new IOException("Truncated entropy-coded data !");
+    }
+
+    /**
+     * @param marker Marker
+     * @return TRUE only if the marker is a marker of a frame, table or scan segment copied as is
+     */
+    private static boolean isImageMarker(int marker) {
+        switch (marker) {
+            case MARKER_DHT:
+            case MARKER_DAC:
+            case MARKER_DQT:
+            case MARKER_DRI:
+            case MARKER_SOS:
+            case MARKER_DNL:
+            case MARKER_DHP:
+            case MARKER_EXP:
+                return true;
+            default:
+                return isFrameMarker(marker);
+        }
+    }
+
+    /**
+     * @param marker Marker
+     * @return TRUE only if the marker is a start of frame marker
+     */
+    private static boolean isFrameMarker(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * @param data       Original image
+     * @param offset     Offset of the payload
+     * @param length     Length of the payload
+     * @param identifier Identifier expected
+     * @return TRUE only if the payload start with the identifier
+     * @throws IOException If the payload cannot be read
+     */
+    private static boolean startsWith(ChannelWindow data, int offset, int length, byte[] identifier) throws IOException {
+        if (length < identifier.length) {
+            return false;
+        }
+        for (int i = 0; i < identifier.length; i++) {
+            if (data.unsignedByte(offset + i) != (identifier[i] & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write a marker.
+     *
+     * @param target Channel receiving the sanitized image
+     * @param marker Marker
+     * @throws IOException If the marker cannot be written
+     */
+    private static void writeMarker(FileChannel target, int marker) throws IOException {
+        ChannelCopy.write(target, ByteBuffer.wrap(new byte[]{(byte) MARKER_PREFIX, (byte) marker}));
+    }
+
+    /**
+     * Write a segment.
+     *
+     * @param target  Channel receiving the sanitized image
+     * @param marker  Marker of the segment
+     * @param payload Payload of the segment
+     * @throws IOException If the segment cannot be written
+     */
+    private static void writeSegment(FileChannel target, int marker, byte[] payload) throws IOException {
+        int length = payload.length + 2;
+        ByteBuffer segment = ByteBuffer.allocate(length + 2);
+        segment.put((byte) MARKER_PREFIX).put((byte) marker).putShort((short) length).put(payload);
+        segment.flip();
+        ChannelCopy.write(target, segment);
+    }
+}
@@ -0,0 +1,457 @@
+package eu.righettod.poc.sanitizer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder of the sanitized images compressing the image data in parallel, in the way of pigz:<br>
+ * <ul>
+ * <li>Rows are filtered (adaptive filter: the filter with the minimum sum of absolute differences is selected for each row) then split in
+ * blocks of rows of about {@link #DEFAULT_BLOCK_BYTES} bytes</li>
+ * <li>Each block is filtered and compressed by a task with its own deflater, primed with the last 32 KB of the block before it as
+ * dictionary, so the compression ratio stays close to the one of a single deflater</li>
+ * <li>Each block, except the last, is ended by a sync flush so the compressed blocks are concatenated into a single zlib stream whose
+ * checksum is combined from the checksums of the blocks</li>
+ * <li>Each compressed block is written as an IDAT chunk, in order, as soon as it is available: At most twice the parallelism of the pool of
+ * blocks are in progress</li>
+ * </ul>
+ * Images are written as 8 bits RGB without alpha, the layout of the sanitized images.<br>
+ * Thread-safe: No state is kept between two calls.
+ */
+final class ParallelPngEncoder {
+
+    /**
+     * Count of bytes of filtered rows by block, by default
+     */
+    static final int DEFAULT_BLOCK_BYTES = 128 * 1024;
+
+    /**
+     * Signature of a PNG image
+     */
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+
+    /**
+     * Size of the window of the deflate algorithm, maximum size of a dictionary
+     */
+    private static final int DICTIONARY_BYTES = 32 * 1024;
+
+    /**
+     * Modulo of the Adler-32 checksum
+     */
+    private static final int ADLER_BASE = 65521;
+
+    /**
+     * Pool running the blocks tasks
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Compression level (0-9)
+     */
+    private final int level;
+
+    /**
+     * Compression strategy of the deflater
+     */
+    private final int strategy;
+
+    /**
+     * Count of bytes of filtered rows by block
+     */
+    private final int blockBytes;
+
+    /**
+     * Constructor
+     *
+     * @param pool       Pool running the blocks tasks
+     * @param level      Compression level (0-9)
+     * @param strategy   Compression strategy
+     * @param blockBytes Count of bytes of filtered rows by block
+     * @throws IllegalArgumentException If the compression level is not between 0 and 9 or the count of bytes by block is not strictly positive
+     */
+    ParallelPngEncoder(ForkJoinPool pool, int level, ImageSanitizerSettings.PngCompressionStrategy strategy, int blockBytes) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9 !");
+        }
+        if (blockBytes <= 0) {
+            throw new IllegalArgumentException("Count of bytes by block must be strictly positive !");
+        }
+        this.pool = pool;
+        this.level = level;
+        switch (strategy) {
+            case FILTERED: {
+                this.strategy = Deflater.FILTERED;
+                break;
+            }
+            case HUFFMAN_ONLY: {
+                this.strategy = Deflater.HUFFMAN_ONLY;
+                break;
+            }
+            default: {
+                this.strategy = Deflater.DEFAULT_STRATEGY;
+                break;
+            }
+        }
+        this.blockBytes = blockBytes;
+    }
+
+    /**
+     * Write an image.
+     *
+     * @param pixels Pixels (opaque ARGB packed, row by row), the array can be bigger than the image
+     * @param width  Width of the image
+     * @param height Height of the image
+     * @param out    Stream receiving the image, not closed
+     * @throws IOException If the image cannot be compressed or written
+     */
+    void write(int[] pixels, int width, int height, OutputStream out) throws IOException {
+        if (width <= 0 || height <= 0 || (long) width * height > pixels.length || 1L + 3L * width > Integer.MAX_VALUE - DICTIONARY_BYTES) {
+            throw new IOException("Dimensions of the image are not supported !");
+        }
+        int rowBytes = 1 + 3 * width;
+        int rowsPerBlock = Math.max(1, this.blockBytes / rowBytes);
+        // Step 1: Signature and header, 8 bits RGB, no interlace
+        out.write(PNG_SIGNATURE);
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height).put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+        writeChunk(out, "IHDR", header.array(), 0, header.position());
+        // Step 2: Blocks compressed in parallel then written in order, the first one with the zlib header and the last one with the checksum
+        Deque<ForkJoinTask<CompressedBlock>> pendingBlocks = new ArrayDeque<>();
+        int maxPendingBlocks = 2 * this.pool.getParallelism();
+        long checksum = 1;
+        boolean first = true;
+        try {
+            for (int fromRow = 0; fromRow < height || !pendingBlocks.isEmpty(); ) {
+                if (fromRow < height && pendingBlocks.size() < maxPendingBlocks) {
+                    int blockFromRow = fromRow;
+                    int blockToRow = Math.min(height, fromRow + rowsPerBlock);
+                    pendingBlocks.addLast(this.pool.submit(() -> this.compress(pixels, width, blockFromRow, blockToRow, blockToRow == height)));
+                    fromRow = blockToRow;
+                    continue;
+                }
+                CompressedBlock block = join(pendingBlocks.pollFirst());
+                checksum = combineAdler32(checksum, block.checksum, block.uncompressedLength);
+                byte[] data = block.data;
+                int offset = 0;
+                int length = block.length;
+                if (first) {
+                    // zlib header: deflate with a 32 KB window, level indication then check bits
+                    data = ensureCapacity(data, length + 2);
+                    System.arraycopy(data, 0, data, 2, length);
+                    data[0] = 0x78;
+                    data[1] = (byte) zlibFlags(this.level);
+                    length += 2;
+                    first = false;
+                }
+                if (pendingBlocks.isEmpty() && fromRow == height) {
+                    data = ensureCapacity(data, offset + length + 4);
+                    ByteBuffer.wrap(data, offset + length, 4).putInt((int) checksum);
+                    length += 4;
+                }
+                writeChunk(out, "IDAT", data, offset, length);
+            }
+        } finally {
+            for (ForkJoinTask<CompressedBlock> pendingBlock : pendingBlocks) {
+                pendingBlock.cancel(false);
+            }
+        }
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+    }
+
+    /**
+     * Filter then compress a block of rows.
+     *
+     * @param pixels  Pixels of the image
+     * @param width   Width of the image
+     * @param fromRow First row of the block
+     * @param toRow   Row following the last row of the block
+     * @param last    Flag indicating that the block is the last one of the image
+     * @return The compressed block
+     */
+    private CompressedBlock compress(int[] pixels, int width, int fromRow, int toRow, boolean last) {
+        int rowBytes = 1 + 3 * width;
+        byte[] filtered = filterRows(pixels, width, fromRow, toRow);
+        Deflater deflater = new Deflater(this.level, true);
+        try {
+            deflater.setStrategy(this.strategy);
+            if (fromRow > 0) {
+                // Dictionary: Last bytes of the block before, filtered again from the pixels so the blocks do not depend on each other
+                int dictionaryRows = Math.min(fromRow, (DICTIONARY_BYTES + rowBytes - 1) / rowBytes);
+                byte[] dictionary = filterRows(pixels, width, fromRow - dictionaryRows, fromRow);
+                int dictionaryLength = Math.min(dictionary.length, DICTIONARY_BYTES);
+                deflater.setDictionary(dictionary, dictionary.length - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(filtered);
+            byte[] data = new byte[filtered.length / 2 + 64];
+            int length = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    data = ensureCapacity(data, length + 1);
+                    length += deflater.deflate(data, length, data.length - length);
+                }
+            } else {
+                // Sync flush: Output ended on a byte boundary, the deflater is called again while input remains (the first call can only
+                // apply the strategy) or while it fill all the space available
+                do {
+                    data = ensureCapacity(data, length + 1);
+                    length += deflater.deflate(data, length, data.length - length, Deflater.SYNC_FLUSH);
+                } while (!deflater.needsInput() || length == data.length);
+            }
+            Adler32 adler32 = new Adler32();
+            adler32.update(filtered, 0, filtered.length);
+            return new CompressedBlock(data, length, adler32.getValue(), filtered.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Filter rows with the adaptive filter.
+     *
+     * @param pixels  Pixels of the image
+     * @param width   Width of the image
+     * @param fromRow First row
+     * @param toRow   Row following the last row
+     * @return The filtered rows, each one prefixed by the type of its filter
+     */
+    static byte[] filterRows(int[] pixels, int width, int fromRow, int toRow) {
+        int lineBytes = 3 * width;
+        byte[] filtered = new byte[(toRow - fromRow) * (lineBytes + 1)];
+        byte[] previous = new byte[lineBytes];
+        byte[] current = new byte[lineBytes];
+        if (fromRow > 0) {
+            rowBytes(pixels, width, fromRow - 1, previous);
+        }
+        int offset = 0;
+        for (int row = fromRow; row < toRow; row++) {
+            rowBytes(pixels, width, row, current);
+            // Step 1: Sum of the absolute differences (as signed bytes) of each filter, without keeping the filtered bytes
+            long sumNone = 0;
+            long sumSub = 0;
+            long sumUp = 0;
+            long sumAverage = 0;
+            long sumPaeth = 0;
+            for (int i = 0; i < lineBytes; i++) {
+                int x = current[i] & 0xFF;
+                int b = previous[i] & 0xFF;
+                int a = 0;
+                int c = 0;
+                if (i >= 3) {
+                    a = current[i - 3] & 0xFF;
+                    c = previous[i - 3] & 0xFF;
+                }
+                sumNone += Math.abs((byte) x);
+                sumSub += Math.abs((byte) (x - a));
+                sumUp += Math.abs((byte) (x - b));
+                sumAverage += Math.abs((byte) (x - ((a + b) >>> 1)));
+                sumPaeth += Math.abs((byte) (x - paeth(a, b, c)));
+            }
+            long[] sums = {sumNone, sumSub, sumUp, sumAverage, sumPaeth};
+            int selected = 0;
+            for (int filter = 1; filter < 5; filter++) {
+                if (sums[filter] < sums[selected]) {
+                    selected = filter;
+                }
+            }
+            // Step 2: Row filtered with the filter selected
+            filtered[offset++] = (byte) selected;
+            for (int i = 0; i < lineBytes; i++) {
+                int x = current[i] & 0xFF;
+                int a = (i >= 3) ? current[i - 3] & 0xFF : 0;
+                int b = previous[i] & 0xFF;
+                switch (selected) {
+                    case 1: {
+                        x -= a;
+                        break;
+                    }
+                    case 2: {
+                        x -= b;
+                        break;
+                    }
+                    case 3: {
+                        x -= (a + b) >>> 1;
+                        break;
+                    }
+                    case 4: {
+                        x -= paeth(a, b, (i >= 3) ? previous[i - 3] & 0xFF : 0);
+                        break;
+                    }
+                    default: {
+                        break;
+                    }
+                }
+                filtered[offset++] = (byte) x;
+            }
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return filtered;
+    }
+
+    /**
+     * Combine the Adler-32 checksums of two consecutive sequences of bytes.
+     *
+     * @param first        Checksum of the first sequence
+     * @param second       Checksum of the second sequence
+     * @param secondLength Length of the second sequence
+     * @return The checksum of the two sequences
+     */
+    static long combineAdler32(long first, long second, long secondLength) {
+        long remainder = secondLength % ADLER_BASE;
+        long sum1 = first & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (second & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((first >>> 16) & 0xFFFF) + ((second >>> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        sum1 %= ADLER_BASE;
+        sum2 %= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * @param level Compression level
+     * @return The second byte of the zlib header, indicating the compression level
+     */
+    private static int zlibFlags(int level) {
+        int levelFlag = (level <= 1) ? 0 : (level <= 5) ? 1 : (level == 6) ? 2 : 3;
+        int flags = levelFlag << 6;
+        return flags + 31 - ((0x78 << 8) + flags) % 31;
+    }
+
+    /**
+     * @param a Byte at the left
+     * @param b Byte above
+     * @param c Byte above at the left
+     * @return The predictor of the Paeth filter
+     */
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return (pb <= pc) ? b : c;
+    }
+
+    /**
+     * @param pixels Pixels of the image
+     * @param width  Width of the image
+     * @param row    Row
+     * @param target Array receiving the RGB bytes of the row
+     */
+    private static void rowBytes(int[] pixels, int width, int row, byte[] target) {
+        int source = row * width;
+        for (int x = 0, i = 0; x < width; x++) {
+            int pixel = pixels[source + x];
+            target[i++] = (byte) (pixel >> 16);
+            target[i++] = (byte) (pixel >> 8);
+            target[i++] = (byte) pixel;
+        }
+    }
+
+    /**
+     * @param data     Array
+     * @param capacity Capacity needed
+     * @return The array or a bigger copy if its capacity is not enough
+     */
+    private static byte[] ensureCapacity(byte[] data, int capacity) {
+        return (capacity <= data.length) ? data : Arrays.copyOf(data, Math.max(capacity, data.length + (data.length >> 1)));
+    }
+
+    /**
+     * Wait for the compression of a block.
+     *
+     * @param task Task compressing the block
+     * @return The compressed block
+     * @throws IOException If the block cannot be compressed
+     */
+    private static CompressedBlock join(ForkJoinTask<CompressedBlock> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing the image !", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot compress the image !", e.getCause());
+        }
+    }
+
+    /**
+     * Write a chunk.
+     *
+     * @param out    Stream receiving the image
+     * @param type   Type of the chunk
+     * @param data   Array containing the data of the chunk
+     * @param offset Offset of the data in the array
+     * @param length Length of the data
+     * @throws IOException If the chunk cannot be written
+     */
+    private static void writeChunk(OutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(length).put(typeBytes);
+        out.write(header.array());
+        out.write(data, offset, length);
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        trailer.putInt((int) crc.getValue());
+        out.write(trailer.array());
+    }
+
+    /**
+     * Block of rows compressed.
+     */
+    private static final class CompressedBlock {
+
+        /**
+         * Array containing the compressed data, from its beginning
+         */
+        private final byte[] data;
+
+        /**
+         * Length of the compressed data
+         */
+        private final int length;
+
+        /**
+         * Adler-32 checksum of the filtered rows
+         */
+        private final long checksum;
+
+        /**
+         * Length of the filtered rows
+         */
+        private final int uncompressedLength;
+
+        /**
+         * Constructor
+         *
+         * @param data               Array containing the compressed data, from its beginning
+         * @param length             Length of the compressed data
+         * @param checksum           Adler-32 checksum of the filtered rows
+         * @param uncompressedLength Length of the filtered rows
+         */
+        private CompressedBlock(byte[] data, int length, long checksum, int uncompressedLength) {
+            this.data = data;
+            this.length = length;
+            this.checksum = checksum;
+            this.uncompressedLength = uncompressedLength;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package eu.righettod.poc.sanitizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Lossless sanitizing of a PNG image by filtering its chunks, the pixels are never decoded:<br>
+ * <ul>
+ * <li>Critical chunks (IHDR, PLTE, IDAT, IEND) are kept, the data of the chunks are copied with channel transfers</li>
+ * <li>Transparency (tRNS) and gamma (gAMA) chunks are kept only if requested, same thing for the ICC profile (iCCP)</li>
+ * <li>All others ancillary chunks (text, EXIF, time, private chunks...) and data after the IEND chunk are dropped</li>
+ * <li>CRC of the chunks kept are computed again, the original ones are never copied</li>
+ * </ul>
+ * Unexpected structures (missing signature, truncated chunk, unknown critical chunk, missing IHDR/IDAT/IEND...) are rejected with an
+ * {@link IOException}.<br>
+ * Thread-safe, no state is kept between two calls.
+ */
+public final class PngChunkSanitizer {
+
+    /**
+     * Signature of a PNG image
+     */
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+
+    /**
+     * Chunks types used
+     */
+    private static final int CHUNK_IHDR = chunkType("IHDR");
+    private static final int CHUNK_PLTE = chunkType("PLTE");
+    private static final int CHUNK_IDAT = chunkType("IDAT");
+    private static final int CHUNK_IEND = chunkType("IEND");
+    private static final int CHUNK_TRNS = chunkType("tRNS");
+    private static final int CHUNK_GAMA = chunkType("gAMA");
+    private static final int CHUNK_ICCP = chunkType("iCCP");
+
+    /**
+     * Length of the data of the IHDR chunk
+     */
+    private static final int IHDR_LENGTH = 13;
+
+    /**
+     * Constructor
+     */
+    private PngChunkSanitizer() {
+    }
+
+    /**
+     * Verify if a content start with the PNG signature.
+     *
+     * @param header First bytes of the content
+     * @return TRUE only if the content is a PNG image
+     */
+    public static boolean isPng(byte[] header) {
+        if (header.length < PNG_SIGNATURE.length) {
+            return false;
+        }
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (header[i] != PNG_SIGNATURE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the sanitized image.
+     *
+     * @param source                   Channel of the original image, read from its beginning
+     * @param target                   Channel receiving the sanitized image, written from its current position
+     * @param keepTransparencyAndGamma Flag to keep the tRNS and gAMA chunks
+     * @param keepIccProfile           Flag to keep the iCCP chunk
+     * @throws IOException If the original image is not a PNG image with the expected structure or cannot be read/written
+     */
+    public static void sanitize(FileChannel source, FileChannel target, boolean keepTransparencyAndGamma, boolean keepIccProfile) throws IOException {
+        long size = source.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("PNG image is too big !");
+        }
+        ChannelWindow data = new ChannelWindow(source);
+        int limit = (int) size;
+        if (limit < PNG_SIGNATURE.length || !isPng(data.copy(0, PNG_SIGNATURE.length))) {
+            throw new IOException("PNG signature expected !");
+        }
+        ChannelCopy.write(target, ByteBuffer.wrap(PNG_SIGNATURE));
+        int position = PNG_SIGNATURE.length;
+        boolean imageDataFound = false;
+        while (true) {
+            // Step 1: Chunk header
+            if (position + 12 > limit) {
+                throw new IOException("Truncated chunk at offset " + position + " !");
+            }
+            long length = data.getInt(position) & 0xFFFFFFFFL;
+            int type = data.getInt(position + 4);
+            if (length > limit - position - 12L) {
+                throw new IOException("Invalid length of chunk at offset " + position + " !");
+            }
+            int dataStart = position + 8;
+            int next = dataStart + (int) length + 4;
+            if (position == PNG_SIGNATURE.length && (type != CHUNK_IHDR || length != IHDR_LENGTH)) {
+                throw new IOException("IHDR chunk expected first !");
+            }
+            // Step 2: Chunk kept or dropped
+            boolean critical = (type & 0x20000000) == 0;
+            if (type == CHUNK_IHDR || type == CHUNK_PLTE || type == CHUNK_IDAT || type == CHUNK_IEND) {
+                imageDataFound |= (type == CHUNK_IDAT);
+                writeChunk(source, data, target, type, dataStart, (int) length);
+                if (type == CHUNK_IEND) {
+                    if (!imageDataFound) {
+                        throw new IOException("IDAT chunk expected !");
+                    }
+                    // Data after the IEND chunk are dropped
+                    return;
+                }
+            } else if (critical) {
+                throw new IOException("Unsupported critical chunk at offset " + position + " !");
+            } else if ((keepTransparencyAndGamma && (type == CHUNK_TRNS || type == CHUNK_GAMA)) || (keepIccProfile && type == CHUNK_ICCP)) {
+                writeChunk(source, data, target, type, dataStart, (int) length);
+            }
+            position = next;
+        }
+    }
+
+    /**
+     * Write a chunk with its CRC computed again.
+     *
+     * @param source    Channel of the original image
+     * @param data      Original image
+     * @param target    Channel receiving the sanitized image
+     * @param type      Type of the chunk
+     * @param dataStart Offset of the data of the chunk
+     * @param length    Length of the data of the chunk
+     * @throws IOException If the chunk cannot be written
+     */
+    private static void writeChunk(FileChannel source, ChannelWindow data, FileChannel target, int type, int dataStart, int length) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(length).putInt(type);
+        header.flip();
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 4, 4);
+        data.update(crc, dataStart, length);
+        ChannelCopy.write(target, header);
+        ChannelCopy.transfer(source, dataStart, length, target);
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        trailer.putInt((int) crc.getValue());
+        trailer.flip();
+        ChannelCopy.write(target, trailer);
+    }
+
+    /**
+     * @param name Name of a chunk type
+     * @return The chunk type as read from the image (big endian)
+     */
+    private static int chunkType(String name) {
+        return (name.charAt(0) << 24) | (name.charAt(1) << 16) | (name.charAt(2) << 8) | name.charAt(3);
+    }
+}
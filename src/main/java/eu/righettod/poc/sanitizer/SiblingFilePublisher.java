@@ -0,0 +1,205 @@
+package eu.righettod.poc.sanitizer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publication of the sanitized images: Each image is written into a sibling file (same directory, so same file system) then moved over the
+ * original file by an atomic move.<br>
+ * A reader of the original path see either the original image or the complete sanitized image, never a partially written image, and a
+ * reader which opened the original image before the move keep reading the original image. So the sanitized image can be streamed by the
+ * consumers as soon as it is published, without lock or polling.<br>
+ * The content of the images is forced to the storage according to the {@link ImageSanitizerSettings.SyncPolicy}: Never, for each image
+ * before its move, or for a batch of images once the batch is published. With the batch policy, the images of an incomplete batch are
+ * forced only when the batch is completed. The batch is forced by the publication completing it, after its own move, so a failure to force
+ * the batch is only logged: The image being published is already in place and the others images of the batch were published before.<br>
+ * Thread-safe: Siblings are local to a call, only the batch of images published is shared.
+ */
+final class SiblingFilePublisher {
+
+    /**
+     * LOGGER
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SiblingFilePublisher.class);
+
+    /**
+     * Size of the buffer of the stream writing into a sibling file
+     */
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Policy to force the images to the storage
+     */
+    private final ImageSanitizerSettings.SyncPolicy syncPolicy;
+
+    /**
+     * Count of images published by batch with the batch policy
+     */
+    private final int batchSize;
+
+    /**
+     * Images published and not yet forced with the batch policy, access synchronized on the list
+     */
+    private final List<Path> unsyncedFiles = new ArrayList<>();
+
+    /**
+     * Count of files and directories forced to the storage
+     */
+    private final AtomicLong syncCount = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param syncPolicy Policy to force the images to the storage
+     * @param batchSize  Count of images published by batch with the batch policy
+     * @throws IllegalArgumentException If the count of images by batch is not strictly positive
+     */
+    SiblingFilePublisher(ImageSanitizerSettings.SyncPolicy syncPolicy, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Count of images by batch must be strictly positive !");
+        }
+        this.syncPolicy = syncPolicy;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Create an empty sibling file of a file.
+     *
+     * @param f Original file
+     * @return The sibling file
+     * @throws IOException If the sibling file cannot be created
+     */
+    Path createSibling(File f) throws IOException {
+        return Files.createTempFile(f.toPath().toAbsolutePath().getParent(), "sanitized-", ".tmp");
+    }
+
+    /**
+     * Open a buffered stream writing into a sibling file, through a file channel.
+     *
+     * @param sibling Sibling file
+     * @return The stream, to close by the caller
+     * @throws IOException If the sibling file cannot be opened
+     */
+    OutputStream openSibling(Path sibling) throws IOException {
+        FileChannel channel = FileChannel.open(sibling, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES);
+    }
+
+    /**
+     * Move a sibling file over the original file, the sibling file is deleted if it cannot be moved.
+     *
+     * @param sibling Sibling file, closed
+     * @param f       Original file
+     * @throws IOException If the sibling file cannot be forced or moved, or the move cannot be forced with the policy forcing each image
+     */
+    void publish(Path sibling, File f) throws IOException {
+        Path target = f.toPath().toAbsolutePath();
+        boolean moved = false;
+        try {
+            if (this.syncPolicy == ImageSanitizerSettings.SyncPolicy.ALWAYS) {
+                this.force(sibling, false);
+            }
+            Files.move(sibling, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(sibling);
+            }
+        }
+        if (this.syncPolicy == ImageSanitizerSettings.SyncPolicy.ALWAYS) {
+            // The move is durable only once the directory is forced
+            this.force(target.getParent(), true);
+        } else if (this.syncPolicy == ImageSanitizerSettings.SyncPolicy.BATCH) {
+            List<Path> batch = null;
+            synchronized (this.unsyncedFiles) {
+                this.unsyncedFiles.add(target);
+                if (this.unsyncedFiles.size() >= this.batchSize) {
+                    batch = new ArrayList<>(this.unsyncedFiles);
+                    this.unsyncedFiles.clear();
+                }
+            }
+            if (batch != null) {
+                this.forceBatch(batch);
+            }
+        }
+    }
+
+    /**
+     * @return The count of images published and not yet forced with the batch policy
+     */
+    int getUnsyncedCount() {
+        synchronized (this.unsyncedFiles) {
+            return this.unsyncedFiles.size();
+        }
+    }
+
+    /**
+     * @return The count of files and directories forced to the storage
+     */
+    long getSyncCount() {
+        return this.syncCount.get();
+    }
+
+    /**
+     * Force a batch of images then their directories, each directory being forced once.<br>
+     * An image which cannot be forced is logged and the others images are forced anyway.
+     *
+     * @param batch Images published
+     */
+    private void forceBatch(List<Path> batch) {
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Path file : batch) {
+            try {
+                this.force(file, false);
+            } catch (NoSuchFileException e) {
+                // Image already consumed and removed: Nothing to force
+            } catch (IOException e) {
+                LOG.warn("Cannot force the sanitized image '{}' to the storage !", file, e);
+            }
+            directories.add(file.getParent());
+        }
+        for (Path directory : directories) {
+            try {
+                this.force(directory, true);
+            } catch (IOException e) {
+                // Failures to force a directory are already ignored by the force
+            }
+        }
+    }
+
+    /**
+     * Force a file or a directory to the storage.
+     *
+     * @param path      File or directory
+     * @param directory Flag indicating that the path is a directory, not all the platforms allow to force a directory (Windows) so the
+     *                  failure is ignored for a directory
+     * @throws IOException If the file cannot be forced
+     */
+    private void force(Path path, boolean directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, directory ? StandardOpenOption.READ : StandardOpenOption.WRITE)) {
+            channel.force(true);
+            this.syncCount.incrementAndGet();
+        } catch (IOException e) {
+            if (!directory) {
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package eu.righettod.poc.sanitizer;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Vector;
+
+/**
+ * Image sanitized by tiles: Each tile is a strip of rows computed on demand by decoding, from the original image, the region of rows it
+ * covers then by applying the "shrink 1px then restore" re-sampling of the sanitizer on this region only.<br>
+ * Only the last tile computed is kept, so an image writer reading the image by rows (PNG, BMP, TIFF) never need more than one tile in memory.
+ * <br>
+ * The tile layout is the one of a {@link BufferedImage#TYPE_INT_RGB} image.<br>
+ * Not thread-safe: The tiles are decoded with the reader given, so the image must be written by a single thread.
+ */
+final class TiledResampledImage implements RenderedImage {
+
+    /**
+     * Reader of the original image, input already set
+     */
+    private final ImageReader reader;
+
+    /**
+     * Re-sampling engine
+     */
+    private final ImageResampler resampler;
+
+    /**
+     * Width of the image
+     */
+    private final int width;
+
+    /**
+     * Height of the image
+     */
+    private final int height;
+
+    /**
+     * Count of rows of a tile
+     */
+    private final int tileRows;
+
+    /**
+     * Color model of the tiles
+     */
+    private final ColorModel colorModel;
+
+    /**
+     * Sample model of the tiles
+     */
+    private final SampleModel sampleModel;
+
+    /**
+     * Index of the last tile computed (-1 if none)
+     */
+    private int cachedTileIndex = -1;
+
+    /**
+     * Last tile computed
+     */
+    private Raster cachedTile;
+
+    /**
+     * Constructor
+     *
+     * @param reader    Reader of the original image, input already set
+     * @param resampler Re-sampling engine
+     * @param width     Width of the original image
+     * @param height    Height of the original image
+     * @param tileRows  Count of rows of a tile
+     */
+    TiledResampledImage(ImageReader reader, ImageResampler resampler, int width, int height, int tileRows) {
+        this.reader = reader;
+        this.resampler = resampler;
+        this.width = width;
+        this.height = height;
+        this.tileRows = tileRows;
+        BufferedImage layout = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        this.colorModel = layout.getColorModel();
+        this.sampleModel = layout.getSampleModel().createCompatibleSampleModel(width, tileRows);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getTile(int, int)
+     */
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        if (tileX != 0 || tileY < 0 || tileY >= this.getNumYTiles()) {
+            throw new IllegalArgumentException("Tile " + tileX + "x" + tileY + " is not in the image !");
+        }
+        if (tileY != this.cachedTileIndex) {
+            try {
+                this.cachedTile = this.computeTile(tileY);
+                this.cachedTileIndex = tileY;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return this.cachedTile;
+    }
+
+    /**
+     * Decode the region of the original image covered by a tile and re-sample it.
+     *
+     * @param tileY Index of the tile
+     * @return The tile
+     * @throws IOException If the region cannot be decoded
+     */
+    private Raster computeTile(int tileY) throws IOException {
+        // Step 1: Rows of the shrunk image then rows of the original image covered by the tile
+        int fromRow = tileY * this.tileRows;
+        int toRow = Math.min(this.height, fromRow + this.tileRows);
+        int[] shrunkRows = ImageResampler.sourceRows(this.height - 1, this.height, fromRow, toRow);
+        int[] originalRows = ImageResampler.sourceRows(this.height, this.height - 1, shrunkRows[0], shrunkRows[1]);
+        // Step 2: Decode only the region covered
+        ImageReadParam param = this.reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, originalRows[0], this.width, originalRows[1] - originalRows[0]));
+        BufferedImage region = this.reader.read(0, param);
+        if (region == null || region.getWidth() != this.width || region.getHeight() != originalRows[1] - originalRows[0]) {
+            throw new IOException("Cannot load the region of the original image !");
+        }
+        int[] originalPixels = region.getRGB(0, 0, region.getWidth(), region.getHeight(), null, 0, region.getWidth());
+        // Step 3: Resize the region by removing 1px on Width and Height then set it to its initial size
+        int[] shrunkPixels = this.resampler.resampleRows(originalPixels, this.width, this.height, originalRows[0], this.width - 1, this.height - 1, shrunkRows[0], shrunkRows[1]);
+        int[] tilePixels = this.resampler.resampleRows(shrunkPixels, this.width - 1, this.height - 1, shrunkRows[0], this.width, this.height, fromRow, toRow);
+        SampleModel tileSampleModel = this.sampleModel.createCompatibleSampleModel(this.width, toRow - fromRow);
+        return Raster.createRaster(tileSampleModel, new DataBufferInt(tilePixels, tilePixels.length), new Point(0, fromRow));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getData(java.awt.Rectangle)
+     */
+    @Override
+    public Raster getData(Rectangle rect) {
+        WritableRaster raster = this.colorModel.createCompatibleWritableRaster(rect.width, rect.height).createWritableTranslatedChild(rect.x, rect.y);
+        return this.copyData(raster);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getData()
+     */
+    @Override
+    public Raster getData() {
+        return this.getData(new Rectangle(0, 0, this.width, this.height));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#copyData(java.awt.image.WritableRaster)
+     */
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        WritableRaster target = (raster != null) ? raster : this.colorModel.createCompatibleWritableRaster(this.width, this.height);
+        Rectangle bounds = target.getBounds().intersection(new Rectangle(0, 0, this.width, this.height));
+        if (!bounds.isEmpty()) {
+            int firstTile = bounds.y / this.tileRows;
+            int lastTile = (bounds.y + bounds.height - 1) / this.tileRows;
+            for (int tileY = firstTile; tileY <= lastTile; tileY++) {
+                target.setRect(this.getTile(0, tileY));
+            }
+        }
+        return target;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getSources()
+     */
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getProperty(java.lang.String)
+     */
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getPropertyNames()
+     */
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getColorModel()
+     */
+    @Override
+    public ColorModel getColorModel() {
+        return this.colorModel;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getSampleModel()
+     */
+    @Override
+    public SampleModel getSampleModel() {
+        return this.sampleModel;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getWidth()
+     */
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getHeight()
+     */
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getMinX()
+     */
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getMinY()
+     */
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getNumXTiles()
+     */
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getNumYTiles()
+     */
+    @Override
+    public int getNumYTiles() {
+        return (this.height + this.tileRows - 1) / this.tileRows;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getMinTileX()
+     */
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getMinTileY()
+     */
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getTileWidth()
+     */
+    @Override
+    public int getTileWidth() {
+        return this.width;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getTileHeight()
+     */
+    @Override
+    public int getTileHeight() {
+        return this.tileRows;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getTileGridXOffset()
+     */
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.image.RenderedImage#getTileGridYOffset()
+     */
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+}
@@ -0,0 +1,63 @@
+package eu.righettod.poc.web;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Coalesce the concurrent analysis of the same content.<br>
+ * The first request for a content launch the analysis, the requests received for the same content while this analysis is in progress do not
+ * launch their own analysis but wait (without using any thread) for the result of the analysis in progress.
+ */
+public class AnalysisCoalescer {
+
+    /**
+     * Analysis in progress identified by the content they analyse
+     */
+    private final ConcurrentMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Count of requests that reused an analysis in progress instead of launching their own
+     */
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Get the result of the analysis of a content, launching the analysis only if no analysis of the same content is in progress.
+     *
+     * @param key      Identifier of the analysed content
+     * @param launcher Launch the analysis and complete (normally or exceptionally) the received promise when the analysis ends. The result must be
+     *                 made available to later requests (ex: stored into a cache) before the completion of the promise.
+     * @return The promise of the result of the analysis
+     */
+    public CompletableFuture<Boolean> analyze(String key, Consumer<CompletableFuture<Boolean>> launcher) {
+        CompletableFuture<Boolean> promise = new CompletableFuture<>();
+        CompletableFuture<Boolean> inProgress = this.inFlight.putIfAbsent(key, promise);
+        if (inProgress != null) {
+            this.coalescedCount.incrementAndGet();
+            return inProgress;
+        }
+        promise.whenComplete((result, error) -> this.inFlight.remove(key, promise));
+        try {
+            launcher.accept(promise);
+        } catch (RuntimeException e) {
+            promise.completeExceptionally(e);
+        }
+        return promise;
+    }
+
+    /**
+     * @return The count of analysis currently in progress
+     */
+    public int getInFlightCount() {
+        return this.inFlight.size();
+    }
+
+    /**
+     * @return The count of requests that reused an analysis in progress instead of launching their own
+     */
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+}
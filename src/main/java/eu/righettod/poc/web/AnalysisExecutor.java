@@ -0,0 +1,265 @@
+package eu.righettod.poc.web;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Dedicated executor used to run the document analysis outside of the container request threads.<br>
+ * The count of threads and the capacity of the waiting queue are bounded: When both are exhausted the analysis is rejected instead of
+ * accumulating work, this way a burst of slow documents cannot consume all the container resources.<br>
+ * An analysis can be submitted with a deadline, counted from the moment the analysis starts running: When it expires the analysis is
+ * abandoned, its thread is interrupted and the deadline handler is notified. Parsers that do not react to the interruption keep the thread
+ * busy until they return, but the result they produce is not used anymore.<br>
+ * So a deadline only bound the response time, not the resources used: The analysis abandoned but still running are counted and, once
+ * their count reach the limit given, new analysis are rejected until some of them return. This way a stream of documents keeping the
+ * parsers busy cannot let the queue fill up behind threads that will not be available before a long time.
+ */
+public class AnalysisExecutor {
+
+    /**
+     * Delay after which an idle analysis thread is released
+     */
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+
+    /**
+     * States of an analysis submitted with a deadline
+     */
+    private static final int STATE_RUNNING = 0;
+    private static final int STATE_ENDED = 1;
+    private static final int STATE_ABANDONED = 2;
+
+    /**
+     * Underlying pool
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Scheduler enforcing the analysis deadlines
+     */
+    private final ScheduledThreadPoolExecutor watchdog;
+
+    /**
+     * Count of analysis rejected because the pool and the queue were full
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Count of analysis abandoned because their deadline expired
+     */
+    private final AtomicLong timedOutCount = new AtomicLong();
+
+    /**
+     * Count of analysis abandoned because their deadline expired but still running
+     */
+    private final AtomicInteger abandonedRunningCount = new AtomicInteger();
+
+    /**
+     * Maximum count of analysis abandoned but still running, over which new analysis are rejected
+     */
+    private final int maxAbandonedRunning;
+
+    /**
+     * Constructor, new analysis being rejected once all the threads run abandoned analysis
+     *
+     * @param threadsCount  Maximum count of analysis running in parallel
+     * @param queueCapacity Maximum count of analysis waiting for a thread
+     */
+    public AnalysisExecutor(int threadsCount, int queueCapacity) {
+        this(threadsCount, queueCapacity, threadsCount);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param threadsCount        Maximum count of analysis running in parallel
+     * @param queueCapacity       Maximum count of analysis waiting for a thread
+     * @param maxAbandonedRunning Maximum count of analysis abandoned but still running, over which new analysis are rejected
+     */
+    public AnalysisExecutor(int threadsCount, int queueCapacity, int maxAbandonedRunning) {
+        if (threadsCount <= 0 || queueCapacity <= 0 || maxAbandonedRunning <= 0) {
+            throw new IllegalArgumentException("Count of threads, capacity of the queue and count of abandoned analysis must be strictly positive !");
+        }
+        this.maxAbandonedRunning = maxAbandonedRunning;
+        this.executor = new ThreadPoolExecutor(threadsCount, threadsCount, IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), new AnalysisThreadFactory("document-analysis-"), new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.watchdog = new ScheduledThreadPoolExecutor(1, new AnalysisThreadFactory("document-analysis-watchdog-"));
+        // Deadlines of the analysis ending in time are cancelled, remove them immediately instead of keeping them until their expiration
+        this.watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Submit an analysis.
+     *
+     * @param analysis Analysis to run
+     * @return The future allowing to cancel the analysis
+     * @throws RejectedExecutionException If the analysis cannot be accepted because the executor is saturated or shutdown, or because too many
+     *                                    abandoned analysis are still running
+     */
+    public Future<?> submit(Runnable analysis) {
+        FutureTask<Void> task = new FutureTask<>(analysis, null);
+        this.execute(task);
+        return task;
+    }
+
+    /**
+     * Submit an analysis that must end before a deadline.<br>
+     * When the deadline expires, the deadline handler is called first and then the analysis is cancelled by interrupting its thread. So an
+     * analysis that find its result already provided by the handler knows that it must not use its own result.
+     *
+     * @param analysis        Analysis to run
+     * @param deadlineMillis  Maximum duration, in milliseconds, of the analysis once started
+     * @param deadlineHandler Handler called when the deadline expires before the end of the analysis
+     * @return The future allowing to cancel the analysis
+     * @throws RejectedExecutionException If the analysis cannot be accepted because the executor is saturated or shutdown, or because too many
+     *                                    abandoned analysis are still running
+     */
+    public Future<?> submit(Runnable analysis, long deadlineMillis, Runnable deadlineHandler) {
+        AtomicReference<Future<?>> self = new AtomicReference<>();
+        AtomicInteger state = new AtomicInteger(STATE_RUNNING);
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            // The deadline start when the analysis start, the waiting time into the queue is bounded by the request timeout
+            ScheduledFuture<?> deadline = this.watchdog.schedule(() -> this.expire(self.get(), state, deadlineHandler), deadlineMillis, TimeUnit.MILLISECONDS);
+            try {
+                analysis.run();
+            } finally {
+                deadline.cancel(false);
+                if (!state.compareAndSet(STATE_RUNNING, STATE_ENDED)) {
+                    // Abandoned analysis finally returning: Its thread is available again
+                    this.abandonedRunningCount.decrementAndGet();
+                }
+            }
+        }, null);
+        self.set(task);
+        this.execute(task);
+        return task;
+    }
+
+    /**
+     * Execute an analysis on the pool, unless too many abandoned analysis are still running.
+     *
+     * @param task Analysis to execute
+     * @throws RejectedExecutionException If the analysis cannot be accepted
+     */
+    private void execute(FutureTask<Void> task) {
+        try {
+            if (this.abandonedRunningCount.get() >= this.maxAbandonedRunning) {
+                throw new RejectedExecutionException("Too many abandoned analysis still running !");
+            }
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            this.rejectedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Abandon an analysis for which the deadline expired.
+     *
+     * @param analysis        Future of the analysis
+     * @param state           State of the analysis
+     * @param deadlineHandler Handler to notify
+     */
+    private void expire(Future<?> analysis, AtomicInteger state, Runnable deadlineHandler) {
+        if (!state.compareAndSet(STATE_RUNNING, STATE_ABANDONED)) {
+            return;
+        }
+        this.abandonedRunningCount.incrementAndGet();
+        try {
+            deadlineHandler.run();
+        } finally {
+            if (analysis.cancel(true)) {
+                this.timedOutCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stop accepting analysis and interrupt the running ones.
+     */
+    public void shutdown() {
+        this.watchdog.shutdownNow();
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * @return The count of analysis currently running
+     */
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    /**
+     * @return The count of analysis currently waiting for a thread
+     */
+    public int getQueuedCount() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * @return The count of analysis rejected since the creation of the executor
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * @return The count of analysis abandoned because their deadline expired and still running
+     */
+    public int getAbandonedRunningCount() {
+        return this.abandonedRunningCount.get();
+    }
+
+    /**
+     * @return The count of analysis abandoned because their deadline expired, since the creation of the executor
+     */
+    public long getTimedOutCount() {
+        return this.timedOutCount.get();
+    }
+
+    /**
+     * Factory giving an explicit name to the analysis threads in order to identify them in logs and thread dumps.
+     */
+    private static class AnalysisThreadFactory implements ThreadFactory {
+
+        /**
+         * Sequence used to name the threads
+         */
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        /**
+         * Prefix of the threads names
+         */
+        private final String namePrefix;
+
+        /**
+         * Constructor
+         *
+         * @param namePrefix Prefix of the threads names
+         */
+        AnalysisThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+         */
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, this.namePrefix + this.sequence.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -1,15 +1,17 @@
 package eu.righettod.poc.web;
 
+import eu.righettod.poc.detector.ContentProfile;
+import eu.righettod.poc.detector.ContentSniffer;
 import eu.righettod.poc.detector.DocumentDetector;
-import eu.righettod.poc.detector.ExcelDocumentDetectorImpl;
-import eu.righettod.poc.detector.PdfDocumentDetectorImpl;
-import eu.righettod.poc.detector.PowerpointDocumentDetectorImpl;
-import eu.righettod.poc.detector.WordDocumentDetectorImpl;
+import eu.righettod.poc.detector.DocumentType;
 import eu.righettod.poc.sanitizer.DocumentSanitizer;
-import eu.righettod.poc.sanitizer.ImageDocumentSanitizerImpl;
+import eu.righettod.poc.sanitizer.ImageSanitizerSettings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.annotation.WebServlet;
@@ -17,23 +19,31 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Part;
-import javax.xml.bind.DatatypeConverter;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Servlet to receive the uploaded file.<br>
  * For Excel/Word/Powerpoint/Pdf document: It verify if the uploaded document is safe and if it's OK then continue processing...<br>
  * For Image: Try to sanitize the uploaded document and if it succeed to sanitize it then continue processing...<br>
- * Try to use, as much as possible, file upload feature provided by JEE >= 7
+ * Try to use, as much as possible, file upload feature provided by JEE >= 7<br>
+ * The upload is received on the container request thread but the detection/sanitizing is performed asynchronously on a dedicated and bounded
+ * analysis executor, in order to keep the container threads available for the I/O.<br>
+ * With the file type "AUTO", the file type is identified from the uploaded content instead of being trusted from the client.
  */
 @SuppressWarnings({"serial", "boxing"})
-@WebServlet("/upload")
+@WebServlet(urlPatterns = "/upload", asyncSupported = true)
 @MultipartConfig(fileSizeThreshold = 1024 * 1024 * 2, maxFileSize = 1024 * 1024 * 10, maxRequestSize = 1024 * 1024 * 50)
 public class DocumentUpload extends HttpServlet {
 
@@ -42,6 +52,212 @@ public class DocumentUpload extends HttpServlet {
      */
     private static final Logger LOG = LoggerFactory.getLogger(DocumentUpload.class);
 
+    /**
+     * File type asking to identify the file type from the uploaded content
+     */
+    private static final String FILE_TYPE_AUTO = "AUTO";
+
+    /**
+     * Name of the init parameter defining the maximum count of analysis running in parallel
+     */
+    private static final String PARAM_ANALYSIS_THREADS = "analysisThreads";
+
+    /**
+     * Name of the init parameter defining the maximum count of analysis waiting for an analysis thread
+     */
+    private static final String PARAM_ANALYSIS_QUEUE_CAPACITY = "analysisQueueCapacity";
+
+    /**
+     * Name of the init parameter defining the maximum delay, in milliseconds, to obtain the result of an analysis
+     */
+    private static final String PARAM_ANALYSIS_TIMEOUT = "analysisTimeoutMillis";
+
+    /**
+     * Name of the init parameter defining the maximum duration, in milliseconds, of the detection/sanitizing once started.<br>
+     * It can be defined for a specific file type by suffixing the name with the file type (ex: "analysisDeadlineMillis.EXCEL")
+     */
+    private static final String PARAM_ANALYSIS_DEADLINE = "analysisDeadlineMillis";
+
+    /**
+     * Name of the init parameter defining the maximum count of analysis abandoned because of their deadline but still running, over which
+     * new uploads are rejected
+     */
+    private static final String PARAM_ANALYSIS_MAX_ABANDONED = "analysisMaxAbandoned";
+
+    /**
+     * Name of the init parameter defining the maximum count of verdicts kept in the verdict cache
+     */
+    private static final String PARAM_VERDICT_CACHE_MAX_ENTRIES = "verdictCacheMaxEntries";
+
+    /**
+     * Name of the init parameter defining the delay, in seconds, after which a verdict expire from the verdict cache
+     */
+    private static final String PARAM_VERDICT_CACHE_TTL = "verdictCacheTtlSeconds";
+
+    /**
+     * Name of the init parameter defining the sanitizing mode of the images (REWRITE, STREAMING, TILED or MULTI_FRAME).<br>
+     * It can be defined for a specific image format by suffixing the name with the format (ex: "imageSanitizingMode.PNG")
+     */
+    private static final String PARAM_IMAGE_SANITIZING_MODE = "imageSanitizingMode";
+
+    /**
+     * Name of the init parameter defining if the ICC profile of the images is kept in streaming mode (true or false)
+     */
+    private static final String PARAM_IMAGE_KEEP_ICC_PROFILE = "imageKeepIccProfile";
+
+    /**
+     * Name of the init parameter defining if the transparency and gamma chunks of the PNG images are kept in streaming mode (true or false)
+     */
+    private static final String PARAM_IMAGE_KEEP_PNG_TRANSPARENCY_AND_GAMMA = "imageKeepPngTransparencyAndGamma";
+
+    /**
+     * Name of the init parameter defining the maximum count of pixels (width x height) of an image decoded by the sanitizer
+     */
+    private static final String PARAM_IMAGE_MAX_PIXELS = "imageMaxPixels";
+
+    /**
+     * Name of the init parameter defining the maximum count of pixels of a tile decoded at once in tiled mode
+     */
+    private static final String PARAM_IMAGE_TILE_PIXELS = "imageTilePixels";
+
+    /**
+     * Name of the init parameter defining the maximum count of megabytes retained by the pixels buffers pooled by the image sanitizer
+     */
+    private static final String PARAM_IMAGE_POOL_MAX_MEGABYTES = "imagePoolMaxMegabytes";
+
+    /**
+     * Name of the init parameter defining the maximum count of frames re-sampled in parallel in multi-frame mode
+     */
+    private static final String PARAM_IMAGE_FRAME_THREADS = "imageFrameThreads";
+
+    /**
+     * Name of the init parameter defining the maximum count of frames of an image kept in memory in multi-frame mode
+     */
+    private static final String PARAM_IMAGE_FRAME_WINDOW = "imageFrameWindow";
+
+    /**
+     * Name of the init parameter defining if the PNG images rewritten are encoded with the image data compressed in parallel (true or false)
+     */
+    private static final String PARAM_IMAGE_PNG_PARALLEL_ENCODING = "imagePngParallelEncoding";
+
+    /**
+     * Name of the init parameter defining the compression level (1-9) of the PNG images encoded in parallel
+     */
+    private static final String PARAM_IMAGE_PNG_COMPRESSION_LEVEL = "imagePngCompressionLevel";
+
+    /**
+     * Name of the init parameter defining the compression strategy of the PNG images encoded in parallel (DEFAULT, FILTERED or HUFFMAN_ONLY)
+     */
+    private static final String PARAM_IMAGE_PNG_COMPRESSION_STRATEGY = "imagePngCompressionStrategy";
+
+    /**
+     * Name of the init parameter defining when the sanitized images are forced to the storage (NONE, ALWAYS or BATCH)
+     */
+    private static final String PARAM_IMAGE_SYNC_POLICY = "imageSyncPolicy";
+
+    /**
+     * Name of the init parameter defining the count of sanitized images forced together with the BATCH sync policy
+     */
+    private static final String PARAM_IMAGE_SYNC_BATCH_SIZE = "imageSyncBatchSize";
+
+    /**
+     * Detector/sanitizer instances shared by all the requests
+     */
+    private transient DocumentValidatorRegistry validatorRegistry;
+
+    /**
+     * Executor running the detection/sanitizing
+     */
+    private transient AnalysisExecutor analysisExecutor;
+
+    /**
+     * Maximum delay, in milliseconds, to obtain the result of an analysis
+     */
+    private long analysisTimeoutMillis;
+
+    /**
+     * Maximum duration, in milliseconds, of the detection/sanitizing once started, by file type
+     */
+    private transient Map<String, Long> analysisDeadlines;
+
+    /**
+     * Cache of the verdicts returned by the detectors
+     */
+    private transient VerdictCache verdictCache;
+
+    /**
+     * Coalescing of the concurrent detections of the same content
+     */
+    private transient AnalysisCoalescer analysisCoalescer;
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see javax.servlet.GenericServlet#init()
+     */
+    @Override
+    public void init() throws ServletException {
+        ImageSanitizerSettings imageSanitizerSettings = new ImageSanitizerSettings();
+        imageSanitizerSettings.setMode(readEnumInitParameter(PARAM_IMAGE_SANITIZING_MODE, ImageSanitizerSettings.Mode.class, ImageSanitizerSettings.Mode.REWRITE));
+        for (String imageFormat : new String[]{ImageSanitizerSettings.FORMAT_JPEG, ImageSanitizerSettings.FORMAT_PNG, ImageSanitizerSettings.FORMAT_GIF, ImageSanitizerSettings.FORMAT_BMP, ImageSanitizerSettings.FORMAT_TIFF}) {
+            imageSanitizerSettings.setMode(imageFormat, readEnumInitParameter(PARAM_IMAGE_SANITIZING_MODE + "." + imageFormat, ImageSanitizerSettings.Mode.class, imageSanitizerSettings.getMode()));
+        }
+        imageSanitizerSettings.setKeepIccProfile(readBooleanInitParameter(PARAM_IMAGE_KEEP_ICC_PROFILE, true));
+        imageSanitizerSettings.setKeepPngTransparencyAndGamma(readBooleanInitParameter(PARAM_IMAGE_KEEP_PNG_TRANSPARENCY_AND_GAMMA, true));
+        imageSanitizerSettings.setMaxPixels(readIntInitParameter(PARAM_IMAGE_MAX_PIXELS, 100_000_000));
+        imageSanitizerSettings.setTilePixels(readIntInitParameter(PARAM_IMAGE_TILE_PIXELS, 4_000_000));
+        imageSanitizerSettings.setPoolMaxBytes(readIntInitParameter(PARAM_IMAGE_POOL_MAX_MEGABYTES, 256, 0, Integer.MAX_VALUE) * 1024L * 1024L);
+        imageSanitizerSettings.setFrameThreads(readIntInitParameter(PARAM_IMAGE_FRAME_THREADS, Runtime.getRuntime().availableProcessors()));
+        imageSanitizerSettings.setFrameWindow(readIntInitParameter(PARAM_IMAGE_FRAME_WINDOW, 4));
+        imageSanitizerSettings.setPngParallelEncoding(readBooleanInitParameter(PARAM_IMAGE_PNG_PARALLEL_ENCODING, true));
+        imageSanitizerSettings.setPngCompressionLevel(readIntInitParameter(PARAM_IMAGE_PNG_COMPRESSION_LEVEL, 6, 0, 9));
+        imageSanitizerSettings.setPngCompressionStrategy(readEnumInitParameter(PARAM_IMAGE_PNG_COMPRESSION_STRATEGY, ImageSanitizerSettings.PngCompressionStrategy.class, ImageSanitizerSettings.PngCompressionStrategy.DEFAULT));
+        imageSanitizerSettings.setSyncPolicy(readEnumInitParameter(PARAM_IMAGE_SYNC_POLICY, ImageSanitizerSettings.SyncPolicy.class, ImageSanitizerSettings.SyncPolicy.NONE));
+        imageSanitizerSettings.setSyncBatchSize(readIntInitParameter(PARAM_IMAGE_SYNC_BATCH_SIZE, 16));
+        this.validatorRegistry = DocumentValidatorRegistry.createDefault(imageSanitizerSettings);
+        LOG.info("Image sanitizer initialized ({}).", imageSanitizerSettings);
+        int threadsCount = readIntInitParameter(PARAM_ANALYSIS_THREADS, Runtime.getRuntime().availableProcessors());
+        int queueCapacity = readIntInitParameter(PARAM_ANALYSIS_QUEUE_CAPACITY, 50);
+        this.analysisTimeoutMillis = readIntInitParameter(PARAM_ANALYSIS_TIMEOUT, 30000);
+        int maxAbandoned = readIntInitParameter(PARAM_ANALYSIS_MAX_ABANDONED, threadsCount);
+        this.analysisExecutor = new AnalysisExecutor(threadsCount, queueCapacity, maxAbandoned);
+        LOG.info("Analysis executor initialized (threads: {} / queue capacity: {} / timeout: {} ms / max abandoned: {}).", threadsCount, queueCapacity, this.analysisTimeoutMillis, maxAbandoned);
+        int defaultDeadline = readIntInitParameter(PARAM_ANALYSIS_DEADLINE, 20000);
+        this.analysisDeadlines = new HashMap<>();
+        for (DocumentType documentType : DocumentType.values()) {
+            int deadline = readIntInitParameter(PARAM_ANALYSIS_DEADLINE + "." + documentType.name(), defaultDeadline);
+            if (deadline >= this.analysisTimeoutMillis) {
+                LOG.warn("Analysis deadline of file type {} ({} ms) is not lower than the analysis timeout, the request can expire before the analysis is abandoned !", documentType, deadline);
+            }
+            this.analysisDeadlines.put(documentType.name(), (long) deadline);
+        }
+        LOG.info("Analysis deadlines initialized: {} ms.", this.analysisDeadlines);
+        int cacheMaxEntries = readIntInitParameter(PARAM_VERDICT_CACHE_MAX_ENTRIES, 10000);
+        int cacheTtlSeconds = readIntInitParameter(PARAM_VERDICT_CACHE_TTL, 3600);
+        this.verdictCache = new VerdictCache(cacheMaxEntries, TimeUnit.SECONDS.toMillis(cacheTtlSeconds));
+        LOG.info("Verdict cache initialized (max entries: {} / TTL: {} s).", cacheMaxEntries, cacheTtlSeconds);
+        this.analysisCoalescer = new AnalysisCoalescer();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see javax.servlet.GenericServlet#destroy()
+     */
+    @Override
+    public void destroy() {
+        if (this.analysisExecutor != null) {
+            this.analysisExecutor.shutdown();
+        }
+        if (this.validatorRegistry != null) {
+            try {
+                this.validatorRegistry.close();
+            } catch (IOException e) {
+                LOG.warn("Cannot release the resources of the detectors/sanitizers !", e);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -51,10 +267,11 @@ public class DocumentUpload extends HttpServlet {
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         File tmpFile = null;
         Path tmpPath = null;
+        AsyncContext asyncContext = null;
         try {
 
             /* Step 1: Retrieve upload information (file type + file content) */
-            // File type: Word / Excel / Pdf
+            // File type: Word / Excel / Powerpoint / Pdf / Image / Auto
             String fileType = req.getParameter("fileType") == null ? "" : req.getParameter("fileType");
             if ((fileType == null) || (fileType.trim().length() == 0)) {
                 throw new IllegalArgumentException("Unknown file type specified !");
@@ -66,70 +283,19 @@ public class DocumentUpload extends HttpServlet {
                 throw new IllegalArgumentException("Unknown file content specified !");
             }
 
-            // Write a temporary file with uploaded file
+            // Write a temporary file with uploaded file and compute the HASH of the content during the copy
             tmpFile = File.createTempFile("uploaded-", null);
             tmpPath = tmpFile.toPath();
-            long copiedBytesCount = Files.copy(filePart.getInputStream(), tmpPath, StandardCopyOption.REPLACE_EXISTING);
-            if (copiedBytesCount != filePart.getSize()) {
-                throw new IOException(String.format("Error during stream copy to temporary disk (copied: %s / expected: %s !", copiedBytesCount, filePart.getSize()));
-            }
-
-            /* Step 2: Initialize a detector/sanitizer for the target file type and perform validation */
-            boolean isSafe;
-
-            // Instantiate the dedicated detector/sanitizer implementation and apply detection/sanitizing
-            DocumentDetector documentDetector;
-            DocumentSanitizer documentSanitizer;
-            switch (fileType) {
-                case "PDF":
-                    documentDetector = new PdfDocumentDetectorImpl();
-                    isSafe = documentDetector.isSafe(tmpFile);
-                    break;
-                case "WORD":
-                    documentDetector = new WordDocumentDetectorImpl();
-                    isSafe = documentDetector.isSafe(tmpFile);
-                    break;
-                case "EXCEL":
-                    documentDetector = new ExcelDocumentDetectorImpl();
-                    isSafe = documentDetector.isSafe(tmpFile);
-                    break;
-                case "POWERPOINT":
-                    documentDetector = new PowerpointDocumentDetectorImpl();
-                    isSafe = documentDetector.isSafe(tmpFile);
-                    break;
-                case "IMAGE":
-                    documentSanitizer = new ImageDocumentSanitizerImpl();
-                    isSafe = documentSanitizer.madeSafe(tmpFile);
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unknown file type specified !");
-            }
-
-            /* Step 3 : Take decision based on sfa status detected */
-            // Take action is the file is not safe
-            if (!isSafe) {
-                LOG.warn("Detection of a unsafe file upload or cannot sanitize uploaded document !");
-                // Remove temporary file
-                safelyRemoveFile(tmpPath);
-                // Return error
-                resp.sendError(HttpServletResponse.SC_FORBIDDEN);
-            } else {
-                // Here print file infos...
-                resp.setStatus(HttpServletResponse.SC_OK);
-                resp.setContentType("text/plain");
-                // For submitted file name, if you are on a container using Servlet API 3.1 then you can use method
-                // filePart.getSubmittedFileName() instead of my workaround method....
-                resp.getWriter().printf("Submitted file name       : %s\n", extractSubmittedFileName(filePart));
-                resp.getWriter().printf("Submitted file size       : %s\n", filePart.getSize());
-                resp.getWriter().printf("Received temp file name   : %s\n", tmpFile.getName());
-                resp.getWriter().printf("Received temp file path   : %s\n", tmpFile.getAbsolutePath());
-                // Create a HASH of the file to check the integrity of the uploaded content
-                byte[] content = Files.readAllBytes(tmpPath);
-                MessageDigest digester = MessageDigest.getInstance("sha-256");
-                byte[] hash = digester.digest(content);
-                String hashHex = DatatypeConverter.printHexBinary(hash);
-                resp.getWriter().printf("Received temp file SHA256 : %s\n", hashHex);
-            }
+            SpooledUpload upload = SpooledUpload.spool(filePart.getInputStream(), tmpFile, filePart.getSize());
+
+            /* Step 2: Hand over the validation to the analysis executor and release the container thread */
+            asyncContext = req.startAsync();
+            asyncContext.setTimeout(this.analysisTimeoutMillis);
+            // For submitted file name, if you are on a container using Servlet API 3.1 then you can use method
+            // filePart.getSubmittedFileName() instead of my workaround method....
+            AsyncAnalysis analysis = new AsyncAnalysis(asyncContext, fileType, upload, extractSubmittedFileName(filePart), filePart.getSize());
+            asyncContext.addListener(analysis);
+            analysis.start();
 
         } catch (Exception e) {
             // Remove temporary file
@@ -139,8 +305,90 @@ public class DocumentUpload extends HttpServlet {
             // Return an access denied to stay consistent from a client point of
             // view (not discrepancy on response)
             resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            if (asyncContext != null) {
+                asyncContext.complete();
+            }
+        }
+
+    }
+
+    /**
+     * Utility method to read an integer init parameter of the servlet.
+     *
+     * @param name         Parameter name
+     * @param defaultValue Value used when the parameter is not defined
+     * @return The parameter value
+     * @throws ServletException If the parameter value is not a strictly positive integer
+     */
+    private int readIntInitParameter(String name, int defaultValue) throws ServletException {
+        return readIntInitParameter(name, defaultValue, 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Utility method to read an integer init parameter of the servlet having a range of valid values.
+     *
+     * @param name         Parameter name
+     * @param defaultValue Value used when the parameter is not defined
+     * @param minValue     Minimum valid value (inclusive)
+     * @param maxValue     Maximum valid value (inclusive)
+     * @return The parameter value
+     * @throws ServletException If the parameter value is not an integer in the range of valid values
+     */
+    private int readIntInitParameter(String name, int defaultValue, int minValue, int maxValue) throws ServletException {
+        String value = this.getInitParameter(name);
+        if ((value == null) || (value.trim().length() == 0)) {
+            return defaultValue;
+        }
+        try {
+            int intValue = Integer.parseInt(value.trim());
+            if (intValue < minValue || intValue > maxValue) {
+                throw new NumberFormatException("Value must be between " + minValue + " and " + maxValue);
+            }
+            return intValue;
+        } catch (NumberFormatException e) {
+            throw new ServletException(String.format("Invalid value for init parameter '%s' !", name), e);
         }
+    }
+
+    /**
+     * Utility method to read an enumeration init parameter of the servlet.
+     *
+     * @param name         Parameter name
+     * @param type         Enumeration type
+     * @param defaultValue Value used when the parameter is not defined
+     * @param <E>          Enumeration type
+     * @return The parameter value
+     * @throws ServletException If the parameter value is not a constant of the enumeration
+     */
+    private <E extends Enum<E>> E readEnumInitParameter(String name, Class<E> type, E defaultValue) throws ServletException {
+        String value = this.getInitParameter(name);
+        if ((value == null) || (value.trim().length() == 0)) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new ServletException(String.format("Invalid value for init parameter '%s' !", name), e);
+        }
+    }
 
+    /**
+     * Utility method to read a boolean init parameter of the servlet.
+     *
+     * @param name         Parameter name
+     * @param defaultValue Value used when the parameter is not defined
+     * @return The parameter value
+     * @throws ServletException If the parameter value is neither "true" nor "false"
+     */
+    private boolean readBooleanInitParameter(String name, boolean defaultValue) throws ServletException {
+        String value = this.getInitParameter(name);
+        if ((value == null) || (value.trim().length() == 0)) {
+            return defaultValue;
+        }
+        if (!"true".equalsIgnoreCase(value.trim()) && !"false".equalsIgnoreCase(value.trim())) {
+            throw new ServletException(String.format("Invalid value for init parameter '%s' !", name));
+        }
+        return Boolean.parseBoolean(value.trim());
     }
 
     /**
@@ -182,4 +430,356 @@ public class DocumentUpload extends HttpServlet {
         return null;
     }
 
+    /**
+     * Validation of an upload performed asynchronously.<br>
+     * For a detector, the verdict is taken from the verdict cache when available, otherwise the detection is performed on the analysis executor
+     * and coalesced with the detections of the same content already in progress. For a sanitizer, the sanitizing is always performed on the
+     * analysis executor.<br>
+     * The response is sent only once: Either when the validation ends, or by the container when the analysis timeout expires or when an I/O
+     * error occurs on the asynchronous request. In both later cases the client receive the same access denied response than for an unsafe
+     * document.
+     */
+    private class AsyncAnalysis implements AsyncListener {
+
+        /**
+         * Asynchronous context of the upload request
+         */
+        private final AsyncContext asyncContext;
+
+        /**
+         * File type specified by the client, replaced by the file type identified from the content in AUTO mode
+         */
+        private String fileType;
+
+        /**
+         * Uploaded content
+         */
+        private final SpooledUpload upload;
+
+        /**
+         * Name of the submitted file
+         */
+        private final String submittedFileName;
+
+        /**
+         * Size of the submitted file
+         */
+        private final long submittedFileSize;
+
+        /**
+         * Profile of the uploaded content, collected by the sniffing task before the detection in AUTO mode and otherwise by the detection task
+         */
+        private ContentProfile contentProfile;
+
+        /**
+         * Flag indicating that the response has been sent
+         */
+        private final AtomicBoolean responded = new AtomicBoolean(false);
+
+        /**
+         * Flag indicating that a task working on the uploaded content is running on the analysis executor, in this case the temporary file
+         * must not be removed by the timeout/error handler because the result of a detection is shared with others requests
+         */
+        private volatile boolean taskRunning = false;
+
+        /**
+         * Future allowing to cancel the sanitizing
+         */
+        private volatile Future<?> sanitizingFuture;
+
+        /**
+         * Constructor
+         *
+         * @param asyncContext      Asynchronous context of the upload request
+         * @param fileType          File type specified by the client
+         * @param upload            Uploaded content
+         * @param submittedFileName Name of the submitted file
+         * @param submittedFileSize Size of the submitted file
+         */
+        AsyncAnalysis(AsyncContext asyncContext, String fileType, SpooledUpload upload, String submittedFileName, long submittedFileSize) {
+            this.asyncContext = asyncContext;
+            this.fileType = fileType;
+            this.upload = upload;
+            this.submittedFileName = submittedFileName;
+            this.submittedFileSize = submittedFileSize;
+        }
+
+        /**
+         * Start the validation.
+         *
+         * @throws IllegalArgumentException If the file type is unknown
+         */
+        void start() {
+            if (FILE_TYPE_AUTO.equals(this.fileType)) {
+                this.startSniffing();
+            } else {
+                this.route();
+            }
+        }
+
+        /**
+         * Identify the file type from the uploaded content on the analysis executor then route the upload.<br>
+         * Sniffing parse parts of the container (ex: content types part of an Office Open XML package), so it is performed under a deadline
+         * like the detection/sanitizing and never on the container thread.
+         */
+        private void startSniffing() {
+            this.taskRunning = true;
+            try {
+                DocumentUpload.this.analysisExecutor.submit(() -> {
+                    ContentProfile profile;
+                    try {
+                        profile = ContentSniffer.sniff(this.upload.getFile(), this.upload.getContainerFormat());
+                    } finally {
+                        this.taskRunning = false;
+                    }
+                    if (this.responded.get()) {
+                        // The response has already been sent by the timeout/error handler
+                        safelyRemoveFile(this.upload.getPath());
+                        return;
+                    }
+                    if (profile.getDocumentType() == null) {
+                        LOG.warn("Cannot identify the file type of the uploaded content (container format {}) !", this.upload.getContainerFormat());
+                        this.respond(false, this.upload);
+                        return;
+                    }
+                    this.contentProfile = profile;
+                    this.fileType = profile.getDocumentType().name();
+                    LOG.debug("File type {} identified from the uploaded content.", this.fileType);
+                    try {
+                        this.route();
+                    } catch (RuntimeException e) {
+                        LOG.error("Error during detection of file upload safe status !", e);
+                        this.respond(false, this.upload);
+                    }
+                }, DocumentUpload.this.analysisTimeoutMillis, () -> this.abort("analysis deadline expired"));
+            } catch (RuntimeException e) {
+                this.taskRunning = false;
+                throw e;
+            }
+        }
+
+        /**
+         * Start the detection/sanitizing of the file type.
+         *
+         * @throws IllegalArgumentException If the file type is unknown
+         */
+        private void route() {
+            // Get the dedicated detector/sanitizer implementation
+            DocumentValidatorRegistry registry = DocumentUpload.this.validatorRegistry;
+            if (!registry.isSupported(this.fileType)) {
+                throw new IllegalArgumentException("Unknown file type specified !");
+            }
+            // Reject quickly a content which do not match the file type, before loading any heavy parser
+            if (!registry.isAccepted(this.fileType, this.upload.getContainerFormat())) {
+                LOG.warn("Container format {} of the uploaded content do not match the file type {} !", this.upload.getContainerFormat(), this.fileType);
+                this.respond(false, this.upload);
+                return;
+            }
+            DocumentDetector documentDetector = registry.getDetector(this.fileType);
+            if (documentDetector != null) {
+                this.startDetection(documentDetector);
+            } else {
+                this.startSanitizing(registry.getSanitizer(this.fileType));
+            }
+        }
+
+        /**
+         * Obtain the verdict of a detector, reusing the verdict already obtained or in progress for the same content if any.
+         *
+         * @param documentDetector Detector
+         */
+        private void startDetection(DocumentDetector documentDetector) {
+            VerdictCache verdictCache = DocumentUpload.this.verdictCache;
+            String contentHash = this.upload.getSha256Hex();
+            Boolean cachedVerdict = verdictCache.get(contentHash, documentDetector);
+            if (cachedVerdict != null) {
+                LOG.debug("Verdict found in cache for content {} (hits: {} / misses: {}).", contentHash, verdictCache.getHitCount(), verdictCache.getMissCount());
+                this.respond(cachedVerdict, this.upload);
+                return;
+            }
+            CompletableFuture<Boolean> verdict = DocumentUpload.this.analysisCoalescer.analyze(contentHash + "|" + this.fileType, promise -> {
+                this.taskRunning = true;
+                try {
+                    DocumentUpload.this.analysisExecutor.submit(() -> {
+                        try {
+                            // The profile collected for the routing is reused by the detector
+                            ContentProfile profile = (this.contentProfile != null) ? this.contentProfile : ContentSniffer.sniff(this.upload.getFile(), this.upload.getContainerFormat());
+                            boolean isSafe = documentDetector.isSafe(this.upload.getFile(), profile);
+                            // When the deadline expired the verdict can be the result of the interruption, so it is not cached
+                            if (!promise.isDone()) {
+                                verdictCache.put(contentHash, documentDetector, isSafe);
+                            }
+                            this.taskRunning = false;
+                            promise.complete(isSafe);
+                        } catch (Throwable e) {
+                            this.taskRunning = false;
+                            promise.completeExceptionally(e);
+                        }
+                    }, this.analysisDeadline(), () -> {
+                        this.taskRunning = false;
+                        promise.completeExceptionally(new TimeoutException("Analysis deadline expired !"));
+                    });
+                } catch (RuntimeException e) {
+                    this.taskRunning = false;
+                    throw e;
+                }
+            });
+            verdict.whenComplete((isSafe, error) -> {
+                if (error instanceof TimeoutException) {
+                    LOG.warn("Detection of file upload safe status abandoned because its deadline expired (timed out analysis: {}) !", DocumentUpload.this.analysisExecutor.getTimedOutCount());
+                } else if (error != null) {
+                    LOG.error("Error during detection of file upload safe status !", error);
+                }
+                this.respond((error == null) && isSafe, this.upload);
+            });
+        }
+
+        /**
+         * Sanitize the uploaded content on the analysis executor.
+         *
+         * @param documentSanitizer Sanitizer
+         */
+        private void startSanitizing(DocumentSanitizer documentSanitizer) {
+            this.taskRunning = true;
+            try {
+                this.sanitizingFuture = DocumentUpload.this.analysisExecutor.submit(() -> {
+                    boolean isSafe = false;
+                    SpooledUpload sanitizedUpload = this.upload;
+                    try {
+                        isSafe = documentSanitizer.madeSafe(this.upload.getFile());
+                        // Sanitizing rewrite the temporary file so the HASH must reflect the new content
+                        if (isSafe) {
+                            sanitizedUpload = this.upload.rehash();
+                        }
+                    } catch (Exception e) {
+                        isSafe = false;
+                        LOG.error("Error during detection of file upload safe status !", e);
+                    } finally {
+                        this.taskRunning = false;
+                    }
+                    this.respond(isSafe, sanitizedUpload);
+                }, this.analysisDeadline(), () -> this.abort("analysis deadline expired"));
+            } catch (RuntimeException e) {
+                this.taskRunning = false;
+                throw e;
+            }
+        }
+
+        /**
+         * @return The maximum duration, in milliseconds, of the detection/sanitizing of the file type
+         */
+        private long analysisDeadline() {
+            return DocumentUpload.this.analysisDeadlines.get(this.fileType);
+        }
+
+        /**
+         * Send the response corresponding to the validation result, if no response has been sent yet.
+         *
+         * @param isSafe          Safe status of the uploaded content
+         * @param validatedUpload Uploaded content as it is after the validation
+         */
+        private void respond(boolean isSafe, SpooledUpload validatedUpload) {
+            if (!this.responded.compareAndSet(false, true)) {
+                // The response has already been sent by the timeout/error handler
+                safelyRemoveFile(this.upload.getPath());
+                return;
+            }
+            HttpServletResponse resp = (HttpServletResponse) this.asyncContext.getResponse();
+            try {
+                /* Step 3 : Take decision based on sfa status detected */
+                // Take action is the file is not safe
+                if (!isSafe) {
+                    LOG.warn("Detection of a unsafe file upload or cannot sanitize uploaded document !");
+                    // Remove temporary file
+                    safelyRemoveFile(this.upload.getPath());
+                    // Return error
+                    resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+                } else {
+                    // Here print file infos...
+                    resp.setStatus(HttpServletResponse.SC_OK);
+                    resp.setContentType("text/plain");
+                    resp.getWriter().printf("Submitted file name       : %s\n", this.submittedFileName);
+                    resp.getWriter().printf("Submitted file size       : %s\n", this.submittedFileSize);
+                    resp.getWriter().printf("Received temp file name   : %s\n", validatedUpload.getFile().getName());
+                    resp.getWriter().printf("Received temp file path   : %s\n", validatedUpload.getFile().getAbsolutePath());
+                    // HASH of the file computed during the spooling to check the integrity of the uploaded content
+                    resp.getWriter().printf("Received temp file SHA256 : %s\n", validatedUpload.getSha256Hex());
+                }
+            } catch (Exception e) {
+                safelyRemoveFile(this.upload.getPath());
+                LOG.error("Error during sending of the analysis response !", e);
+            } finally {
+                this.asyncContext.complete();
+            }
+        }
+
+        /**
+         * Send an access denied response if no response has been sent yet.<br>
+         * A running sanitizing is cancelled because its result is dedicated to this request, a running detection is kept because its verdict
+         * is shared with the others requests for the same content.
+         *
+         * @param reason Reason of the abort for the log
+         */
+        private void abort(String reason) {
+            Future<?> f = this.sanitizingFuture;
+            if (f != null) {
+                f.cancel(true);
+            }
+            if (this.responded.compareAndSet(false, true)) {
+                LOG.warn("Analysis of the uploaded document aborted: {} !", reason);
+                // When a task is still working on the file, it will remove the file itself when it ends
+                if (!this.taskRunning) {
+                    safelyRemoveFile(this.upload.getPath());
+                }
+                try {
+                    ((HttpServletResponse) this.asyncContext.getResponse()).sendError(HttpServletResponse.SC_FORBIDDEN);
+                } catch (Exception e) {
+                    LOG.warn("Cannot send the access denied response !", e);
+                } finally {
+                    this.asyncContext.complete();
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see javax.servlet.AsyncListener#onTimeout(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            this.abort("timeout expired");
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see javax.servlet.AsyncListener#onError(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onError(AsyncEvent event) {
+            this.abort("error on the asynchronous request");
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see javax.servlet.AsyncListener#onComplete(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onComplete(AsyncEvent event) {
+            // Nothing to do
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see javax.servlet.AsyncListener#onStartAsync(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Nothing to do
+        }
+    }
+
 }
@@ -0,0 +1,165 @@
+package eu.righettod.poc.web;
+
+import eu.righettod.poc.detector.ContainerFormat;
+import eu.righettod.poc.detector.DocumentDetector;
+import eu.righettod.poc.detector.ExcelDocumentDetectorImpl;
+import eu.righettod.poc.detector.PdfDocumentDetectorImpl;
+import eu.righettod.poc.detector.PowerpointDocumentDetectorImpl;
+import eu.righettod.poc.detector.WordDocumentDetectorImpl;
+import eu.righettod.poc.sanitizer.DocumentSanitizer;
+import eu.righettod.poc.sanitizer.ImageDocumentSanitizerImpl;
+import eu.righettod.poc.sanitizer.ImageSanitizerSettings;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registry of the detector/sanitizer instances associated to each file type supported by the upload.<br>
+ * Instances are created once and shared by all the requests, so all the registered implementations must be thread-safe.<br>
+ * The registry also define, for each file type, the container formats accepted in order to reject a mismatching content before loading any
+ * detector/sanitizer.<br>
+ * The registry is closed when the upload is stopped, in order to release the resources (ex: threads) held by the implementations.
+ */
+public class DocumentValidatorRegistry implements Closeable {
+
+    /**
+     * Detectors by file type
+     */
+    private final Map<String, DocumentDetector> detectors;
+
+    /**
+     * Sanitizers by file type
+     */
+    private final Map<String, DocumentSanitizer> sanitizers;
+
+    /**
+     * Container formats accepted by file type
+     */
+    private final Map<String, Set<ContainerFormat>> acceptedFormats;
+
+    /**
+     * Constructor
+     *
+     * @param detectors       Detectors by file type
+     * @param sanitizers      Sanitizers by file type
+     * @param acceptedFormats Container formats accepted by file type
+     */
+    public DocumentValidatorRegistry(Map<String, DocumentDetector> detectors, Map<String, DocumentSanitizer> sanitizers, Map<String, Set<ContainerFormat>> acceptedFormats) {
+        this.detectors = Collections.unmodifiableMap(new HashMap<>(detectors));
+        this.sanitizers = Collections.unmodifiableMap(new HashMap<>(sanitizers));
+        this.acceptedFormats = Collections.unmodifiableMap(new HashMap<>(acceptedFormats));
+    }
+
+    /**
+     * Create the registry containing the implementations of all the file types supported by the upload, with the default settings.
+     *
+     * @return The registry
+     */
+    public static DocumentValidatorRegistry createDefault() {
+        return createDefault(new ImageSanitizerSettings());
+    }
+
+    /**
+     * Create the registry containing the implementations of all the file types supported by the upload.
+     *
+     * @param imageSanitizerSettings Settings of the image sanitizer
+     * @return The registry
+     */
+    public static DocumentValidatorRegistry createDefault(ImageSanitizerSettings imageSanitizerSettings) {
+        Map<String, DocumentDetector> detectors = new HashMap<>();
+        detectors.put("PDF", new PdfDocumentDetectorImpl());
+        detectors.put("WORD", new WordDocumentDetectorImpl());
+        detectors.put("EXCEL", new ExcelDocumentDetectorImpl());
+        detectors.put("POWERPOINT", new PowerpointDocumentDetectorImpl());
+        Map<String, DocumentSanitizer> sanitizers = new HashMap<>();
+        sanitizers.put("IMAGE", new ImageDocumentSanitizerImpl(imageSanitizerSettings));
+        Map<String, Set<ContainerFormat>> acceptedFormats = new HashMap<>();
+        acceptedFormats.put("PDF", EnumSet.of(ContainerFormat.PDF));
+        // Binary (OLE2), Open XML (ZIP) and XML 2003 formats
+        acceptedFormats.put("WORD", EnumSet.of(ContainerFormat.OLE2, ContainerFormat.ZIP, ContainerFormat.XML));
+        acceptedFormats.put("EXCEL", EnumSet.of(ContainerFormat.OLE2, ContainerFormat.ZIP, ContainerFormat.XML));
+        // Aspose API do not support PPT XML format
+        acceptedFormats.put("POWERPOINT", EnumSet.of(ContainerFormat.OLE2, ContainerFormat.ZIP));
+        // Formats supported only by Apache Commons Imaging (PCX, WBMP, XPM...) do not have a signature known by the classifier
+        acceptedFormats.put("IMAGE", EnumSet.of(ContainerFormat.PNG, ContainerFormat.JPEG, ContainerFormat.GIF, ContainerFormat.TIFF, ContainerFormat.BMP, ContainerFormat.UNKNOWN));
+        return new DocumentValidatorRegistry(detectors, sanitizers, acceptedFormats);
+    }
+
+    /**
+     * Get the detector of a file type.
+     *
+     * @param fileType File type
+     * @return The detector or null if the file type is not handled by a detector
+     */
+    public DocumentDetector getDetector(String fileType) {
+        return this.detectors.get(fileType);
+    }
+
+    /**
+     * Get the sanitizer of a file type.
+     *
+     * @param fileType File type
+     * @return The sanitizer or null if the file type is not handled by a sanitizer
+     */
+    public DocumentSanitizer getSanitizer(String fileType) {
+        return this.sanitizers.get(fileType);
+    }
+
+    /**
+     * Verify if a container format is accepted for a file type.
+     *
+     * @param fileType        File type
+     * @param containerFormat Container format identified from the content
+     * @return TRUE only if the container format is accepted for the file type
+     */
+    public boolean isAccepted(String fileType, ContainerFormat containerFormat) {
+        Set<ContainerFormat> formats = this.acceptedFormats.get(fileType);
+        return (formats != null) && formats.contains(containerFormat);
+    }
+
+    /**
+     * Verify if a file type is supported.
+     *
+     * @param fileType File type
+     * @return TRUE only if a detector or a sanitizer is registered for the file type
+     */
+    public boolean isSupported(String fileType) {
+        return this.detectors.containsKey(fileType) || this.sanitizers.containsKey(fileType);
+    }
+
+    /**
+     * Close the registered implementations holding resources.
+     *
+     * @throws IOException If an implementation cannot be closed, the others implementations are closed anyway
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        List<Object> implementations = new ArrayList<>(this.detectors.values());
+        implementations.addAll(this.sanitizers.values());
+        IOException failure = null;
+        for (Object implementation : implementations) {
+            if (implementation instanceof Closeable) {
+                try {
+                    ((Closeable) implementation).close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
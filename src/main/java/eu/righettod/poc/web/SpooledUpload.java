@@ -0,0 +1,168 @@
+package eu.righettod.poc.web;
+
+import eu.righettod.poc.detector.ContainerFormat;
+import eu.righettod.poc.detector.ContainerFormatClassifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Uploaded content spooled to a temporary file.<br>
+ * The SHA-256 of the content and the count of written bytes are computed in the same pass than the write to disk, using a per-thread reusable
+ * buffer, in order to never hold the whole content on the heap and to never re-read the temporary file to obtain them.<br>
+ * The container format is also identified, during the same pass, from the first bytes of the content.
+ */
+public final class SpooledUpload {
+
+    /**
+     * Size of the copy buffer
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Copy buffer reused by all the spooling operations executed by the same thread
+     */
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /**
+     * Temporary file containing the uploaded content
+     */
+    private final File file;
+
+    /**
+     * Count of bytes written into the temporary file
+     */
+    private final long size;
+
+    /**
+     * SHA-256 of the uploaded content
+     */
+    private final byte[] sha256;
+
+    /**
+     * Container format of the uploaded content
+     */
+    private final ContainerFormat containerFormat;
+
+    /**
+     * Constructor
+     *
+     * @param file            Temporary file containing the uploaded content
+     * @param size            Count of bytes written into the temporary file
+     * @param sha256          SHA-256 of the uploaded content
+     * @param containerFormat Container format of the uploaded content
+     */
+    private SpooledUpload(File file, long size, byte[] sha256, ContainerFormat containerFormat) {
+        this.file = file;
+        this.size = size;
+        this.sha256 = sha256;
+        this.containerFormat = containerFormat;
+    }
+
+    /**
+     * Copy the specified stream into the target file and compute the SHA-256 of the content during the copy.
+     *
+     * @param source       Uploaded content
+     * @param target       Temporary file receiving the content (overwritten if it already exists)
+     * @param expectedSize Count of bytes announced for the uploaded content
+     * @return The spooled upload
+     * @throws IOException              If the copy fail or if the count of copied bytes is not the expected one
+     * @throws NoSuchAlgorithmException If the SHA-256 algorithm is not available
+     */
+    public static SpooledUpload spool(InputStream source, File target, long expectedSize) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digester = MessageDigest.getInstance("sha-256");
+        byte[] buffer = BUFFER.get();
+        byte[] header = new byte[ContainerFormatClassifier.HEADER_SIZE];
+        int headerLength = 0;
+        long copiedBytesCount = 0;
+        try (OutputStream os = Files.newOutputStream(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            int readBytesCount;
+            while ((readBytesCount = source.read(buffer)) != -1) {
+                if (headerLength < header.length) {
+                    int headerBytesCount = Math.min(readBytesCount, header.length - headerLength);
+                    System.arraycopy(buffer, 0, header, headerLength, headerBytesCount);
+                    headerLength += headerBytesCount;
+                }
+                digester.update(buffer, 0, readBytesCount);
+                os.write(buffer, 0, readBytesCount);
+                copiedBytesCount += readBytesCount;
+            }
+        }
+        if (copiedBytesCount != expectedSize) {
+            throw new IOException(String.format("Error during stream copy to temporary disk (copied: %s / expected: %s !", copiedBytesCount, expectedSize));
+        }
+        return new SpooledUpload(target, copiedBytesCount, digester.digest(), ContainerFormatClassifier.classify(header, headerLength));
+    }
+
+    /**
+     * Re-compute the SHA-256 and the size from the current content of the temporary file.<br>
+     * Must be used when a processing stage has rewritten the temporary file (ex: sanitizing).
+     *
+     * @return The spooled upload reflecting the current content of the temporary file
+     * @throws IOException              If the temporary file cannot be read
+     * @throws NoSuchAlgorithmException If the SHA-256 algorithm is not available
+     */
+    public SpooledUpload rehash() throws IOException, NoSuchAlgorithmException {
+        MessageDigest digester = MessageDigest.getInstance("sha-256");
+        byte[] buffer = BUFFER.get();
+        long readBytesTotal = 0;
+        try (InputStream is = Files.newInputStream(this.getPath())) {
+            int readBytesCount;
+            while ((readBytesCount = is.read(buffer)) != -1) {
+                digester.update(buffer, 0, readBytesCount);
+                readBytesTotal += readBytesCount;
+            }
+        }
+        return new SpooledUpload(this.file, readBytesTotal, digester.digest(), this.containerFormat);
+    }
+
+    /**
+     * @return The temporary file containing the uploaded content
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return The path of the temporary file containing the uploaded content
+     */
+    public Path getPath() {
+        return this.file.toPath();
+    }
+
+    /**
+     * @return The count of bytes of the uploaded content
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return A copy of the SHA-256 of the uploaded content
+     */
+    public byte[] getSha256() {
+        return this.sha256.clone();
+    }
+
+    /**
+     * @return The container format of the content as it was uploaded
+     */
+    public ContainerFormat getContainerFormat() {
+        return this.containerFormat;
+    }
+
+    /**
+     * @return The SHA-256 of the uploaded content as upper case HEX string
+     */
+    public String getSha256Hex() {
+        return String.format("%064X", new BigInteger(1, this.sha256));
+    }
+}
@@ -0,0 +1,170 @@
+package eu.righettod.poc.web;
+
+import eu.righettod.poc.detector.DocumentDetector;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the verdicts returned by the detectors, in order to not analyse again a content already analysed.<br>
+ * A verdict is identified by the SHA-256 of the content, the detector implementation and the version of its detection rules, so a change of the
+ * rules never reuse a verdict obtained with the previous ones.<br>
+ * The cache is bounded in size (the least recently used verdict is evicted first) and in time (a verdict expire after a fixed delay).
+ */
+public class VerdictCache {
+
+    /**
+     * Maximum count of verdicts kept
+     */
+    private final int maxEntries;
+
+    /**
+     * Delay, in nanoseconds, after which a verdict expire
+     */
+    private final long ttlNanos;
+
+    /**
+     * Verdicts ordered from the least recently used to the most recently used
+     */
+    private final LinkedHashMap<String, CachedVerdict> verdicts;
+
+    /**
+     * Count of lookups that found a verdict
+     */
+    private long hitCount;
+
+    /**
+     * Count of lookups that did not found a verdict
+     */
+    private long missCount;
+
+    /**
+     * Count of verdicts removed because the cache was full or because they were expired
+     */
+    private long evictionCount;
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries Maximum count of verdicts kept
+     * @param ttlMillis  Delay, in milliseconds, after which a verdict expire
+     */
+    public VerdictCache(int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("Maximum count of entries and expiration delay must be strictly positive !");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.verdicts = new LinkedHashMap<String, CachedVerdict>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedVerdict> eldest) {
+                boolean full = this.size() > VerdictCache.this.maxEntries;
+                if (full) {
+                    VerdictCache.this.evictionCount++;
+                }
+                return full;
+            }
+        };
+    }
+
+    /**
+     * Get the verdict of a detector for a content.
+     *
+     * @param contentHash SHA-256 of the content
+     * @param detector    Detector
+     * @return The verdict or null if the cache do not contain a valid verdict
+     */
+    public synchronized Boolean get(String contentHash, DocumentDetector detector) {
+        String key = buildKey(contentHash, detector);
+        CachedVerdict verdict = this.verdicts.get(key);
+        if ((verdict != null) && (System.nanoTime() - verdict.creationTime > this.ttlNanos)) {
+            this.verdicts.remove(key);
+            this.evictionCount++;
+            verdict = null;
+        }
+        if (verdict == null) {
+            this.missCount++;
+            return null;
+        }
+        this.hitCount++;
+        return verdict.safe;
+    }
+
+    /**
+     * Store the verdict of a detector for a content.
+     *
+     * @param contentHash SHA-256 of the content
+     * @param detector    Detector
+     * @param safe        Verdict
+     */
+    public synchronized void put(String contentHash, DocumentDetector detector, boolean safe) {
+        this.verdicts.put(buildKey(contentHash, detector), new CachedVerdict(safe, System.nanoTime()));
+    }
+
+    /**
+     * @return The count of verdicts currently kept
+     */
+    public synchronized int size() {
+        return this.verdicts.size();
+    }
+
+    /**
+     * @return The count of lookups that found a verdict
+     */
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * @return The count of lookups that did not found a verdict
+     */
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * @return The count of verdicts removed because the cache was full or because they were expired
+     */
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * Build the identifier of a verdict.
+     *
+     * @param contentHash SHA-256 of the content
+     * @param detector    Detector
+     * @return The identifier
+     */
+    private static String buildKey(String contentHash, DocumentDetector detector) {
+        return contentHash + "|" + detector.getClass().getName() + "|" + detector.getVersion();
+    }
+
+    /**
+     * Verdict kept in the cache.
+     */
+    private static class CachedVerdict {
+
+        /**
+         * Verdict
+         */
+        private final boolean safe;
+
+        /**
+         * Time, from {@link System#nanoTime()}, at which the verdict has been stored
+         */
+        private final long creationTime;
+
+        /**
+         * Constructor
+         *
+         * @param safe         Verdict
+         * @param creationTime Time, from {@link System#nanoTime()}, at which the verdict has been stored
+         */
+        CachedVerdict(boolean safe, long creationTime) {
+            this.safe = safe;
+            this.creationTime = creationTime;
+        }
+    }
+}
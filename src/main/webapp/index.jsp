@@ -13,6 +13,7 @@
 			<option value="POWERPOINT">Microsoft Office Powerpoint</option>
 			<option value="PDF">Adobe PDF</option>
 			<option value="IMAGE">Image</option>
+			<option value="AUTO">Automatic detection</option>
 		</select><br>
 		Select file to upload: <input type="file" name="fileContent" id="fileContent"><br><input type="submit" value="Upload file" name="submit">
 	</form>
@@ -0,0 +1,226 @@
+package eu.righettod.poc.detector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Test cases for the pre-scan of the legacy binary Office documents.<br>
+ * Verdicts expected are the same than the ones expected from the detectors for the same samples.
+ */
+public class CompoundFileScannerTest {
+
+    /**
+     * Home directory of the samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources");
+
+    /**
+     * Working directory
+     */
+    private static final File WORKING_DIRECTORY = new File("target/work/compound");
+
+    /**
+     * Test case for Word documents: Safe documents are decided from their header, macro and OLE object from their storages.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testWordDocuments() throws Exception {
+        assertWordVerdict(PreScanVerdict.SAFE, "word/test-without-macro.doc", "word/test-without-macro.dot");
+        assertWordVerdict(PreScanVerdict.UNSAFE, "word/test-with-macro.doc", "word/test-with-macro.dot", "word/test-with-ole-object.doc", "word/test-with-ole-object.dot");
+        // Not a Word binary document
+        assertWordVerdict(PreScanVerdict.UNDECIDED, "excel/test-with-macro.xls", "word/test-with-macro.docm");
+    }
+
+    /**
+     * Test case for a Word document flagged as encrypted: The document parser must decide.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testEncryptedWordDocument() throws Exception {
+        // Prepare test: Set the encrypted flag into the header of the Word document stream
+        File sample = new File(SAMPLES_DIRECTORY, "word/test-without-macro.doc");
+        byte[] content = Files.readAllBytes(sample.toPath());
+        int fibOffset = findWordDocumentHeader(content);
+        content[fibOffset + 0x0B] |= 0x01;
+        WORKING_DIRECTORY.mkdirs();
+        File encrypted = new File(WORKING_DIRECTORY, "test-encrypted.doc");
+        Files.write(encrypted.toPath(), content);
+        // Run test
+        PreScanVerdict verdict = CompoundFileScanner.scanWordDocument(encrypted, ContentSniffer.sniff(encrypted));
+        // Validate test
+        Assert.assertEquals(PreScanVerdict.UNDECIDED, verdict);
+    }
+
+    /**
+     * Test case for a Word document with a valid header but a text piece outside of the Word document stream: The document parser must
+     * decide.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testCorruptedWordDocument() throws Exception {
+        // Prepare test: Locate the piece table into the file then move the text of the first piece after the end of the Word document stream
+        File sample = new File(SAMPLES_DIRECTORY, "word/test-without-macro.doc");
+        byte[] content = Files.readAllBytes(sample.toPath());
+        ByteBuffer fib = ByteBuffer.wrap(content, findWordDocumentHeader(content), 0x01AA).slice().order(ByteOrder.LITTLE_ENDIAN);
+        String tableStreamName = ((fib.getShort(0x0A) & 0x0200) != 0) ? "1Table" : "0Table";
+        byte[] clx = new byte[fib.getInt(0x01A6)];
+        try (CompoundFileReader compoundFile = CompoundFileReader.open(sample)) {
+            compoundFile.readStream(compoundFile.getEntry(tableStreamName), fib.getInt(0x01A2), clx);
+        }
+        int clxOffset = indexOf(content, clx);
+        Assert.assertEquals(0x02, clx[0]);
+        int piecesCount = (ByteBuffer.wrap(clx).order(ByteOrder.LITTLE_ENDIAN).getInt(1) - 4) / 12;
+        int firstPieceFcOffset = clxOffset + 5 + (piecesCount + 1) * 4 + 2;
+        ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).putInt(firstPieceFcOffset, 0x3FFFFF00);
+        WORKING_DIRECTORY.mkdirs();
+        File corrupted = new File(WORKING_DIRECTORY, "test-corrupted.doc");
+        Files.write(corrupted.toPath(), content);
+        // Run test
+        PreScanVerdict verdict = CompoundFileScanner.scanWordDocument(corrupted, ContentSniffer.sniff(corrupted));
+        // Validate test
+        Assert.assertEquals(PreScanVerdict.UNDECIDED, verdict);
+    }
+
+    /**
+     * Test case for Excel workbooks: Macro and OLE object are decided from their storages, others workbooks are left to the document parser.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testExcelWorkbooks() throws Exception {
+        for (String sample : new String[]{"excel/test-with-macro.xls", "excel/test-with-macro.xlt", "excel/test-with-ole-object.xls", "excel/test-with-ole-object.xlt"}) {
+            Assert.assertEquals(sample, PreScanVerdict.UNSAFE, CompoundFileScanner.scanExcelWorkbook(ContentSniffer.sniff(new File(SAMPLES_DIRECTORY, sample))));
+        }
+        for (String sample : new String[]{"excel/test-without-macro.xls", "excel/test-without-macro.xlt", "word/test-with-macro.doc"}) {
+            Assert.assertEquals(sample, PreScanVerdict.UNDECIDED, CompoundFileScanner.scanExcelWorkbook(ContentSniffer.sniff(new File(SAMPLES_DIRECTORY, sample))));
+        }
+    }
+
+    /**
+     * Test case for the reading of a stream directly from its sectors, across a sector boundary.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testReadStream() throws Exception {
+        // Prepare test
+        byte[] head = new byte[1024];
+        byte[] middle = new byte[100];
+        byte[] tail = new byte[100];
+        int headCount;
+        int middleCount;
+        int tailCount;
+        try (CompoundFileReader compoundFile = CompoundFileReader.open(new File(SAMPLES_DIRECTORY, "excel/test-without-macro.xls"))) {
+            CompoundFileReader.Entry workbook = compoundFile.getEntry("workbook");
+            // Run test
+            headCount = compoundFile.readStream(workbook, 0, head);
+            middleCount = compoundFile.readStream(workbook, 500, middle);
+            tailCount = compoundFile.readStream(workbook, workbook.getSize() - 10, tail);
+        }
+        // Validate test
+        Assert.assertEquals(head.length, headCount);
+        Assert.assertEquals(middle.length, middleCount);
+        Assert.assertEquals(10, tailCount);
+        for (int i = 0; i < middle.length; i++) {
+            Assert.assertEquals(head[500 + i], middle[i]);
+        }
+        // BOF record of the workbook globals substream
+        Assert.assertEquals(0x09, head[0]);
+        Assert.assertEquals(0x08, head[1]);
+    }
+
+    /**
+     * Test case for the reading of a stream stored into the mini stream, across a mini sector boundary, then for the deletion of a copy of
+     * the file once the reader is closed.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testReadMiniStream() throws Exception {
+        // Prepare test
+        File copy = new File("target/work/test-compound-file-copy.xls");
+        copy.getParentFile().mkdirs();
+        Files.copy(new File(SAMPLES_DIRECTORY, "excel/test-with-macro.xls").toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        byte[] head = new byte[100];
+        byte[] middle = new byte[10];
+        long size;
+        int headCount;
+        int middleCount;
+        try (CompoundFileReader compoundFile = CompoundFileReader.open(copy)) {
+            CompoundFileReader.Entry summary = compoundFile.getEntry("\u0005DocumentSummaryInformation");
+            size = summary.getSize();
+            // Run test
+            headCount = compoundFile.readStream(summary, 0, head);
+            middleCount = compoundFile.readStream(summary, 60, middle);
+        }
+        // Validate test
+        Assert.assertTrue(size < 4096);
+        Assert.assertEquals(head.length, headCount);
+        Assert.assertEquals(middle.length, middleCount);
+        for (int i = 0; i < middle.length; i++) {
+            Assert.assertEquals(head[60 + i], middle[i]);
+        }
+        // Byte order mark of a property set stream
+        Assert.assertEquals((byte) 0xFE, head[0]);
+        Assert.assertEquals((byte) 0xFF, head[1]);
+        Assert.assertTrue(copy.delete());
+    }
+
+    /**
+     * Utility method to verify the verdict obtained for Word samples.
+     *
+     * @param expected Verdict expected
+     * @param samples  Samples paths relative to the samples directory
+     * @throws Exception If any error occurs
+     */
+    private static void assertWordVerdict(PreScanVerdict expected, String... samples) throws Exception {
+        for (String sample : samples) {
+            File f = new File(SAMPLES_DIRECTORY, sample);
+            Assert.assertEquals(sample, expected, CompoundFileScanner.scanWordDocument(f, ContentSniffer.sniff(f)));
+        }
+    }
+
+    /**
+     * Utility method to find the single occurrence of a sequence of bytes.
+     *
+     * @param content  Content searched
+     * @param sequence Sequence of bytes
+     * @return The offset of the sequence
+     */
+    private static int indexOf(byte[] content, byte[] sequence) {
+        int found = -1;
+        for (int i = 0; i + sequence.length <= content.length; i++) {
+            if (Arrays.equals(sequence, Arrays.copyOfRange(content, i, i + sequence.length))) {
+                Assert.assertEquals("Sequence found more than once !", -1, found);
+                found = i;
+            }
+        }
+        Assert.assertTrue("Sequence not found !", found >= 0);
+        return found;
+    }
+
+    /**
+     * Utility method to find the header of the Word document stream: First sector starting with the Word binary document identifier.
+     *
+     * @param content Content of the compound file
+     * @return The offset of the header
+     */
+    private static int findWordDocumentHeader(byte[] content) {
+        for (int i = 512; i + 1 < content.length; i += 512) {
+            if ((content[i] & 0xFF) == 0xEC && (content[i + 1] & 0xFF) == 0xA5) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Header of the Word document stream not found !");
+    }
+}
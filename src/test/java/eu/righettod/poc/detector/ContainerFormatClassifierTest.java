@@ -0,0 +1,85 @@
+package eu.righettod.poc.detector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test cases for the container format classifier.
+ */
+public class ContainerFormatClassifierTest {
+
+    /**
+     * Home directory of the samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources");
+
+    /**
+     * Test case for Office binary formats.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testOle2Documents() throws Exception {
+        String[] samples = {"word/test-without-macro.doc", "word/test-with-macro.dot", "excel/test-with-macro.xls", "excel/test-without-macro.xlt", "powerpoint/test-with-ole-object.ppt", "powerpoint/test-without-macro.pot", "powerpoint/test-with-macro.pps"};
+        for (String sample : samples) {
+            Assert.assertEquals(sample, ContainerFormat.OLE2, ContainerFormatClassifier.classify(new File(SAMPLES_DIRECTORY, sample)));
+        }
+    }
+
+    /**
+     * Test case for Office Open XML formats, including a DOCM renamed to DOC.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testZipDocuments() throws Exception {
+        String[] samples = {"word/test-with-macro.docm", "word/test-with-macro-docm-renamed-to-doc.doc", "excel/test-without-macro.xlsb", "excel/test-with-ole-object.xlsx", "powerpoint/test-without-macro.pptx", "powerpoint/test-with-macro.ppsm"};
+        for (String sample : samples) {
+            Assert.assertEquals(sample, ContainerFormat.ZIP, ContainerFormatClassifier.classify(new File(SAMPLES_DIRECTORY, sample)));
+        }
+    }
+
+    /**
+     * Test case for XML 2003 formats and for MHTML format that is not identified.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testTextDocuments() throws Exception {
+        Assert.assertEquals(ContainerFormat.XML, ContainerFormatClassifier.classify(new File(SAMPLES_DIRECTORY, "word/test-without-macro-word2003xml.xml")));
+        Assert.assertEquals(ContainerFormat.XML, ContainerFormatClassifier.classify(new File(SAMPLES_DIRECTORY, "excel/test-with-macro-excelxml2003.xml")));
+        Assert.assertEquals(ContainerFormat.UNKNOWN, ContainerFormatClassifier.classify(new File(SAMPLES_DIRECTORY, "word/test-without-macro.mhtml")));
+        byte[] utf16Xml = "\uFEFF<?xml version=\"1.0\" encoding=\"UTF-16\"?>".getBytes(StandardCharsets.UTF_16LE);
+        Assert.assertEquals(ContainerFormat.XML, ContainerFormatClassifier.classify(utf16Xml, utf16Xml.length));
+        byte[] notXml = "  < not markup".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(ContainerFormat.UNKNOWN, ContainerFormatClassifier.classify(notXml, notXml.length));
+    }
+
+    /**
+     * Test case for PDF documents.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testPdfDocuments() throws Exception {
+        for (File sample : new File(SAMPLES_DIRECTORY, "pdf").listFiles()) {
+            Assert.assertEquals(sample.getName(), ContainerFormat.PDF, ContainerFormatClassifier.classify(sample));
+        }
+    }
+
+    /**
+     * Test case for images and for an executable renamed as image.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testImages() throws Exception {
+        Assert.assertEquals(ContainerFormat.JPEG, ContainerFormatClassifier.classify(new File(SAMPLES_DIRECTORY, "image/test-php-inserted-into-exif.jpg")));
+        Assert.assertEquals(ContainerFormat.TIFF, ContainerFormatClassifier.classify(new File(SAMPLES_DIRECTORY, "image/test-php-inserted-into-exif.tif")));
+        Assert.assertEquals(ContainerFormat.GIF, ContainerFormatClassifier.classify(new File(SAMPLES_DIRECTORY, "image/test-php-inserted-into-img.gif")));
+        Assert.assertEquals(ContainerFormat.EXECUTABLE, ContainerFormatClassifier.classify(new File(SAMPLES_DIRECTORY, "image/test-exe-renamed-as-img.png")));
+    }
+}
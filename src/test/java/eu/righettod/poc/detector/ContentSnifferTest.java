@@ -0,0 +1,133 @@
+package eu.righettod.poc.detector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Test cases for the identification of the document type from the content.
+ */
+public class ContentSnifferTest {
+
+    /**
+     * Home directory of the samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources");
+
+    /**
+     * Test case for Office binary formats, identified from the name of the streams.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testOle2Documents() throws Exception {
+        assertDocumentType(DocumentType.WORD, "word/test-without-macro.doc", "word/test-with-macro.dot", "word/test-with-ole-object.doc");
+        assertDocumentType(DocumentType.EXCEL, "excel/test-without-macro.xls", "excel/test-with-macro.xlt", "excel/test-with-ole-object.xls");
+        assertDocumentType(DocumentType.POWERPOINT, "powerpoint/test-without-macro.ppt", "powerpoint/test-with-macro.pps", "powerpoint/test-with-ole-object.pot");
+        ContentProfile profile = ContentSniffer.sniff(new File(SAMPLES_DIRECTORY, "word/test-with-macro.doc"), ContainerFormat.OLE2);
+        Assert.assertTrue(profile.getEntryNames().contains("WordDocument"));
+        Assert.assertEquals("WordDocument", profile.getMainContentType());
+    }
+
+    /**
+     * Test case for an Office Open XML package whose content types part inflate to more bytes than the limit (comment padding after the main
+     * part declaration): The part must not be read entirely, so the document type is not identified.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testOversizedContentTypesPart() throws Exception {
+        // Prepare test
+        StringBuilder contentTypes = new StringBuilder("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\"><Override PartName=\"/word/document.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/><!--");
+        for (int i = 0; i < 2 * 1024 * 1024; i++) {
+            contentTypes.append(' ');
+        }
+        contentTypes.append("--></Types>");
+        File sample = new File("target/work/test-oversized-content-types.docx");
+        sample.getParentFile().mkdirs();
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(sample))) {
+            zos.putNextEntry(new ZipEntry("[Content_Types].xml"));
+            zos.write(contentTypes.toString().getBytes(StandardCharsets.UTF_8));
+            zos.closeEntry();
+        }
+        // Run test
+        ContentProfile profile = ContentSniffer.sniff(sample, ContainerFormat.ZIP);
+        // Validate test
+        Assert.assertEquals(ContainerFormat.ZIP, profile.getContainerFormat());
+        Assert.assertNull(profile.getDocumentType());
+    }
+
+    /**
+     * Test case for Office Open XML formats, identified from the content type of the main part, including a DOCM renamed to DOC and a XLSM
+     * renamed to XLS.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testOpenXmlDocuments() throws Exception {
+        assertDocumentType(DocumentType.WORD, "word/test-with-macro.docm", "word/test-with-ole-object.dotx", "word/test-with-macro-docm-renamed-to-doc.doc");
+        assertDocumentType(DocumentType.EXCEL, "excel/test-with-macro.xlsm", "excel/test-without-macro.xlsb", "excel/test-with-ole-object.xltx", "excel/test-with-macro-xlsm-renamed-to-xls.xls");
+        assertDocumentType(DocumentType.POWERPOINT, "powerpoint/test-without-macro.pptx", "powerpoint/test-with-macro.ppsm", "powerpoint/test-with-ole-object.potx");
+        ContentProfile profile = ContentSniffer.sniff(new File(SAMPLES_DIRECTORY, "word/test-with-macro.docm"), ContainerFormat.ZIP);
+        Assert.assertTrue(profile.getEntryNames().contains("[Content_Types].xml"));
+        Assert.assertFalse(profile.getContentTypes().isEmpty());
+        Assert.assertNotNull(profile.getMainContentType());
+    }
+
+    /**
+     * Test case for XML 2003 formats, identified from the namespace of the root element.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testXmlDocuments() throws Exception {
+        assertDocumentType(DocumentType.WORD, "word/test-without-macro-word2003xml.xml", "word/test-with-macro-word2003xml.xml");
+        assertDocumentType(DocumentType.EXCEL, "excel/test-with-macro-excelxml2003.xml");
+    }
+
+    /**
+     * Test case for PDF documents and images.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testPdfAndImages() throws Exception {
+        assertDocumentType(DocumentType.PDF, "pdf/test-no-files-no-js.pdf", "pdf/test-with-files-with-js.pdf");
+        assertDocumentType(DocumentType.IMAGE, "image/test-php-inserted-into-exif.jpg", "image/test-php-inserted-into-img.gif", "image/test-php-inserted-into-exif.tif");
+    }
+
+    /**
+     * Test case for contents that must not be identified: Executable renamed as image, MHTML document and content not matching its container
+     * format.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testUnidentifiedContents() throws Exception {
+        assertDocumentType(null, "image/test-exe-renamed-as-img.png", "word/test-without-macro.mhtml");
+        // A PDF claimed to be a ZIP archive or an OLE2 compound file
+        File pdf = new File(SAMPLES_DIRECTORY, "pdf/test-no-files-no-js.pdf");
+        Assert.assertNull(ContentSniffer.sniff(pdf, ContainerFormat.ZIP).getDocumentType());
+        Assert.assertNull(ContentSniffer.sniff(pdf, ContainerFormat.OLE2).getDocumentType());
+    }
+
+    /**
+     * Utility method to verify the document type identified for samples.
+     *
+     * @param expected Document type expected
+     * @param samples  Samples paths relative to the samples directory
+     * @throws Exception If any error occurs
+     */
+    private static void assertDocumentType(DocumentType expected, String... samples) throws Exception {
+        for (String sample : samples) {
+            File f = new File(SAMPLES_DIRECTORY, sample);
+            ContentProfile profile = ContentSniffer.sniff(f, ContainerFormatClassifier.classify(f));
+            Assert.assertEquals(sample, expected, profile.getDocumentType());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package eu.righettod.poc.detector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Test cases for the pre-scan of the Office Open XML packages.<br>
+ * Verdicts expected are the same than the ones expected from the detectors for the same samples.
+ */
+public class OoxmlContainerScannerTest {
+
+    /**
+     * Home directory of the samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources");
+
+    /**
+     * Working directory
+     */
+    private static final File WORKING_DIRECTORY = new File("target/work");
+
+    /**
+     * Main part of a Word document without active content
+     */
+    private static final String WELL_FORMED_DOCUMENT = "<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\"><w:body><w:p><w:r><w:t>Test</w:t></w:r></w:p></w:body></w:document>";
+
+    /**
+     * Tested class instance, accepting the main parts of all the Word/Excel/Powerpoint formats except the templates without macro
+     */
+    private OoxmlContainerScanner victim = new OoxmlContainerScanner(new HashSet<>(Arrays.asList("application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml", "application/vnd.ms-word.document.macroEnabled.main+xml", "application/vnd.ms-word.template.macroEnabledTemplate.main+xml", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml", "application/vnd.ms-excel.sheet.macroEnabled.main+xml", "application/vnd.ms-excel.sheet.binary.macroEnabled.main", "application/vnd.ms-excel.template.macroEnabled.main+xml", "application/vnd.openxmlformats-officedocument.presentationml.presentation.main+xml", "application/vnd.ms-powerpoint.presentation.macroEnabled.main+xml", "application/vnd.openxmlformats-officedocument.presentationml.slideshow.main+xml", "application/vnd.ms-powerpoint.slideshow.macroEnabled.main+xml", "application/vnd.openxmlformats-officedocument.presentationml.template.main+xml", "application/vnd.ms-powerpoint.template.macroEnabled.main+xml")), Pattern.compile("(word/document\\.xml|xl/worksheets/[^/]+\\.(xml|bin)|ppt/slides/[^/]+\\.xml)"));
+
+    /**
+     * Test case for packages without macro and OLE object.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testPackagesWithoutActiveContent() throws Exception {
+        this.assertVerdict(PreScanVerdict.SAFE, "word/test-without-macro.docm", "word/test-without-macro.dotm", "excel/test-without-macro.xlsb", "excel/test-without-macro.xlsm", "excel/test-without-macro.xltm", "powerpoint/test-without-macro.pptx", "powerpoint/test-without-macro.pptm", "powerpoint/test-without-macro.ppsx", "powerpoint/test-without-macro.ppsm", "powerpoint/test-without-macro.potx", "powerpoint/test-without-macro.potm");
+    }
+
+    /**
+     * Test case for packages containing a VBA project, including packages renamed with a legacy extension.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testPackagesWithMacro() throws Exception {
+        this.assertVerdict(PreScanVerdict.UNSAFE, "word/test-with-macro.docm", "word/test-with-macro.dotm", "word/test-with-macro-docm-renamed-to-doc.doc", "excel/test-with-macro.xlsb", "excel/test-with-macro.xlsm", "excel/test-with-macro.xltm", "excel/test-with-macro-xlsm-renamed-to-xls.xls", "powerpoint/test-with-macro.pptm", "powerpoint/test-with-macro.ppsm", "powerpoint/test-with-macro.potm");
+    }
+
+    /**
+     * Test case for packages containing an OLE object.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testPackagesWithOleObject() throws Exception {
+        this.assertVerdict(PreScanVerdict.UNSAFE, "word/test-with-ole-object.docx", "word/test-with-ole-object.docm", "word/test-with-ole-object.dotm", "excel/test-with-ole-object.xlsx", "excel/test-with-ole-object.xlsb", "excel/test-with-ole-object.xlsm", "excel/test-with-ole-object.xltm", "powerpoint/test-with-ole-object.pptx", "powerpoint/test-with-ole-object.pptm", "powerpoint/test-with-ole-object.ppsx", "powerpoint/test-with-ole-object.ppsm", "powerpoint/test-with-ole-object.potx", "powerpoint/test-with-ole-object.potm");
+    }
+
+    /**
+     * Test case for contents on which the scanner cannot decide: Main part not accepted, OLE object in a part not analyzed by the document
+     * parser and contents that are not Office Open XML packages.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testUndecidedContents() throws Exception {
+        this.assertVerdict(PreScanVerdict.UNDECIDED, "word/test-with-ole-object.dotx", "excel/test-with-ole-object.xltx", "word/test-without-macro.doc", "excel/test-with-macro.xls", "powerpoint/test-with-ole-object.ppt", "word/test-without-macro-word2003xml.xml", "pdf/test-no-files-no-js.pdf");
+        OoxmlContainerScanner slideOnlyScanner = new OoxmlContainerScanner(new HashSet<>(Arrays.asList("application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml")), Pattern.compile("ppt/slides/[^/]+\\.xml"));
+        File sample = new File(SAMPLES_DIRECTORY, "word/test-with-ole-object.docx");
+        Assert.assertEquals(PreScanVerdict.UNDECIDED, slideOnlyScanner.scan(sample, ContentSniffer.sniff(sample)));
+    }
+
+    /**
+     * Test case for a relationships part declaring, into the ZIP central directory, a size smaller than its real size: The bytes inflated
+     * must be limited whatever the size declared, so the scanner cannot decide.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testRelationshipsPartWithForgedSize() throws Exception {
+        // Prepare test
+        StringBuilder relationships = new StringBuilder("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+        for (int i = 0; i < 2 * 1024 * 1024; i++) {
+            relationships.append(' ');
+        }
+        relationships.append("</Relationships>");
+        File clean = new File(WORKING_DIRECTORY, "test-forged-size-reference.docx");
+        File forged = new File(WORKING_DIRECTORY, "test-forged-size.docx");
+        createWordPackage(clean, WELL_FORMED_DOCUMENT, relationships.toString(), -1);
+        createWordPackage(forged, WELL_FORMED_DOCUMENT, relationships.toString(), 100);
+        // Run test
+        ContentProfile profile = ContentSniffer.sniff(forged);
+        PreScanVerdict verdict = this.victim.scan(forged, profile);
+        // Validate test
+        Assert.assertEquals(ContainerFormat.ZIP, profile.getContainerFormat());
+        try (ZipFile zipFile = new ZipFile(forged)) {
+            Assert.assertEquals(100, zipFile.getEntry("word/_rels/document.xml.rels").getSize());
+        }
+        Assert.assertEquals(PreScanVerdict.UNDECIDED, verdict);
+        Assert.assertEquals(PreScanVerdict.UNDECIDED, this.victim.scan(clean, ContentSniffer.sniff(clean)));
+    }
+
+    /**
+     * Test case for packages without active content whose main part is missing or not well-formed: The scanner cannot decide, the document
+     * parser must be used.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testBrokenMainPart() throws Exception {
+        // Prepare test
+        String relationships = "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\"/>";
+        File wellFormed = new File(WORKING_DIRECTORY, "test-main-part-well-formed.docx");
+        File truncated = new File(WORKING_DIRECTORY, "test-main-part-truncated.docx");
+        File missing = new File(WORKING_DIRECTORY, "test-main-part-missing.docx");
+        createWordPackage(wellFormed, WELL_FORMED_DOCUMENT, relationships, -1);
+        createWordPackage(truncated, WELL_FORMED_DOCUMENT.substring(0, WELL_FORMED_DOCUMENT.length() - 20), relationships, -1);
+        createWordPackage(missing, null, relationships, -1);
+        // Run test
+        PreScanVerdict wellFormedVerdict = this.victim.scan(wellFormed, ContentSniffer.sniff(wellFormed));
+        PreScanVerdict truncatedVerdict = this.victim.scan(truncated, ContentSniffer.sniff(truncated));
+        PreScanVerdict missingVerdict = this.victim.scan(missing, ContentSniffer.sniff(missing));
+        // Validate test
+        Assert.assertEquals(PreScanVerdict.SAFE, wellFormedVerdict);
+        Assert.assertEquals(PreScanVerdict.UNDECIDED, truncatedVerdict);
+        Assert.assertEquals(PreScanVerdict.UNDECIDED, missingVerdict);
+    }
+
+    /**
+     * Utility method to create a minimal Word package.
+     *
+     * @param f                     Package file created
+     * @param document              Content of the main part, null to omit the main part
+     * @param documentRelationships Content of the relationships part of the main part
+     * @param declaredSize          Size declared by the central directory for the relationships part of the main part, -1 to keep the real size
+     * @throws Exception If any error occurs
+     */
+    private static void createWordPackage(File f, String document, String documentRelationships, int declaredSize) throws Exception {
+        WORKING_DIRECTORY.mkdirs();
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(zip)) {
+            putEntry(zos, "[Content_Types].xml", "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\"><Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/><Default Extension=\"xml\" ContentType=\"application/xml\"/><Override PartName=\"/word/document.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/></Types>");
+            putEntry(zos, "_rels/.rels", "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\"><Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"word/document.xml\"/></Relationships>");
+            if (document != null) {
+                putEntry(zos, "word/document.xml", document);
+            }
+            putEntry(zos, "word/_rels/document.xml.rels", documentRelationships);
+        }
+        byte[] content = zip.toByteArray();
+        if (declaredSize >= 0) {
+            // Uncompressed size of the central directory header of the relationships part of the main part
+            byte[] name = "word/_rels/document.xml.rels".getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer buffer = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i + 46 + name.length <= content.length; i++) {
+                if (buffer.getInt(i) == 0x02014B50 && Arrays.equals(name, Arrays.copyOfRange(content, i + 46, i + 46 + name.length))) {
+                    buffer.putInt(i + 24, declaredSize);
+                }
+            }
+        }
+        Files.write(f.toPath(), content);
+    }
+
+    /**
+     * Utility method to add a compressed entry to a ZIP archive.
+     *
+     * @param zos     ZIP archive
+     * @param name    Name of the entry
+     * @param content Content of the entry
+     * @throws Exception If any error occurs
+     */
+    private static void putEntry(ZipOutputStream zos, String name, String content) throws Exception {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(content.getBytes(StandardCharsets.UTF_8));
+        zos.closeEntry();
+    }
+
+    /**
+     * Utility method to verify the verdict obtained for samples.
+     *
+     * @param expected Verdict expected
+     * @param samples  Samples paths relative to the samples directory
+     * @throws Exception If any error occurs
+     */
+    private void assertVerdict(PreScanVerdict expected, String... samples) throws Exception {
+        for (String sample : samples) {
+            File f = new File(SAMPLES_DIRECTORY, sample);
+            Assert.assertEquals(sample, expected, this.victim.scan(f, ContentSniffer.sniff(f)));
+        }
+    }
+}
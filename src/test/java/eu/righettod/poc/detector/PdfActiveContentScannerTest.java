@@ -0,0 +1,130 @@
+package eu.righettod.poc.detector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Test cases for the lexical pre-scan of the PDF documents.
+ */
+public class PdfActiveContentScannerTest {
+
+    /**
+     * Home directory of the samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources");
+
+    /**
+     * Working directory
+     */
+    private static final File WORKING_DIRECTORY = new File("target/work/pdf");
+
+    /**
+     * Test case for a document without object stream and without any name signaling active content.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testDocumentWithoutActiveContent() throws Exception {
+        // Prepare test
+        File sample = createDocument("safe.pdf", "");
+        // Run test
+        PreScanVerdict verdict = PdfActiveContentScanner.scan(sample);
+        // Validate test
+        Assert.assertEquals(PreScanVerdict.SAFE, verdict);
+    }
+
+    /**
+     * Test case for documents containing a name signaling active content, in clear or hexadecimal escaped form.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testDocumentsWithActiveContentName() throws Exception {
+        String[] catalogEntries = {"/OpenAction 3 0 R", "/Open#41ction 3 0 R", "/#4F#70#65#6E#41#63#74#69#6F#6E 3 0 R", "/AA<</O 3 0 R>>", "/Names<</JavaScript 3 0 R>>", "/Names<</EmbeddedFiles 3 0 R>>", "/AcroForm<</XFA 3 0 R>>"};
+        for (int i = 0; i < catalogEntries.length; i++) {
+            // Prepare test
+            File sample = createDocument("active-content-" + i + ".pdf", catalogEntries[i]);
+            // Run test
+            PreScanVerdict verdict = PdfActiveContentScanner.scan(sample);
+            // Validate test
+            Assert.assertEquals(catalogEntries[i], PreScanVerdict.UNDECIDED, verdict);
+        }
+    }
+
+    /**
+     * Test case for names which only start like a name signaling active content: They must not prevent to decide.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testDocumentWithSimilarNames() throws Exception {
+        // Prepare test
+        File sample = createDocument("similar-names.pdf", "/JSON 1 /OpenActions 2 /A#41A 3 /Java#");
+        // Run test
+        PreScanVerdict verdict = PdfActiveContentScanner.scan(sample);
+        // Validate test
+        Assert.assertEquals(PreScanVerdict.SAFE, verdict);
+    }
+
+    /**
+     * Test case for the samples: All of them use compressed object streams so the document parser must decide.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testSamplesWithObjectStreams() throws Exception {
+        for (String sample : new String[]{"pdf/test-no-files-no-js.pdf", "pdf/test-no-files-with-js.pdf", "pdf/test-with-files-no-js.pdf", "pdf/test-with-files-with-js.pdf"}) {
+            Assert.assertEquals(sample, PreScanVerdict.UNDECIDED, PdfActiveContentScanner.scan(new File(SAMPLES_DIRECTORY, sample)));
+        }
+    }
+
+    /**
+     * Test case for contents that are not complete PDF documents: The document parser must decide.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testIncompleteOrOtherContents() throws Exception {
+        // Prepare test
+        File safeSample = createDocument("truncated.pdf", "");
+        byte[] content = Files.readAllBytes(safeSample.toPath());
+        File truncated = new File(WORKING_DIRECTORY, "truncated.pdf");
+        Files.write(truncated.toPath(), new String(content, StandardCharsets.US_ASCII).replace("%%EOF", "").getBytes(StandardCharsets.US_ASCII));
+        // Run test
+        PreScanVerdict truncatedVerdict = PdfActiveContentScanner.scan(truncated);
+        PreScanVerdict otherVerdict = PdfActiveContentScanner.scan(new File(SAMPLES_DIRECTORY, "word/test-without-macro.docx"));
+        PreScanVerdict missingVerdict = PdfActiveContentScanner.scan(new File(WORKING_DIRECTORY, "missing.pdf"));
+        // Validate test
+        Assert.assertEquals(PreScanVerdict.UNDECIDED, truncatedVerdict);
+        Assert.assertEquals(PreScanVerdict.UNDECIDED, otherVerdict);
+        Assert.assertEquals(PreScanVerdict.UNDECIDED, missingVerdict);
+    }
+
+    /**
+     * Utility method to create a minimal one page PDF document, without object stream.
+     *
+     * @param name         Name of the file
+     * @param catalogEntry Additional entry of the catalog dictionary
+     * @return The file created
+     * @throws Exception If any error occurs
+     */
+    private static File createDocument(String name, String catalogEntry) throws Exception {
+        String[] objects = {"<</Type/Catalog/Pages 2 0 R " + catalogEntry + ">>", "<</Type/Pages/Kids[3 0 R]/Count 1>>", "<</Type/Page/Parent 2 0 R/MediaBox[0 0 612 792]>>"};
+        StringBuilder document = new StringBuilder("%PDF-1.4\n");
+        StringBuilder xref = new StringBuilder("xref\n0 " + (objects.length + 1) + "\n0000000000 65535 f \n");
+        for (int i = 0; i < objects.length; i++) {
+            xref.append(String.format("%010d 00000 n \n", document.length()));
+            document.append(i + 1).append(" 0 obj\n").append(objects[i]).append("\nendobj\n");
+        }
+        int xrefOffset = document.length();
+        document.append(xref).append("trailer\n<</Size ").append(objects.length + 1).append("/Root 1 0 R>>\nstartxref\n").append(xrefOffset).append("\n%%EOF\n");
+        WORKING_DIRECTORY.mkdirs();
+        File f = new File(WORKING_DIRECTORY, name);
+        Files.write(f.toPath(), document.toString().getBytes(StandardCharsets.US_ASCII));
+        return f;
+    }
+}
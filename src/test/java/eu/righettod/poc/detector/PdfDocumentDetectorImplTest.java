@@ -4,6 +4,8 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 /**
  * Test cases for Pdf detector implementation.
@@ -15,6 +17,11 @@ public class PdfDocumentDetectorImplTest {
      */
     private static final File SAMPLES_DIRECTORY = new File("src/test/resources/pdf");
 
+    /**
+     * Working directory
+     */
+    private static final File WORKING_DIRECTORY = new File("target/work/pdf");
+
     /**
      * Tested class instance
      */
@@ -72,4 +79,24 @@ public class PdfDocumentDetectorImplTest {
         Assert.assertFalse(safeState);
     }
 
+    /**
+     * Test case for a file which is not a PDF document but contains the PDF header and end of file marker, without any name signaling active
+     * content: The pre-scan clear it but the PDF parser must reject it.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testNonPDFDocumentWithPDFMarkers() throws Exception {
+        // Prepare test
+        File sample = new File(WORKING_DIRECTORY, "test-polyglot.pdf");
+        sample.getParentFile().mkdirs();
+        Files.write(sample.toPath(), "<html><!-- %PDF-1.4 --><script>alert(1)</script><!-- %%EOF --></html>\n".getBytes(StandardCharsets.US_ASCII));
+        // Run test
+        PreScanVerdict verdict = PdfActiveContentScanner.scan(sample);
+        boolean safeState = this.victim.isSafe(sample);
+        // Validate test
+        Assert.assertEquals(PreScanVerdict.SAFE, verdict);
+        Assert.assertFalse(safeState);
+    }
+
 }
@@ -0,0 +1,110 @@
+package eu.righettod.poc.detector;
+
+import com.aspose.slides.IOleObjectFrame;
+import com.aspose.slides.IShape;
+import com.aspose.slides.ISlide;
+import com.aspose.slides.Presentation;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the Powerpoint document parser analysis against the analysis performed before the early-exit scan: Full loading of the
+ * presentation then counting of all the OLE objects of the slides.<br>
+ * The analysis is called directly, without the pre-scan of the container, which would decide the Open XML samples without loading them.<br>
+ * Timings are only reported in the log, the verdicts are validated.
+ */
+public class PowerpointDocumentDetectorBenchmarkTest {
+
+    /**
+     * LOGGER
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(PowerpointDocumentDetectorBenchmarkTest.class);
+
+    /**
+     * Home directory of the Powerpoint samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources/powerpoint");
+
+    /**
+     * Samples used for the benchmark
+     */
+    private static final String[] SAMPLES = {"test-with-ole-object.ppt", "test-with-ole-object.pptm", "test-with-ole-object.pptx"};
+
+    /**
+     * Count of runs not measured, to let the JIT compile the code paths
+     */
+    private static final int WARMUP_RUNS = 2;
+
+    /**
+     * Count of runs measured
+     */
+    private static final int MEASURED_RUNS = 5;
+
+    /**
+     * Tested class instance
+     */
+    private PowerpointDocumentDetectorImpl victim = new PowerpointDocumentDetectorImpl();
+
+    /**
+     * Benchmark case for presentations containing OLE objects.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testEarlyExitScanSpeedup() throws Exception {
+        for (String sampleName : SAMPLES) {
+            // Prepare test
+            File sample = new File(SAMPLES_DIRECTORY, sampleName);
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                countOleObjects(sample);
+                this.victim.isSafePresentation(sample);
+            }
+            // Run test
+            long fullScanNanos = 0;
+            long earlyExitScanNanos = 0;
+            int oleObjectCount = 0;
+            boolean safeState = true;
+            for (int i = 0; i < MEASURED_RUNS; i++) {
+                long start = System.nanoTime();
+                oleObjectCount = countOleObjects(sample);
+                fullScanNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                safeState = this.victim.isSafePresentation(sample);
+                earlyExitScanNanos += System.nanoTime() - start;
+            }
+            // Validate test
+            Assert.assertFalse(sampleName, safeState);
+            LOG.info("{}: {} OLE object(s), full scan {} ms/run, early-exit scan {} ms/run, speedup x{}", sampleName, oleObjectCount, TimeUnit.NANOSECONDS.toMillis(fullScanNanos / MEASURED_RUNS), TimeUnit.NANOSECONDS.toMillis(earlyExitScanNanos / MEASURED_RUNS), String.format("%.1f", (double) fullScanNanos / Math.max(1, earlyExitScanNanos)));
+        }
+    }
+
+    /**
+     * Analysis performed before the early-exit scan: Full loading of the presentation then counting of all the OLE objects of the slides.
+     *
+     * @param sample File to analyze
+     * @return The count of OLE objects found
+     */
+    private static int countOleObjects(File sample) {
+        Presentation presentation = new Presentation(sample.getAbsolutePath());
+        try {
+            int totalOLEObjectCount = 0;
+            if (presentation.getVbaProject() == null) {
+                for (ISlide slide : presentation.getSlides()) {
+                    for (IShape shape : slide.getShapes()) {
+                        if (shape instanceof IOleObjectFrame) {
+                            totalOLEObjectCount++;
+                        }
+                    }
+                }
+            }
+            return totalOLEObjectCount;
+        } finally {
+            presentation.dispose();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package eu.righettod.poc.detector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Test cases for the file channel shared by several successive readers.
+ */
+public class SharedFileChannelTest {
+
+    /**
+     * Home directory of the samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources");
+
+    /**
+     * Test case for two successive readers closing their stream: Both must read the whole file.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testSuccessiveReaders() throws Exception {
+        // Prepare test
+        File sample = new File(SAMPLES_DIRECTORY, "word/test-without-macro.doc");
+        byte[] expected = Files.readAllBytes(sample.toPath());
+        try (SharedFileChannel victim = SharedFileChannel.open(sample)) {
+            // Run test
+            byte[] partialRead = new byte[512];
+            try (InputStream is = victim.newInputStream()) {
+                Assert.assertEquals(partialRead.length, is.read(partialRead));
+            }
+            byte[] fullRead;
+            try (InputStream is = victim.newInputStream()) {
+                fullRead = readAll(is);
+            }
+            // Validate test
+            Assert.assertArrayEquals(expected, fullRead);
+        }
+    }
+
+    /**
+     * Test case for the mark/reset support used by the format detection APIs.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testMarkReset() throws Exception {
+        // Prepare test
+        File sample = new File(SAMPLES_DIRECTORY, "pdf/test-no-files-no-js.pdf");
+        try (SharedFileChannel victim = SharedFileChannel.open(sample)) {
+            InputStream is = victim.newInputStream();
+            Assert.assertTrue(is.markSupported());
+            Assert.assertEquals(10, is.skip(10));
+            // Run test
+            is.mark(100);
+            int first = is.read();
+            is.reset();
+            int second = is.read();
+            // Validate test
+            Assert.assertEquals(first, second);
+            Assert.assertEquals(Files.readAllBytes(sample.toPath())[10] & 0xFF, first);
+        }
+    }
+
+    /**
+     * Utility method to read a stream until its end.
+     *
+     * @param is Stream
+     * @return The bytes read
+     * @throws Exception If any error occurs
+     */
+    private static byte[] readAll(InputStream is) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int count;
+        while ((count = is.read(chunk)) != -1) {
+            buffer.write(chunk, 0, count);
+        }
+        return buffer.toByteArray();
+    }
+}
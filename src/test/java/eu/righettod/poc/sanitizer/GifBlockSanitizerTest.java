@@ -0,0 +1,146 @@
+package eu.righettod.poc.sanitizer;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Test cases for the lossless sanitizing of the GIF images.
+ */
+public class GifBlockSanitizerTest {
+
+    /**
+     * Home directory of the Images samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources/image");
+
+    /**
+     * Working directory
+     */
+    private static final File WORKING_DIRECTORY = new File("target/work/gif");
+
+    /**
+     * Initialize workspace before a test case execution
+     */
+    @Before
+    public void initTest() {
+        WORKING_DIRECTORY.mkdirs();
+    }
+
+    /**
+     * Test case for a GIF image containing code after the trailer and into comment and application extensions: The code must be removed, the
+     * loop count kept and the pixels must be the same.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testCodeRemovedAndPixelsKept() throws Exception {
+        // Prepare test
+        byte[] original = Files.readAllBytes(new File(SAMPLES_DIRECTORY, "test-php-inserted-into-img.gif").toPath());
+        int imageStart = 13 + 3 * (2 << (original[10] & 0x07));
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(original, 0, imageStart);
+        content.write(extension(0xFF, "NETSCAPE2.0", "\u0001\u0005\u0000"));
+        content.write(extension(0xFE, "<?php echo 'comment'; ?>"));
+        content.write(extension(0xFF, "PHPINFO1.0", "<?php echo 'application'; ?>"));
+        content.write(original, imageStart, original.length - imageStart);
+        File sample = write("test-code.gif", content.toByteArray());
+        // Run test
+        File sanitized = sanitize(sample);
+        // Validate test
+        String sanitizedContent = new String(Files.readAllBytes(sanitized.toPath()), StandardCharsets.ISO_8859_1);
+        Assert.assertFalse(sanitizedContent.toLowerCase(Locale.US).contains("php"));
+        Assert.assertTrue(sanitizedContent.contains("NETSCAPE2.0\u0003\u0001\u0005\u0000\u0000"));
+        Assert.assertTrue(sanitizedContent.endsWith(";"));
+        BufferedImage expectedImage = ImageIO.read(new File(SAMPLES_DIRECTORY, "test-php-inserted-into-img.gif"));
+        BufferedImage sanitizedImage = ImageIO.read(sanitized);
+        Assert.assertNotNull(sanitizedImage);
+        int width = expectedImage.getWidth();
+        int height = expectedImage.getHeight();
+        Assert.assertArrayEquals(expectedImage.getRGB(0, 0, width, height, null, 0, width), sanitizedImage.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    /**
+     * Test case for contents that are not complete GIF images: They must be rejected.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testInvalidContents() throws Exception {
+        // Prepare test
+        byte[] original = Files.readAllBytes(new File(SAMPLES_DIRECTORY, "test-php-inserted-into-img.gif").toPath());
+        File[] samples = {write("test-truncated.gif", Arrays.copyOf(original, 1000)), new File(SAMPLES_DIRECTORY, "test-php-inserted-into-exif.jpg")};
+        for (File sample : samples) {
+            // Run test
+            boolean rejected = false;
+            try {
+                sanitize(sample);
+            } catch (IOException e) {
+                rejected = true;
+            }
+            // Validate test
+            Assert.assertTrue(sample.getName(), rejected);
+        }
+    }
+
+    /**
+     * Utility method to sanitize an image into a new file.
+     *
+     * @param sample Image to sanitize
+     * @return The sanitized image
+     * @throws IOException If the image cannot be sanitized
+     */
+    private static File sanitize(File sample) throws IOException {
+        File sanitized = new File(WORKING_DIRECTORY, "sanitized-" + sample.getName());
+        try (FileChannel in = FileChannel.open(sample.toPath(), StandardOpenOption.READ); FileChannel out = FileChannel.open(sanitized.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            GifBlockSanitizer.sanitize(in, out);
+        }
+        return sanitized;
+    }
+
+    /**
+     * Utility method to build a GIF extension.
+     *
+     * @param label     Label of the extension
+     * @param subBlocks Content of the sub-blocks (ISO-8859-1)
+     * @return The extension
+     */
+    private static byte[] extension(int label, String... subBlocks) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(0x21);
+        bos.write(label);
+        for (String subBlock : subBlocks) {
+            byte[] bytes = subBlock.getBytes(StandardCharsets.ISO_8859_1);
+            bos.write(bytes.length);
+            bos.write(bytes, 0, bytes.length);
+        }
+        bos.write(0);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Utility method to write a sample into the working directory.
+     *
+     * @param name    Name of the file
+     * @param content Content of the file
+     * @return The file
+     * @throws IOException If the file cannot be written
+     */
+    private static File write(String name, byte[] content) throws IOException {
+        File f = new File(WORKING_DIRECTORY, name);
+        Files.write(f.toPath(), content);
+        return f;
+    }
+}
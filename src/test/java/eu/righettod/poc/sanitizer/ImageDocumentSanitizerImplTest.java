@@ -11,16 +11,33 @@ import org.apache.commons.imaging.formats.gif.GifImageParser;
 import org.apache.commons.imaging.formats.jpeg.JpegImageParser;
 import org.apache.commons.imaging.formats.tiff.TiffImageParser;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 /**
  * Test cases for image sanitizer implementation.<br>
@@ -152,6 +169,482 @@ public class ImageDocumentSanitizerImplTest {
         Assert.assertEquals(ImageFormats.GIF.getName(),imageInfo.getFormat().getName());
     }
 
+    /**
+     * Test case for JPEG image containing code into one of his EXIF tags, sanitized in streaming mode.<br>
+     * Here program must successfully make it safe without changing the pixels.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testJpegWithCodeInEXIFTagInStreamingMode() throws Exception {
+        // Prepare test
+        ImageSanitizerSettings settings = new ImageSanitizerSettings();
+        settings.setMode(ImageSanitizerSettings.Mode.STREAMING);
+        DocumentSanitizer streamingVictim = new ImageDocumentSanitizerImpl(settings);
+        File sample = new File(SAMPLES_DIRECTORY, "test-php-inserted-into-exif.jpg");
+        File workingSample = new File(WORKING_DIRECTORY, "test-php-inserted-into-exif.tmp");
+        Files.copy(sample.toPath(), workingSample.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Assert.assertTrue(this.containsStringInEXIFTags(workingSample, "phpinfo()"));
+        // Run test
+        boolean safeState = streamingVictim.madeSafe(workingSample);
+        // Validate test
+        Assert.assertFalse(this.containsStringInEXIFTags(workingSample, "phpinfo()"));
+        Assert.assertTrue(safeState);
+        //Ensure that the final file is still a valid image in the original image format with the same pixels
+        ImageInfo imageInfo = Imaging.getImageInfo(workingSample);
+        BufferedImage originalImage = new JpegImageParser().getBufferedImage(Files.readAllBytes(sample.toPath()), new HashMap<>());
+        BufferedImage sanitizedImage = new JpegImageParser().getBufferedImage(Files.readAllBytes(workingSample.toPath()), new HashMap<>());
+        Assert.assertNotNull(imageInfo);
+        Assert.assertEquals(ImageFormats.JPEG.getName(), imageInfo.getFormat().getName());
+        Assert.assertArrayEquals(originalImage.getRGB(0, 0, originalImage.getWidth(), originalImage.getHeight(), null, 0, originalImage.getWidth()), sanitizedImage.getRGB(0, 0, sanitizedImage.getWidth(), sanitizedImage.getHeight(), null, 0, sanitizedImage.getWidth()));
+    }
+
+    /**
+     * Test case for GIF image containing code into one his content, sanitized in streaming mode for the GIF format only.<br>
+     * Here program must successfully make it safe.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testGifWithCodeInContentInStreamingMode() throws Exception {
+        // Prepare test
+        ImageSanitizerSettings settings = new ImageSanitizerSettings();
+        settings.setMode(ImageSanitizerSettings.FORMAT_GIF, ImageSanitizerSettings.Mode.STREAMING);
+        DocumentSanitizer streamingVictim = new ImageDocumentSanitizerImpl(settings);
+        File sample = new File(SAMPLES_DIRECTORY, "test-php-inserted-into-img.gif");
+        File workingSample = new File(WORKING_DIRECTORY, "test-php-inserted-into-img.tmp");
+        Files.copy(sample.toPath(), workingSample.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // Run test
+        boolean safeState = streamingVictim.madeSafe(workingSample);
+        // Validate test
+        String sampleContent = new String(Files.readAllBytes(workingSample.toPath())).toLowerCase(Locale.US);
+        Assert.assertFalse(sampleContent.contains("phpinfo()"));
+        Assert.assertTrue(safeState);
+        Assert.assertTrue(workingSample.length() < sample.length());
+        //Ensure that the final file is still a valid image in the original image format
+        ImageInfo imageInfo = Imaging.getImageInfo(workingSample);
+        Assert.assertNotNull(imageInfo);
+        Assert.assertEquals(ImageFormats.GIF.getName(), imageInfo.getFormat().getName());
+    }
+
+    /**
+     * Test case for PCX image, format not supported by the Java built-in API and without signature so identified by the file extension.<br>
+     * Here program must successfully make it safe with Apache Commons Imaging.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testPcxImageSupportedByApacheCommonsImagingOnly() throws Exception {
+        // Prepare test
+        int width = 64;
+        int height = 48;
+        // Single color because the PCX writer of Apache Commons Imaging use a palette by default
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, 0x3366CC);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        File workingSample = new File(WORKING_DIRECTORY, "test-pcx.pcx");
+        Imaging.writeImage(image, workingSample, ImageFormats.PCX, new HashMap<>());
+        // Run test
+        boolean safeState = this.victim.madeSafe(workingSample);
+        // Validate test
+        Assert.assertTrue(safeState);
+        ImageInfo imageInfo = Imaging.getImageInfo(workingSample);
+        Assert.assertNotNull(imageInfo);
+        Assert.assertEquals(ImageFormats.PCX.getName(), imageInfo.getFormat().getName());
+        Assert.assertEquals(width, imageInfo.getWidth());
+        Assert.assertEquals(height, imageInfo.getHeight());
+    }
+
+    /**
+     * Test case for a small PNG image declaring huge dimensions (decompression bomb).<br>
+     * Here program must reject it before decoding, with the pixel budget then with the heap check.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testDecompressionBomb() throws Exception {
+        // Prepare test
+        File workingSample = new File(WORKING_DIRECTORY, "test-decompression-bomb.tmp");
+        byte[] content = createPngHeaderOnly(50000, 50000);
+        Files.write(workingSample.toPath(), content);
+        ImageSanitizerSettings unlimitedSettings = new ImageSanitizerSettings();
+        unlimitedSettings.setMaxPixels(Long.MAX_VALUE);
+        ImageDocumentSanitizerImpl budgetVictim = new ImageDocumentSanitizerImpl();
+        ImageDocumentSanitizerImpl heapVictim = new ImageDocumentSanitizerImpl(unlimitedSettings);
+        // Run test
+        boolean budgetSafeState = budgetVictim.madeSafe(workingSample);
+        boolean heapSafeState = heapVictim.madeSafe(workingSample);
+        // Validate test
+        Assert.assertFalse(budgetSafeState);
+        Assert.assertFalse(heapSafeState);
+        Assert.assertEquals(1, budgetVictim.getRejectedCount());
+        Assert.assertEquals(1, heapVictim.getRejectedCount());
+        Assert.assertArrayEquals(content, Files.readAllBytes(workingSample.toPath()));
+    }
+
+    /**
+     * Test case for GIF image over the pixel budget defined in the settings.<br>
+     * Here program must reject it before decoding and let the file untouched.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testImageOverPixelBudget() throws Exception {
+        // Prepare test
+        ImageSanitizerSettings settings = new ImageSanitizerSettings();
+        settings.setMaxPixels(100);
+        ImageDocumentSanitizerImpl budgetVictim = new ImageDocumentSanitizerImpl(settings);
+        File sample = new File(SAMPLES_DIRECTORY, "test-php-inserted-into-img.gif");
+        File workingSample = new File(WORKING_DIRECTORY, "test-php-inserted-into-img.tmp");
+        Files.copy(sample.toPath(), workingSample.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // Run test
+        boolean safeState = budgetVictim.madeSafe(workingSample);
+        // Validate test
+        Assert.assertFalse(safeState);
+        Assert.assertEquals(1, budgetVictim.getRejectedCount());
+        Assert.assertArrayEquals(Files.readAllBytes(sample.toPath()), Files.readAllBytes(workingSample.toPath()));
+    }
+
+    /**
+     * Test case for PNG, BMP and TIFF images sanitized in tiled mode with small tiles.<br>
+     * Here program must successfully make it safe with the same pixels than the rewrite.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testTiledModeSameResultThanRewrite() throws Exception {
+        // Prepare test
+        int width = 157;
+        int height = 91;
+        BufferedImage image = ImageResamplerTest.createRandomImage(width, height);
+        ImageSanitizerSettings settings = new ImageSanitizerSettings();
+        settings.setMode(ImageSanitizerSettings.Mode.TILED);
+        settings.setTilePixels(width * 8);
+        DocumentSanitizer tiledVictim = new ImageDocumentSanitizerImpl(settings);
+        for (String format : new String[]{"png", "bmp", "tiff"}) {
+            // TIFF images are only read and written by the Java image API since Java 9
+            if ("tiff".equals(format) && !ImageDocumentSanitizerImpl.isTiffSupported()) {
+                continue;
+            }
+            File rewrittenSample = new File(WORKING_DIRECTORY, "test-rewritten-" + format + ".tmp");
+            File tiledSample = new File(WORKING_DIRECTORY, "test-tiled-" + format + ".tmp");
+            ImageIO.write(image, format, rewrittenSample);
+            ImageIO.write(image, format, tiledSample);
+            // Run test
+            boolean rewrittenSafeState = this.victim.madeSafe(rewrittenSample);
+            boolean tiledSafeState = tiledVictim.madeSafe(tiledSample);
+            // Validate test
+            Assert.assertTrue(format, rewrittenSafeState);
+            Assert.assertTrue(format, tiledSafeState);
+            BufferedImage rewrittenImage = ImageIO.read(rewrittenSample);
+            BufferedImage tiledImage = ImageIO.read(tiledSample);
+            Assert.assertEquals(format, width, tiledImage.getWidth());
+            Assert.assertEquals(format, height, tiledImage.getHeight());
+            Assert.assertArrayEquals(format, rewrittenImage.getRGB(0, 0, width, height, null, 0, width), tiledImage.getRGB(0, 0, width, height, null, 0, width));
+            Assert.assertFalse(format, Arrays.equals(image.getRGB(0, 0, width, height, null, 0, width), tiledImage.getRGB(0, 0, width, height, null, 0, width)));
+        }
+    }
+
+    /**
+     * Test case for several images rewritten by the same thread.<br>
+     * Here program must successfully make them safe, the pixels buffers of the first image must be reused for the second one without
+     * changing the result.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testPooledBuffersReused() throws Exception {
+        // Prepare test
+        int width = 320;
+        int height = 240;
+        BufferedImage image = ImageResamplerTest.createRandomImage(width, height);
+        File firstSample = new File(WORKING_DIRECTORY, "test-pooled-first.tmp");
+        File secondSample = new File(WORKING_DIRECTORY, "test-pooled-second.tmp");
+        File unpooledSample = new File(WORKING_DIRECTORY, "test-pooled-disabled.tmp");
+        ImageIO.write(image, "png", firstSample);
+        ImageIO.write(image, "png", secondSample);
+        ImageIO.write(image, "png", unpooledSample);
+        ImageDocumentSanitizerImpl pooledVictim = new ImageDocumentSanitizerImpl();
+        ImageSanitizerSettings settings = new ImageSanitizerSettings();
+        settings.setPoolMaxBytes(0);
+        ImageDocumentSanitizerImpl unpooledVictim = new ImageDocumentSanitizerImpl(settings);
+        // Run test
+        boolean firstSafeState = pooledVictim.madeSafe(firstSample);
+        long allocatedAfterFirst = pooledVictim.getAllocatedBufferCount();
+        boolean secondSafeState = pooledVictim.madeSafe(secondSample);
+        boolean unpooledSafeState = unpooledVictim.madeSafe(unpooledSample);
+        // Validate test
+        Assert.assertTrue(firstSafeState);
+        Assert.assertTrue(secondSafeState);
+        Assert.assertTrue(unpooledSafeState);
+        Assert.assertEquals(allocatedAfterFirst, pooledVictim.getAllocatedBufferCount());
+        Assert.assertEquals(allocatedAfterFirst, pooledVictim.getReusedBufferCount());
+        Assert.assertEquals(0, unpooledVictim.getReusedBufferCount());
+        int[] firstPixels = ImageIO.read(firstSample).getRGB(0, 0, width, height, null, 0, width);
+        Assert.assertArrayEquals(firstPixels, ImageIO.read(secondSample).getRGB(0, 0, width, height, null, 0, width));
+        Assert.assertArrayEquals(firstPixels, ImageIO.read(unpooledSample).getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    /**
+     * Test case for an animated GIF image containing code into a comment, sanitized in multi-frame mode.<br>
+     * Here program must successfully make it safe by keeping all the frames with their position and delay, and the loop count.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testAnimatedGifInMultiFrameMode() throws Exception {
+        // Prepare test
+        ImageSanitizerSettings settings = new ImageSanitizerSettings();
+        settings.setMode(ImageSanitizerSettings.FORMAT_GIF, ImageSanitizerSettings.Mode.MULTI_FRAME);
+        settings.setFrameWindow(2);
+        DocumentSanitizer multiFrameVictim = new ImageDocumentSanitizerImpl(settings);
+        File workingSample = new File(WORKING_DIRECTORY, "test-animated-gif.tmp");
+        createGifAnimation(workingSample, "<?php phpinfo(); ?>");
+        Assert.assertTrue(new String(Files.readAllBytes(workingSample.toPath()), StandardCharsets.ISO_8859_1).contains("phpinfo()"));
+        // Run test
+        boolean safeState = multiFrameVictim.madeSafe(workingSample);
+        // Validate test
+        Assert.assertTrue(safeState);
+        Assert.assertFalse(new String(Files.readAllBytes(workingSample.toPath()), StandardCharsets.ISO_8859_1).contains("phpinfo()"));
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        try (ImageInputStream iis = ImageIO.createImageInputStream(workingSample)) {
+            reader.setInput(iis);
+            Assert.assertEquals(5, reader.getNumImages(true));
+            IIOMetadataNode screen = (IIOMetadataNode) ((IIOMetadataNode) reader.getStreamMetadata().getAsTree("javax_imageio_gif_stream_1.0")).getElementsByTagName("LogicalScreenDescriptor").item(0);
+            Assert.assertEquals("80", screen.getAttribute("logicalScreenWidth"));
+            Assert.assertEquals("40", screen.getAttribute("logicalScreenHeight"));
+            for (int i = 0; i < 5; i++) {
+                IIOMetadataNode frameMetadata = (IIOMetadataNode) reader.getImageMetadata(i).getAsTree("javax_imageio_gif_image_1.0");
+                IIOMetadataNode descriptor = (IIOMetadataNode) frameMetadata.getElementsByTagName("ImageDescriptor").item(0);
+                IIOMetadataNode control = (IIOMetadataNode) frameMetadata.getElementsByTagName("GraphicControlExtension").item(0);
+                Assert.assertEquals(String.valueOf(30 + i * 5), descriptor.getAttribute("imageWidth"));
+                Assert.assertEquals(String.valueOf(i * 2), descriptor.getAttribute("imageLeftPosition"));
+                Assert.assertEquals(String.valueOf(10 + i), control.getAttribute("delayTime"));
+                Assert.assertEquals(0, frameMetadata.getElementsByTagName("CommentExtension").getLength());
+                Assert.assertEquals(i == 0 ? 1 : 0, frameMetadata.getElementsByTagName("ApplicationExtension").getLength());
+            }
+            IIOMetadataNode loop = (IIOMetadataNode) ((IIOMetadataNode) reader.getImageMetadata(0).getAsTree("javax_imageio_gif_image_1.0")).getElementsByTagName("ApplicationExtension").item(0);
+            Assert.assertArrayEquals(new byte[]{1, 3, 0}, (byte[]) loop.getUserObject());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Test case for an animated GIF image with a delta frame (only the changed pixels are opaque, the others pixels are transparent to show
+     * the previous frame), sanitized in multi-frame mode.<br>
+     * Here program must successfully make it safe by keeping the transparent pixels of the delta frame transparent.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testDeltaFrameTransparencyInMultiFrameMode() throws Exception {
+        // Prepare test
+        ImageSanitizerSettings settings = new ImageSanitizerSettings();
+        settings.setMode(ImageSanitizerSettings.FORMAT_GIF, ImageSanitizerSettings.Mode.MULTI_FRAME);
+        DocumentSanitizer multiFrameVictim = new ImageDocumentSanitizerImpl(settings);
+        File workingSample = new File(WORKING_DIRECTORY, "test-animated-gif-delta.tmp");
+        BufferedImage deltaFrame = new BufferedImage(60, 40, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 10; y < 30; y++) {
+            for (int x = 20; x < 40; x++) {
+                deltaFrame.setRGB(x, y, 0xFF0000FF);
+            }
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(workingSample)) {
+            writer.setOutput(ios);
+            writer.prepareWriteSequence(null);
+            for (BufferedImage frame : new BufferedImage[]{ImageResamplerTest.createRandomImage(60, 40), deltaFrame}) {
+                IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(frame), null);
+                IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree("javax_imageio_gif_image_1.0");
+                ((IIOMetadataNode) root.getElementsByTagName("GraphicControlExtension").item(0)).setAttribute("disposalMethod", "doNotDispose");
+                metadata.setFromTree("javax_imageio_gif_image_1.0", root);
+                writer.writeToSequence(new IIOImage(frame, null, metadata), null);
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+        // Run test
+        boolean safeState = multiFrameVictim.madeSafe(workingSample);
+        // Validate test
+        Assert.assertTrue(safeState);
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        try (ImageInputStream iis = ImageIO.createImageInputStream(workingSample)) {
+            reader.setInput(iis);
+            Assert.assertEquals(2, reader.getNumImages(true));
+            for (int i = 0; i < 2; i++) {
+                IIOMetadataNode control = (IIOMetadataNode) ((IIOMetadataNode) reader.getImageMetadata(i).getAsTree("javax_imageio_gif_image_1.0")).getElementsByTagName("GraphicControlExtension").item(0);
+                Assert.assertEquals("doNotDispose", control.getAttribute("disposalMethod"));
+                Assert.assertEquals(i == 0 ? "FALSE" : "TRUE", control.getAttribute("transparentColorFlag"));
+            }
+            BufferedImage firstFrame = reader.read(0);
+            BufferedImage secondFrame = reader.read(1);
+            Assert.assertEquals(0xFF, firstFrame.getRGB(0, 0) >>> 24);
+            Assert.assertEquals(0, secondFrame.getRGB(0, 0) >>> 24);
+            Assert.assertEquals(0, secondFrame.getRGB(59, 39) >>> 24);
+            Assert.assertEquals(0, secondFrame.getRGB(10, 20) >>> 24);
+            Assert.assertEquals(0xFF, secondFrame.getRGB(30, 20) >>> 24);
+            Assert.assertTrue(Integer.toHexString(secondFrame.getRGB(30, 20)), (secondFrame.getRGB(30, 20) & 0xFF) > 0xC0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Test case for the pixels buffers of the frames of a multi-page TIFF image with pages big enough to be pooled, sanitized in multi-frame
+     * mode.<br>
+     * Here the frames tasks must not take their buffers from the resource pool, their threads terminate when idle.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testFrameBuffersNotPooledInMultiFrameMode() throws Exception {
+        // Prepare test
+        Assume.assumeTrue("No TIFF reader or writer in the Java image API", ImageDocumentSanitizerImpl.isTiffSupported());
+        ImageSanitizerSettings settings = new ImageSanitizerSettings();
+        settings.setMode(ImageSanitizerSettings.FORMAT_TIFF, ImageSanitizerSettings.Mode.MULTI_FRAME);
+        settings.setFrameThreads(2);
+        ImageDocumentSanitizerImpl multiFrameVictim = new ImageDocumentSanitizerImpl(settings);
+        File workingSample = new File(WORKING_DIRECTORY, "test-multi-page-tiff-pooled.tmp");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(workingSample)) {
+            writer.setOutput(ios);
+            writer.prepareWriteSequence(null);
+            for (int i = 0; i < 3; i++) {
+                writer.writeToSequence(new IIOImage(ImageResamplerTest.createRandomImage(300, 300), null, null), null);
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+        // Run test
+        boolean safeState;
+        try {
+            safeState = multiFrameVictim.madeSafe(workingSample);
+        } finally {
+            multiFrameVictim.close();
+        }
+        // Validate test
+        Assert.assertTrue(safeState);
+        Assert.assertEquals(0, multiFrameVictim.getAllocatedBufferCount());
+        Assert.assertEquals(0, multiFrameVictim.getReusedBufferCount());
+    }
+
+    /**
+     * Test case for an animated GIF image sanitized in multi-frame mode once the sanitizer is closed.<br>
+     * Here program must refuse to make it safe because the pool of the frames is shut down, the original file being left untouched.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testClosedSanitizerInMultiFrameMode() throws Exception {
+        // Prepare test
+        ImageSanitizerSettings settings = new ImageSanitizerSettings();
+        settings.setMode(ImageSanitizerSettings.FORMAT_GIF, ImageSanitizerSettings.Mode.MULTI_FRAME);
+        ImageDocumentSanitizerImpl multiFrameVictim = new ImageDocumentSanitizerImpl(settings);
+        File workingSample = new File(WORKING_DIRECTORY, "test-animated-gif-closed.tmp");
+        createGifAnimation(workingSample, "<?php phpinfo(); ?>");
+        byte[] original = Files.readAllBytes(workingSample.toPath());
+        multiFrameVictim.close();
+        // Run test
+        boolean safeState = multiFrameVictim.madeSafe(workingSample);
+        // Validate test
+        Assert.assertFalse(safeState);
+        Assert.assertArrayEquals(original, Files.readAllBytes(workingSample.toPath()));
+    }
+
+    /**
+     * Test case for a multi-page TIFF image sanitized in multi-frame mode.<br>
+     * Here program must successfully make it safe by keeping all the pages, each page with the same pixels than the rewrite of the page alone.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testMultiPageTiffInMultiFrameMode() throws Exception {
+        // Prepare test
+        Assume.assumeTrue("No TIFF reader or writer in the Java image API", ImageDocumentSanitizerImpl.isTiffSupported());
+        ImageSanitizerSettings settings = new ImageSanitizerSettings();
+        settings.setMode(ImageSanitizerSettings.FORMAT_TIFF, ImageSanitizerSettings.Mode.MULTI_FRAME);
+        settings.setFrameWindow(2);
+        settings.setFrameThreads(2);
+        DocumentSanitizer multiFrameVictim = new ImageDocumentSanitizerImpl(settings);
+        BufferedImage[] pages = {ImageResamplerTest.createRandomImage(120, 80), ImageResamplerTest.createRandomImage(64, 97), ImageResamplerTest.createRandomImage(33, 21)};
+        File workingSample = new File(WORKING_DIRECTORY, "test-multi-page-tiff.tmp");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(workingSample)) {
+            writer.setOutput(ios);
+            writer.prepareWriteSequence(null);
+            for (BufferedImage page : pages) {
+                writer.writeToSequence(new IIOImage(page, null, null), null);
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+        // Run test
+        boolean safeState = multiFrameVictim.madeSafe(workingSample);
+        // Validate test
+        Assert.assertTrue(safeState);
+        ImageReader reader = ImageIO.getImageReadersByFormatName("tiff").next();
+        try (ImageInputStream iis = ImageIO.createImageInputStream(workingSample)) {
+            reader.setInput(iis);
+            Assert.assertEquals(pages.length, reader.getNumImages(true));
+            for (int i = 0; i < pages.length; i++) {
+                int width = pages[i].getWidth();
+                int height = pages[i].getHeight();
+                File pageSample = new File(WORKING_DIRECTORY, "test-multi-page-tiff-" + i + ".tmp");
+                ImageIO.write(pages[i], "tiff", pageSample);
+                Assert.assertTrue(this.victim.madeSafe(pageSample));
+                BufferedImage sanitizedPage = reader.read(i);
+                Assert.assertEquals(width, sanitizedPage.getWidth());
+                Assert.assertEquals(height, sanitizedPage.getHeight());
+                Assert.assertArrayEquals(ImageIO.read(pageSample).getRGB(0, 0, width, height, null, 0, width), sanitizedPage.getRGB(0, 0, width, height, null, 0, width));
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Test case for an image followed by data bigger than the sanitized image, opened by a reader before the sanitizing.<br>
+     * Here program must successfully make it safe by publishing a new file: No data of the original file is left after the sanitized image,
+     * the reader keep reading the original file and no sibling file is left.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testSanitizedImagePublishedAtomically() throws Exception {
+        // Prepare test
+        int width = 64;
+        int height = 48;
+        File workingSample = new File(WORKING_DIRECTORY, "test-atomic-publication.tmp");
+        ImageIO.write(ImageResamplerTest.createRandomImage(width, height), "png", workingSample);
+        byte[] trailingData = new byte[512 * 1024];
+        Arrays.fill(trailingData, (byte) 'X');
+        Files.write(workingSample.toPath(), trailingData, StandardOpenOption.APPEND);
+        byte[] original = Files.readAllBytes(workingSample.toPath());
+        ImageSanitizerSettings settings = new ImageSanitizerSettings();
+        settings.setSyncPolicy(ImageSanitizerSettings.SyncPolicy.ALWAYS);
+        DocumentSanitizer syncedVictim = new ImageDocumentSanitizerImpl(settings);
+        try (FileChannel earlyReader = FileChannel.open(workingSample.toPath(), StandardOpenOption.READ)) {
+            // Run test
+            boolean safeState = syncedVictim.madeSafe(workingSample);
+            // Validate test
+            Assert.assertTrue(safeState);
+            ByteBuffer earlyContent = ByteBuffer.allocate(original.length);
+            while (earlyContent.hasRemaining() && earlyReader.read(earlyContent) > 0) {
+                // Read until the end of the file opened before the sanitizing
+            }
+            Assert.assertArrayEquals(original, earlyContent.array());
+        }
+        Assert.assertTrue(workingSample.length() < trailingData.length);
+        Assert.assertEquals(width, ImageIO.read(workingSample).getWidth());
+        File[] siblings = WORKING_DIRECTORY.listFiles((dir, name) -> name.startsWith("sanitized-"));
+        Assert.assertEquals(0, siblings.length);
+    }
+
     /**
      * Utility method to search a string into all the EXIF tags of an image file.
      *
@@ -175,4 +668,93 @@ public class ImageDocumentSanitizerImplTest {
         }
         return isFound;
     }
+
+    /**
+     * Utility method to create an animated GIF image of 5 frames, of increasing width and delay, looping 3 times, with a comment in each
+     * frame.
+     *
+     * @param image   Image file created
+     * @param comment Comment
+     * @throws Exception If any error occurs
+     */
+    private static void createGifAnimation(File image, String comment) throws Exception {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(image)) {
+            writer.setOutput(ios);
+            IIOMetadata streamMetadata = writer.getDefaultStreamMetadata(null);
+            IIOMetadataNode streamRoot = (IIOMetadataNode) streamMetadata.getAsTree("javax_imageio_gif_stream_1.0");
+            IIOMetadataNode screen = (IIOMetadataNode) streamRoot.getElementsByTagName("LogicalScreenDescriptor").item(0);
+            screen.setAttribute("logicalScreenWidth", "80");
+            screen.setAttribute("logicalScreenHeight", "40");
+            screen.setAttribute("colorResolution", "8");
+            streamMetadata.setFromTree("javax_imageio_gif_stream_1.0", streamRoot);
+            writer.prepareWriteSequence(streamMetadata);
+            for (int i = 0; i < 5; i++) {
+                BufferedImage frame = ImageResamplerTest.createRandomImage(30 + i * 5, 40);
+                IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(frame), null);
+                IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree("javax_imageio_gif_image_1.0");
+                ((IIOMetadataNode) root.getElementsByTagName("ImageDescriptor").item(0)).setAttribute("imageLeftPosition", String.valueOf(i * 2));
+                ((IIOMetadataNode) root.getElementsByTagName("GraphicControlExtension").item(0)).setAttribute("delayTime", String.valueOf(10 + i));
+                IIOMetadataNode comments = new IIOMetadataNode("CommentExtensions");
+                IIOMetadataNode commentExtension = new IIOMetadataNode("CommentExtension");
+                commentExtension.setAttribute("value", comment);
+                comments.appendChild(commentExtension);
+                root.appendChild(comments);
+                if (i == 0) {
+                    IIOMetadataNode applications = new IIOMetadataNode("ApplicationExtensions");
+                    IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+                    loop.setAttribute("applicationID", "NETSCAPE");
+                    loop.setAttribute("authenticationCode", "2.0");
+                    loop.setUserObject(new byte[]{1, 3, 0});
+                    applications.appendChild(loop);
+                    root.appendChild(applications);
+                }
+                metadata.setFromTree("javax_imageio_gif_image_1.0", root);
+                writer.writeToSequence(new IIOImage(frame, null, metadata), null);
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Utility method to create a PNG image declaring dimensions in its header but containing only one row of pixels.
+     *
+     * @param width  Width declared
+     * @param height Height declared
+     * @return The PNG image
+     */
+    private static byte[] createPngHeaderOnly(int width, int height) {
+        ByteBuffer header = ByteBuffer.allocate(13);
+        // RGB, 8 bits by channel
+        header.putInt(width).putInt(height).put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+        Deflater deflater = new Deflater();
+        deflater.setInput(new byte[1 + 3 * width]);
+        deflater.finish();
+        byte[] compressed = new byte[1024];
+        int compressedLength = deflater.deflate(compressed);
+        deflater.end();
+        ByteBuffer png = ByteBuffer.allocate(8 + 25 + 12 + compressedLength + 12);
+        png.put(new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A});
+        putChunk(png, "IHDR", header.array());
+        putChunk(png, "IDAT", Arrays.copyOf(compressed, compressedLength));
+        putChunk(png, "IEND", new byte[0]);
+        return png.array();
+    }
+
+    /**
+     * Utility method to write a PNG chunk.
+     *
+     * @param png  Buffer receiving the chunk
+     * @param type Type of the chunk
+     * @param data Data of the chunk
+     */
+    private static void putChunk(ByteBuffer png, String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        png.putInt(data.length).put(typeBytes).put(data).putInt((int) crc.getValue());
+    }
 }
@@ -0,0 +1,109 @@
+package eu.righettod.poc.sanitizer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the "shrink 1px then restore" re-sampling of the sanitizer: AWT area averaging filter ({@link Image#SCALE_SMOOTH}) used
+ * before the re-sampling engine against the {@link ImageResampler}.<br>
+ * Timings are only reported in the log, the dimensions of the results are validated.
+ */
+public class ImageResamplerBenchmarkTest {
+
+    /**
+     * LOGGER
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ImageResamplerBenchmarkTest.class);
+
+    /**
+     * Width of the image used for the benchmark
+     */
+    private static final int WIDTH = 2000;
+
+    /**
+     * Height of the image used for the benchmark
+     */
+    private static final int HEIGHT = 1500;
+
+    /**
+     * Count of runs not measured, to let the JIT compile the code paths
+     */
+    private static final int WARMUP_RUNS = 1;
+
+    /**
+     * Count of runs measured
+     */
+    private static final int MEASURED_RUNS = 3;
+
+    /**
+     * Benchmark case for a 3 megapixels image.
+     */
+    @Test
+    public void testResamplingSpeedup() {
+        // Prepare test
+        BufferedImage image = ImageResamplerTest.createRandomImage(WIDTH, HEIGHT);
+        ImageResampler resampler = new ImageResampler(ForkJoinPool.commonPool());
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            resampleWithAreaAveragingFilter(image);
+            resampleWithEngine(resampler, image);
+        }
+        // Run test
+        long filterNanos = 0;
+        long engineNanos = 0;
+        BufferedImage filterResult = null;
+        BufferedImage engineResult = null;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long start = System.nanoTime();
+            filterResult = resampleWithAreaAveragingFilter(image);
+            filterNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            engineResult = resampleWithEngine(resampler, image);
+            engineNanos += System.nanoTime() - start;
+        }
+        // Validate test
+        Assert.assertEquals(filterResult.getWidth(), engineResult.getWidth());
+        Assert.assertEquals(filterResult.getHeight(), engineResult.getHeight());
+        LOG.info("{}x{} image on {} worker(s): area averaging filter {} ms/run, re-sampling engine {} ms/run, speedup x{}", WIDTH, HEIGHT, ForkJoinPool.commonPool().getParallelism(), TimeUnit.NANOSECONDS.toMillis(filterNanos / MEASURED_RUNS), TimeUnit.NANOSECONDS.toMillis(engineNanos / MEASURED_RUNS), String.format("%.1f", (double) filterNanos / Math.max(1, engineNanos)));
+    }
+
+    /**
+     * Re-sampling performed before the re-sampling engine.
+     *
+     * @param image Source image
+     * @return The re-sampled image
+     */
+    private static BufferedImage resampleWithAreaAveragingFilter(BufferedImage image) {
+        Image resizedImage = image.getScaledInstance(WIDTH - 1, HEIGHT - 1, Image.SCALE_SMOOTH);
+        Image initialSizedImage = resizedImage.getScaledInstance(WIDTH, HEIGHT, Image.SCALE_SMOOTH);
+        BufferedImage result = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics bg = result.getGraphics();
+        bg.drawImage(initialSizedImage, 0, 0, null);
+        bg.dispose();
+        return result;
+    }
+
+    /**
+     * Re-sampling performed by the sanitizer with the re-sampling engine.
+     *
+     * @param resampler Re-sampling engine
+     * @param image     Source image
+     * @return The re-sampled image
+     */
+    private static BufferedImage resampleWithEngine(ImageResampler resampler, BufferedImage image) {
+        int[] resizedPixels = resampler.resample(image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH), WIDTH, HEIGHT, WIDTH - 1, HEIGHT - 1);
+        int[] initialSizedPixels = resampler.resample(resizedPixels, WIDTH - 1, HEIGHT - 1, WIDTH, HEIGHT);
+        BufferedImage result = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        int[] resultPixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        System.arraycopy(initialSizedPixels, 0, resultPixels, 0, resultPixels.length);
+        return result;
+    }
+}
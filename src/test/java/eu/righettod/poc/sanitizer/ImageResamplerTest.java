@@ -0,0 +1,194 @@
+package eu.righettod.poc.sanitizer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test cases for the re-sampling engine.
+ */
+public class ImageResamplerTest {
+
+    /**
+     * Tested class instance
+     */
+    private ImageResampler victim = new ImageResampler(ForkJoinPool.commonPool());
+
+    /**
+     * Test case for the "shrink 1px then restore" re-sampling of the sanitizer: The result must be the same than the one of the AWT area
+     * averaging filter, with a tolerance of 1 for the rounding.
+     */
+    @Test
+    public void testSameResultThanAreaAveragingFilter() {
+        // Prepare test
+        int width = 301;
+        int height = 157;
+        BufferedImage image = createRandomImage(width, height);
+        Image resizedImage = image.getScaledInstance(width - 1, height - 1, Image.SCALE_SMOOTH).getScaledInstance(width, height, Image.SCALE_SMOOTH);
+        BufferedImage expectedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics bg = expectedImage.getGraphics();
+        bg.drawImage(resizedImage, 0, 0, null);
+        bg.dispose();
+        // Run test
+        int[] shrunk = this.victim.resample(image.getRGB(0, 0, width, height, null, 0, width), width, height, width - 1, height - 1);
+        int[] restored = this.victim.resample(shrunk, width - 1, height - 1, width, height);
+        // Validate test
+        Assert.assertEquals(width * height, restored.length);
+        for (int i = 0; i < restored.length; i++) {
+            int expected = expectedImage.getRGB(i % width, i / width);
+            Assert.assertEquals(0xFF, restored[i] >>> 24);
+            for (int shift = 0; shift < 24; shift += 8) {
+                Assert.assertTrue("Pixel " + i, Math.abs(((expected >> shift) & 0xFF) - ((restored[i] >> shift) & 0xFF)) <= 1);
+            }
+        }
+    }
+
+    /**
+     * Test case for an image of a single color: The color must be kept and the transparent pixels must become black.
+     */
+    @Test
+    public void testUniformColors() {
+        // Prepare test
+        int[] opaque = new int[40 * 30];
+        int[] transparent = new int[40 * 30];
+        Arrays.fill(opaque, 0xFF3366CC);
+        Arrays.fill(transparent, 0x003366CC);
+        // Run test
+        int[] opaqueResult = this.victim.resample(opaque, 40, 30, 17, 200);
+        int[] transparentResult = this.victim.resample(transparent, 40, 30, 39, 29);
+        // Validate test
+        for (int pixel : opaqueResult) {
+            Assert.assertEquals(0xFF3366CC, pixel);
+        }
+        for (int pixel : transparentResult) {
+            Assert.assertEquals(0xFF000000, pixel);
+        }
+    }
+
+    /**
+     * Test case for the re-sampling by bands of rows, from the source rows covered only: The result must be the same than the re-sampling of
+     * the whole image.
+     */
+    @Test
+    public void testBandsSameResultThanWholeImage() {
+        // Prepare test
+        int width = 123;
+        int height = 97;
+        int[] source = createRandomImage(width, height).getRGB(0, 0, width, height, null, 0, width);
+        int[] expected = this.victim.resample(source, width, height, width + 5, height - 20);
+        int[] bands = new int[expected.length];
+        // Run test
+        for (int fromRow = 0; fromRow < height - 20; fromRow += 7) {
+            int toRow = Math.min(height - 20, fromRow + 7);
+            int[] sourceRows = ImageResampler.sourceRows(height, height - 20, fromRow, toRow);
+            int[] bandSource = Arrays.copyOfRange(source, sourceRows[0] * width, sourceRows[1] * width);
+            int[] band = this.victim.resampleRows(bandSource, width, height, sourceRows[0], width + 5, height - 20, fromRow, toRow);
+            System.arraycopy(band, 0, bands, fromRow * (width + 5), band.length);
+        }
+        // Validate test
+        Assert.assertArrayEquals(expected, bands);
+    }
+
+    /**
+     * Test case for a band of rows whose covered source rows are not all provided: It must be rejected.
+     */
+    @Test
+    public void testBandNotCovered() {
+        // Prepare test
+        int[] sourceRows = ImageResampler.sourceRows(100, 99, 10, 20);
+        int[] bandSource = new int[10 * (sourceRows[1] - sourceRows[0] - 1)];
+        // Run test
+        boolean rejected = false;
+        try {
+            this.victim.resampleRows(bandSource, 10, 100, sourceRows[0], 10, 99, 10, 20);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        // Validate test
+        Assert.assertTrue(rejected);
+    }
+
+    /**
+     * Test case for the re-sampling into a destination array provided by the caller, source and destination arrays bigger than the images:
+     * The result must be the same than the re-sampling into a new array and the pixels after the image must not be modified.
+     */
+    @Test
+    public void testDestinationBiggerThanImage() {
+        // Prepare test
+        int width = 64;
+        int height = 48;
+        int[] pixels = createRandomImage(width, height).getRGB(0, 0, width, height, null, 0, width);
+        int[] source = Arrays.copyOf(pixels, pixels.length + 100);
+        int[] destination = new int[(width - 1) * (height - 1) + 100];
+        Arrays.fill(destination, 0x12345678);
+        // Run test
+        int[] expected = this.victim.resample(pixels, width, height, width - 1, height - 1);
+        this.victim.resample(source, width, height, destination, width - 1, height - 1);
+        // Validate test
+        Assert.assertArrayEquals(expected, Arrays.copyOf(destination, expected.length));
+        for (int i = expected.length; i < destination.length; i++) {
+            Assert.assertEquals(0x12345678, destination[i]);
+        }
+    }
+
+    /**
+     * Test case for a destination array smaller than the destination image: It must be rejected.
+     */
+    @Test
+    public void testDestinationTooSmall() {
+        // Prepare test
+        int[] source = new int[10 * 10];
+        // Run test
+        boolean rejected = false;
+        try {
+            this.victim.resample(source, 10, 10, new int[9 * 9 - 1], 9, 9);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        // Validate test
+        Assert.assertTrue(rejected);
+    }
+
+    /**
+     * Test case for invalid dimensions: They must be rejected.
+     */
+    @Test
+    public void testInvalidDimensions() {
+        int[][] dimensions = {{1, 1, 0, 1}, {1, 1, 1, 0}, {2, 1, 1, 1}};
+        for (int[] dimension : dimensions) {
+            // Run test
+            boolean rejected = false;
+            try {
+                this.victim.resample(new int[1], dimension[0], dimension[1], dimension[2], dimension[3]);
+            } catch (IllegalArgumentException e) {
+                rejected = true;
+            }
+            // Validate test
+            Assert.assertTrue(rejected);
+        }
+    }
+
+    /**
+     * Utility method to create an image with random opaque pixels.
+     *
+     * @param width  Width of the image
+     * @param height Height of the image
+     * @return The image
+     */
+    static BufferedImage createRandomImage(int width, int height) {
+        Random random = new Random(width * 31L + height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+}
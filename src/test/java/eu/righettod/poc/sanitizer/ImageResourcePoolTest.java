@@ -0,0 +1,152 @@
+package eu.righettod.poc.sanitizer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageWriterSpi;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test cases for the per-thread pool of the resources of the image sanitizer.
+ */
+public class ImageResourcePoolTest {
+
+    /**
+     * Test case for buffers of a same size class: A buffer released must be reused for a count of pixels of the same size class.
+     */
+    @Test
+    public void testBufferReusedBySizeClass() {
+        // Prepare test
+        ImageResourcePool victim = new ImageResourcePool(Long.MAX_VALUE);
+        int[] first = victim.acquireBuffer(100_000);
+        victim.releaseBuffer(first);
+        // Run test
+        int[] second = victim.acquireBuffer(114_688);
+        int[] third = victim.acquireBuffer(70_000);
+        // Validate test
+        Assert.assertEquals(114_688, first.length);
+        Assert.assertEquals(81_920, third.length);
+        Assert.assertSame(first, second);
+        Assert.assertNotSame(first, third);
+        Assert.assertEquals(1, victim.getReusedCount());
+        Assert.assertEquals(2, victim.getAllocatedCount());
+        Assert.assertEquals(0, victim.getRetainedBytes());
+    }
+
+    /**
+     * Test case for the size classes: The buffer acquired must be at most 25% bigger than the count of pixels needed and its length must be
+     * a size class.
+     */
+    @Test
+    public void testSizeClassesOverhead() {
+        // Prepare test
+        ImageResourcePool victim = new ImageResourcePool(0);
+        for (long length = ImageResourcePool.MIN_POOLED_LENGTH; length <= 1 << 30; length += length / 1000 + 1) {
+            // Run test
+            long pooledLength = ImageResourcePool.pooledLength(length);
+            // Validate test
+            Assert.assertTrue(String.valueOf(length), pooledLength >= length);
+            Assert.assertTrue(String.valueOf(length), pooledLength <= length + length / ImageResourcePool.SIZE_CLASSES_BY_POWER_OF_TWO);
+            Assert.assertEquals(pooledLength, ImageResourcePool.pooledLength(pooledLength));
+        }
+        Assert.assertEquals(ImageResourcePool.pooledLength(300_000), victim.acquireBuffer(300_000).length);
+        Assert.assertEquals(ImageResourcePool.MIN_POOLED_LENGTH - 1, ImageResourcePool.pooledLength(ImageResourcePool.MIN_POOLED_LENGTH - 1));
+        Assert.assertEquals(1L << 31, ImageResourcePool.pooledLength(1L << 31));
+    }
+
+    /**
+     * Test case for buffers smaller than the minimum pooled: They must be allocated with the exact count of pixels and never pooled.
+     */
+    @Test
+    public void testSmallBufferNotPooled() {
+        // Prepare test
+        ImageResourcePool victim = new ImageResourcePool(Long.MAX_VALUE);
+        int[] first = victim.acquireBuffer(ImageResourcePool.MIN_POOLED_LENGTH - 1);
+        victim.releaseBuffer(first);
+        // Run test
+        int[] second = victim.acquireBuffer(ImageResourcePool.MIN_POOLED_LENGTH - 1);
+        // Validate test
+        Assert.assertEquals(ImageResourcePool.MIN_POOLED_LENGTH - 1, second.length);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(0, victim.getRetainedBytes());
+        Assert.assertEquals(0, victim.getAllocatedCount());
+    }
+
+    /**
+     * Test case for the limit of retained memory: A buffer released while the limit is reached must not be retained.
+     */
+    @Test
+    public void testRetainedMemoryLimit() {
+        // Prepare test
+        int length = ImageResourcePool.MIN_POOLED_LENGTH;
+        ImageResourcePool victim = new ImageResourcePool(4L * length);
+        int[] first = victim.acquireBuffer(length);
+        int[] second = victim.acquireBuffer(length);
+        // Run test
+        victim.releaseBuffer(first);
+        victim.releaseBuffer(second);
+        // Validate test
+        Assert.assertEquals(4L * length, victim.getRetainedBytes());
+        Assert.assertSame(first, victim.acquireBuffer(length));
+        Assert.assertNotSame(second, victim.acquireBuffer(length));
+        Assert.assertEquals(0, victim.getRetainedBytes());
+    }
+
+    /**
+     * Test case for a pool with a limit of zero: No buffer must be retained.
+     */
+    @Test
+    public void testPoolingDisabled() {
+        // Prepare test
+        ImageResourcePool victim = new ImageResourcePool(0);
+        int[] first = victim.acquireBuffer(ImageResourcePool.MIN_POOLED_LENGTH);
+        // Run test
+        victim.releaseBuffer(first);
+        // Validate test
+        Assert.assertNotSame(first, victim.acquireBuffer(ImageResourcePool.MIN_POOLED_LENGTH));
+        Assert.assertEquals(0, victim.getRetainedBytes());
+        Assert.assertEquals(0, victim.getReusedCount());
+    }
+
+    /**
+     * Test case for readers and writers: A reader/writer released must be reused by the same thread only.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testReaderAndWriterReusedByThread() throws Exception {
+        // Prepare test
+        ImageResourcePool victim = new ImageResourcePool(Long.MAX_VALUE);
+        ImageReaderSpi readerSpi = ImageIO.getImageReadersByFormatName("png").next().getOriginatingProvider();
+        ImageWriterSpi writerSpi = ImageIO.getImageWritersByFormatName("png").next().getOriginatingProvider();
+        ImageReader reader = victim.acquireReader(readerSpi);
+        ImageWriter writer = victim.acquireWriter(writerSpi);
+        victim.releaseReader(reader);
+        victim.releaseWriter(writer);
+        // Run test
+        AtomicReference<ImageReader> otherThreadReader = new AtomicReference<>();
+        Thread otherThread = new Thread(() -> {
+            try {
+                otherThreadReader.set(victim.acquireReader(readerSpi));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        otherThread.start();
+        otherThread.join();
+        ImageReader sameThreadReader = victim.acquireReader(readerSpi);
+        ImageWriter sameThreadWriter = victim.acquireWriter(writerSpi);
+        ImageReader secondReader = victim.acquireReader(readerSpi);
+        // Validate test
+        Assert.assertSame(reader, sameThreadReader);
+        Assert.assertSame(writer, sameThreadWriter);
+        Assert.assertNotNull(otherThreadReader.get());
+        Assert.assertNotSame(reader, otherThreadReader.get());
+        Assert.assertNotSame(reader, secondReader);
+        Assert.assertNull(sameThreadReader.getInput());
+    }
+}
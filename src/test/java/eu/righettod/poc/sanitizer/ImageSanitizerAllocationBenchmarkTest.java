@@ -0,0 +1,135 @@
+package eu.righettod.poc.sanitizer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Benchmark of the memory allocated by the rewrite of the images by the sanitizer: Pooling of the pixels buffers, readers and writers
+ * disabled against enabled.<br>
+ * Allocated bytes are measured on the current thread (HotSpot specific), the counts of garbage collections on all the JVM. They are only
+ * reported in the log, the reuse of the buffers is validated.
+ */
+public class ImageSanitizerAllocationBenchmarkTest {
+
+    /**
+     * LOGGER
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ImageSanitizerAllocationBenchmarkTest.class);
+
+    /**
+     * Working directory
+     */
+    private static final File WORKING_DIRECTORY = new File("target/work");
+
+    /**
+     * Width of the image used for the benchmark
+     */
+    private static final int WIDTH = 1200;
+
+    /**
+     * Height of the image used for the benchmark
+     */
+    private static final int HEIGHT = 900;
+
+    /**
+     * Count of runs not measured, to let the JIT compile the code paths and fill the pool
+     */
+    private static final int WARMUP_RUNS = 2;
+
+    /**
+     * Count of runs measured
+     */
+    private static final int MEASURED_RUNS = 5;
+
+    /**
+     * Benchmark case for a 1 megapixel image in the formats written by the rewrite.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testAllocationReduction() throws Exception {
+        // Prepare test
+        WORKING_DIRECTORY.mkdirs();
+        BufferedImage image = ImageResamplerTest.createRandomImage(WIDTH, HEIGHT);
+        ImageSanitizerSettings unpooledSettings = new ImageSanitizerSettings();
+        unpooledSettings.setPoolMaxBytes(0);
+        for (String format : new String[]{"png", "bmp"}) {
+            File original = new File(WORKING_DIRECTORY, "test-allocation-original." + format);
+            ImageIO.write(image, format, original);
+            ImageDocumentSanitizerImpl unpooledVictim = new ImageDocumentSanitizerImpl(unpooledSettings);
+            ImageDocumentSanitizerImpl pooledVictim = new ImageDocumentSanitizerImpl();
+            // Run test
+            long[] unpooled = measure(unpooledVictim, original, format);
+            long[] pooled = measure(pooledVictim, original, format);
+            // Validate test
+            Assert.assertEquals(0, unpooledVictim.getReusedBufferCount());
+            Assert.assertEquals(3L * (WARMUP_RUNS + MEASURED_RUNS - 1), pooledVictim.getReusedBufferCount());
+            LOG.info("{} {}x{} image: pooling disabled {} KB/run ({} GC), pooling enabled {} KB/run ({} GC), reduction x{}", format, WIDTH, HEIGHT, unpooled[0] / MEASURED_RUNS / 1024, unpooled[1], pooled[0] / MEASURED_RUNS / 1024, pooled[1], String.format("%.1f", (double) unpooled[0] / Math.max(1, pooled[0])));
+        }
+    }
+
+    /**
+     * Sanitize a copy of an image several times.
+     *
+     * @param victim   Sanitizer
+     * @param original Original image
+     * @param format   Format of the image
+     * @return The bytes allocated by the current thread then the count of garbage collections, during the runs measured
+     * @throws Exception If any error occurs
+     */
+    private static long[] measure(ImageDocumentSanitizerImpl victim, File original, String format) throws Exception {
+        File workingSample = new File(WORKING_DIRECTORY, "test-allocation-working." + format);
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            sanitizeCopy(victim, original, workingSample);
+        }
+        long allocatedBytes = 0;
+        long collections = collectionCount();
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long before = threadAllocatedBytes();
+            sanitizeCopy(victim, original, workingSample);
+            allocatedBytes += threadAllocatedBytes() - before;
+        }
+        return new long[]{allocatedBytes, collectionCount() - collections};
+    }
+
+    /**
+     * Sanitize a copy of an image.
+     *
+     * @param victim        Sanitizer
+     * @param original      Original image
+     * @param workingSample Copy sanitized
+     * @throws Exception If any error occurs
+     */
+    private static void sanitizeCopy(ImageDocumentSanitizerImpl victim, File original, File workingSample) throws Exception {
+        Files.copy(original.toPath(), workingSample.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Assert.assertTrue(victim.madeSafe(workingSample));
+    }
+
+    /**
+     * @return The bytes allocated by the current thread since its start
+     */
+    private static long threadAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return The count of garbage collections of all the collectors since the start of the JVM
+     */
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+}
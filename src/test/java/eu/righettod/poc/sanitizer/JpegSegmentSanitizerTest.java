@@ -0,0 +1,198 @@
+package eu.righettod.poc.sanitizer;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Test cases for the lossless sanitizing of the JPEG images.
+ */
+public class JpegSegmentSanitizerTest {
+
+    /**
+     * Home directory of the Images samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources/image");
+
+    /**
+     * Working directory
+     */
+    private static final File WORKING_DIRECTORY = new File("target/work/jpeg");
+
+    /**
+     * Initialize workspace before a test case execution
+     */
+    @Before
+    public void initTest() {
+        WORKING_DIRECTORY.mkdirs();
+    }
+
+    /**
+     * Test case for a JPEG image containing code into one of his EXIF tags, a comment and after the end of image: The code must be removed and
+     * the pixels must be the same.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testCodeRemovedAndPixelsKept() throws Exception {
+        // Prepare test
+        byte[] original = Files.readAllBytes(new File(SAMPLES_DIRECTORY, "test-php-inserted-into-exif.jpg").toPath());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(original, 0, 2);
+        content.write(segment(0xFE, "<?php echo 'comment'; ?>".getBytes(StandardCharsets.US_ASCII)));
+        content.write(original, 2, original.length - 2);
+        content.write("<?php echo 'trailer'; ?>".getBytes(StandardCharsets.US_ASCII));
+        File sample = write("test-code.jpg", content.toByteArray());
+        // Run test
+        File sanitized = sanitize(sample, true);
+        // Validate test
+        String sanitizedContent = new String(Files.readAllBytes(sanitized.toPath()), StandardCharsets.ISO_8859_1).toLowerCase(Locale.US);
+        Assert.assertFalse(sanitizedContent.contains("php"));
+        Assert.assertFalse(sanitizedContent.contains("exif"));
+        Assert.assertTrue(sanitizedContent.contains("jfif"));
+        BufferedImage expectedImage = ImageIO.read(new File(SAMPLES_DIRECTORY, "test-php-inserted-into-exif.jpg"));
+        BufferedImage sanitizedImage = ImageIO.read(sanitized);
+        Assert.assertNotNull(sanitizedImage);
+        Assert.assertEquals(expectedImage.getWidth(), sanitizedImage.getWidth());
+        Assert.assertEquals(expectedImage.getHeight(), sanitizedImage.getHeight());
+        Assert.assertArrayEquals(expectedImage.getRGB(0, 0, expectedImage.getWidth(), expectedImage.getHeight(), null, 0, expectedImage.getWidth()), sanitizedImage.getRGB(0, 0, sanitizedImage.getWidth(), sanitizedImage.getHeight(), null, 0, sanitizedImage.getWidth()));
+    }
+
+    /**
+     * Test case for the ICC profile: It must be kept only when requested, others APP2 segments are always dropped.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testIccProfile() throws Exception {
+        // Prepare test
+        byte[] original = Files.readAllBytes(new File(SAMPLES_DIRECTORY, "test-php-inserted-into-exif.jpg").toPath());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(original, 0, 2);
+        content.write(segment(0xE2, "ICC_PROFILE\0\1\1profile".getBytes(StandardCharsets.US_ASCII)));
+        content.write(segment(0xE2, "FPXR\0other".getBytes(StandardCharsets.US_ASCII)));
+        content.write(original, 2, original.length - 2);
+        File sample = write("test-icc.jpg", content.toByteArray());
+        // Run test
+        String keptContent = new String(Files.readAllBytes(sanitize(sample, true).toPath()), StandardCharsets.ISO_8859_1);
+        String droppedContent = new String(Files.readAllBytes(sanitize(sample, false).toPath()), StandardCharsets.ISO_8859_1);
+        // Validate test
+        Assert.assertTrue(keptContent.contains("ICC_PROFILE\0\1\1profile"));
+        Assert.assertFalse(keptContent.contains("FPXR"));
+        Assert.assertFalse(droppedContent.contains("ICC_PROFILE"));
+        Assert.assertFalse(droppedContent.contains("FPXR"));
+    }
+
+    /**
+     * Test case for contents that are not complete JPEG images: They must be rejected.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testInvalidContents() throws Exception {
+        // Prepare test
+        byte[] original = Files.readAllBytes(new File(SAMPLES_DIRECTORY, "test-php-inserted-into-exif.jpg").toPath());
+        File[] samples = {write("test-truncated.jpg", Arrays.copyOf(original, original.length - 100)), write("test-not-jpeg.jpg", Files.readAllBytes(new File(SAMPLES_DIRECTORY, "test-php-inserted-into-img.gif").toPath()))};
+        for (File sample : samples) {
+            // Run test
+            boolean rejected = false;
+            try {
+                sanitize(sample, true);
+            } catch (IOException e) {
+                rejected = true;
+            }
+            // Validate test
+            Assert.assertTrue(sample.getName(), rejected);
+        }
+    }
+
+    /**
+     * Test case for code inserted into segments with a reserved marker or the JPG marker, placed before the frame: They must be rejected,
+     * only the markers of the frame, tables and scans segments are copied.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testReservedMarkers() throws Exception {
+        // Prepare test
+        byte[] original = Files.readAllBytes(new File(SAMPLES_DIRECTORY, "test-php-inserted-into-exif.jpg").toPath());
+        byte[] code = "<?php system($_GET[c]); ?>".getBytes(StandardCharsets.US_ASCII);
+        for (int marker : new int[]{0x02, 0x50, 0xBF, 0xC8}) {
+            byte[] reservedSegment = segment(marker, code);
+            byte[] content = new byte[original.length + reservedSegment.length];
+            // Segment inserted just after the start of image marker
+            System.arraycopy(original, 0, content, 0, 2);
+            System.arraycopy(reservedSegment, 0, content, 2, reservedSegment.length);
+            System.arraycopy(original, 2, content, 2 + reservedSegment.length, original.length - 2);
+            File sample = write("test-reserved-marker-" + Integer.toHexString(marker) + ".jpg", content);
+            // Run test
+            boolean rejected = false;
+            try {
+                sanitize(sample, true);
+            } catch (IOException e) {
+                rejected = true;
+            }
+            // Validate test
+            Assert.assertTrue(sample.getName(), rejected);
+        }
+    }
+
+    /**
+     * Utility method to sanitize an image into a new file.
+     *
+     * @param sample         Image to sanitize
+     * @param keepIccProfile Flag to keep the ICC profile
+     * @return The sanitized image
+     * @throws IOException If the image cannot be sanitized
+     */
+    private static File sanitize(File sample, boolean keepIccProfile) throws IOException {
+        File sanitized = new File(WORKING_DIRECTORY, "sanitized-" + sample.getName());
+        try (FileChannel in = FileChannel.open(sample.toPath(), StandardOpenOption.READ); FileChannel out = FileChannel.open(sanitized.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            JpegSegmentSanitizer.sanitize(in, out, keepIccProfile);
+        }
+        return sanitized;
+    }
+
+    /**
+     * Utility method to build a JPEG segment.
+     *
+     * @param marker  Marker of the segment
+     * @param payload Payload of the segment
+     * @return The segment
+     */
+    private static byte[] segment(int marker, byte[] payload) {
+        byte[] segment = new byte[payload.length + 4];
+        segment[0] = (byte) 0xFF;
+        segment[1] = (byte) marker;
+        segment[2] = (byte) ((payload.length + 2) >> 8);
+        segment[3] = (byte) (payload.length + 2);
+        System.arraycopy(payload, 0, segment, 4, payload.length);
+        return segment;
+    }
+
+    /**
+     * Utility method to write a sample into the working directory.
+     *
+     * @param name    Name of the file
+     * @param content Content of the file
+     * @return The file
+     * @throws IOException If the file cannot be written
+     */
+    private static File write(String name, byte[] content) throws IOException {
+        File f = new File(WORKING_DIRECTORY, name);
+        Files.write(f.toPath(), content);
+        return f;
+    }
+}
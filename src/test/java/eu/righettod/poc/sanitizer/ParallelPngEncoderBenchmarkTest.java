@@ -0,0 +1,109 @@
+package eu.righettod.poc.sanitizer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the encoding of the PNG images rewritten by the sanitizer: Image writer of the Java built-in API against the
+ * {@link ParallelPngEncoder}.<br>
+ * Timings and sizes are only reported in the log, the pixels of the results are validated.
+ */
+public class ParallelPngEncoderBenchmarkTest {
+
+    /**
+     * LOGGER
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelPngEncoderBenchmarkTest.class);
+
+    /**
+     * Width of the image used for the benchmark
+     */
+    private static final int WIDTH = 2560;
+
+    /**
+     * Height of the image used for the benchmark
+     */
+    private static final int HEIGHT = 1440;
+
+    /**
+     * Count of runs not measured, to let the JIT compile the code paths
+     */
+    private static final int WARMUP_RUNS = 1;
+
+    /**
+     * Count of runs measured
+     */
+    private static final int MEASURED_RUNS = 3;
+
+    /**
+     * Benchmark case for an image looking like a screenshot (flat areas, gradients and a noisy area).
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testEncodingSpeedup() throws Exception {
+        // Prepare test
+        BufferedImage image = createScreenshotLikeImage();
+        int[] pixels = image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        ParallelPngEncoder encoder = new ParallelPngEncoder(ForkJoinPool.commonPool(), 6, ImageSanitizerSettings.PngCompressionStrategy.DEFAULT, ParallelPngEncoder.DEFAULT_BLOCK_BYTES);
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            ImageIO.write(image, "png", new ByteArrayOutputStream());
+            encoder.write(pixels, WIDTH, HEIGHT, new ByteArrayOutputStream());
+        }
+        // Run test
+        long writerNanos = 0;
+        long encoderNanos = 0;
+        ByteArrayOutputStream writerResult = null;
+        ByteArrayOutputStream encoderResult = null;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            writerResult = new ByteArrayOutputStream();
+            long start = System.nanoTime();
+            ImageIO.write(image, "png", writerResult);
+            writerNanos += System.nanoTime() - start;
+            encoderResult = new ByteArrayOutputStream();
+            start = System.nanoTime();
+            encoder.write(pixels, WIDTH, HEIGHT, encoderResult);
+            encoderNanos += System.nanoTime() - start;
+        }
+        // Validate test
+        Assert.assertArrayEquals(pixels, ImageIO.read(new ByteArrayInputStream(encoderResult.toByteArray())).getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH));
+        LOG.info("{}x{} image on {} worker(s): image writer {} ms/run ({} KB), parallel encoder {} ms/run ({} KB), speedup x{}", WIDTH, HEIGHT, ForkJoinPool.commonPool().getParallelism(), TimeUnit.NANOSECONDS.toMillis(writerNanos / MEASURED_RUNS), writerResult.size() / 1024, TimeUnit.NANOSECONDS.toMillis(encoderNanos / MEASURED_RUNS), encoderResult.size() / 1024, String.format("%.1f", (double) writerNanos / Math.max(1, encoderNanos)));
+    }
+
+    /**
+     * Utility method to create an image looking like a screenshot.
+     *
+     * @return The image
+     */
+    private static BufferedImage createScreenshotLikeImage() {
+        Random random = new Random(WIDTH * 31L + HEIGHT);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int pixel;
+                if (x < WIDTH / 4) {
+                    // Side panel: Flat color with text-like lines
+                    pixel = ((y % 20) < 12 && (x * 7 + y * 3) % 11 < 4) ? 0x202020 : 0xF0F0F0;
+                } else if (y < HEIGHT / 2) {
+                    // Gradient
+                    pixel = ((x * 255 / WIDTH) << 16) | ((y * 255 / HEIGHT) << 8) | 0x80;
+                } else {
+                    // Photo-like noisy area
+                    pixel = ((x / 8 + y / 8) % 256) * 0x010101 + random.nextInt(8);
+                }
+                image.setRGB(x, y, pixel);
+            }
+        }
+        return image;
+    }
+}
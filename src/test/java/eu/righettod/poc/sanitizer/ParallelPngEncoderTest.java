@@ -0,0 +1,188 @@
+package eu.righettod.poc.sanitizer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.Inflater;
+
+/**
+ * Test cases for the PNG encoder compressing the image data in parallel.
+ */
+public class ParallelPngEncoderTest {
+
+    /**
+     * Test case for images of several dimensions split in several blocks, with all the compression levels and strategies: The image must be
+     * decoded with the same pixels and its image data must be a valid zlib stream.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testSamePixelsForAllLevelsAndStrategies() throws Exception {
+        int[][] dimensions = {{1, 1}, {7, 3}, {301, 157}, {5000, 2}};
+        for (int[] dimension : dimensions) {
+            for (int level = 0; level <= 9; level++) {
+                for (ImageSanitizerSettings.PngCompressionStrategy strategy : ImageSanitizerSettings.PngCompressionStrategy.values()) {
+                    // Prepare test
+                    int width = dimension[0];
+                    int height = dimension[1];
+                    int[] pixels = ImageResamplerTest.createRandomImage(width, height).getRGB(0, 0, width, height, null, 0, width);
+                    // Small blocks so the dictionary cross several blocks
+                    ParallelPngEncoder victim = new ParallelPngEncoder(ForkJoinPool.commonPool(), level, strategy, 1000);
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    // Run test
+                    victim.write(pixels, width, height, out);
+                    // Validate test
+                    String description = width + "x" + height + " level " + level + " " + strategy;
+                    BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+                    Assert.assertEquals(description, width, decoded.getWidth());
+                    Assert.assertEquals(description, height, decoded.getHeight());
+                    Assert.assertArrayEquals(description, pixels, decoded.getRGB(0, 0, width, height, null, 0, width));
+                    Assert.assertEquals(description, height * (1 + 3 * width), inflateImageData(out.toByteArray()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test case for an image with a content easy to compress: The image compressed in parallel must be close to the image compressed by the
+     * image writer of the Java built-in API.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testCompressionRatioKept() throws Exception {
+        // Prepare test
+        int width = 800;
+        int height = 600;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, ((x / 40) * 0x0C0000) | ((y / 30) * 0x000C00) | ((x + y) % 7));
+            }
+        }
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", expected);
+        ParallelPngEncoder victim = new ParallelPngEncoder(ForkJoinPool.commonPool(), 6, ImageSanitizerSettings.PngCompressionStrategy.DEFAULT, ParallelPngEncoder.DEFAULT_BLOCK_BYTES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Run test
+        victim.write(pixels, width, height, out);
+        // Validate test
+        Assert.assertArrayEquals(pixels, ImageIO.read(new ByteArrayInputStream(out.toByteArray())).getRGB(0, 0, width, height, null, 0, width));
+        Assert.assertTrue(out.size() + " bytes against " + expected.size(), out.size() < expected.size() * 1.2);
+    }
+
+    /**
+     * Test case for the combination of the Adler-32 checksums: The result must be the checksum of the whole sequence.
+     */
+    @Test
+    public void testCombineAdler32() {
+        // Prepare test
+        byte[] data = new byte[200_000];
+        new Random(42).nextBytes(data);
+        Adler32 expected = new Adler32();
+        expected.update(data, 0, data.length);
+        int[] splits = {0, 1, 5551, 65521, 100_000, 199_999, 200_000};
+        for (int split : splits) {
+            Adler32 first = new Adler32();
+            first.update(data, 0, split);
+            Adler32 second = new Adler32();
+            second.update(data, split, data.length - split);
+            // Run test
+            long combined = ParallelPngEncoder.combineAdler32(first.getValue(), second.getValue(), data.length - split);
+            // Validate test
+            Assert.assertEquals("Split " + split, expected.getValue(), combined);
+        }
+    }
+
+    /**
+     * Test case for invalid settings and dimensions: They must be rejected.
+     */
+    @Test
+    public void testInvalidParameters() {
+        boolean levelRejected = false;
+        boolean dimensionsRejected = false;
+        // Run test
+        try {
+            new ParallelPngEncoder(ForkJoinPool.commonPool(), 10, ImageSanitizerSettings.PngCompressionStrategy.DEFAULT, ParallelPngEncoder.DEFAULT_BLOCK_BYTES);
+        } catch (IllegalArgumentException e) {
+            levelRejected = true;
+        }
+        try {
+            new ParallelPngEncoder(ForkJoinPool.commonPool(), 6, ImageSanitizerSettings.PngCompressionStrategy.DEFAULT, ParallelPngEncoder.DEFAULT_BLOCK_BYTES).write(new int[10], 4, 3, new ByteArrayOutputStream());
+        } catch (Exception e) {
+            dimensionsRejected = true;
+        }
+        // Validate test
+        Assert.assertTrue(levelRejected);
+        Assert.assertTrue(dimensionsRejected);
+    }
+
+    /**
+     * Test case for a pixels array bigger than the image: The image must be encoded without modifying the array.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testPixelsNotModified() throws Exception {
+        // Prepare test
+        int[] pixels = ImageResamplerTest.createRandomImage(50, 40).getRGB(0, 0, 50, 40, null, 0, 50);
+        int[] copy = Arrays.copyOf(pixels, pixels.length + 10);
+        int[] expected = copy.clone();
+        // Run test
+        new ParallelPngEncoder(ForkJoinPool.commonPool(), 6, ImageSanitizerSettings.PngCompressionStrategy.DEFAULT, 500).write(copy, 50, 40, new ByteArrayOutputStream());
+        // Validate test
+        Assert.assertArrayEquals(expected, copy);
+    }
+
+    /**
+     * Utility method to inflate the image data of a PNG image, the zlib checksum being verified by the inflater.
+     *
+     * @param png PNG image
+     * @return The count of bytes inflated
+     * @throws Exception If the image data are not a valid zlib stream
+     */
+    private static int inflateImageData(byte[] png) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(png);
+        buffer.position(8);
+        ByteArrayOutputStream imageData = new ByteArrayOutputStream();
+        while (buffer.remaining() >= 12) {
+            int length = buffer.getInt();
+            byte[] type = new byte[4];
+            buffer.get(type);
+            byte[] data = new byte[length];
+            buffer.get(data);
+            buffer.getInt();
+            if ("IDAT".equals(new String(type, StandardCharsets.US_ASCII))) {
+                imageData.write(data);
+            }
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(imageData.toByteArray());
+            byte[] inflated = new byte[64 * 1024];
+            int total = 0;
+            while (!inflater.finished()) {
+                int count = inflater.inflate(inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated image data !");
+                }
+                total += count;
+            }
+            Assert.assertEquals(0, inflater.getRemaining());
+            return total;
+        } finally {
+            inflater.end();
+        }
+    }
+}
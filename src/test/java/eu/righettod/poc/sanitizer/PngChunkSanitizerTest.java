@@ -0,0 +1,188 @@
+package eu.righettod.poc.sanitizer;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Test cases for the lossless sanitizing of the PNG images.
+ */
+public class PngChunkSanitizerTest {
+
+    /**
+     * Home directory of the Images samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources/image");
+
+    /**
+     * Working directory
+     */
+    private static final File WORKING_DIRECTORY = new File("target/work/png");
+
+    /**
+     * Initialize workspace before a test case execution
+     */
+    @Before
+    public void initTest() {
+        WORKING_DIRECTORY.mkdirs();
+    }
+
+    /**
+     * Test case for a PNG image containing code into a text chunk, a private chunk and after the IEND chunk: The code must be removed and the
+     * pixels must be the same.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testCodeRemovedAndPixelsKept() throws Exception {
+        // Prepare test
+        BufferedImage image = ImageResamplerTest.createRandomImage(40, 30);
+        byte[] original = encode(image);
+        File sample = write("test-code.png", insertAfterHeader(original, chunk("tEXt", "Comment\0<?php phpinfo(); ?>"), chunk("prIv", "<?php phpinfo(); ?>"), chunk("gAMA", "\0\0±\u008f")), "<?php phpinfo(); ?>".getBytes(StandardCharsets.US_ASCII));
+        // Run test
+        File sanitized = sanitize(sample, true);
+        // Validate test
+        String sanitizedContent = new String(Files.readAllBytes(sanitized.toPath()), StandardCharsets.ISO_8859_1);
+        Assert.assertFalse(sanitizedContent.contains("php"));
+        Assert.assertTrue(sanitizedContent.contains("gAMA"));
+        Assert.assertTrue(sanitizedContent.endsWith("IEND" + new String(Arrays.copyOfRange(original, original.length - 4, original.length), StandardCharsets.ISO_8859_1)));
+        BufferedImage sanitizedImage = ImageIO.read(sanitized);
+        Assert.assertNotNull(sanitizedImage);
+        Assert.assertArrayEquals(image.getRGB(0, 0, 40, 30, null, 0, 40), sanitizedImage.getRGB(0, 0, 40, 30, null, 0, 40));
+    }
+
+    /**
+     * Test case for the optional chunks: They must be dropped when not requested.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testOptionalChunksDropped() throws Exception {
+        // Prepare test
+        byte[] original = encode(ImageResamplerTest.createRandomImage(10, 10));
+        File sample = write("test-optional.png", insertAfterHeader(original, chunk("gAMA", "\0\0±\u008f"), chunk("tRNS", "\0\1\0\2\0\3")), new byte[0]);
+        // Run test
+        String sanitizedContent = new String(Files.readAllBytes(sanitize(sample, false).toPath()), StandardCharsets.ISO_8859_1);
+        // Validate test
+        Assert.assertFalse(sanitizedContent.contains("gAMA"));
+        Assert.assertFalse(sanitizedContent.contains("tRNS"));
+        Assert.assertTrue(sanitizedContent.contains("IDAT"));
+    }
+
+    /**
+     * Test case for contents that are not complete PNG images: They must be rejected.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testInvalidContents() throws Exception {
+        // Prepare test
+        byte[] original = encode(ImageResamplerTest.createRandomImage(10, 10));
+        File[] samples = {write("test-truncated.png", Arrays.copyOf(original, original.length - 10), new byte[0]), write("test-critical.png", insertAfterHeader(original, chunk("CrIt", "data")), new byte[0]), new File(SAMPLES_DIRECTORY, "test-exe-renamed-as-img.png")};
+        for (File sample : samples) {
+            // Run test
+            boolean rejected = false;
+            try {
+                sanitize(sample, true);
+            } catch (IOException e) {
+                rejected = true;
+            }
+            // Validate test
+            Assert.assertTrue(sample.getName(), rejected);
+        }
+    }
+
+    /**
+     * Utility method to sanitize an image into a new file.
+     *
+     * @param sample                   Image to sanitize
+     * @param keepTransparencyAndGamma Flag to keep the tRNS and gAMA chunks
+     * @return The sanitized image
+     * @throws IOException If the image cannot be sanitized
+     */
+    private static File sanitize(File sample, boolean keepTransparencyAndGamma) throws IOException {
+        File sanitized = new File(WORKING_DIRECTORY, "sanitized-" + sample.getName());
+        try (FileChannel in = FileChannel.open(sample.toPath(), StandardOpenOption.READ); FileChannel out = FileChannel.open(sanitized.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            PngChunkSanitizer.sanitize(in, out, keepTransparencyAndGamma, true);
+        }
+        return sanitized;
+    }
+
+    /**
+     * Utility method to encode an image in PNG format.
+     *
+     * @param image Image
+     * @return The PNG image
+     * @throws IOException If the image cannot be encoded
+     */
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bos);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Utility method to insert chunks after the IHDR chunk of a PNG image.
+     *
+     * @param png    PNG image
+     * @param chunks Chunks to insert
+     * @return The PNG image with the chunks
+     * @throws IOException If any error occurs
+     */
+    private static byte[] insertAfterHeader(byte[] png, byte[]... chunks) throws IOException {
+        // Signature (8) + IHDR chunk (12 + 13)
+        int headerEnd = 33;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(png, 0, headerEnd);
+        for (byte[] chunk : chunks) {
+            bos.write(chunk);
+        }
+        bos.write(png, headerEnd, png.length - headerEnd);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Utility method to build a PNG chunk.
+     *
+     * @param type Type of the chunk
+     * @param data Data of the chunk (ISO-8859-1)
+     * @return The chunk
+     */
+    private static byte[] chunk(String type, String data) {
+        byte[] typeAndData = (type + data).getBytes(StandardCharsets.ISO_8859_1);
+        CRC32 crc = new CRC32();
+        crc.update(typeAndData);
+        ByteBuffer chunk = ByteBuffer.allocate(typeAndData.length + 8);
+        chunk.putInt(typeAndData.length - 4).put(typeAndData).putInt((int) crc.getValue());
+        return chunk.array();
+    }
+
+    /**
+     * Utility method to write a sample into the working directory.
+     *
+     * @param name    Name of the file
+     * @param content Content of the file
+     * @param trailer Data appended to the content
+     * @return The file
+     * @throws IOException If the file cannot be written
+     */
+    private static File write(String name, byte[] content, byte[] trailer) throws IOException {
+        File f = new File(WORKING_DIRECTORY, name);
+        Files.write(f.toPath(), content);
+        Files.write(f.toPath(), trailer, StandardOpenOption.APPEND);
+        return f;
+    }
+}
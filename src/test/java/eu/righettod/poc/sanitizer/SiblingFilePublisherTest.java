@@ -0,0 +1,132 @@
+package eu.righettod.poc.sanitizer;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Test cases for the publication of the sanitized images.
+ */
+public class SiblingFilePublisherTest {
+
+    /**
+     * Working directory
+     */
+    private static final File WORKING_DIRECTORY = new File("target/work/publication");
+
+    /**
+     * Initialize workspace before a test case execution
+     */
+    @Before
+    public void initTest() {
+        WORKING_DIRECTORY.mkdirs();
+    }
+
+    /**
+     * Test case for the publications with each sync policy: The sibling files must replace the original files and be forced according to
+     * the policy.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testSyncPolicies() throws Exception {
+        // Prepare test
+        SiblingFilePublisher noneVictim = new SiblingFilePublisher(ImageSanitizerSettings.SyncPolicy.NONE, 3);
+        SiblingFilePublisher alwaysVictim = new SiblingFilePublisher(ImageSanitizerSettings.SyncPolicy.ALWAYS, 3);
+        SiblingFilePublisher batchVictim = new SiblingFilePublisher(ImageSanitizerSettings.SyncPolicy.BATCH, 3);
+        // Run test
+        for (int i = 0; i < 2; i++) {
+            publish(noneVictim, "none-" + i);
+            publish(alwaysVictim, "always-" + i);
+            publish(batchVictim, "batch-" + i);
+        }
+        int unsyncedBeforeBatchEnd = batchVictim.getUnsyncedCount();
+        long syncedBeforeBatchEnd = batchVictim.getSyncCount();
+        publish(batchVictim, "batch-2");
+        // Validate test
+        Assert.assertEquals(0, noneVictim.getSyncCount());
+        Assert.assertTrue(alwaysVictim.getSyncCount() >= 2);
+        Assert.assertEquals(2, unsyncedBeforeBatchEnd);
+        Assert.assertEquals(0, syncedBeforeBatchEnd);
+        Assert.assertEquals(0, batchVictim.getUnsyncedCount());
+        Assert.assertTrue(batchVictim.getSyncCount() >= 3);
+    }
+
+    /**
+     * Test case for a batch containing an image which cannot be forced (replaced by a directory after its publication): The publication
+     * completing the batch must succeed and the others images of the batch must be forced.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testBatchWithImageNotForced() throws Exception {
+        // Prepare test
+        SiblingFilePublisher victim = new SiblingFilePublisher(ImageSanitizerSettings.SyncPolicy.BATCH, 3);
+        publish(victim, "batch-not-forced-0");
+        publish(victim, "batch-not-forced-1");
+        Path notForced = new File(WORKING_DIRECTORY, "batch-not-forced-0.tmp").toPath();
+        Files.delete(notForced);
+        Files.createDirectory(notForced);
+        // Run test
+        try {
+            publish(victim, "batch-not-forced-2");
+        } finally {
+            Files.delete(notForced);
+        }
+        // Validate test
+        Assert.assertEquals(0, victim.getUnsyncedCount());
+        Assert.assertTrue(victim.getSyncCount() >= 2);
+    }
+
+    /**
+     * Test case for a sibling file which cannot be moved: The sibling file must be deleted and the original file left untouched.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testSiblingDeletedWhenNotMoved() throws Exception {
+        // Prepare test
+        SiblingFilePublisher victim = new SiblingFilePublisher(ImageSanitizerSettings.SyncPolicy.ALWAYS, 1);
+        File original = new File(WORKING_DIRECTORY, "not-moved.tmp");
+        Files.write(original.toPath(), "original".getBytes(StandardCharsets.UTF_8));
+        Path sibling = victim.createSibling(original);
+        File target = new File(new File(WORKING_DIRECTORY, "missing-directory"), "not-moved.tmp");
+        boolean moveFailed = false;
+        // Run test
+        try {
+            victim.publish(sibling, target);
+        } catch (IOException e) {
+            moveFailed = true;
+        }
+        // Validate test
+        Assert.assertTrue(moveFailed);
+        Assert.assertFalse(Files.exists(sibling));
+        Assert.assertEquals("original", new String(Files.readAllBytes(original.toPath()), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Utility method to create a file then publish a new content over it.
+     *
+     * @param victim Publisher
+     * @param name   Name of the file
+     * @throws Exception If any error occurs
+     */
+    private static void publish(SiblingFilePublisher victim, String name) throws Exception {
+        File original = new File(WORKING_DIRECTORY, name + ".tmp");
+        Files.write(original.toPath(), "original content, longer than the sanitized content".getBytes(StandardCharsets.UTF_8));
+        Path sibling = victim.createSibling(original);
+        try (OutputStream os = victim.openSibling(sibling)) {
+            os.write(("sanitized " + name).getBytes(StandardCharsets.UTF_8));
+        }
+        victim.publish(sibling, original);
+        Assert.assertFalse(Files.exists(sibling));
+        Assert.assertEquals("sanitized " + name, new String(Files.readAllBytes(original.toPath()), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,88 @@
+package eu.righettod.poc.web;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test cases for the coalescing of the concurrent analysis of the same content.
+ */
+public class AnalysisCoalescerTest {
+
+    /**
+     * Tested class instance
+     */
+    private AnalysisCoalescer victim = new AnalysisCoalescer();
+
+    /**
+     * Test case for requests received while an analysis of the same content is in progress: Only one analysis must be launched and all the
+     * requests must receive its result.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testConcurrentAnalysisOfSameContent() throws Exception {
+        // Prepare test
+        AtomicInteger launchCount = new AtomicInteger();
+        AtomicReference<CompletableFuture<Boolean>> leaderPromise = new AtomicReference<>();
+        // Run test
+        CompletableFuture<Boolean> first = this.victim.analyze("content-a|PDF", promise -> {
+            launchCount.incrementAndGet();
+            leaderPromise.set(promise);
+        });
+        CompletableFuture<Boolean> second = this.victim.analyze("content-a|PDF", promise -> launchCount.incrementAndGet());
+        CompletableFuture<Boolean> otherContent = this.victim.analyze("content-b|PDF", promise -> {
+            launchCount.incrementAndGet();
+            promise.complete(Boolean.FALSE);
+        });
+        Assert.assertFalse(second.isDone());
+        leaderPromise.get().complete(Boolean.TRUE);
+        // Validate test
+        Assert.assertEquals(2, launchCount.get());
+        Assert.assertTrue(first.get());
+        Assert.assertTrue(second.get());
+        Assert.assertFalse(otherContent.get());
+        Assert.assertEquals(1, this.victim.getCoalescedCount());
+        Assert.assertEquals(0, this.victim.getInFlightCount());
+    }
+
+    /**
+     * Test case for a request received after the end of the analysis of the same content: A new analysis must be launched.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testAnalysisAfterCompletion() throws Exception {
+        // Prepare test
+        AtomicInteger launchCount = new AtomicInteger();
+        this.victim.analyze("content-a|PDF", promise -> {
+            launchCount.incrementAndGet();
+            promise.complete(Boolean.TRUE);
+        }).get();
+        // Run test
+        CompletableFuture<Boolean> verdict = this.victim.analyze("content-a|PDF", promise -> {
+            launchCount.incrementAndGet();
+            promise.complete(Boolean.FALSE);
+        });
+        // Validate test
+        Assert.assertEquals(2, launchCount.get());
+        Assert.assertFalse(verdict.get());
+    }
+
+    /**
+     * Test case for an analysis that cannot be launched: The error must be propagated and the content must not stay in progress.
+     */
+    @Test
+    public void testLaunchFailure() {
+        // Run test
+        CompletableFuture<Boolean> verdict = this.victim.analyze("content-a|PDF", promise -> {
+            throw new IllegalStateException("Executor saturated");
+        });
+        // Validate test
+        Assert.assertTrue(verdict.isCompletedExceptionally());
+        Assert.assertEquals(0, this.victim.getInFlightCount());
+    }
+}
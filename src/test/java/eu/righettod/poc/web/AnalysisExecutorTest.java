@@ -0,0 +1,179 @@
+package eu.righettod.poc.web;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Test cases for the bounded analysis executor.
+ */
+public class AnalysisExecutorTest {
+
+    /**
+     * Tested class instance
+     */
+    private AnalysisExecutor victim = new AnalysisExecutor(1, 1);
+
+    /**
+     * Release the executor after a test case execution
+     */
+    @After
+    public void cleanTest() {
+        this.victim.shutdown();
+    }
+
+    /**
+     * Test case for an analysis submitted when the thread and the queue are both used: It must be rejected.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testSubmitWhenSaturated() throws Exception {
+        // Prepare test
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blockingAnalysis = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        this.victim.submit(blockingAnalysis);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        this.victim.submit(blockingAnalysis);
+        // Run test
+        boolean rejected = false;
+        try {
+            this.victim.submit(blockingAnalysis);
+        } catch (RejectedExecutionException e) {
+            rejected = true;
+        }
+        // Validate test
+        release.countDown();
+        Assert.assertTrue(rejected);
+        Assert.assertEquals(1, this.victim.getRejectedCount());
+    }
+
+    /**
+     * Test case for an analysis running longer than its deadline: It must be notified, interrupted and counted as timed out.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testDeadlineExpired() throws Exception {
+        // Prepare test
+        CountDownLatch expired = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Runnable endlessAnalysis = () -> {
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(5));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        };
+        // Run test
+        Future<?> future = this.victim.submit(endlessAnalysis, 100, expired::countDown);
+        // Validate test
+        Assert.assertTrue(expired.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(future.isCancelled());
+        // Counter is updated by the watchdog once the cancellation returned, so after the interruption of the analysis
+        long waitEnd = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (this.victim.getTimedOutCount() == 0 && System.currentTimeMillis() < waitEnd) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, this.victim.getTimedOutCount());
+    }
+
+    /**
+     * Test case for an analysis ignoring the interruption and running longer than its deadline: New analysis must be rejected while it is
+     * still running, then accepted again once it returns.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testSubmitWhenAbandonedStillRunning() throws Exception {
+        // Prepare test
+        AnalysisExecutor abandonLimitedVictim = new AnalysisExecutor(2, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable stubbornAnalysis = () -> {
+            boolean released = false;
+            while (!released) {
+                try {
+                    released = release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Like Aspose and iText: The interruption is ignored
+                }
+            }
+        };
+        boolean rejectedWhileRunning = false;
+        try {
+            abandonLimitedVictim.submit(stubbornAnalysis, 50, () -> {
+            });
+            waitFor(() -> abandonLimitedVictim.getAbandonedRunningCount() == 1);
+            // Run test
+            try {
+                abandonLimitedVictim.submit(() -> {
+                }, 1000, () -> {
+                });
+            } catch (RejectedExecutionException e) {
+                rejectedWhileRunning = true;
+            }
+            release.countDown();
+            waitFor(() -> abandonLimitedVictim.getAbandonedRunningCount() == 0);
+            Future<?> acceptedAfterReturn = abandonLimitedVictim.submit(() -> {
+            });
+            // Validate test
+            acceptedAfterReturn.get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(rejectedWhileRunning);
+            Assert.assertEquals(1, abandonLimitedVictim.getRejectedCount());
+            Assert.assertEquals(1, abandonLimitedVictim.getTimedOutCount());
+        } finally {
+            release.countDown();
+            abandonLimitedVictim.shutdown();
+        }
+    }
+
+    /**
+     * Test case for an analysis ending before its deadline: The deadline handler must never be called.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testDeadlineNotExpired() throws Exception {
+        // Prepare test
+        AtomicBoolean expired = new AtomicBoolean(false);
+        // Run test
+        Future<?> future = this.victim.submit(() -> {
+        }, 200, () -> expired.set(true));
+        future.get(5, TimeUnit.SECONDS);
+        Thread.sleep(400);
+        // Validate test
+        Assert.assertFalse(expired.get());
+        Assert.assertFalse(future.isCancelled());
+        Assert.assertEquals(0, this.victim.getTimedOutCount());
+    }
+
+    /**
+     * Utility method to wait, at most 5 seconds, for a condition updated by the analysis threads.
+     *
+     * @param condition Condition
+     * @throws Exception If the condition is not met in time
+     */
+    private static void waitFor(BooleanSupplier condition) throws Exception {
+        long waitEnd = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < waitEnd) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,230 @@
+package eu.righettod.poc.web;
+
+import eu.righettod.poc.detector.ContainerFormat;
+import eu.righettod.poc.detector.DocumentDetector;
+import eu.righettod.poc.sanitizer.DocumentSanitizer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for the registry of detector/sanitizer instances.<br>
+ * Stress the shared instances from several threads at the same time and verify that the verdicts are the same than the ones obtained
+ * sequentially, in order to prove that the implementations are safe to share.
+ */
+public class DocumentValidatorRegistryTest {
+
+    /**
+     * Home directory of the samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources");
+
+    /**
+     * Working directory
+     */
+    private static final File WORKING_DIRECTORY = new File("target/work/registry");
+
+    /**
+     * Count of threads using the shared instances at the same time
+     */
+    private static final int THREADS_COUNT = 8;
+
+    /**
+     * Count of times each thread validate all the samples
+     */
+    private static final int ITERATIONS_COUNT = 3;
+
+    /**
+     * Samples validated by a detector, by file type
+     */
+    private static final Map<String, String[]> DETECTOR_SAMPLES = new LinkedHashMap<>();
+
+    static {
+        DETECTOR_SAMPLES.put("PDF", new String[]{"pdf/test-no-files-no-js.pdf", "pdf/test-no-files-with-js.pdf", "pdf/test-with-files-no-js.pdf", "pdf/test-with-files-with-js.pdf"});
+        DETECTOR_SAMPLES.put("WORD", new String[]{"word/test-without-macro.doc", "word/test-with-macro.docm", "word/test-with-ole-object.docx", "word/test-without-macro.mhtml"});
+        DETECTOR_SAMPLES.put("EXCEL", new String[]{"excel/test-without-macro.xls", "excel/test-with-macro.xlsm", "excel/test-with-ole-object.xlsx", "excel/test-without-macro.xlsb"});
+        DETECTOR_SAMPLES.put("POWERPOINT", new String[]{"powerpoint/test-without-macro.ppt", "powerpoint/test-with-macro.pptm", "powerpoint/test-with-ole-object.pptx", "powerpoint/test-without-macro.pptx"});
+    }
+
+    /**
+     * Samples validated by the image sanitizer
+     */
+    private static final String[] SANITIZER_SAMPLES = {"image/test-php-inserted-into-exif.jpg", "image/test-php-inserted-into-img.gif", "image/test-exe-renamed-as-img.png"};
+
+    /**
+     * Tested class instance
+     */
+    private DocumentValidatorRegistry victim = DocumentValidatorRegistry.createDefault();
+
+    /**
+     * Initialize workspace before a test case execution
+     */
+    @Before
+    public void initTest() {
+        WORKING_DIRECTORY.mkdirs();
+    }
+
+    /**
+     * Test case for all the supported file types: A detector or a sanitizer must be registered.
+     */
+    @Test
+    public void testSupportedFileTypes() {
+        for (String fileType : DETECTOR_SAMPLES.keySet()) {
+            Assert.assertTrue(this.victim.isSupported(fileType));
+            Assert.assertNotNull(this.victim.getDetector(fileType));
+        }
+        Assert.assertTrue(this.victim.isSupported("IMAGE"));
+        Assert.assertNotNull(this.victim.getSanitizer("IMAGE"));
+        Assert.assertFalse(this.victim.isSupported("EXE"));
+    }
+
+    /**
+     * Test case for the container formats accepted: A content not matching the file type must be rejected.
+     */
+    @Test
+    public void testAcceptedContainerFormats() {
+        Assert.assertTrue(this.victim.isAccepted("POWERPOINT", ContainerFormat.OLE2));
+        Assert.assertTrue(this.victim.isAccepted("WORD", ContainerFormat.XML));
+        Assert.assertTrue(this.victim.isAccepted("IMAGE", ContainerFormat.PNG));
+        Assert.assertFalse(this.victim.isAccepted("POWERPOINT", ContainerFormat.EXECUTABLE));
+        Assert.assertFalse(this.victim.isAccepted("POWERPOINT", ContainerFormat.JPEG));
+        Assert.assertFalse(this.victim.isAccepted("PDF", ContainerFormat.ZIP));
+        Assert.assertFalse(this.victim.isAccepted("IMAGE", ContainerFormat.EXECUTABLE));
+        Assert.assertFalse(this.victim.isAccepted("EXE", ContainerFormat.UNKNOWN));
+    }
+
+    /**
+     * Test case for the shared detectors used concurrently: The verdicts must be the same than the sequential ones.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testDetectorsAreSafeToShare() throws Exception {
+        // Prepare test
+        Map<String, Boolean> expectedVerdicts = new LinkedHashMap<>();
+        for (Map.Entry<String, String[]> samples : DETECTOR_SAMPLES.entrySet()) {
+            DocumentDetector detector = this.victim.getDetector(samples.getKey());
+            for (String sample : samples.getValue()) {
+                expectedVerdicts.put(samples.getKey() + "|" + sample, detector.isSafe(new File(SAMPLES_DIRECTORY, sample)));
+            }
+        }
+        // Run test
+        List<String> mismatches = this.runConcurrently(threadIndex -> {
+            List<String> threadMismatches = new ArrayList<>();
+            for (int i = 0; i < ITERATIONS_COUNT; i++) {
+                for (Map.Entry<String, Boolean> expected : expectedVerdicts.entrySet()) {
+                    String[] parts = expected.getKey().split("\\|");
+                    boolean verdict = this.victim.getDetector(parts[0]).isSafe(new File(SAMPLES_DIRECTORY, parts[1]));
+                    if (verdict != expected.getValue()) {
+                        threadMismatches.add(expected.getKey());
+                    }
+                }
+            }
+            return threadMismatches;
+        });
+        // Validate test
+        Assert.assertTrue("Verdicts differing from the sequential ones: " + mismatches, mismatches.isEmpty());
+    }
+
+    /**
+     * Test case for the shared sanitizer used concurrently: The results must be the same than the sequential ones.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testSanitizerIsSafeToShare() throws Exception {
+        // Prepare test
+        DocumentSanitizer sanitizer = this.victim.getSanitizer("IMAGE");
+        Map<String, Boolean> expectedResults = new LinkedHashMap<>();
+        for (String sample : SANITIZER_SAMPLES) {
+            expectedResults.put(sample, sanitizer.madeSafe(this.copySample(sample, "sequential")));
+        }
+        // Run test
+        List<String> mismatches = this.runConcurrently(threadIndex -> {
+            List<String> threadMismatches = new ArrayList<>();
+            for (int i = 0; i < ITERATIONS_COUNT; i++) {
+                for (Map.Entry<String, Boolean> expected : expectedResults.entrySet()) {
+                    File workingSample = this.copySample(expected.getKey(), "thread" + threadIndex);
+                    if (sanitizer.madeSafe(workingSample) != expected.getValue()) {
+                        threadMismatches.add(expected.getKey());
+                    }
+                }
+            }
+            return threadMismatches;
+        });
+        // Validate test
+        Assert.assertTrue("Results differing from the sequential ones: " + mismatches, mismatches.isEmpty());
+    }
+
+    /**
+     * Utility method to copy a sample into the working directory, using ".tmp" extension to not help the image API to detect the format.
+     *
+     * @param sample Sample path relative to the samples directory
+     * @param prefix Prefix of the working copy name
+     * @return The working copy
+     * @throws Exception If any error occurs
+     */
+    private File copySample(String sample, String prefix) throws Exception {
+        File workingSample = new File(WORKING_DIRECTORY, prefix + "-" + new File(sample).getName() + ".tmp");
+        Files.copy(new File(SAMPLES_DIRECTORY, sample).toPath(), workingSample.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return workingSample;
+    }
+
+    /**
+     * Utility method to run the same task on several threads starting all at the same time.
+     *
+     * @param task Task receiving the thread index and returning the list of mismatches found
+     * @return The mismatches found by all the threads
+     * @throws Exception If any error occurs
+     */
+    private List<String> runConcurrently(ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS_COUNT);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        List<Future<List<String>>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS_COUNT; t++) {
+                final int threadIndex = t;
+                Callable<List<String>> callable = () -> {
+                    startSignal.await();
+                    return task.run(threadIndex);
+                };
+                futures.add(executor.submit(callable));
+            }
+            startSignal.countDown();
+            List<String> mismatches = new ArrayList<>();
+            for (Future<List<String>> future : futures) {
+                mismatches.addAll(future.get(10, TimeUnit.MINUTES));
+            }
+            return mismatches;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Task executed by each thread of the stress test.
+     */
+    private interface ThreadTask {
+
+        /**
+         * @param threadIndex Index of the thread running the task
+         * @return The list of mismatches found
+         * @throws Exception If any error occurs
+         */
+        List<String> run(int threadIndex) throws Exception;
+    }
+}
@@ -0,0 +1,76 @@
+package eu.righettod.poc.web;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+/**
+ * Test cases for the spooling of an uploaded content.
+ */
+public class SpooledUploadTest {
+
+    /**
+     * Home directory of the samples
+     */
+    private static final File SAMPLES_DIRECTORY = new File("src/test/resources/pdf");
+
+    /**
+     * Working directory
+     */
+    private static final File WORKING_DIRECTORY = new File("target/work");
+
+    /**
+     * Initialize workspace before a test case execution
+     */
+    @Before
+    public void initTest() {
+        WORKING_DIRECTORY.mkdirs();
+    }
+
+    /**
+     * Test case for the spooling of a content: The spooled file and the HASH must match the source content.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testSpoolComputeHashDuringCopy() throws Exception {
+        // Prepare test
+        File sample = new File(SAMPLES_DIRECTORY, "test-with-files-with-js.pdf");
+        File target = new File(WORKING_DIRECTORY, "spooled-upload.tmp");
+        byte[] expectedContent = Files.readAllBytes(sample.toPath());
+        String expectedHash = String.format("%064X", new BigInteger(1, MessageDigest.getInstance("sha-256").digest(expectedContent)));
+        // Run test
+        SpooledUpload upload;
+        try (InputStream is = Files.newInputStream(sample.toPath())) {
+            upload = SpooledUpload.spool(is, target, sample.length());
+        }
+        // Validate test
+        Assert.assertEquals(sample.length(), upload.getSize());
+        Assert.assertEquals(expectedHash, upload.getSha256Hex());
+        Assert.assertArrayEquals(expectedContent, Files.readAllBytes(upload.getPath()));
+        Assert.assertEquals(expectedHash, upload.rehash().getSha256Hex());
+    }
+
+    /**
+     * Test case for the spooling of a content with a size different from the announced one.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test(expected = IOException.class)
+    public void testSpoolWithUnexpectedSize() throws Exception {
+        // Prepare test
+        File sample = new File(SAMPLES_DIRECTORY, "test-no-files-no-js.pdf");
+        File target = new File(WORKING_DIRECTORY, "spooled-upload.tmp");
+        // Run test
+        try (InputStream is = Files.newInputStream(sample.toPath())) {
+            SpooledUpload.spool(is, target, sample.length() + 1);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package eu.righettod.poc.web;
+
+import eu.righettod.poc.detector.DocumentDetector;
+import eu.righettod.poc.detector.PdfDocumentDetectorImpl;
+import eu.righettod.poc.detector.WordDocumentDetectorImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Test cases for the verdict cache.
+ */
+public class VerdictCacheTest {
+
+    /**
+     * HASH of a first content
+     */
+    private static final String HASH_A = "AAAA";
+
+    /**
+     * HASH of a second content
+     */
+    private static final String HASH_B = "BBBB";
+
+    /**
+     * Detector used for the verdicts
+     */
+    private DocumentDetector detector = new PdfDocumentDetectorImpl();
+
+    /**
+     * Test case for a verdict stored then retrieved: Only the same content and the same detector must hit.
+     */
+    @Test
+    public void testHitAndMiss() {
+        // Prepare test
+        VerdictCache victim = new VerdictCache(10, 60000);
+        victim.put(HASH_A, this.detector, true);
+        // Run test
+        Boolean sameContent = victim.get(HASH_A, this.detector);
+        Boolean otherContent = victim.get(HASH_B, this.detector);
+        Boolean otherDetector = victim.get(HASH_A, new WordDocumentDetectorImpl());
+        // Validate test
+        Assert.assertEquals(Boolean.TRUE, sameContent);
+        Assert.assertNull(otherContent);
+        Assert.assertNull(otherDetector);
+        Assert.assertEquals(1, victim.getHitCount());
+        Assert.assertEquals(2, victim.getMissCount());
+    }
+
+    /**
+     * Test case for a verdict obtained with a previous version of the detection rules: It must not be reused.
+     */
+    @Test
+    public void testVersionChange() {
+        // Prepare test
+        VerdictCache victim = new VerdictCache(10, 60000);
+        victim.put(HASH_A, this.detector, true);
+        DocumentDetector newVersionDetector = new DocumentDetector() {
+            @Override
+            public boolean isSafe(File f) {
+                return false;
+            }
+
+            @Override
+            public String getVersion() {
+                return "new-version";
+            }
+        };
+        // Run test
+        Boolean verdict = victim.get(HASH_A, newVersionDetector);
+        // Validate test
+        Assert.assertNull(verdict);
+    }
+
+    /**
+     * Test case for a cache full: The least recently used verdict must be evicted.
+     */
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        // Prepare test
+        VerdictCache victim = new VerdictCache(2, 60000);
+        victim.put(HASH_A, this.detector, true);
+        victim.put(HASH_B, this.detector, false);
+        victim.get(HASH_A, this.detector);
+        // Run test
+        victim.put("CCCC", this.detector, true);
+        // Validate test
+        Assert.assertEquals(2, victim.size());
+        Assert.assertEquals(1, victim.getEvictionCount());
+        Assert.assertNull(victim.get(HASH_B, this.detector));
+        Assert.assertEquals(Boolean.TRUE, victim.get(HASH_A, this.detector));
+    }
+
+    /**
+     * Test case for an expired verdict: It must not be returned.
+     *
+     * @throws Exception If any error occurs
+     */
+    @Test
+    public void testExpiration() throws Exception {
+        // Prepare test
+        VerdictCache victim = new VerdictCache(10, 1);
+        victim.put(HASH_A, this.detector, true);
+        Thread.sleep(20);
+        // Run test
+        Boolean verdict = victim.get(HASH_A, this.detector);
+        // Validate test
+        Assert.assertNull(verdict);
+        Assert.assertEquals(0, victim.size());
+        Assert.assertEquals(1, victim.getEvictionCount());
+    }
+}